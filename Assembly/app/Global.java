@@ -7,17 +7,21 @@ import java.sql.SQLException;
 import java.util.concurrent.ConcurrentHashMap;
 
 import net.nationstatesplusplus.assembly.DailyDumps;
+import net.nationstatesplusplus.assembly.EndorsementGraphTask;
 import net.nationstatesplusplus.assembly.FlagUpdateTask;
+import net.nationstatesplusplus.assembly.HappeningsPoller;
 import net.nationstatesplusplus.assembly.HappeningsTask;
 import net.nationstatesplusplus.assembly.NSWikiTask;
 import net.nationstatesplusplus.assembly.NationUpdateTask;
 import net.nationstatesplusplus.assembly.RecruitmentTargetTask;
-import net.nationstatesplusplus.assembly.RepeatingTaskThread;
 import net.nationstatesplusplus.assembly.Start;
+import net.nationstatesplusplus.assembly.TaskScheduler;
 import net.nationstatesplusplus.assembly.UpdateOrderTask;
+import net.nationstatesplusplus.assembly.UpdateTimePredictionTask;
 import net.nationstatesplusplus.assembly.WorldAssemblyTask;
 import net.nationstatesplusplus.assembly.amqp.AMQPConnectionFactory;
 import net.nationstatesplusplus.assembly.amqp.NullAMQPConenctionFactory;
+import net.nationstatesplusplus.assembly.census.CensusHistory;
 import net.nationstatesplusplus.assembly.model.HappeningType;
 import net.nationstatesplusplus.assembly.model.RecruitmentType;
 import net.nationstatesplusplus.assembly.model.websocket.WebsocketManager;
@@ -96,7 +100,32 @@ public class Global extends GlobalSettings {
 		Logger.info("NationStates++ Background Tasks: [ " + (backgroundTasks ? "ENABLED ]" : "DISABLED ]"));
 
 		final MongoClient mongoClient = setupMongoDB(config);
-		this.access = new DatabaseAccess(pool, mongoClient, settings.getChild("cache-size").getInt(1000), manager, backgroundTasks);
+		final CensusHistory censusHistory = new CensusHistory(new File(settings.getChild("census-history").getString("census-history")), Duration.standardDays(60));
+		this.access = new DatabaseAccess(pool, mongoClient, settings.getChild("cache-size").getInt(1000), manager, censusHistory, backgroundTasks);
+
+		//The endorsement graph is kept current by the background tasks and their broadcast changes, rebuilding it only corrects drift
+		final TaskScheduler scheduler = access.getTaskScheduler();
+		scheduler.schedule(Duration.standardSeconds(15), Duration.standardHours(1), new EndorsementGraphTask(access));
+		scheduler.schedule(Duration.standardSeconds(30), Duration.standardMinutes(5), new UpdateTimePredictionTask(access));
+		scheduler.scheduleOnce(Duration.standardSeconds(10), new Runnable() {
+			@Override
+			public void run() {
+				access.getNationDisplayCache().warmUp();
+			}
+		});
+		//Flags, names, region members, regional stats, population history and embassies are kept current by the background tasks, other servers reload them periodically
+		scheduler.schedule(Duration.standardSeconds(10), backgroundTasks ? null : Duration.standardMinutes(30), new Runnable() {
+			@Override
+			public void run() {
+				access.getNationNameIndex().reload();
+				access.getRegionNameIndex().reload();
+				access.getFlagMap().reload();
+				access.getRegionMembershipIndex().reload();
+				access.getRegionalStatsEngine().reload();
+				access.getPopulationHistory().reload();
+				access.getEmbassyGraph().reload();
+			}
+		});
 
 		// Setup background tasks
 		if (backgroundTasks) {
@@ -106,32 +135,24 @@ public class Global extends GlobalSettings {
 			dailyDumps.setDaemon(true);
 			dailyDumps.start();
 
-			//Schedule the task multiple times, staggered 10 seconds apart, repeating each minute
-			HappeningsTask task = new HappeningsTask(access, api);
-			for (int i = 0; i < 12; i++) {
-				schedule(Duration.standardSeconds(5 + 10 * i), Duration.standardMinutes(2), task);
-			}
+			//A single poller, which adapts the poll interval to the rate of new happenings
+			scheduler.scheduleOnce(Duration.standardSeconds(5), new HappeningsPoller(scheduler, new HappeningsTask(access, api)));
 			
-			schedule(Duration.standardSeconds(60), Duration.standardSeconds(31), new NationUpdateTask(api, access, 12, 12));
-			schedule(Duration.standardSeconds(120), Duration.standardSeconds(31), new UpdateOrderTask(api, access));
-			schedule(Duration.standardSeconds(120), Duration.standardSeconds(31), new FlagUpdateTask(api, access));
-			schedule(Duration.standardSeconds(120), Duration.standardSeconds(60), new NSWikiTask(access, config));
-			schedule(Duration.standardSeconds(120), null, new WorldAssemblyTask(access, api, 0));
-			schedule(Duration.standardSeconds(120), null, new WorldAssemblyTask(access, api, 1));
+			scheduler.schedule(Duration.standardSeconds(60), Duration.standardSeconds(31), new NationUpdateTask(api, access, 24));
+			scheduler.schedule(Duration.standardSeconds(120), Duration.standardSeconds(31), new UpdateOrderTask(api, access));
+			scheduler.schedule(Duration.standardSeconds(120), Duration.standardSeconds(31), new FlagUpdateTask(api, access));
+			scheduler.schedule(Duration.standardSeconds(120), Duration.standardSeconds(60), new NSWikiTask(access, config));
+			scheduler.scheduleOnce(Duration.standardSeconds(120), new WorldAssemblyTask(access, api, 0));
+			scheduler.scheduleOnce(Duration.standardSeconds(120), new WorldAssemblyTask(access, api, 1));
 			for (int i = 0; i < RecruitmentType.values().length; i++) {
 				final RecruitmentType type = RecruitmentType.values()[i];
 				//Staggers the tasks 30 seconds apart
-				schedule(Duration.standardMinutes(3).plus(Duration.standardSeconds(30 * i)), Duration.standardMinutes(6), new RecruitmentTargetTask(type, access));
+				scheduler.schedule(Duration.standardMinutes(3).plus(Duration.standardSeconds(30 * i)), Duration.standardMinutes(6), new RecruitmentTargetTask(type, access));
 			}
 			Logger.info("NationStates++ Background Tasks Initialized.");
 		}
 	}
 
-	private static void schedule(Duration initial, Duration repeating, Runnable task) {
-		RepeatingTaskThread thread = new RepeatingTaskThread(initial, repeating, task);
-		thread.start();
-	}
-
 	private static void exitWithError(String error) {
 		exitWithError(error, null);
 	}
@@ -176,6 +197,9 @@ public class Global extends GlobalSettings {
 
 	@Override
 	public void onStop(Application app) {
+		if (access != null) {
+			access.getTaskScheduler().shutdown();
+		}
 		pool.close();
 	}
 
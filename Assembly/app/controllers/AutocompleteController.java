@@ -6,8 +6,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import net.nationstatesplusplus.assembly.autocomplete.NameIndex;
+import net.nationstatesplusplus.assembly.nation.NationDisplay;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 import net.nationstatesplusplus.assembly.util.Utils;
 
@@ -25,13 +28,18 @@ public class AutocompleteController extends DatabaseController {
 		super(access, config);
 	}
 
-	public Result autocompleteNation(String start) throws SQLException {
-		ArrayList<String> nations = new ArrayList<String>();
+	public Result autocompleteNation(String start, String sort) throws SQLException {
 		if (start == null || start.length() < 3) {
 			Utils.handleDefaultPostHeaders(request(), response());
 			return Results.badRequest();
 		}
-		
+		final NameIndex index = getDatabase().getNationNameIndex();
+		if (index.isLoaded()) {
+			return autocomplete(index, start, sort);
+		}
+
+		//Not loaded yet after a restart
+		ArrayList<String> nations = new ArrayList<String>();
 		Connection conn = null;
 		try {
 			conn = getConnection();
@@ -54,6 +62,26 @@ public class AutocompleteController extends DatabaseController {
 		return ok(Json.toJson(nations)).as("application/json");
 	}
 
+	public Result autocompleteRegion(String start, String sort) {
+		if (start == null || start.length() < 3) {
+			Utils.handleDefaultPostHeaders(request(), response());
+			return Results.badRequest();
+		}
+		return autocomplete(getDatabase().getRegionNameIndex(), start, sort);
+	}
+
+	private Result autocomplete(NameIndex index, String start, String sort) {
+		List<String> names = index.search(start.toLowerCase().replaceAll(" ", "_"), 50, NameIndex.Ranking.parse(sort));
+		for (int i = 0; i < names.size(); i++) {
+			names.set(i, WordUtils.capitalizeFully(names.get(i).replaceAll("_", " ")));
+		}
+		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(names.hashCode()));
+		if (result != null) {
+			return result;
+		}
+		return ok(Json.toJson(names)).as("application/json");
+	}
+
 	public Result getFullName(String nation) throws SQLException {
 		if (nation == null || nation.length() < 1) {
 			Utils.handleDefaultGetHeaders(request(), response(), null);
@@ -61,19 +89,9 @@ public class AutocompleteController extends DatabaseController {
 		}
 		
 		Map<String, String> json = new HashMap<String, String>(1);
-		Connection conn = null;
-		try {
-			conn = getConnection();
-			PreparedStatement select = conn.prepareStatement("SELECT full_name FROM assembly.nation WHERE name = ?");
-			select.setString(1, Utils.sanitizeName(nation));
-			ResultSet result = select.executeQuery();
-			if (result.next()) {
-				json.put(nation, result.getString(1));
-			}
-			DbUtils.closeQuietly(result);
-			DbUtils.closeQuietly(select);
-		} finally {
-			DbUtils.closeQuietly(conn);
+		NationDisplay display = getDatabase().getNationDisplayCache().get(nation, "full_name");
+		if (display != null) {
+			json.put(nation, display.getFullName());
 		}
 		
 		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(json.hashCode()));
@@ -90,19 +108,9 @@ public class AutocompleteController extends DatabaseController {
 		}
 		
 		Map<String, String> json = new HashMap<String, String>(1);
-		Connection conn = null;
-		try {
-			conn = getConnection();
-			PreparedStatement select = conn.prepareStatement("SELECT title FROM assembly.nation WHERE name = ?");
-			select.setString(1, Utils.sanitizeName(nation));
-			ResultSet result = select.executeQuery();
-			if (result.next()) {
-				json.put(nation, result.getString(1));
-			}
-			DbUtils.closeQuietly(result);
-			DbUtils.closeQuietly(select);
-		} finally {
-			DbUtils.closeQuietly(conn);
+		NationDisplay display = getDatabase().getNationDisplayCache().get(nation, "title");
+		if (display != null) {
+			json.put(nation, display.getTitle());
 		}
 		
 		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(json.hashCode()));
@@ -1,98 +1,142 @@
 package controllers;
 
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
+import net.nationstatesplusplus.assembly.flag.FlagMap;
+import net.nationstatesplusplus.assembly.nation.NationDisplay;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 import net.nationstatesplusplus.assembly.util.Utils;
 
-import org.apache.commons.dbutils.DbUtils;
 import org.spout.cereal.config.yaml.YamlConfiguration;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.hash.Hashing;
+
 import play.mvc.*;
 import play.libs.Json;
 
 public class FlagController extends DatabaseController {
+	private static final String DEFAULT_FLAG = "//www.nationstates.net/images/flags/Default.png";
+	/**
+	 * Max age of flags requested with the current flag version, which never change
+	 */
+	private static final String VERSIONED_MAX_AGE = "31536000";
 	public FlagController(DatabaseAccess access, YamlConfiguration config) {
 		super(access, config);
 	}
 
 	public Result redirectToNationFlag(String nation) throws SQLException {
-		Connection conn = null;
-		try {
-			conn = getConnection();
-			final String flag = Utils.getNationFlag(nation, conn, null);
-			if (flag != null) {
-				Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(flag.hashCode()), "21600");
-				if (result == null) {
-					return Results.redirect(flag);
-				}
-				return result;
+		final FlagMap flags = getDatabase().getFlagMap();
+		final String cached = flags.isLoaded() ? flags.getNationFlag(Utils.sanitizeName(nation)) : null;
+		final String flag;
+		if (cached != null) {
+			flag = Utils.resolveNationFlag(cached, true, null);
+		} else {
+			try (Connection conn = getConnection()) {
+				flag = Utils.getNationFlag(nation, conn, getDatabase(), null);
 			}
-			Utils.handleDefaultPostHeaders(request(), response());
-			return Results.notFound();
-		} finally {
-			DbUtils.closeQuietly(conn);
 		}
+		return redirectToFlag(flag);
 	}
 
 	public Result redirectToRegionFlag(String region) throws SQLException {
-		Connection conn = null;
-		try {
-			conn = getConnection();
-			final String flag = Utils.getRegionFlag(region, conn, null);
-			if (flag != null) {
-				Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(flag.hashCode()), "21600");
-				if (result == null) {
-					return Results.redirect(flag);
-				}
-				return result;
+		final FlagMap flags = getDatabase().getFlagMap();
+		final String cached = flags.isLoaded() ? flags.getRegionFlag(Utils.sanitizeName(region)) : null;
+		final String flag;
+		if (cached != null) {
+			flag = Utils.resolveRegionFlag(cached, true, null);
+		} else {
+			try (Connection conn = getConnection()) {
+				flag = Utils.getRegionFlag(region, conn, null);
 			}
-			Utils.handleDefaultPostHeaders(request(), response());
-			return Results.notFound();
-		} finally {
-			DbUtils.closeQuietly(conn);
 		}
+		return redirectToFlag(flag);
 	}
 
-	public Result nationFlags(String nations) throws SQLException {
-		String[] nationNames = nations.split(",");
-		Map<String, String> json = new HashMap<String, String>(nationNames.length);
-		Connection conn = null;
-		try {
-			conn = getConnection();
-			for (String nation : nationNames) {
-				json.put(nation, Utils.getNationFlag(nation, conn));
+	private Result redirectToFlag(String flag) {
+		if (flag != null) {
+			Result result = Utils.handleDefaultGetHeaders(request(), response(), calculateEtag(flag), "21600");
+			if (result == null) {
+				return Results.redirect(flag);
 			}
-		} finally {
-			DbUtils.closeQuietly(conn);
+			return result;
 		}
+		Utils.handleDefaultPostHeaders(request(), response());
+		return Results.notFound();
+	}
 
-		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(json.hashCode()), "21600");
-		if (result != null) {
-			return result;
+	public Result nationFlags(String nations, String version) throws SQLException {
+		final FlagMap flags = getDatabase().getFlagMap();
+		final long currentVersion = flags.getVersion();
+		Map<String, String> json = new TreeMap<String, String>();
+		List<String> missing = new ArrayList<String>();
+		for (String nation : nations.split(",")) {
+			final String flag = flags.isLoaded() ? flags.getNationFlag(Utils.sanitizeName(nation)) : null;
+			if (flag != null) {
+				json.put(nation, Utils.resolveNationFlag(flag, true, DEFAULT_FLAG));
+			} else {
+				missing.add(nation);
+			}
 		}
-		return ok(Json.toJson(json)).as("application/json");
+		//Dead or unknown nations
+		if (!missing.isEmpty()) {
+			try (Connection conn = getConnection()) {
+				Map<String, NationDisplay> displays = getDatabase().getNationDisplayCache().getAll(conn, missing, "flag");
+				for (String nation : missing) {
+					json.put(nation, Utils.getNationFlag(displays.get(Utils.sanitizeName(nation)), DEFAULT_FLAG));
+				}
+			}
+		}
+		return flagsResult(json, currentVersion, version);
 	}
 
-	public Result regionFlags(String regions) throws SQLException {
-		String[] regionNames = regions.split(",");
-		Map<String, String> json = new HashMap<String, String>(regionNames.length);
-		Connection conn = null;
-		try {
-			conn = getConnection();
-			for (String region : regionNames) {
-				json.put(region, Utils.getRegionFlag(region, conn));
+	public Result regionFlags(String regions, String version) throws SQLException {
+		final FlagMap flags = getDatabase().getFlagMap();
+		final long currentVersion = flags.getVersion();
+		Map<String, String> json = new TreeMap<String, String>();
+		List<String> missing = new ArrayList<String>();
+		for (String region : regions.split(",")) {
+			final String flag = flags.isLoaded() ? flags.getRegionFlag(Utils.sanitizeName(region)) : null;
+			if (flag != null) {
+				json.put(region, Utils.resolveRegionFlag(flag, true, DEFAULT_FLAG));
+			} else {
+				missing.add(region);
 			}
-		} finally {
-			DbUtils.closeQuietly(conn);
 		}
-		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(json.hashCode()), "21600");
+		//Dead or unknown regions
+		if (!missing.isEmpty()) {
+			try (Connection conn = getConnection()) {
+				for (String region : missing) {
+					json.put(region, Utils.getRegionFlag(region, conn));
+				}
+			}
+		}
+		return flagsResult(json, currentVersion, version);
+	}
+
+	/**
+	 * Returns the flags with a strong ETag of the response body and the current flag version. Requests made with the current
+	 * version are cached for a year, as any change to a flag changes the version.
+	 */
+	private Result flagsResult(Map<String, String> json, long currentVersion, String version) {
+		final JsonNode body = Json.toJson(json);
+		response().setHeader("X-Flag-Version", String.valueOf(currentVersion));
+		response().setHeader("Access-Control-Expose-Headers", "X-Flag-Version");
+		final String maxAge = String.valueOf(currentVersion).equals(version) ? VERSIONED_MAX_AGE : "21600";
+		Result result = Utils.handleDefaultGetHeaders(request(), response(), calculateEtag(body.toString()), maxAge);
 		if (result != null) {
 			return result;
 		}
-		return ok(Json.toJson(json)).as("application/json");
+		return ok(body).as("application/json");
+	}
+
+	private static String calculateEtag(String content) {
+		return "\"" + Hashing.murmur3_128().hashString(content, StandardCharsets.UTF_8).toString() + "\"";
 	}
 }
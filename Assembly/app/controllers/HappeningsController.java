@@ -5,7 +5,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
+import net.nationstatesplusplus.assembly.happenings.Happening;
+import net.nationstatesplusplus.assembly.happenings.HappeningsCache;
+import net.nationstatesplusplus.assembly.happenings.RenderedHappenings;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 import net.nationstatesplusplus.assembly.util.Utils;
 
@@ -26,6 +31,7 @@ import com.limewoodMedia.nsapi.holders.RegionData;
 import com.limewoodMedia.nsapi.holders.RegionHappening;
 
 public class HappeningsController extends DatabaseController {
+	private static final int PAGE_SIZE = 20;
 
 	public HappeningsController(DatabaseAccess access, YamlConfiguration config) {
 		super(access, config);
@@ -40,47 +46,154 @@ public class HappeningsController extends DatabaseController {
 		return Results.status(BAD_REQUEST);
 	}
 
-	public Result regionHappenings(String region, int start) throws SQLException {
+	public Result regionHappenings(String region, int start, String cursor) throws SQLException {
 		start = Math.max(0, start);
 		int regionId = getDatabase().getRegionId(region);
 		if (regionId == -1) {
 			Utils.handleDefaultPostHeaders(request(), response());
 			return Results.noContent();
 		}
-		ArrayList<HappeningData> happenings = new ArrayList<HappeningData>();
-		Connection conn = null;
-		try {
-			conn = getConnection();
-			PreparedStatement statement = conn.prepareStatement("SELECT happening, timestamp FROM assembly.regional_happenings_time WHERE region = ?  ORDER BY timestamp DESC LIMIT " + start + ", 20");
-			statement.setInt(1, regionId);
-			ResultSet result = statement.executeQuery();
-			while(result.next()) {
-				final String happening = Utils.formatHappeningText(result.getString(1), conn, "");
-				HappeningData data = new HappeningData();
-				data.happening = happening;
-				data.timestamp = result.getLong(2);
-				happenings.add(data);
+		final long[] position = parseCursor(cursor);
+		if (position == null) {
+			Utils.handleDefaultPostHeaders(request(), response());
+			return Results.badRequest();
+		}
+		final HappeningsCache cache = getDatabase().getHappeningsCache();
+		final boolean firstPage = start == 0 && position.length == 0;
+		List<Happening> happenings = firstPage ? cache.getRegionHappenings(regionId) : null;
+		if (happenings == null) {
+			try (Connection conn = getConnection()) {
+				happenings = getHappenings(conn, "assembly.regional_happenings_time", "global_id", "region", regionId, regionId, start, position, "");
+			}
+			if (firstPage) {
+				cache.putRegionHappenings(regionId, happenings);
 			}
-			DbUtils.closeQuietly(result);
-			DbUtils.closeQuietly(statement);
-		} finally {
-			DbUtils.closeQuietly(conn);
 		}
-		
-		String calculatedEtag = String.valueOf(happenings.hashCode());
-		Result result = Utils.handleDefaultGetHeaders(request(), response(), calculatedEtag);
+
+		Result result = Utils.handleDefaultGetHeaders(request(), response(), calculateEtag(happenings, start, cursor));
 		if (happenings.isEmpty()) {
+			ArrayList<HappeningData> unknown = new ArrayList<HappeningData>(1);
 			HappeningData data = new HappeningData();
 			data.happening = "Unknown region: " + region;
 			data.timestamp = System.currentTimeMillis() / 1000;
-			happenings.add(data);
+			unknown.add(data);
+			return ok(Json.toJson(unknown)).as("application/json");
 		} else if (result != null) {
 			return result;
 		}
 
+		setNextCursor(happenings);
 		return ok(Json.toJson(happenings)).as("application/json");
 	}
 
+	/**
+	 * Returns a page of happenings, newest first, with the html rendered when they were stored. Pages after the first are found by a cursor (the timestamp and id of the last happening
+	 * of the previous page) so the database seeks to the page instead of reading and discarding the rows before it. The start offset
+	 * is still supported for older clients.
+	 * 
+	 * @param conn to the database
+	 * @param table of happenings
+	 * @param idColumn the column with the global happening id
+	 * @param ownerColumn the column with the region or nation id
+	 * @param ownerId of the region or nation
+	 * @param renderRegion the region the html is rendered for, or {@link RenderedHappenings#NATION_PAGE}
+	 * @param start offset of the page, when there is no cursor
+	 * @param position the cursor, as a timestamp and id, or an empty array for the first page
+	 * @param owner of the happenings, used to format nation names
+	 * @return happenings
+	 * @throws SQLException
+	 */
+	private List<Happening> getHappenings(Connection conn, String table, String idColumn, String ownerColumn, int ownerId, int renderRegion, int start, long[] position, String owner) throws SQLException {
+		final RenderedHappenings rendered = getDatabase().getRenderedHappenings();
+		StringBuilder sql = new StringBuilder("SELECT t.").append(idColumn).append(", t.happening, t.timestamp, h.html FROM ").append(table).append(" AS t");
+		sql.append(" LEFT JOIN assembly.happening_html AS h ON h.global_id = t.").append(idColumn).append(" AND h.region = ?");
+		sql.append(" WHERE t.").append(ownerColumn).append(" = ?");
+		if (position.length > 0) {
+			sql.append(" AND (t.timestamp < ? OR (t.timestamp = ? AND t.").append(idColumn).append(" < ?))");
+		}
+		sql.append(" ORDER BY t.timestamp DESC, t.").append(idColumn).append(" DESC LIMIT ");
+		sql.append(position.length > 0 ? "0" : "?").append(", ").append(PAGE_SIZE);
+		List<Integer> ids = new ArrayList<Integer>(PAGE_SIZE);
+		List<String> html = new ArrayList<String>(PAGE_SIZE);
+		List<Long> timestamps = new ArrayList<Long>(PAGE_SIZE);
+		//Happenings stored before rendering at ingest, or whose html was deleted after a mentioned nation changed
+		List<Integer> unrenderedIds = new ArrayList<Integer>();
+		List<String> unrendered = new ArrayList<String>();
+		try (PreparedStatement statement = conn.prepareStatement(sql.toString())) {
+			statement.setInt(1, renderRegion);
+			statement.setInt(2, ownerId);
+			if (position.length > 0) {
+				statement.setLong(3, position[0]);
+				statement.setLong(4, position[0]);
+				statement.setLong(5, position[1]);
+			} else {
+				statement.setInt(3, start);
+			}
+			try (ResultSet result = statement.executeQuery()) {
+				while (result.next()) {
+					ids.add(result.getInt(1));
+					timestamps.add(result.getLong(3));
+					html.add(result.getString(4));
+					if (result.getString(4) == null) {
+						unrenderedIds.add(result.getInt(1));
+						unrendered.add(result.getString(2));
+					}
+				}
+			}
+		}
+		if (!unrendered.isEmpty()) {
+			//Render the missing happenings at once, looking up every mentioned nation in one query, and store them for the next read
+			List<String> formatted = getDatabase().getHappeningFormatter().formatAll(conn, unrendered, owner);
+			rendered.storeAll(conn, unrenderedIds, renderRegion, unrendered, formatted);
+			for (int i = 0, j = 0; i < html.size(); i++) {
+				if (html.get(i) == null) {
+					html.set(i, formatted.get(j++));
+				}
+			}
+		}
+		List<Happening> happenings = new ArrayList<Happening>(ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			happenings.add(new Happening(ids.get(i), html.get(i), timestamps.get(i)));
+		}
+		return happenings;
+	}
+
+	/**
+	 * Parses a cursor of the form <code>timestamp-id</code>
+	 * 
+	 * @param cursor to parse
+	 * @return the timestamp and id, an empty array if there is no cursor, or null if the cursor is invalid
+	 */
+	private static long[] parseCursor(String cursor) {
+		if (cursor == null || cursor.isEmpty()) {
+			return new long[0];
+		}
+		final int split = cursor.indexOf('-');
+		if (split == -1) {
+			return null;
+		}
+		try {
+			return new long[] { Long.parseLong(cursor.substring(0, split)), Long.parseLong(cursor.substring(split + 1)) };
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * The ETag of a page of happenings is derived from its rows, so it changes when a newer happening is stored or a happening is rendered again
+	 */
+	private static String calculateEtag(List<Happening> happenings, int start, String cursor) {
+		final String page = cursor != null && !cursor.isEmpty() ? cursor : String.valueOf(start);
+		return happenings.hashCode() + ":" + page;
+	}
+
+	private void setNextCursor(List<Happening> happenings) {
+		if (happenings.size() == PAGE_SIZE) {
+			response().setHeader("X-Next-Cursor", happenings.get(happenings.size() - 1).getCursor());
+			response().setHeader("Access-Control-Expose-Headers", "X-Next-Cursor");
+		}
+	}
+
 	private Result doParseHappenings(String region, String xml) throws SQLException {
 		NationStates api = new NationStates();
 		Connection conn = null;
@@ -88,11 +201,15 @@ public class HappeningsController extends DatabaseController {
 		try {
 			RegionData regionData = api.getRegionInfo(api.getInfo(IOUtils.toInputStream(xml)), region);
 			conn = getConnection();
+			List<String> text = new ArrayList<String>(regionData.happenings.size());
 			for (RegionHappening happening : regionData.happenings) {
-				String text = Utils.formatHappeningText(happening.text, conn, "");
+				text.add(happening.text);
+			}
+			List<String> formatted = getDatabase().getHappeningFormatter().formatAll(conn, text, "");
+			for (int i = 0; i < formatted.size(); i++) {
 				HappeningData data = new HappeningData();
-				data.happening = text;
-				data.timestamp = happening.timestamp;
+				data.happening = formatted.get(i);
+				data.timestamp = regionData.happenings.get(i).timestamp;
 				happenings.add(data);
 			}
 		} catch (Exception e) {
@@ -114,38 +231,33 @@ public class HappeningsController extends DatabaseController {
 		return ok(Json.toJson(happenings)).as("application/json");
 	}
 
-	public Result nationHappenings(String nation, int start) throws SQLException {
+	public Result nationHappenings(String nation, int start, String cursor) throws SQLException {
 		start = Math.max(0, start);
-		ArrayList<HappeningData> happenings = new ArrayList<HappeningData>();
+		List<Happening> happenings = Collections.emptyList();
 		if (nation != null && nation.length() > 0) {
 			int nationId = getDatabase().getNationId(nation);
 			if (nationId == -1) {
 				Utils.handleDefaultPostHeaders(request(), response());
 				return Results.noContent();
 			}
-			
-			Connection conn = null;
-			try {
-				conn = getConnection();
-				PreparedStatement statement = conn.prepareStatement("SELECT happening, timestamp FROM assembly.global_happenings WHERE nation = ?  ORDER BY timestamp DESC LIMIT " + start + ", 20");
-				statement.setInt(1, getDatabase().getNationId(nation));
-				ResultSet result = statement.executeQuery();
-				while(result.next()) {
-					final String happening = Utils.formatHappeningText(result.getString(1), conn, nation);
-					HappeningData data = new HappeningData();
-					data.happening = happening;
-					data.timestamp = result.getLong(2);
-					happenings.add(data);
+			final long[] position = parseCursor(cursor);
+			if (position == null) {
+				Utils.handleDefaultPostHeaders(request(), response());
+				return Results.badRequest();
+			}
+			final HappeningsCache cache = getDatabase().getHappeningsCache();
+			final boolean firstPage = start == 0 && position.length == 0;
+			happenings = firstPage ? cache.getNationHappenings(nationId) : null;
+			if (happenings == null) {
+				try (Connection conn = getConnection()) {
+					happenings = getHappenings(conn, "assembly.global_happenings", "id", "nation", nationId, RenderedHappenings.NATION_PAGE, start, position, Utils.sanitizeName(nation));
+				}
+				if (firstPage) {
+					cache.putNationHappenings(nationId, happenings);
 				}
-				
-				DbUtils.closeQuietly(result);
-				DbUtils.closeQuietly(statement);
-			} finally {
-				DbUtils.closeQuietly(conn);
 			}
 		}
-		String calculatedEtag = String.valueOf(happenings.hashCode());
-		Result result = Utils.handleDefaultGetHeaders(request(), response(), calculatedEtag);
+		Result result = Utils.handleDefaultGetHeaders(request(), response(), calculateEtag(happenings, start, cursor));
 
 		if (happenings.isEmpty()) {
 			return Results.noContent();
@@ -153,6 +265,7 @@ public class HappeningsController extends DatabaseController {
 			return result;
 		}
 
+		setNextCursor(happenings);
 		return ok(Json.toJson(happenings)).as("application/json");
 	}
 
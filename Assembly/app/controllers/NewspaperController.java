@@ -21,6 +21,7 @@ import net.nationstatesplusplus.assembly.model.Nation;
 import net.nationstatesplusplus.assembly.model.websocket.NationContext;
 import net.nationstatesplusplus.assembly.model.websocket.PageType;
 import net.nationstatesplusplus.assembly.model.websocket.RequestType;
+import net.nationstatesplusplus.assembly.region.RegionMembershipIndex;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 import net.nationstatesplusplus.assembly.util.Utils;
 
@@ -749,12 +750,27 @@ public class NewspaperController extends NationStatesController {
 				else if (newspaper == ROLEPLAY_NEWS) rType = RequestType.ROLEPLAY_NEWS_SIDEBAR;
 				else {
 					rType = RequestType.REGIONAL_NEWS_SIDEBAR;
-					try (PreparedStatement regionResidents = conn.prepareStatement("SELECT nation.id FROM assembly.nation INNER JOIN assembly.newspapers ON newspapers.region = nation.region WHERE newspapers.id = ?")) {
-						regionResidents.setInt(1, newspaper);
-						try (ResultSet set = regionResidents.executeQuery()) {
-							nations = new HashSet<Integer>();
-							while (set.next()) {
-								nations.add(set.getInt(1));
+					final RegionMembershipIndex members = getDatabase().getRegionMembershipIndex();
+					if (members.isLoaded()) {
+						nations = new HashSet<Integer>();
+						try (PreparedStatement newspaperRegion = conn.prepareStatement("SELECT region FROM assembly.newspapers WHERE id = ?")) {
+							newspaperRegion.setInt(1, newspaper);
+							try (ResultSet set = newspaperRegion.executeQuery()) {
+								if (set.next()) {
+									for (int resident : members.getMembers(set.getInt(1))) {
+										nations.add(resident);
+									}
+								}
+							}
+						}
+					} else {
+						try (PreparedStatement regionResidents = conn.prepareStatement("SELECT nation.id FROM assembly.nation INNER JOIN assembly.newspapers ON newspapers.region = nation.region WHERE newspapers.id = ?")) {
+							regionResidents.setInt(1, newspaper);
+							try (ResultSet set = regionResidents.executeQuery()) {
+								nations = new HashSet<Integer>();
+								while (set.next()) {
+									nations.add(set.getInt(1));
+								}
 							}
 						}
 					}
@@ -6,15 +6,17 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
+import net.nationstatesplusplus.assembly.region.EmbassyGraph;
+import net.nationstatesplusplus.assembly.region.PopulationHistory;
+import net.nationstatesplusplus.assembly.region.RegionMembershipIndex;
+import net.nationstatesplusplus.assembly.region.RegionalStatsEngine;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 import net.nationstatesplusplus.assembly.util.Utils;
 
@@ -22,6 +24,7 @@ import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 import com.fasterxml.jackson.databind.JsonNode;
 
 import org.joda.time.Duration;
@@ -29,13 +32,17 @@ import org.spout.cereal.config.ConfigurationNode;
 import org.spout.cereal.config.yaml.YamlConfiguration;
 
 import play.Logger;
+import play.libs.Akka;
 import play.libs.Json;
 import play.mvc.Result;
+import play.mvc.Results.Chunks;
+import play.mvc.Results.StringChunks;
 import play.mvc.Results;
 
 import com.limewoodMedia.nsapi.NationStates;
 
 public class RegionController extends NationStatesController {
+	private static final String NATION_LIST_DISPATCHER = "akka.actor.nation-lists";
 	private final String imgurClientKey;
 	public RegionController(DatabaseAccess access, YamlConfiguration config, NationStates api) {
 		super(access, config, api);
@@ -50,8 +57,11 @@ public class RegionController extends NationStatesController {
 			return Results.badRequest();
 		}
 		try {
-			conn = getConnection();
-			JsonNode updateTime = getUpdateTime(conn, regionId, std);
+			JsonNode updateTime = getDatabase().getUpdateTimePredictor().getUpdateTime(regionId, std);
+			if (updateTime == null) {
+				conn = getConnection();
+				updateTime = calculateUpdateTime(conn, regionId, std);
+			}
 			Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(updateTime.hashCode()), "60");
 			if (result != null) {
 				return result;
@@ -74,7 +84,18 @@ public class RegionController extends NationStatesController {
 		return -1;
 	}
 
-	public static JsonNode getUpdateTime(Connection conn, int regionId, double std) throws SQLException {
+	/**
+	 * Returns the precomputed update time prediction for the region, or calculates it if the region has no prediction yet
+	 */
+	public static JsonNode getUpdateTime(DatabaseAccess access, Connection conn, int regionId, double std) throws SQLException {
+		JsonNode updateTime = access.getUpdateTimePredictor().getUpdateTime(regionId, std);
+		if (updateTime != null) {
+			return updateTime;
+		}
+		return calculateUpdateTime(conn, regionId, std);
+	}
+
+	private static JsonNode calculateUpdateTime(Connection conn, int regionId, double std) throws SQLException {
 		List<Long> majorData = new ArrayList<Long>(30);
 		List<Long> minorData = new ArrayList<Long>(30);
 		SummaryStatistics minor = new SummaryStatistics();
@@ -261,7 +282,16 @@ public class RegionController extends NationStatesController {
 		return Json.toJson(data);
 	}
 
-	public static JsonNode getRecordPopulation(Connection conn, String region) throws SQLException {
+	public static JsonNode getRecordPopulation(DatabaseAccess access, Connection conn, String region) throws SQLException {
+		final PopulationHistory history = access.getPopulationHistory();
+		if (history.isLoaded() && history.contains(Utils.sanitizeName(region))) {
+			final long[] record = history.getRecord(Utils.sanitizeName(region));
+			HashMap<String, Object> data = new HashMap<String, Object>();
+			data.put("population", record != null ? (int) record[0] : -1);
+			data.put("region", region);
+			data.put("timestamp", record != null ? record[1] : 0);
+			return Json.toJson(data);
+		}
 		PreparedStatement population = conn.prepareStatement("SELECT population, timestamp FROM assembly.region_populations WHERE region = ? ORDER BY population DESC LIMIT 0, 1;");
 		population.setString(1, Utils.sanitizeName(region));
 		ResultSet result = population.executeQuery();
@@ -280,7 +310,7 @@ public class RegionController extends NationStatesController {
 
 	public Result getRegionSummary(String region) throws SQLException {
 		List<Map<String, Object>> regionData = new ArrayList<Map<String, Object>>();
-		if (!region.isEmpty() && getDatabase().getRegionId(region) != -1) {
+		if (!region.isEmpty() && getDatabase().getRegionId(region) != -1 && hasMembers(getDatabase().getRegionId(region))) {
 			try (Connection conn = getConnection()) {
 				try (PreparedStatement statement = conn.prepareStatement("SELECT name, title, flag, influence, wa_member FROM assembly.nation WHERE alive = 1 AND region = ? ORDER BY update_order ASC")) {
 					statement.setInt(1, getDatabase().getRegionId(region));
@@ -305,7 +335,34 @@ public class RegionController extends NationStatesController {
 		return ok(Json.toJson(regionData)).as("application/json");
 	}
 
-	public static JsonNode getEmbassies(Connection conn, String region, int limit) throws SQLException {
+	public Result getRegionStats(String region) {
+		final int regionId = region.isEmpty() ? -1 : getDatabase().getRegionId(region);
+		if (regionId == -1) {
+			Utils.handleDefaultPostHeaders(request(), response());
+			return Results.notFound();
+		}
+		final RegionalStatsEngine engine = getDatabase().getRegionalStatsEngine();
+		if (!engine.isLoaded()) {
+			Utils.handleDefaultPostHeaders(request(), response());
+			response().setHeader("Retry-After", "60");
+			return Results.status(503);
+		}
+		Map<String, Object> stats = engine.getStats(regionId).toJson();
+		stats.put("region", Utils.sanitizeName(region));
+		final JsonNode data = Json.toJson(stats);
+		Result r = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(data.hashCode()), "60");
+		if (r != null) {
+			return r;
+		}
+		return ok(data).as("application/json");
+	}
+
+	public static JsonNode getEmbassies(DatabaseAccess access, Connection conn, String region, int limit) throws SQLException {
+		final EmbassyGraph graph = access.getEmbassyGraph();
+		if (graph.isLoaded()) {
+			final int regionId = access.getRegionId(region);
+			return Json.toJson(regionId != -1 ? graph.getEmbassies(regionId, limit) : new ArrayList<Map<String, String>>());
+		}
 		if (limit <= 0) {
 			limit = Integer.MAX_VALUE;
 		}
@@ -334,8 +391,9 @@ public class RegionController extends NationStatesController {
 		JsonNode data;
 		Connection conn = null;
 		try {
-			conn = getConnection();
-			data = getEmbassies(conn, region, -1);
+			//Embassies are assembled without the database once the embassy graph has loaded
+			conn = getDatabase().getEmbassyGraph().isLoaded() ? null : getConnection();
+			data = getEmbassies(getDatabase(), conn, region, -1);
 		} finally {
 			DbUtils.closeQuietly(conn);
 		}
@@ -347,68 +405,165 @@ public class RegionController extends NationStatesController {
 		return ok(data).as("application/json");
 	}
 
-	public Result getNations(String regions, boolean xml) throws SQLException {
-		Map<String, Object> regionData = new LinkedHashMap<String, Object>();
-		Connection conn = null;
-		try {
-			conn = getConnection();
-			String[] split = regions.split(",");
-			for (int i = 0; i < split.length; i++) {
-				List<String> nations = new ArrayList<String>();
-				int regionId = getDatabase().getRegionId(split[i]);
-				if (regionId != -1) {
-					PreparedStatement statement = conn.prepareStatement("SELECT name FROM assembly.nation WHERE alive = 1 AND region = ? ORDER BY update_order ASC");
-					statement.setInt(1, regionId);
-					ResultSet result = statement.executeQuery();
-					while(result.next()) {
-						nations.add(result.getString(1));
+	public Result getNations(String regions, final boolean xml) {
+		final String[] split = regions.split(",");
+		Utils.handleDefaultPostHeaders(request(), response());
+		//Nations are written as they are read, large regions are never held in memory. The queries block, so they run on their own dispatcher
+		Chunks<String> chunks = new StringChunks() {
+			@Override
+			public void onReady(final Chunks.Out<String> out) {
+				Akka.system().dispatchers().lookup(NATION_LIST_DISPATCHER).execute(new Runnable() {
+					@Override
+					public void run() {
+						writeNations(split, new NationListWriter(out, xml, split.length == 1));
+					}
+				});
+			}
+		};
+		return ok(chunks).as(xml ? "application/xml" : "application/json");
+	}
+
+	private void writeNations(String[] regions, NationListWriter writer) {
+		try (Connection conn = getConnection()) {
+			for (String region : regions) {
+				writer.startRegion(region);
+				final int regionId = getDatabase().getRegionId(region);
+				if (regionId != -1 && hasMembers(regionId)) {
+					try (PreparedStatement statement = conn.prepareStatement("SELECT name FROM assembly.nation WHERE alive = 1 AND region = ? ORDER BY update_order DESC")) {
+						statement.setFetchSize(Integer.MIN_VALUE);
+						statement.setInt(1, regionId);
+						try (ResultSet result = statement.executeQuery()) {
+							while (result.next()) {
+								writer.addNation(result.getString(1));
+							}
+						}
 					}
-					Collections.reverse(nations);
-					DbUtils.closeQuietly(result);
-					DbUtils.closeQuietly(statement);
 				}
-				regionData.put(split[i], nations);
+				writer.endRegion();
 			}
+		} catch (SQLException e) {
+			Logger.error("Unable to write nations of regions [" + Arrays.toString(regions) + "]", e);
 		} finally {
-			DbUtils.closeQuietly(conn);
+			writer.close();
 		}
+	}
 
-		Utils.handleDefaultPostHeaders(request(), response());
-		if (xml) {
-			String data = "<REGIONS>\n\t";
-			for (Entry<String, Object> e : regionData.entrySet()) {
-				data += "<REGION id=\"" + e.getKey() + "\">\n\t\t<NATIONS>";
-				@SuppressWarnings("unchecked")
-				List<String> nations = (List<String>) e.getValue();
-				StringBuilder b = new StringBuilder();
-				int chunk = 0;
-				for (String nation : nations) {
-					if (b.length() / 30000 != chunk) {
-						chunk++;
-						b.append("</NATIONS><NATIONS>");
-					} else if (b.length() > 0) {
-						b.append(":");
-					}
-					b.append(nation);
+	/**
+	 * Whether the region has any living nations, or may have them if the region membership index is not loaded yet
+	 */
+	private boolean hasMembers(int regionId) {
+		final RegionMembershipIndex members = getDatabase().getRegionMembershipIndex();
+		return !members.isLoaded() || members.getPopulation(regionId) > 0;
+	}
+
+	/**
+	 * Writes the nations of regions to a chunked response, in the same format as the nations were returned before they were streamed:
+	 * a json array of nations for a single region, a json object of nation arrays by region for several regions, or xml, splitting the
+	 * colon separated nations of a region into NATIONS elements of about 30,000 characters. Closing the writer closes any region
+	 * left open by an error, so the response is always well formed.
+	 */
+	private static class NationListWriter {
+		private static final int CHUNK_SIZE = 8192;
+		private static final int XML_NATIONS_LENGTH = 30000;
+		private final Chunks.Out<String> out;
+		private final boolean xml;
+		private final boolean single;
+		private final StringBuilder buffer = new StringBuilder(CHUNK_SIZE * 2);
+		private int regions = 0;
+		private int nations = 0;
+		private int length = 0;
+		private int xmlChunk = 0;
+		private boolean regionOpen = false;
+		NationListWriter(Chunks.Out<String> out, boolean xml, boolean single) {
+			this.out = out;
+			this.xml = xml;
+			this.single = single;
+			buffer.append(xml ? "<REGIONS>\n\t" : (single ? "" : "{"));
+		}
+
+		void startRegion(String region) {
+			nations = 0;
+			length = 0;
+			xmlChunk = 0;
+			if (xml) {
+				buffer.append("<REGION id=\"").append(region).append("\">\n\t\t<NATIONS>");
+			} else {
+				if (!single) {
+					buffer.append(regions > 0 ? "," : "").append(quote(region)).append(":");
 				}
-				b.append("</NATIONS>\n\t</REGION>");
-				data += b.toString();
+				buffer.append("[");
 			}
-			data += "\n</REGIONS>";
-			return ok(data).as("application/xml");
-		} else {
-			return ok(Json.toJson(regionData.size() == 1 ? regionData.get(regions.split(",")[0]) : regionData)).as("application/json");
+			regions++;
+			regionOpen = true;
+		}
+
+		void addNation(String nation) {
+			if (xml) {
+				if (length / XML_NATIONS_LENGTH != xmlChunk) {
+					xmlChunk++;
+					buffer.append("</NATIONS><NATIONS>");
+					length += 19;
+				} else if (length > 0) {
+					buffer.append(":");
+					length++;
+				}
+				buffer.append(nation);
+				length += nation.length();
+			} else {
+				buffer.append(nations > 0 ? "," : "").append(quote(nation));
+			}
+			nations++;
+			if (buffer.length() >= CHUNK_SIZE) {
+				flush();
+			}
+		}
+
+		void endRegion() {
+			buffer.append(xml ? "</NATIONS>\n\t</REGION>" : "]");
+			regionOpen = false;
+		}
+
+		void close() {
+			if (regionOpen) {
+				endRegion();
+			} else if (single && !xml && regions == 0) {
+				buffer.append("[]");
+			}
+			buffer.append(xml ? "\n</REGIONS>" : (single ? "" : "}"));
+			flush();
+			out.close();
+		}
+
+		private void flush() {
+			if (buffer.length() > 0) {
+				out.write(buffer.toString());
+				buffer.setLength(0);
+			}
+		}
+
+		private static String quote(String value) {
+			return "\"" + new String(JsonStringEncoder.getInstance().quoteAsString(value)) + "\"";
 		}
 	}
 
-	public Result getPopulationTrends(String region) throws SQLException {
+	public Result getPopulationTrends(String region, int days) throws SQLException {
 		Map<String, Object> data = new HashMap<String, Object>(4);
+		final long from = System.currentTimeMillis() - Duration.standardDays(Math.max(1, days)).getMillis();
+		final PopulationHistory history = getDatabase().getPopulationHistory();
+		if (history.isLoaded() && history.contains(Utils.sanitizeName(region))) {
+			List<Population> population = new ArrayList<Population>();
+			for (long[] sample : history.getRange(Utils.sanitizeName(region), from, System.currentTimeMillis())) {
+				population.add(new Population((int) sample[0], sample[1]));
+			}
+			data.put("region", population);
+			return populationResult(data);
+		}
 		Connection conn = null; 
 		try {
 			conn = getConnection();
 			PreparedStatement statement = conn.prepareStatement("SELECT population, timestamp FROM assembly.region_populations WHERE region = ? AND timestamp > ? ORDER BY TIMESTAMP DESC");
 			statement.setString(1, Utils.sanitizeName(region));
-			statement.setLong(2, System.currentTimeMillis() - Duration.standardDays(30).getMillis());
+			statement.setLong(2, from);
 			ResultSet result = statement.executeQuery();
 			List<Population> population = new ArrayList<Population>();
 			while(result.next()) {
@@ -421,7 +576,10 @@ public class RegionController extends NationStatesController {
 		} finally {
 			DbUtils.closeQuietly(conn);
 		}
+		return populationResult(data);
+	}
 
+	private Result populationResult(Map<String, Object> data) {
 		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(data.hashCode()), "21600");
 		if (result != null) {
 			return result;
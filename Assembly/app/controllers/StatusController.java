@@ -0,0 +1,46 @@
+package controllers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.nationstatesplusplus.assembly.update.UpdateOrderIndex;
+import net.nationstatesplusplus.assembly.util.DatabaseAccess;
+import net.nationstatesplusplus.assembly.util.Utils;
+
+import org.spout.cereal.config.yaml.YamlConfiguration;
+
+import play.libs.Json;
+import play.mvc.Result;
+import play.mvc.Results;
+
+public class StatusController extends DatabaseController {
+	private final String statusKey;
+	public StatusController(DatabaseAccess access, YamlConfiguration config) {
+		super(access, config);
+		statusKey = getConfig().getChild("settings").getChild("status-key").getString(null);
+	}
+
+	public Result getTaskStatus(String key) {
+		Utils.handleDefaultPostHeaders(request(), response());
+		//The status is only available to servers configured with a status key, and requests which know it
+		if (statusKey == null || statusKey.isEmpty() || !MessageDigest.isEqual(statusKey.getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8))) {
+			return Results.forbidden();
+		}
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		status.put("tasks", getDatabase().getTaskScheduler().getStatus());
+		status.put("api", getDatabase().getApiScheduler().getStatistics());
+		UpdateOrderIndex index = getDatabase().getUpdateOrderIndex();
+		Map<String, Object> updateOrder = new LinkedHashMap<String, Object>();
+		updateOrder.put("stale_regions", index.getStaleRegionCount());
+		updateOrder.put("staleness", index.getStaleness());
+		updateOrder.put("last_dump", index.getLastDump());
+		updateOrder.put("last_refresh", index.getLastRefresh());
+		updateOrder.put("refreshed_regions", index.getRefreshedRegions());
+		status.put("update_order", updateOrder);
+		status.put("nation_refresh", getDatabase().getNationRefreshPlanner().getStatistics());
+		status.put("nation_display", getDatabase().getNationDisplayCache().getStatistics());
+		return ok(Json.toJson(status)).as("application/json");
+	}
+}
@@ -11,6 +11,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import net.nationstatesplusplus.assembly.endorsement.Leaderboard;
+import net.nationstatesplusplus.assembly.endorsement.Leaderboard.Ranking;
+import net.nationstatesplusplus.assembly.endorsement.Member;
 import net.nationstatesplusplus.assembly.model.HappeningType;
 import net.nationstatesplusplus.assembly.model.Nation;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
@@ -63,11 +66,33 @@ public class WorldAssemblyController extends DatabaseController {
 
 	public Result getWAMembers(String region) throws SQLException {
 		Map<String, Map<String, Object>> json = new HashMap<String, Map<String, Object>>();
+		final int regionId = getDatabase().getRegionId(region);
+		List<Member> members = getDatabase().getEndorsementGraph().getWAMembers(regionId);
+		if (members != null) {
+			for (Member member : members) {
+				HashMap<String, Object> values = new HashMap<String, Object>();
+				values.put("endorsements", member.getEndorsements());
+				values.put("influence", member.getInfluence());
+				values.put("influence_desc", member.getInfluenceDesc());
+				json.put(member.getTitle(), values);
+			}
+		} else {
+			getWAMembersFromDatabase(regionId, json);
+		}
+
+		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(json.hashCode()));
+		if (result != null) {
+			return result;
+		}
+		return ok(Json.toJson(json)).as("application/json");
+	}
+
+	private void getWAMembersFromDatabase(int regionId, Map<String, Map<String, Object>> json) throws SQLException {
 		Connection conn = null; 
 		try {
 			conn = getConnection();
 			PreparedStatement statement = conn.prepareStatement("SELECT title, influence, influence_desc, count(e.endorsed) AS endorsements from assembly.nation AS n LEFT OUTER JOIN assembly.endorsements AS e ON n.id = e.endorsed WHERE alive = 1 AND wa_member = 1 AND region = ? GROUP BY title;");
-			statement.setInt(1, getDatabase().getRegionId(region));
+			statement.setInt(1, regionId);
 			ResultSet result = statement.executeQuery();
 			while(result.next()) {
 				String nation = result.getString(1);
@@ -82,16 +107,25 @@ public class WorldAssemblyController extends DatabaseController {
 		} finally {
 			DbUtils.closeQuietly(conn);
 		}
+	}
 
-		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(json.hashCode()));
+	public Result getEndorsements(String name, boolean fullData) throws SQLException {
+		List<Object> nations = new ArrayList<Object>();
+		List<Member> members = getDatabase().getEndorsementGraph().getEndorsements(getDatabase().getNationId(name));
+		if (members != null) {
+			toNations(members, fullData, nations);
+		} else {
+			getEndorsementsFromDatabase(name, fullData, nations);
+		}
+
+		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(nations.hashCode()));
 		if (result != null) {
 			return result;
 		}
-		return ok(Json.toJson(json)).as("application/json");
+		return ok(Json.toJson(nations)).as("application/json");
 	}
 
-	public Result getEndorsements(String name, boolean fullData) throws SQLException {
-		List<Object> nations = new ArrayList<Object>();
+	private void getEndorsementsFromDatabase(String name, boolean fullData, List<Object> nations) throws SQLException {
 		Connection conn = null; 
 		try {
 			conn = getConnection();
@@ -107,6 +141,16 @@ public class WorldAssemblyController extends DatabaseController {
 		} finally {
 			DbUtils.closeQuietly(conn);
 		}
+	}
+
+	public Result getMissingEndorsements(String name, boolean fullData) throws SQLException {
+		List<Object> nations = new ArrayList<Object>();
+		List<Member> members = getDatabase().getEndorsementGraph().getMissingEndorsements(getDatabase().getNationId(name));
+		if (members != null) {
+			toNations(members, fullData, nations);
+		} else {
+			getMissingEndorsementsFromDatabase(name, fullData, nations);
+		}
 
 		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(nations.hashCode()));
 		if (result != null) {
@@ -115,8 +159,7 @@ public class WorldAssemblyController extends DatabaseController {
 		return ok(Json.toJson(nations)).as("application/json");
 	}
 
-	public Result getMissingEndorsements(String name, boolean fullData) throws SQLException {
-		List<Object> nations = new ArrayList<Object>();
+	private void getMissingEndorsementsFromDatabase(String name, boolean fullData, List<Object> nations) throws SQLException {
 		Connection conn = null; 
 		try {
 			int nationId = getDatabase().getNationId(name);
@@ -144,6 +187,16 @@ public class WorldAssemblyController extends DatabaseController {
 		} finally {
 			DbUtils.closeQuietly(conn);
 		}
+	}
+
+	public Result getUnreturnedEndorsements(String name, boolean fullData) throws SQLException {
+		List<Object> nations = new ArrayList<Object>();
+		List<Member> members = getDatabase().getEndorsementGraph().getUnreturnedEndorsements(getDatabase().getNationId(name));
+		if (members != null) {
+			toNations(members, fullData, nations);
+		} else {
+			getUnreturnedEndorsementsFromDatabase(name, fullData, nations);
+		}
 
 		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(nations.hashCode()));
 		if (result != null) {
@@ -152,8 +205,7 @@ public class WorldAssemblyController extends DatabaseController {
 		return ok(Json.toJson(nations)).as("application/json");
 	}
 
-	public Result getUnreturnedEndorsements(String name, boolean fullData) throws SQLException {
-		List<Object> nations = new ArrayList<Object>();
+	private void getUnreturnedEndorsementsFromDatabase(String name, boolean fullData, List<Object> nations) throws SQLException {
 		Connection conn = null; 
 		try {
 			int nationId = getDatabase().getNationId(name);
@@ -181,12 +233,54 @@ public class WorldAssemblyController extends DatabaseController {
 		} finally {
 			DbUtils.closeQuietly(conn);
 		}
+	}
 
-		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(nations.hashCode()));
+	/**
+	 * Returns a page of World Assembly members ranked by endorsements or influence, either globally or in a single region.
+	 * 
+	 * @param region to rank, or empty for the global ranking
+	 * @param sort "endorsements" or "influence"
+	 * @param start offset of the first nation
+	 * @param limit number of nations, at most 100
+	 * @return ranked nations
+	 */
+	public Result getRankings(String region, String sort, int start, int limit) {
+		final Ranking ranking = Ranking.getRanking(sort);
+		if (ranking == null || start < 0 || limit < 1) {
+			return badRequest();
+		}
+		final int regionId = region.isEmpty() ? -1 : getDatabase().getRegionId(region);
+		if (!region.isEmpty() && regionId == -1) {
+			return notFound();
+		}
+		final Leaderboard leaderboard = getDatabase().getLeaderboard();
+		List<Map<String, Object>> nations = new ArrayList<Map<String, Object>>();
+		int rank = start + 1;
+		for (Member member : leaderboard.getTop(ranking, regionId, start, Math.min(limit, 100))) {
+			Map<String, Object> nation = new HashMap<String, Object>();
+			nation.put("rank", rank++);
+			nation.put("name", member.getName());
+			nation.put("title", member.getTitle());
+			nation.put("flag", member.getFlag());
+			nation.put("endorsements", member.getEndorsements());
+			nation.put("influence", member.getInfluence());
+			nation.put("influence_desc", member.getInfluenceDesc());
+			nations.add(nation);
+		}
+		Map<String, Object> json = new HashMap<String, Object>();
+		json.put("total", leaderboard.getSize(regionId));
+		json.put("nations", nations);
+		Result result = Utils.handleDefaultGetHeaders(request(), response(), String.valueOf(json.hashCode()), "10");
 		if (result != null) {
 			return result;
 		}
-		return ok(Json.toJson(nations)).as("application/json");
+		return ok(Json.toJson(json)).as("application/json");
+	}
+
+	private static void toNations(List<Member> members, boolean fullData, List<Object> nations) {
+		for (Member member : members) {
+			nations.add(fullData ? member.toNation() : member.getTitle());
+		}
 	}
 
 	public Result getWADelegates() throws SQLException {
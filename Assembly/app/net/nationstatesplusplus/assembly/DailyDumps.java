@@ -8,6 +8,7 @@ import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.concurrent.atomic.AtomicReference;
 
+import net.nationstatesplusplus.assembly.archive.DumpArchives;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 
 import org.apache.commons.io.IOUtils;
@@ -42,6 +43,7 @@ public class DailyDumps implements Runnable {
 	private final AtomicReference<File> latestNationDump = new AtomicReference<File>();
 	private final File regionsDir;
 	private final File nationsDir;
+	private final DumpArchives archives;
 	private final DatabaseAccess access;
 	private final String userAgent;
 	public DailyDumps(DatabaseAccess access, File directory, String userAgent) {
@@ -51,6 +53,7 @@ public class DailyDumps implements Runnable {
 		regionsDir.mkdirs();
 		nationsDir = new File(directory, "nations");
 		nationsDir.mkdirs();
+		archives = new DumpArchives(new File(directory, "archive"));
 	}
 
 	@Override
@@ -102,6 +105,15 @@ public class DailyDumps implements Runnable {
 		return regionsDir;
 	}
 
+	/**
+	 * The columnar archives of every processed nation dump, used for historical queries.
+	 * 
+	 * @return dump archives
+	 */
+	public DumpArchives getArchives() {
+		return archives;
+	}
+
 	/**
 	 * Checks to see if an update to the region daily dump, and if so, downloads the update.
 	 */
@@ -126,6 +138,10 @@ public class DailyDumps implements Runnable {
 					IOUtils.copy(stream, fos);
 					Logger.info("Saved regions dump, size: {}", regionsDump.length());
 				}
+				//Keep the time the dump was generated, which the dump update task relies on
+				if (time > 0) {
+					regionsDump.setLastModified(time);
+				}
 			} else {
 				Logger.debug("Regions dump is up to date");
 			}
@@ -162,7 +178,11 @@ public class DailyDumps implements Runnable {
 					IOUtils.copy(stream, fos);
 					Logger.info("Saved nations dump successfully, size: {}", nationsDump.length());
 				}
-				(new Thread(new DumpUpdateTask(access, getMostRecentRegionDump(), nationsDump), "Daily Dump Update Thread")).start();
+				//Keep the time the dump was generated, which the dump update task relies on
+				if (time > 0) {
+					nationsDump.setLastModified(time);
+				}
+				(new Thread(new DumpUpdateTask(access, getMostRecentRegionDump(), nationsDump, archives), "Daily Dump Update Thread")).start();
 			} else {
 				Logger.debug("Nations dump is up to date");
 			}
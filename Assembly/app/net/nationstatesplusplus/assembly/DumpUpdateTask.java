@@ -2,6 +2,7 @@ package net.nationstatesplusplus.assembly;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -15,9 +16,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import net.nationstatesplusplus.assembly.archive.DumpArchives;
+import net.nationstatesplusplus.assembly.nation.NationDisplay;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 import net.nationstatesplusplus.assembly.util.Utils;
 
+import org.joda.time.format.DateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,11 +39,13 @@ public class DumpUpdateTask implements Runnable {
 	private final File nationDump;
 	private final ComboPooledDataSource pool;
 	private final DatabaseAccess access;
-	public DumpUpdateTask(DatabaseAccess access, File regionDump, File nationDump) {
+	private final DumpArchives archives;
+	public DumpUpdateTask(DatabaseAccess access, File regionDump, File nationDump, DumpArchives archives) {
 		this.pool = access.getPool();
 		this.access = access;
 		this.regionDump = regionDump;
 		this.nationDump = nationDump;
+		this.archives = archives;
 	}
 
 	@Override
@@ -48,11 +54,23 @@ public class DumpUpdateTask implements Runnable {
 			logger.info("Starting daily dumps update task with [{}] & [{}]", regionDump.getName(), nationDump.getName());
 			RegionsDump regions = new RegionsDump(regionDump);
 			regions.parse();
-			updateRegions(regions);
+			final Map<String, Integer> updateOrder = updateRegions(regions);
 			
 			NationsDump nations = new NationsDump(nationDump);
 			nations.parse();
 			updateNations(nations);
+
+			if (updateOrder != null) {
+				updateNationOrder(updateOrder);
+				//The update order is read from the regions dump, which is as old as the time it was generated
+				access.getUpdateOrderIndex().onDumpProcessed(regionDump.lastModified());
+			}
+			//Living nations, regions, embassies and census scores have changed, rebuild autocomplete, regional stats and embassies
+			access.getNationNameIndex().reload();
+			access.getRegionNameIndex().reload();
+			access.getRegionMembershipIndex().reload();
+			access.getRegionalStatsEngine().reload();
+			access.getEmbassyGraph().reload();
 			
 			logger.info("Finished daily dumps update task");
 		} catch (FileNotFoundException e) {
@@ -65,8 +83,9 @@ public class DumpUpdateTask implements Runnable {
 	 * information from the dump. New regions are added and old regions are marked as dead.
 	 * 
 	 * @param dump
+	 * @return the update order of every nation in the dump, or null if the regions could not be updated
 	 */
-	private void updateRegions(RegionsDump dump) {
+	private Map<String, Integer> updateRegions(RegionsDump dump) {
 		try (Connection h2Conn = dump.getDatabaseConnection()) {
 			final Set<String> dumpRegions = new HashSet<String>(20000);
 			try (PreparedStatement statement = h2Conn.prepareStatement("SELECT name FROM regions")) {
@@ -78,6 +97,7 @@ public class DumpUpdateTask implements Runnable {
 			}
 			logger.info("Updating {} regions from daily dump", dumpRegions.size());
 			int newRegions = 0;
+			final Map<String, Integer> populations = new HashMap<String, Integer>(dumpRegions.size());
 
 			List<List<String>> regionLists = Lists.partition(new ArrayList<String>(dumpRegions), 1000);
 			for (List<String> regions : regionLists) {
@@ -87,6 +107,7 @@ public class DumpUpdateTask implements Runnable {
 							select.setString(1, region);
 							try (ResultSet result = select.executeQuery()) {
 								result.next();
+								populations.put(region, result.getInt(5));
 								newRegions += updateRegion(conn, region, result.getString(1), result.getString(2), result.getString(3), result.getString(4), result.getInt(5), result.getInt(6), result.getString(7));
 							}
 						}
@@ -94,6 +115,9 @@ public class DumpUpdateTask implements Runnable {
 				}
 			}
 			logger.info("Added {} regions to the database", newRegions);
+			try (Connection conn = pool.getConnection()) {
+				access.getPopulationHistory().record(conn, populations, System.currentTimeMillis());
+			}
 			Set<String> allRegions = new HashSet<String>(20000);
 			try (Connection conn = pool.getConnection()) {
 				try (PreparedStatement select = conn.prepareStatement("SELECT name FROM assembly.region WHERE alive = 1")) {
@@ -111,11 +135,75 @@ public class DumpUpdateTask implements Runnable {
 					access.markRegionDead(region, conn);
 				}
 			}
+			final Map<String, Integer> updateOrder = readNationOrder(h2Conn);
 			h2Conn.prepareStatement("DROP TABLE regions").execute();
 			h2Conn.prepareStatement("SHUTDOWN COMPACT").execute();
+			return updateOrder;
 		} catch (Exception e) {
 			logger.error("unable to update region dumps", e);
 		}
+		return null;
+	}
+
+	/**
+	 * Reads the update order of every nation from the nation lists of the regions in the dump. Nations are listed in the
+	 * same order as the region nations api shard, so the update order of a nation is the number of nations listed after it, plus one.
+	 * 
+	 * @param h2Conn
+	 * @return map of nation name to update order
+	 * @throws SQLException
+	 */
+	private static Map<String, Integer> readNationOrder(Connection h2Conn) throws SQLException {
+		final Map<String, Integer> updateOrder = new HashMap<String, Integer>(300000);
+		try (PreparedStatement select = h2Conn.prepareStatement("SELECT nations FROM regions")) {
+			try (ResultSet result = select.executeQuery()) {
+				while (result.next()) {
+					final String nations = result.getString(1);
+					if (nations == null || nations.isEmpty()) {
+						continue;
+					}
+					final String[] split = nations.split(":");
+					for (int i = 0; i < split.length; i++) {
+						updateOrder.put(Utils.sanitizeName(split[i]), split.length - i);
+					}
+				}
+			}
+		}
+		return updateOrder;
+	}
+
+	/**
+	 * Writes the nation update order read from the region dump, only nations whose update order changed are written.
+	 * 
+	 * @param updateOrder map of nation name to update order
+	 */
+	private void updateNationOrder(Map<String, Integer> updateOrder) {
+		try (Connection conn = pool.getConnection()) {
+			final List<String> changed = new ArrayList<String>();
+			try (PreparedStatement select = conn.prepareStatement("SELECT name, update_order FROM assembly.nation WHERE alive = 1")) {
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						Integer order = updateOrder.get(result.getString(1));
+						if (order != null && order.intValue() != result.getInt(2)) {
+							changed.add(result.getString(1));
+						}
+					}
+				}
+			}
+			logger.info("Updating the update order of {} nations from daily dump", changed.size());
+			try (PreparedStatement update = conn.prepareStatement("UPDATE assembly.nation SET update_order = ? WHERE name = ?")) {
+				for (List<String> nations : Lists.partition(changed, 1000)) {
+					for (String nation : nations) {
+						update.setInt(1, updateOrder.get(nation));
+						update.setString(2, nation);
+						update.addBatch();
+					}
+					update.executeBatch();
+				}
+			}
+		} catch (SQLException e) {
+			logger.error("unable to update nation update order", e);
+		}
 	}
 
 	/**
@@ -145,16 +233,11 @@ public class DumpUpdateTask implements Runnable {
 		}
 
 		logger.debug("Updating region [{}] from the daily dump [numnations: {}]", region, numNations);
-		try (PreparedStatement insert = conn.prepareStatement("INSERT INTO assembly.region_populations (region, population, timestamp) VALUES (?, ?, ?)")) {
-			insert.setString(1, region);
-			insert.setInt(2, numNations);
-			insert.setLong(3, System.currentTimeMillis());
-			insert.executeUpdate();
-		}
 
 		if (flag.startsWith("http://")) {
 			flag = "//" + flag.substring(7);
 		}
+		access.getFlagMap().putRegion(region, flag);
 
 		if (regionId == -1) {
 			try (PreparedStatement insert = conn.prepareStatement("INSERT INTO assembly.region (name, title, flag, delegate, founder, alive, population, update_order, embassies) VALUES (?, ?, ?, ?, ?, 1, ?, ?, ?)")) {
@@ -291,6 +374,7 @@ public class DumpUpdateTask implements Runnable {
 					access.markNationDead(nation, conn);
 				}
 			}
+			archiveNations(h2Conn);
 			h2Conn.prepareStatement("DROP TABLE nations").execute();
 			h2Conn.prepareStatement("SHUTDOWN COMPACT").execute();
 			try (Connection conn = pool.getConnection()) {
@@ -310,6 +394,23 @@ public class DumpUpdateTask implements Runnable {
 		}
 	}
 
+	/**
+	 * Writes the nations from the h2 database to the columnar dump archive, dated from the nation dump file name.
+	 * Failures are logged and do not prevent the rest of the dump update.
+	 * 
+	 * @param h2Conn
+	 */
+	private void archiveNations(Connection h2Conn) {
+		if (archives == null) {
+			return;
+		}
+		try {
+			archives.archive(h2Conn, DateTimeFormat.forPattern("yyyy-MM-dd").parseLocalDate(nationDump.getName().substring(0, 10)));
+		} catch (SQLException | IOException | IllegalArgumentException e) {
+			logger.error("unable to archive nation dump " + nationDump.getName(), e);
+		}
+	}
+
 	/**
 	 * Updates an individual nations name, title, wa membership status, influence, last login, flag and region
 	 * 
@@ -329,13 +430,15 @@ public class DumpUpdateTask implements Runnable {
 		int id = -1;
 		int prevRegion = -1;
 		boolean wasWA = false;
-		try (PreparedStatement select = conn.prepareStatement("SELECT id, wa_member, region FROM assembly.nation WHERE name = ?")) {
+		NationDisplay previous = null;
+		try (PreparedStatement select = conn.prepareStatement("SELECT id, wa_member, region, full_name, title, flag, alive FROM assembly.nation WHERE name = ?")) {
 			select.setString(1, nation);
 			try (ResultSet result = select.executeQuery()) {
 				if (result.next()) {
 					id = result.getInt(1);
 					wasWA = result.getBoolean(2);
 					prevRegion = result.getInt(3);
+					previous = new NationDisplay(nation, result.getString(4), result.getString(5), result.getString(6), result.getBoolean(7), result.getInt(2));
 				}
 			}
 		}
@@ -369,6 +472,7 @@ public class DumpUpdateTask implements Runnable {
 				insert.setLong(10, System.currentTimeMillis() / 1000L);
 				insert.executeUpdate();
 			}
+			access.getFlagMap().putNation(nation, flag);
 			return 1;
 		} else {
 			try (PreparedStatement update = conn.prepareStatement("UPDATE assembly.nation SET alive = 1, full_name = ?, title = ?, flag = ?, region = ?, influence_desc = ?, last_login = ?, wa_member = ? WHERE id = ?")) {
@@ -384,14 +488,19 @@ public class DumpUpdateTask implements Runnable {
 				//wa_member = 2 is for wa-members who recently moved
 				//When a WA member moves region, they do not immediately lose their endorsements
 				//I blame Max for this funky behavior
-				if (prevRegion != regionId && wasWA) {
-					update.setByte(7, (byte)(2));
-				} else {
-					update.setByte(7, (byte)(waMember ? 1 : 0));
-				}
+				final int waStatus = prevRegion != regionId && wasWA ? 2 : (waMember ? 1 : 0);
+				update.setByte(7, (byte)waStatus);
 				update.setInt(8, id);
 				update.executeUpdate();
+				final NationDisplay display = new NationDisplay(nation, fullName, title, flag, true, waStatus);
+				access.getNationDisplayCache().refresh(display);
+				//Happenings mentioning the nation are rendered with its previous flag, names or status
+				if (!display.equals(previous)) {
+					access.getRenderedHappenings().onNationChanged(conn, id);
+					access.getNationDisplayCache().broadcastChange(nation);
+				}
 			}
+			access.getFlagMap().putNation(nation, flag);
 			return 0;
 		}
 	}
@@ -0,0 +1,27 @@
+package net.nationstatesplusplus.assembly;
+
+import java.sql.SQLException;
+
+import net.nationstatesplusplus.assembly.util.DatabaseAccess;
+
+import play.Logger;
+
+/**
+ * Rebuilds the in-memory endorsement graph from the database. Servers running background tasks keep the
+ * graph current from happenings and broadcast their changes to the other servers, so this only corrects drift.
+ */
+public class EndorsementGraphTask implements Runnable {
+	private final DatabaseAccess access;
+	public EndorsementGraphTask(DatabaseAccess access) {
+		this.access = access;
+	}
+
+	@Override
+	public void run() {
+		try {
+			access.getEndorsementGraph().reload();
+		} catch (SQLException e) {
+			Logger.error("Unable to reload endorsement graph", e);
+		}
+	}
+}
@@ -4,9 +4,11 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
 
+import net.nationstatesplusplus.assembly.api.ApiPriority;
+import net.nationstatesplusplus.assembly.nation.NationDisplay;
+import net.nationstatesplusplus.assembly.refresh.RefreshQueue;
+import net.nationstatesplusplus.assembly.refresh.RefreshType;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 import net.nationstatesplusplus.assembly.util.Utils;
 
@@ -20,14 +22,14 @@ import com.limewoodMedia.nsapi.exceptions.UnknownRegionException;
 import com.limewoodMedia.nsapi.holders.RegionData;
 
 /**
- * Updates the flag urls in the database for nations and regions who have recently changed their flags
+ * Updates the flag urls in the database for nations and regions who have recently changed their flags, and fills in new regions,
+ * taking them from the {@link RefreshQueue}
  */
 public class FlagUpdateTask implements Runnable {
 	private static final Logger logger = LoggerFactory.getLogger(FlagUpdateTask.class);
 	private final NationStates api;
 	private final DatabaseAccess access;
-	private LinkedHashSet<Integer> regionsToUpdate = new LinkedHashSet<Integer>();
-	private LinkedHashSet<Integer> nationsToUpdate = new LinkedHashSet<Integer>();
+	private boolean seeded = false;
 	public FlagUpdateTask(NationStates api, DatabaseAccess access) {
 		this.api = api;
 		this.access = access;
@@ -36,12 +38,13 @@ public class FlagUpdateTask implements Runnable {
 	@Override
 	public void run() {
 		try (Connection conn = access.getPool().getConnection()) {
-			updateFlagQueues(conn);
+			if (!seeded) {
+				//Regions founded while the happenings were not being processed
+				logger.info("Queued {} regions without population", access.getRefreshQueue().addRegionsWithoutPopulation(conn));
+				seeded = true;
+			}
 
-			logger.debug("{} Region Flag Updates Pending", regionsToUpdate.size());
 			updateRegionFlags(conn, 2);
-
-			logger.debug("{} Nation Flag Updates Pending", nationsToUpdate.size());
 			updateNationFlags(conn, 2);
 		} catch (RateLimitReachedException e) {
 			logger.warn("Flag update task rate limited!");
@@ -51,9 +54,13 @@ public class FlagUpdateTask implements Runnable {
 	}
 
 	private void updateRegionFlags(Connection conn, int amount) throws SQLException {
-		Iterator<Integer> iter = regionsToUpdate.iterator();
-		for (int i = 0; i < amount && iter.hasNext(); i++) {
-			final int region = iter.next();
+		final RefreshQueue queue = access.getRefreshQueue();
+		for (RefreshQueue.Entry entry : queue.peek(conn, RefreshType.REGION, amount)) {
+			if (!access.getApiScheduler().acquire(ApiPriority.FLAGS, Duration.standardSeconds(5).getMillis())) {
+				logger.debug("No api requests available for region flag updates");
+				return;
+			}
+			final int region = entry.getId();
 			try (PreparedStatement select = conn.prepareStatement("SELECT name FROM assembly.region WHERE id = ?")) {
 				select.setInt(1, region);
 				try (ResultSet result = select.executeQuery()) {
@@ -74,66 +81,50 @@ public class FlagUpdateTask implements Runnable {
 								updateFlag.setInt(5, region);
 								updateFlag.executeUpdate();
 							}
+							access.getFlagMap().putRegion(name, flag);
 							logger.info("Updated region [" + name + "].");
 						} catch (UnknownRegionException e) {
 							access.markRegionDead(name, conn);
+						} catch (RateLimitReachedException e) {
+							throw e;
+						} catch (RuntimeException e) {
+							logger.warn("Unable to update region [" + name + "]", e);
+							queue.fail(conn, entry);
+							continue;
 						}
 					}
 				}
 			}
-			iter.remove();
+			queue.complete(conn, entry);
 		}
 	}
 
 	private void updateNationFlags(Connection conn, int amount) throws SQLException {
-		Iterator<Integer> iter = nationsToUpdate.iterator();
-		for (int i = 0; i < amount && iter.hasNext(); i++) {
-			final int nation = iter.next();
-			try (PreparedStatement select = conn.prepareStatement("SELECT name FROM assembly.nation WHERE id = ?")) {
+		final RefreshQueue queue = access.getRefreshQueue();
+		for (RefreshQueue.Entry entry : queue.peek(conn, RefreshType.NATION, amount)) {
+			if (!access.getApiScheduler().acquire(ApiPriority.FLAGS, Duration.standardSeconds(5).getMillis())) {
+				logger.debug("No api requests available for nation flag updates");
+				return;
+			}
+			final int nation = entry.getId();
+			try (PreparedStatement select = conn.prepareStatement("SELECT name, full_name, title, flag, alive, wa_member FROM assembly.nation WHERE id = ?")) {
 				select.setInt(1, nation);
 				try (ResultSet result = select.executeQuery()) {
 					if (result.next()) {
 						String name = result.getString(1);
-						Utils.updateNation(conn, access, api, name, nation);
+						try {
+							Utils.updateNation(conn, access, api, name, nation, new NationDisplay(name, result.getString(2), result.getString(3), result.getString(4), result.getBoolean(5), result.getInt(6)));
+						} catch (RateLimitReachedException e) {
+							throw e;
+						} catch (RuntimeException e) {
+							logger.warn("Unable to update nation [" + name + "]", e);
+							queue.fail(conn, entry);
+							continue;
+						}
 					}
 				}
 			}
-			iter.remove();
-		}
-	}
-
-	/**
-	 * Checks the region and nation global happenings for changes to region and national flags and adds them to the queue to be updated
-	 * @param conn
-	 * @throws SQLException
-	 */
-	private void updateFlagQueues(Connection conn) throws SQLException {
-		final long time = System.currentTimeMillis() - Duration.standardMinutes(2).getMillis();
-		try (PreparedStatement select = conn.prepareStatement("SELECT r.region FROM (assembly.global_happenings AS g LEFT JOIN assembly.regional_happenings AS r ON g.id = r.global_id) WHERE g.type = 41 AND g.timestamp > ? GROUP by g.nation ORDER BY g.timestamp ASC")) {
-			select.setLong(1, time);
-			try (ResultSet result = select.executeQuery()) {
-				while(result.next()) {
-					regionsToUpdate.add(result.getInt(1));
-				}
-			}
-		}
-
-		//These are brand new regions not created from the daily dumps (or else their population would be non-zero)
-		try (PreparedStatement select = conn.prepareStatement("SELECT id FROM assembly.region WHERE alive = 1 AND population = 0 LIMIT 0, 100")) {
-			try (ResultSet result = select.executeQuery()) {
-				while(result.next()) {
-					regionsToUpdate.add(result.getInt(1));
-				}
-			}
-		}
-
-		try (PreparedStatement select = conn.prepareStatement("SELECT nation FROM assembly.global_happenings WHERE type = 7 AND timestamp > ? ORDER BY timestamp ASC")) {
-			select.setLong(1, time);
-			try (ResultSet result = select.executeQuery()) {
-				while(result.next()) {
-					nationsToUpdate.add(result.getInt(1));
-				}
-			}
+			queue.complete(conn, entry);
 		}
 	}
 }
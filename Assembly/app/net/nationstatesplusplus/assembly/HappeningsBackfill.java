@@ -0,0 +1,154 @@
+package net.nationstatesplusplus.assembly;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.nationstatesplusplus.assembly.api.ApiPriority;
+import net.nationstatesplusplus.assembly.api.ApiScheduler;
+
+import org.apache.commons.io.IOUtils;
+import org.joda.time.Duration;
+
+import play.Logger;
+
+import com.limewoodMedia.nsapi.holders.HappeningData.EventHappening;
+
+/**
+ * <p>
+ * Recovers happenings that were skipped because more happenings occurred between two polls than fit in one page. The
+ * NationStates api library has no support for <code>beforeid</code>, so pages are requested directly from the api and
+ * parsed with StAX. Each page uses a token from the {@link ApiScheduler}, and the backfill stops at the page limit or when
+ * no token is available, so a backfill never takes budget away from regular polling for long.
+ * </p>
+ */
+public class HappeningsBackfill {
+	private static final String API_URL = "https://www.nationstates.net/cgi-bin/api.cgi?q=happenings;limit=%d;sinceid=%d;beforeid=%d";
+	private static final int MAX_PAGES = 10;
+	private final ApiScheduler scheduler;
+	private final String userAgent;
+	private final XMLInputFactory factory = XMLInputFactory.newInstance();
+	private long recoveredEvents = 0;
+	private long lostEvents = 0;
+	public HappeningsBackfill(ApiScheduler scheduler, String userAgent) {
+		this.scheduler = scheduler;
+		this.userAgent = userAgent;
+	}
+
+	/**
+	 * Fetches the happenings with event ids strictly between sinceId and beforeId, newest first, paging backwards until the
+	 * range is complete, the page limit is reached, or no api tokens are available.
+	 *
+	 * @param sinceId the last event id received before the gap
+	 * @param beforeId the oldest event id received after the gap
+	 * @return recovered happenings, newest first
+	 */
+	public synchronized List<EventHappening> backfill(int sinceId, int beforeId) {
+		List<EventHappening> recovered = new ArrayList<EventHappening>();
+		int before = beforeId;
+		boolean complete = false;
+		for (int page = 0; page < MAX_PAGES && !complete; page++) {
+			if (!scheduler.acquire(ApiPriority.HAPPENINGS, Duration.standardSeconds(5).getMillis())) {
+				Logger.warn("Stopping happenings backfill, no api requests available");
+				break;
+			}
+			List<EventHappening> happenings;
+			try {
+				happenings = fetch(sinceId, before);
+			} catch (IOException | XMLStreamException e) {
+				Logger.warn("Unable to backfill happenings between " + sinceId + " and " + before, e);
+				break;
+			}
+			int oldest = before;
+			for (EventHappening happening : happenings) {
+				if (happening.eventId > sinceId && happening.eventId < before) {
+					recovered.add(happening);
+					oldest = Math.min(oldest, happening.eventId);
+				}
+			}
+			//A partial page means there is nothing older left in the range
+			complete = happenings.size() < HappeningsPoller.PAGE_SIZE || oldest == before || oldest - sinceId <= 1;
+			before = oldest;
+		}
+		recoveredEvents += recovered.size();
+		if (!complete) {
+			lostEvents += before - sinceId - 1;
+			Logger.warn("Happenings backfill incomplete, event ids " + (sinceId + 1) + " to " + (before - 1) + " were lost");
+		}
+		Logger.info("Recovered {} happenings between event ids {} and {}", recovered.size(), sinceId, beforeId);
+		return recovered;
+	}
+
+	private List<EventHappening> fetch(int sinceId, int beforeId) throws IOException, XMLStreamException {
+		HttpURLConnection conn = (HttpURLConnection)(new URL(String.format(API_URL, HappeningsPoller.PAGE_SIZE, sinceId, beforeId))).openConnection();
+		conn.setRequestProperty("User-Agent", userAgent);
+		conn.setConnectTimeout((int) Duration.standardSeconds(10).getMillis());
+		conn.setReadTimeout((int) Duration.standardSeconds(30).getMillis());
+		conn.connect();
+		if (conn.getResponseCode() / 100 != 2) {
+			throw new IOException("Unexpected response code from happenings api: " + conn.getResponseCode());
+		}
+		InputStream stream = null;
+		XMLStreamReader reader = null;
+		try {
+			stream = conn.getInputStream();
+			reader = factory.createXMLStreamReader(stream);
+			List<EventHappening> happenings = new ArrayList<EventHappening>(HappeningsPoller.PAGE_SIZE);
+			int id = -1;
+			long timestamp = 0;
+			String text = null;
+			while (reader.hasNext()) {
+				final int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					final String name = reader.getLocalName();
+					if ("EVENT".equals(name)) {
+						id = Integer.parseInt(reader.getAttributeValue(null, "id"));
+						timestamp = 0;
+						text = null;
+					} else if ("TIMESTAMP".equals(name)) {
+						timestamp = Long.parseLong(reader.getElementText().trim());
+					} else if ("TEXT".equals(name)) {
+						text = reader.getElementText();
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT && "EVENT".equals(reader.getLocalName())) {
+					if (id != -1 && text != null) {
+						happenings.add(new EventHappening(timestamp, text, id));
+					}
+					id = -1;
+				}
+			}
+			return happenings;
+		} finally {
+			if (reader != null) {
+				reader.close();
+			}
+			IOUtils.closeQuietly(stream);
+		}
+	}
+
+	/**
+	 * The number of happenings recovered by backfills
+	 *
+	 * @return recovered happenings
+	 */
+	public synchronized long getRecoveredEvents() {
+		return recoveredEvents;
+	}
+
+	/**
+	 * The number of event ids that could not be backfilled, an upper bound for the number of lost happenings
+	 *
+	 * @return lost event ids
+	 */
+	public synchronized long getLostEvents() {
+		return lostEvents;
+	}
+}
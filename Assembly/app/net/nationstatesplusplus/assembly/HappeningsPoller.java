@@ -0,0 +1,101 @@
+package net.nationstatesplusplus.assembly;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.joda.time.Duration;
+
+import play.Logger;
+
+/**
+ * <p>
+ * Polls the happenings api with a single {@link HappeningsTask}, one poll at a time. The interval between polls adapts to
+ * the rate of new happenings: it is aimed at filling about half a page of happenings per poll, drops to the minimum when
+ * a poll comes close to a full page (during the update), and backs off towards the maximum while no new happenings arrive
+ * or polls fail.
+ * </p><p>
+ * Each run polls once and reschedules the poller on the {@link TaskScheduler}, so polls never overlap.
+ * </p>
+ */
+public class HappeningsPoller implements TaskScheduler.MonitoredTask {
+	private static final long MIN_INTERVAL = Duration.standardSeconds(2).getMillis();
+	private static final long MAX_INTERVAL = Duration.standardSeconds(30).getMillis();
+	/**
+	 * The maximum number of happenings returned by a single api request
+	 */
+	public static final int PAGE_SIZE = 100;
+	private final TaskScheduler scheduler;
+	private final HappeningsTask task;
+	private volatile long interval = Duration.standardSeconds(10).getMillis();
+	private volatile int lastEvents = 0;
+	private volatile double averageEvents = 0;
+	private volatile double eventRate = 0;
+	private volatile long polls = 0;
+	private volatile long failedPolls = 0;
+	public HappeningsPoller(TaskScheduler scheduler, HappeningsTask task) {
+		this.scheduler = scheduler;
+		this.task = task;
+	}
+
+	@Override
+	public void run() {
+		final long start = System.currentTimeMillis();
+		try {
+			final int events = task.poll();
+			polls++;
+			interval = nextInterval(events);
+			Logger.debug("Polled {} new happenings, next poll in {} ms", events, interval);
+		} finally {
+			scheduler.scheduleOnce(Duration.millis(Math.max(0, start + interval - System.currentTimeMillis())), this);
+		}
+	}
+
+	private long nextInterval(int events) {
+		if (events < 0) {
+			failedPolls++;
+			return Math.min(MAX_INTERVAL, interval * 2);
+		}
+		lastEvents = events;
+		averageEvents = averageEvents * 0.8 + events * 0.2;
+		final double rate = events * 1000D / interval;
+		eventRate = eventRate * 0.7 + rate * 0.3;
+		if (events >= PAGE_SIZE * 3 / 4) {
+			return MIN_INTERVAL;
+		} else if (events == 0) {
+			return Math.min(MAX_INTERVAL, interval * 3 / 2);
+		}
+		final long target = (long) ((PAGE_SIZE / 2) * 1000D / Math.max(eventRate, 0.001));
+		return Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, target));
+	}
+
+	/**
+	 * The current interval between polls
+	 *
+	 * @return interval, in milliseconds
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * Returns the current poll interval, new happenings in the last poll, the average new happenings per poll,
+	 * the number of polls and failed polls, and the gaps in the happenings feed with the recovered and lost happenings.
+	 *
+	 * @return statistics
+	 */
+	@Override
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("interval", interval);
+		stats.put("last_events", lastEvents);
+		stats.put("average_events", averageEvents);
+		stats.put("events_per_second", eventRate);
+		stats.put("polls", polls);
+		stats.put("failed_polls", failedPolls);
+		stats.put("gaps", task.getGaps());
+		stats.put("missed_events", task.getMissedEvents());
+		stats.put("recovered_events", task.getBackfill().getRecoveredEvents());
+		stats.put("lost_events", task.getBackfill().getLostEvents());
+		return stats;
+	}
+}
@@ -6,23 +6,26 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 
+import net.nationstatesplusplus.assembly.api.ApiPriority;
+import net.nationstatesplusplus.assembly.happenings.RenderedHappenings;
 import net.nationstatesplusplus.assembly.model.HappeningType;
 import net.nationstatesplusplus.assembly.model.websocket.DataRequest;
 import net.nationstatesplusplus.assembly.model.websocket.PageType;
 import net.nationstatesplusplus.assembly.model.websocket.RequestType;
+import net.nationstatesplusplus.assembly.refresh.RefreshQueue;
+import net.nationstatesplusplus.assembly.refresh.RefreshType;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 import net.nationstatesplusplus.assembly.util.Utils;
 
 import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.lang.WordUtils;
 import org.apache.http.conn.HttpHostConnectException;
-import org.joda.time.Duration;
 
 import play.Logger;
 import play.libs.Json;
@@ -42,16 +45,22 @@ public class HappeningsTask implements Runnable {
 	private int maxEventId = -1;
 	private int newEvents = 0;
 	private int newEventSanityCounter = 0;
-	private final Cache<Integer, Boolean> updateCache = CacheBuilder.newBuilder().maximumSize(250).expireAfterWrite(1, TimeUnit.MINUTES).build();
+	private int gaps = 0;
+	private long missedEvents = 0;
+	private final HappeningsBackfill backfill;
+	private int lastGapStart = -1;
+	private int lastGapEnd = -1;
 	/**
-	 * A counter, when set > 0, runs happening update polls at 2s intervals, otherwise at 10s intervals.
+	 * Happening type ids for nations and regions altering their flags
 	 */
-	private final AtomicInteger highActivity = new AtomicInteger(1);
+	private static final int NATION_FLAG_HAPPENING = 7;
+	private static final int REGION_FLAG_HAPPENING = 41;
 	private final static Cache<String, Boolean> puppetCache = CacheBuilder.newBuilder().maximumSize(1000).expireAfterWrite(5, TimeUnit.MINUTES).build();
 	public HappeningsTask(DatabaseAccess access, NationStates api) {
 		this.api = api;
 		this.pool = access.getPool();
 		this.access = access;
+		this.backfill = new HappeningsBackfill(access.getApiScheduler(), api.getUserAgent());
 		try (Connection conn = pool.getConnection()) {
 			try (PreparedStatement state = conn.prepareStatement("SELECT last_event_id FROM assembly.settings WHERE id = 1")) {
 				try (ResultSet result = state.executeQuery()) {
@@ -84,36 +93,88 @@ public class HappeningsTask implements Runnable {
 
 	@Override
 	public void run() {
+		poll();
+	}
+
+	/**
+	 * Polls the happenings api once and processes any new happenings
+	 * 
+	 * @return the number of new happenings, or -1 if the poll failed
+	 */
+	public int poll() {
 		try {
-			runImpl();
+			return runImpl();
 		} catch (Exception e) {
 			Logger.error("Exception processing happenings", e);
-			highActivity.incrementAndGet();
+			return -1;
 		}
 	}
 
-	public void runImpl() {
+	/**
+	 * The number of polls where every returned happening was new and event ids were skipped, meaning
+	 * more happenings occurred between polls than fit in a single page.
+	 * 
+	 * @return number of gaps
+	 */
+	public synchronized int getGaps() {
+		return gaps;
+	}
+
+	/**
+	 * The number of event ids skipped over by gaps before backfilling, see {@link HappeningsBackfill} for the recovered and lost happenings
+	 * 
+	 * @return skipped event ids
+	 */
+	public synchronized long getMissedEvents() {
+		return missedEvents;
+	}
+
+	/**
+	 * The range of the last gap, exclusive on both ends, or null if there was no gap
+	 * 
+	 * @return last gap
+	 */
+	public synchronized int[] getLastGap() {
+		return lastGapStart != -1 ? new int[] {lastGapStart, lastGapEnd} : null;
+	}
+
+	/**
+	 * The backfill which recovers happenings from gaps
+	 * 
+	 * @return backfill
+	 */
+	public HappeningsBackfill getBackfill() {
+		return backfill;
+	}
+
+	public int runImpl() {
 		Logger.info("Starting Happenings Task: " + maxEventId);
 		HappeningData data;
-		synchronized (api) {
+		EventHappening[] happenings;
+		synchronized (this) {
+			if (!access.getApiScheduler().acquire(ApiPriority.HAPPENINGS, TimeUnit.SECONDS.toMillis(10))) {
+				Logger.warn("Happenings monitoring rate limited!");
+				return -1;
+			}
 			try {
 				data = api.getHappeningInfo(null, -1, maxEventId);
 			} catch (RateLimitReachedException e) {
 				Logger.warn("Happenings monitoring rate limited!");
-				return;
+				return -1;
 			} catch (RuntimeException e) {
 				if (e.getCause() instanceof HttpHostConnectException) {
 					//NS may be down or under high load
 					Logger.warn("Happenings monitoring failed to connect to NationStates.net!", e.getCause());
-					return;
+					return -1;
 				} else {
 					Logger.error("Unhandled Exception monitoring happenings", e);
-					return;
+					return -1;
 				}
 			}
 			
 			newEvents = 0;
 			final int oldEventId = maxEventId;
+			int minNewEventId = Integer.MAX_VALUE;
 			Logger.info("Executing global happenings run. Max Event ID: " + maxEventId);
 			for (EventHappening happening : data.happenings) {
 				//Set the max id to the largest event id
@@ -122,6 +183,27 @@ public class HappeningsTask implements Runnable {
 				}
 				if (oldEventId < happening.eventId) {
 					newEvents++;
+					minNewEventId = Math.min(minNewEventId, happening.eventId);
+				}
+			}
+			//A full page of new events which does not reach back to the last known event, event ids alone skip for happenings which are not public
+			final boolean gap = oldEventId > 0 && data.happenings.length == HappeningsPoller.PAGE_SIZE && newEvents == data.happenings.length && minNewEventId - oldEventId > 1;
+			happenings = data.happenings;
+			if (gap) {
+				gaps++;
+				missedEvents += minNewEventId - oldEventId - 1;
+				lastGapStart = oldEventId;
+				lastGapEnd = minNewEventId;
+				Logger.warn("Happenings gap detected, event ids " + (oldEventId + 1) + " to " + (minNewEventId - 1) + " were not received, backfilling");
+
+				//Page backwards through the gap, the recovered happenings are older than every happening in this page
+				List<EventHappening> recovered = backfill.backfill(oldEventId, minNewEventId);
+				if (!recovered.isEmpty()) {
+					happenings = Arrays.copyOf(data.happenings, data.happenings.length + recovered.size());
+					for (int i = 0; i < recovered.size(); i++) {
+						happenings[data.happenings.length + i] = recovered.get(i);
+					}
+					newEvents += recovered.size();
 				}
 			}
 			//Sanity check in case some genius decides to reset the event id sequence.
@@ -142,7 +224,7 @@ public class HappeningsTask implements Runnable {
 			}
 			
 			try (PreparedStatement happeningInsert = conn.prepareStatement("INSERT INTO assembly.global_happenings (nation, happening, timestamp, type) VALUES (?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
-				for (EventHappening happening : data.happenings) {
+				for (EventHappening happening : happenings) {
 					final String text = happening.text;
 					final long timestamp = happening.timestamp * 1000;
 					Matcher match = Utils.NATION_PATTERN.matcher(text);
@@ -171,6 +253,10 @@ public class HappeningsTask implements Runnable {
 
 					final int happeningType = HappeningType.match(text);
 					final HappeningType type = HappeningType.getType(happeningType);
+					if (happeningType != HappeningType.getType("NEW_LEGISLATION").getId()) {
+						//Legislation happens to every nation each update, it is not activity
+						access.getNationRefreshPlanner().onActivity(nationId);
+					}
 	
 					if (happeningType == HappeningType.getType("ENDORSEMENT").getId()) {
 						if (match.find()) {
@@ -184,6 +270,7 @@ public class HappeningsTask implements Runnable {
 							happeningInsert.setLong(3, timestamp);
 							happeningInsert.setInt(4, happeningType);
 							happeningInsert.executeUpdate();
+							access.getHappeningsCache().invalidateNation(access.getNationId(otherNation));
 							
 							HashMap<String, Object> dataRequest = new HashMap<String, Object>();
 							dataRequest.put("nation", access.getNationId(otherNation));
@@ -209,11 +296,14 @@ public class HappeningsTask implements Runnable {
 						resignFromWorldAssembly(conn, nationId, true);
 					} else if (happeningType == HappeningType.getType("ABOLISHED_REGIONAL_FLAG").getId()) {
 						abolishRegionFlag(conn, access, text);
+					} else if (happeningType == NATION_FLAG_HAPPENING) {
+						access.getRefreshQueue().add(conn, RefreshType.NATION, nationId, RefreshQueue.FLAG_CHANGED);
+					} else if (happeningType == REGION_FLAG_HAPPENING) {
+						access.getRefreshQueue().add(conn, RefreshType.REGION, getHappeningRegion(conn, nationId, text), RefreshQueue.FLAG_CHANGED);
 					} else if (happeningType == HappeningType.getType("RELOCATED").getId()) {
 						relocateNation(conn, nationId, nation, text);
-					} else if (updateCache.getIfPresent(nationId) == null && happeningType == HappeningType.getType("NEW_LEGISLATION").getId()) {
-						setRegionUpdateTime(conn, nationId, timestamp);
-						updateCache.put(nationId, true);
+					} else if (happeningType == HappeningType.getType("NEW_LEGISLATION").getId()) {
+						access.getUpdateProgressTracker().onLegislation(conn, nationId, timestamp);
 					} else if (happeningType == HappeningType.getType("RMB").getId()) {
 						Matcher regions = Utils.REGION_PATTERN.matcher(text);
 						if (regions.find()) {
@@ -231,13 +321,16 @@ public class HappeningsTask implements Runnable {
 							access.markNationDead(nationId, conn);
 							
 							//Only erase flag if it was user uploaded
-							final boolean eraseFlag;
+							String currentFlag = "";
 							try (PreparedStatement flag = conn.prepareStatement("SELECT flag FROM assembly.nation WHERE id = ?")) {
 								flag.setInt(1, nationId);
 								try (ResultSet set = flag.executeQuery()) {
-									eraseFlag = set.next() && set.getString(1).contains("/uploads/");
+									if (set.next() && set.getString(1) != null) {
+										currentFlag = set.getString(1);
+									}
 								}
 							}
+							final boolean eraseFlag = currentFlag.contains("/uploads/");
 
 							try (PreparedStatement alive = conn.prepareStatement("UPDATE assembly.nation SET alive = 1, wa_member = 2" + (eraseFlag ? ", flag = ?" : "") + " WHERE id = ?")) {
 								if (eraseFlag) {
@@ -248,6 +341,7 @@ public class HappeningsTask implements Runnable {
 								}
 								alive.executeUpdate();
 							}
+							access.getFlagMap().putNation(nation, eraseFlag ? "//nationstates.net/images/flags/Default.png" : currentFlag);
 						}
 	
 						//Update region
@@ -262,19 +356,26 @@ public class HappeningsTask implements Runnable {
 									update.executeUpdate();
 								}
 								puppetCache.invalidate(nation);
+								access.getRegionMembershipIndex().move(nationId, regionId);
+								access.getRegionalStatsEngine().move(nationId, regionId);
+								access.getUpdateOrderIndex().onNationArrived(regionId);
 							}
 						}
+						access.getNationNameIndex().put(nation, 0, happening.timestamp);
 					} else if (nationId > -1 && happeningType == HappeningType.getType("CEASED_TO_EXIST").getId()) {
 						access.markNationDead(nationId, conn);
 					}
+					final String parsed = parseHappening(text);
 					happeningInsert.setInt(1, nationId);
-					happeningInsert.setString(2, parseHappening(text));
+					happeningInsert.setString(2, parsed);
 					happeningInsert.setLong(3, timestamp);
 					happeningInsert.setInt(4, happeningType);
 					happeningInsert.executeUpdate();
+					access.getHappeningsCache().invalidateNation(nationId);
 					try (ResultSet keys = happeningInsert.getGeneratedKeys()) {
 						keys.next();
 						int happeningId = keys.getInt(1);
+						access.getRenderedHappenings().add(happeningId, RenderedHappenings.NATION_PAGE, parsed, access.getHappeningFormatter().format(conn, parsed, nation));
 						if (type != null) {
 							updateRegionHappenings(conn, access, nationId, happeningId, text, type);
 						}
@@ -285,21 +386,26 @@ public class HappeningsTask implements Runnable {
 					access.getWebsocketManager().onUpdate(PageType.NATION, RequestType.NATION_HAPPENINGS, new DataRequest(RequestType.NATION_HAPPENINGS, dataRequest), Json.toJson("{ }"));
 				}
 			}
+			access.getUpdateProgressTracker().flush(conn);
+			access.getRenderedHappenings().flush(conn);
 		} catch (SQLException e) {
 			Logger.error("Unable to update happenings", e);
 		}
+		return newEvents;
 	}
 
 	public static void abolishRegionFlag(Connection conn, DatabaseAccess access, String happening) throws SQLException {
 		Matcher regions = Utils.REGION_PATTERN.matcher(happening);
 		if (regions.find()) {
-			int region = access.getRegionId(happening.substring(regions.start() + 2, regions.end() - 2));
+			final String name = happening.substring(regions.start() + 2, regions.end() - 2);
+			int region = access.getRegionId(name);
 			if (region > -1) {
 				PreparedStatement updateFlag = conn.prepareStatement("UPDATE assembly.region SET flag = ? WHERE id = ?");
 				updateFlag.setString(1, "");
 				updateFlag.setInt(2, region);
 				updateFlag.executeUpdate();
 				DbUtils.closeQuietly(updateFlag);
+				access.getFlagMap().putRegion(Utils.sanitizeName(name), "");
 			}
 		}
 	}
@@ -313,13 +419,9 @@ public class HappeningsTask implements Runnable {
 			regionIds.add(access.getRegionId(happening.substring(regions.start() + 2, regions.end() - 2)));
 		}
 		if (regionIds.size() == 0 && nationId > -1) {
-			try (PreparedStatement select = conn.prepareStatement("SELECT region FROM assembly.nation WHERE id = ?")) {
-				select.setInt(1, nationId);
-				try (ResultSet result = select.executeQuery()) {
-					if (result.next()) {
-						regionIds.add(result.getInt(1));
-					}
-				}
+			final int region = getNationRegion(conn, access, nationId);
+			if (region > -1) {
+				regionIds.add(region);
 			}
 		}
 		try (PreparedStatement insert = conn.prepareStatement("INSERT INTO assembly.regional_happenings (global_id, region, happening) VALUES (?, ?, ?)")) {
@@ -328,6 +430,8 @@ public class HappeningsTask implements Runnable {
 				insert.setInt(2, regionIds.get(0));
 				insert.setString(3, region1Happening);
 				insert.executeUpdate();
+				access.getHappeningsCache().invalidateRegion(regionIds.get(0));
+				access.getRenderedHappenings().add(happeningId, regionIds.get(0), region1Happening, access.getHappeningFormatter().format(conn, region1Happening, ""));
 				
 				HashMap<String, Object> dataRequest = new HashMap<String, Object>();
 				dataRequest.put("region", regionIds.get(0));
@@ -338,6 +442,8 @@ public class HappeningsTask implements Runnable {
 				insert.setInt(2, regionIds.get(1));
 				insert.setString(3, region2Happening);
 				insert.executeUpdate();
+				access.getHappeningsCache().invalidateRegion(regionIds.get(1));
+				access.getRenderedHappenings().add(happeningId, regionIds.get(1), region2Happening, access.getHappeningFormatter().format(conn, region2Happening, ""));
 				
 				HashMap<String, Object> dataRequest = new HashMap<String, Object>();
 				dataRequest.put("region", regionIds.get(1));
@@ -346,61 +452,6 @@ public class HappeningsTask implements Runnable {
 		}
 	}
 
-	private synchronized void setRegionUpdateTime(Connection conn, int nationId, long timestamp) throws SQLException {
-		final int region = getRegionOfNation(conn, nationId);
-		if (region != -1) {
-			PreparedStatement select = null, update = null, insert = null;
-			ResultSet result = null;
-			try {
-				select = conn.prepareStatement("SELECT id, start, end FROM assembly.region_updates WHERE region = ? AND start BETWEEN ? AND ?");
-				select.setInt(1, region);
-				select.setLong(2, timestamp - Duration.standardHours(1).getMillis());
-				select.setLong(3, timestamp + Duration.standardHours(1).getMillis());
-				result = select.executeQuery();
-				if (result.next()) {
-					final int id = result.getInt(1);
-					final long start = result.getLong(2);
-					final long end = result.getLong(3);
-					update = conn.prepareStatement("UPDATE assembly.region_updates SET start = ?, end = ? WHERE id = ?");
-					update.setLong(1, Math.min(start, timestamp));
-					update.setLong(2, Math.max(end, timestamp));
-					update.setInt(3, id);
-					update.executeUpdate();
-				} else {
-					insert = conn.prepareStatement("INSERT INTO assembly.region_updates (region, start, end) VALUES (?, ?, ?)");
-					insert.setLong(1, region);
-					insert.setLong(2, timestamp);
-					insert.setLong(3, timestamp);
-					insert.executeUpdate();
-				}
-			} finally {
-				DbUtils.closeQuietly(result);
-				DbUtils.closeQuietly(insert);
-				DbUtils.closeQuietly(update);
-				DbUtils.closeQuietly(select);
-			}
-		} else {
-			Logger.info("Can not set region update time for nation [" + nationId + "], unknown region!");
-		}
-	}
-
-	private int getRegionOfNation(Connection conn, int nationId) throws SQLException {
-		PreparedStatement select = null;
-		ResultSet result = null;
-		try {
-			select = conn.prepareStatement("SELECT region FROM assembly.nation WHERE id = ?");
-			select.setInt(1, nationId);
-			result = select.executeQuery();
-			if (result.next()) {
-				return result.getInt(1);
-			}
-			return -1;
-		} finally {
-			DbUtils.closeQuietly(result);
-			DbUtils.closeQuietly(select);
-		}
-	}
-
 	private void relocateNation(Connection conn, int nationId, String nation, String happening) throws SQLException {
 		Matcher match = Utils.REGION_PATTERN.matcher(happening);
 		String prevRegion = null;
@@ -421,11 +472,45 @@ public class HappeningsTask implements Runnable {
 			update.setInt(1, newRegionId);
 			update.setInt(2, nationId);
 			update.setInt(3, getOrCreateRegion(conn, nation, prevRegion));
-			update.executeUpdate();
+			final boolean moved = update.executeUpdate() > 0;
+			access.getUpdateProgressTracker().onNationMoved(nationId);
+			if (moved) {
+				access.getEndorsementGraph().relocate(nationId, newRegionId);
+				access.getRegionMembershipIndex().move(nationId, newRegionId);
+				access.getRegionalStatsEngine().move(nationId, newRegionId);
+				access.getUpdateOrderIndex().onNationArrived(newRegionId);
+			}
 			DbUtils.closeQuietly(update);
 		}
 	}
 
+	/**
+	 * Returns the id of the first region in the happening, or the region of the nation if the happening does not name one
+	 */
+	private int getHappeningRegion(Connection conn, int nationId, String happening) throws SQLException {
+		Matcher regions = Utils.REGION_PATTERN.matcher(happening);
+		if (regions.find()) {
+			return access.getRegionId(happening.substring(regions.start() + 2, regions.end() - 2));
+		}
+		return getNationRegion(conn, access, nationId);
+	}
+
+	/**
+	 * Returns the region of the nation, from the region membership index if the nation is in it
+	 */
+	private static int getNationRegion(Connection conn, DatabaseAccess access, int nationId) throws SQLException {
+		final int region = access.getRegionMembershipIndex().getRegion(nationId);
+		if (region > -1) {
+			return region;
+		}
+		try (PreparedStatement select = conn.prepareStatement("SELECT region FROM assembly.nation WHERE id = ?")) {
+			select.setInt(1, nationId);
+			try (ResultSet result = select.executeQuery()) {
+				return result.next() ? result.getInt(1) : -1;
+			}
+		}
+	}
+
 	private int getOrCreateRegion(Connection conn, String nation, String region) throws SQLException {
 		PreparedStatement select = null;
 		ResultSet result = null;
@@ -449,6 +534,9 @@ public class HappeningsTask implements Runnable {
 				keys.next();
 				int id = keys.getInt(1);
 				access.getRegionIdCache().put(region, id);
+				access.getRegionNameIndex().put(region, 0, 0);
+				//Fill in the flag, population and delegate of the new region
+				access.getRefreshQueue().add(conn, RefreshType.REGION, id, RefreshQueue.NEW_REGION);
 				return id;
 			} finally {
 				DbUtils.closeQuietly(keys);
@@ -472,6 +560,7 @@ public class HappeningsTask implements Runnable {
 			DbUtils.closeQuietly(endorsements);
 		}
 		DbUtils.closeQuietly(selectDuplicates);
+		access.getEndorsementGraph().addEndorsement(endorser, endorsed);
 	}
 
 	private void removeEndorsement(Connection conn, int endorsed, int endorser) throws SQLException {
@@ -480,6 +569,7 @@ public class HappeningsTask implements Runnable {
 		endorsements.setInt(2, endorser);
 		endorsements.executeUpdate();
 		DbUtils.closeQuietly(endorsements);
+		access.getEndorsementGraph().removeEndorsement(endorser, endorsed);
 	}
 
 	private void resignFromWorldAssembly(Connection conn, int nationId, boolean banned) throws SQLException {
@@ -487,6 +577,7 @@ public class HappeningsTask implements Runnable {
 		endorsements.setInt(1, nationId);
 		endorsements.executeUpdate();
 		DbUtils.closeQuietly(endorsements);
+		access.getEndorsementGraph().setWAStatus(nationId, banned ? 0 : 2);
 	}
 
 	private void joinWorldAssembly(Connection conn, int nationId) throws SQLException {
@@ -494,5 +585,6 @@ public class HappeningsTask implements Runnable {
 		endorsements.setInt(1, nationId);
 		endorsements.executeUpdate();
 		DbUtils.closeQuietly(endorsements);
+		access.getEndorsementGraph().setWAStatus(nationId, 1);
 	}
 }
@@ -3,67 +3,71 @@ package net.nationstatesplusplus.assembly;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import net.nationstatesplusplus.assembly.api.ApiPriority;
+import net.nationstatesplusplus.assembly.api.ApiScheduler;
+import net.nationstatesplusplus.assembly.nation.NationDisplay;
+import net.nationstatesplusplus.assembly.refresh.NationRefreshPlanner;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
+import net.nationstatesplusplus.assembly.util.EndorsementWriter;
 import net.nationstatesplusplus.assembly.util.Utils;
 
 import org.joda.time.Duration;
 
 import play.Logger;
 
+import com.google.common.base.Joiner;
 import com.limewoodMedia.nsapi.NationStates;
 import com.limewoodMedia.nsapi.exceptions.RateLimitReachedException;
 
+/**
+ * Refreshes the endorsements, census scores and details of the nations chosen by the {@link NationRefreshPlanner}, as many as the
+ * endorsement api budget allows each run
+ */
 public class NationUpdateTask implements Runnable {
 	private final NationStates api;
 	private final DatabaseAccess access;
-	private final int waUpdates;
-	private final int nonWaUpdates;
-	public NationUpdateTask(NationStates api, DatabaseAccess access, int waUpdates, int nonWaUpdates) {
+	private final int maxUpdates;
+	public NationUpdateTask(NationStates api, DatabaseAccess access, int maxUpdates) {
 		this.api = api;
 		this.access = access;
-		this.waUpdates = waUpdates;
-		this.nonWaUpdates = nonWaUpdates;
+		this.maxUpdates = maxUpdates;
 	}
 
 	@Override
 	public void run() {
-		final int waLimit = Math.min((api.getRateLimitRemaining() * 2) / 3, this.waUpdates);
-		if (waLimit <= 1) {
-			Logger.info("Skipping wa nation updates, no rate limit remaining");
+		final NationRefreshPlanner planner = access.getNationRefreshPlanner();
+		try {
+			planner.reloadIfNeeded();
+		} catch (SQLException e) {
+			Logger.error("Unable to load nations into the refresh planner", e);
 			return;
 		}
 
-		try (Connection conn = access.getPool().getConnection()) {
-			try (PreparedStatement select = conn.prepareStatement("SELECT id, name FROM assembly.nation WHERE alive = 1 AND wa_member <> 0 AND last_endorsement_baseline < ? ORDER BY last_endorsement_baseline ASC LIMIT 0, " + waLimit)) {
-				select.setLong(1, System.currentTimeMillis() - Duration.standardHours(12).getMillis());
-				try (ResultSet result = select.executeQuery()) {
-					while(result.next()) {
-						final int id = result.getInt(1);
-						final String name = result.getString(2);
-						
-						Utils.updateNation(conn, access, api, name, id);
-						Logger.debug("Updated shard baseline for [" + name + "]");
-					}
-				}
-			}
+		final int limit = Math.min(access.getApiScheduler().getRemaining(ApiPriority.ENDORSEMENTS), maxUpdates);
+		if (limit <= 1) {
+			Logger.info("Skipping nation updates, no rate limit remaining");
+			return;
+		}
+		final List<Integer> nations = planner.getDueNations(limit);
+		if (nations.isEmpty()) {
+			return;
+		}
 
-			final int nonWaLimit = Math.min((api.getRateLimitRemaining() * 2) / 3, this.nonWaUpdates);
-			if (nonWaLimit <= 1) {
-				Logger.info("Skipping non-wa nation updates, no rate limit remaining");
-				return;
-			}
-			
-			try (PreparedStatement select = conn.prepareStatement("SELECT id, name FROM assembly.nation WHERE alive = 1 AND last_endorsement_baseline < ? ORDER BY last_endorsement_baseline ASC LIMIT 0, " + nonWaLimit)) {
-				select.setLong(1, System.currentTimeMillis() - Duration.standardHours(24).getMillis());
-				try (ResultSet result = select.executeQuery()) {
-					while(result.next()) {
-						final int id = result.getInt(1);
-						final String name = result.getString(2);
-						
-						Utils.updateNation(conn, access, api, name, id);
-						Logger.debug("Updated shard baseline for [" + name + "]");
-					}
+		final EndorsementWriter endorsements = new EndorsementWriter(access);
+		try (Connection conn = access.getPool().getConnection()) {
+			try {
+				updateNations(conn, endorsements, nations);
+			} finally {
+				//Write the endorsements of every nation refreshed this run in a single transaction, without masking an update failure
+				try {
+					endorsements.flush(conn);
+				} catch (SQLException e) {
+					Logger.error("Unable to write endorsements", e);
 				}
 			}
 		} catch (RateLimitReachedException e) {
@@ -72,4 +76,30 @@ public class NationUpdateTask implements Runnable {
 			Logger.error("Unable to update endorsements", e);
 		}
 	}
-}
\ No newline at end of file
+
+	private void updateNations(Connection conn, EndorsementWriter endorsements, List<Integer> nations) throws SQLException {
+		final ApiScheduler scheduler = access.getApiScheduler();
+		final Map<Integer, NationDisplay> displays = new HashMap<Integer, NationDisplay>(nations.size());
+		try (PreparedStatement select = conn.prepareStatement("SELECT id, name, full_name, title, flag, alive, wa_member FROM assembly.nation WHERE id IN (" + Joiner.on(", ").join(nations) + ")")) {
+			try (ResultSet result = select.executeQuery()) {
+				while (result.next()) {
+					displays.put(result.getInt(1), new NationDisplay(result.getString(2), result.getString(3), result.getString(4), result.getString(5), result.getBoolean(6), result.getInt(7)));
+				}
+			}
+		}
+		for (Integer id : nations) {
+			final NationDisplay display = displays.get(id);
+			if (display == null) {
+				access.getNationRefreshPlanner().remove(id);
+				continue;
+			}
+			if (!scheduler.acquire(ApiPriority.ENDORSEMENTS, Duration.standardSeconds(5).getMillis())) {
+				Logger.info("Stopping nation updates, no api requests available");
+				return;
+			}
+
+			Utils.updateNation(conn, access, api, display.getName(), id, display, endorsements);
+			Logger.debug("Updated shard baseline for [" + display.getName() + "]");
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package net.nationstatesplusplus.assembly;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.Duration;
+
+import play.Logger;
+
+/**
+ * <p>
+ * Runs all repeating and one-off background tasks on a single shared {@link ScheduledExecutorService}. Repeating tasks run at
+ * a fixed rate or with a fixed delay, and never overlap with themselves: a run which takes longer than the period delays the
+ * next run instead of starting a second one.
+ * </p><p>
+ * A watchdog on its own thread interrupts runs which exceed their timeout (by default 5x the period of repeating tasks, or 1 hour for one-off tasks)
+ * and logs their stack, and every task keeps its run count, last run, a histogram of run durations and the number of overruns
+ * for {@link #getStatus()}.
+ * </p>
+ */
+public class TaskScheduler {
+	private static final long[] HISTOGRAM_BOUNDS = {10, 100, 1000, 10000, 60000, 300000};
+	private static final String[] HISTOGRAM_LABELS = {"<10ms", "<100ms", "<1s", "<10s", "<1m", "<5m", ">=5m"};
+	private static final int TIMEOUT_PERIODS = 5;
+	private static final Duration ONE_OFF_TIMEOUT = Duration.standardHours(1);
+	private final ScheduledExecutorService executor;
+	private final ScheduledExecutorService watchdog;
+	private final Map<Runnable, ScheduledTask> tasks = new IdentityHashMap<Runnable, ScheduledTask>();
+	private final AtomicInteger taskCount = new AtomicInteger(0);
+	public TaskScheduler(int threads) {
+		executor = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Task Scheduler-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		//The watchdog has its own thread, so it still runs when hung tasks occupy every thread of the pool
+		watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Task Scheduler Watchdog");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		watchdog.scheduleWithFixedDelay(new Watchdog(), 10, 10, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Schedules a task to run repeatedly at a fixed rate, or once if the repeating delay is null
+	 *
+	 * @param initial delay before the first run
+	 * @param repeating period between the start of runs, or null to run once
+	 * @param task to run
+	 */
+	public void schedule(Duration initial, Duration repeating, Runnable task) {
+		if (repeating == null) {
+			scheduleOnce(initial, task);
+		} else {
+			ScheduledTask scheduled = getScheduledTask(task, "fixed-rate", repeating, new Duration(repeating.getMillis() * TIMEOUT_PERIODS));
+			executor.scheduleAtFixedRate(scheduled, initial.getMillis(), repeating.getMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Schedules a task to run repeatedly, with a fixed delay between the end of one run and the start of the next
+	 *
+	 * @param initial delay before the first run
+	 * @param delay between runs
+	 * @param task to run
+	 */
+	public void scheduleWithFixedDelay(Duration initial, Duration delay, Runnable task) {
+		ScheduledTask scheduled = getScheduledTask(task, "fixed-delay", delay, new Duration(delay.getMillis() * TIMEOUT_PERIODS));
+		executor.scheduleWithFixedDelay(scheduled, initial.getMillis(), delay.getMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Schedules a task to run once. Tasks which reschedule themselves keep their statistics between runs.
+	 *
+	 * @param delay before the run
+	 * @param task to run
+	 */
+	public void scheduleOnce(Duration delay, Runnable task) {
+		ScheduledTask scheduled = getScheduledTask(task, "once", null, ONE_OFF_TIMEOUT);
+		executor.schedule(scheduled, delay.getMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	private ScheduledTask getScheduledTask(Runnable task, String mode, Duration period, Duration timeout) {
+		synchronized (tasks) {
+			ScheduledTask scheduled = tasks.get(task);
+			if (scheduled == null) {
+				//Anonymous tasks have no simple name
+				final String name = task.getClass().getSimpleName().isEmpty() ? task.getClass().getName() : task.getClass().getSimpleName();
+				scheduled = new ScheduledTask(name + "-" + taskCount.incrementAndGet(), task);
+				tasks.put(task, scheduled);
+			}
+			scheduled.mode = mode;
+			scheduled.period = period;
+			scheduled.timeout = timeout;
+			return scheduled;
+		}
+	}
+
+	/**
+	 * Stops all tasks, interrupting running tasks
+	 */
+	public void shutdown() {
+		watchdog.shutdownNow();
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Returns the status of every task: its schedule, whether it is running, run and failure counts, last run, a histogram of
+	 * run durations and the number of runs interrupted by the watchdog.
+	 *
+	 * @return task status
+	 */
+	public List<Map<String, Object>> getStatus() {
+		List<ScheduledTask> scheduled;
+		synchronized (tasks) {
+			scheduled = new ArrayList<ScheduledTask>(tasks.values());
+		}
+		List<Map<String, Object>> status = new ArrayList<Map<String, Object>>(scheduled.size());
+		for (ScheduledTask task : scheduled) {
+			status.add(task.getStatus());
+		}
+		return status;
+	}
+
+	/**
+	 * A task which reports its own statistics in the scheduler status
+	 */
+	public static interface MonitoredTask extends Runnable {
+		public Map<String, Object> getStatistics();
+	}
+
+	private static class ScheduledTask implements Runnable {
+		private final String name;
+		private final Runnable task;
+		private volatile String mode;
+		private volatile Duration period;
+		private volatile Duration timeout;
+		private Thread thread = null;
+		private long started = 0;
+		private boolean interrupted = false;
+		private long runs = 0;
+		private long failures = 0;
+		private long overruns = 0;
+		private long lastStart = 0;
+		private long lastDuration = 0;
+		private final long[] histogram = new long[HISTOGRAM_LABELS.length];
+		ScheduledTask(String name, Runnable task) {
+			this.name = name;
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			final long start = System.currentTimeMillis();
+			synchronized (this) {
+				thread = Thread.currentThread();
+				started = start;
+				interrupted = false;
+			}
+			boolean failed = false;
+			try {
+				task.run();
+			} catch (Throwable t) {
+				//Exceptions must not escape, or the executor silently cancels all future runs
+				Logger.error("Unhandled exception running task [" + name + "]", t);
+				failed = true;
+			} finally {
+				final long duration = System.currentTimeMillis() - start;
+				synchronized (this) {
+					thread = null;
+					runs++;
+					if (failed) {
+						failures++;
+					}
+					lastStart = start;
+					lastDuration = duration;
+					int bucket = 0;
+					while (bucket < HISTOGRAM_BOUNDS.length && duration >= HISTOGRAM_BOUNDS[bucket]) {
+						bucket++;
+					}
+					histogram[bucket]++;
+				}
+				//Clear any interrupt from the watchdog before the pool thread runs another task
+				Thread.interrupted();
+			}
+		}
+
+		synchronized void checkTimeout(long now) {
+			if (thread == null || interrupted || timeout == null || started + timeout.getMillis() > now) {
+				return;
+			}
+			interrupted = true;
+			overruns++;
+			Logger.error("Execution of task [" + name + "] has exceeded its timeout of " + timeout.getStandardSeconds() + "s, the task will be interrupted forcefully!");
+			Logger.error("    PID: " + thread.getId() + " | Alive: " + thread.isAlive() + " | State: " + thread.getState());
+			Logger.error("    Stack:");
+			for (StackTraceElement line : thread.getStackTrace()) {
+				Logger.error("        " + line.toString());
+			}
+			thread.interrupt();
+		}
+
+		synchronized Map<String, Object> getStatus() {
+			Map<String, Object> status = new LinkedHashMap<String, Object>();
+			status.put("name", name);
+			status.put("mode", mode);
+			status.put("period", period != null ? period.getMillis() : null);
+			status.put("timeout", timeout != null ? timeout.getMillis() : null);
+			status.put("running", thread != null);
+			status.put("runs", runs);
+			status.put("failures", failures);
+			status.put("overruns", overruns);
+			status.put("last_start", lastStart);
+			status.put("last_duration", lastDuration);
+			Map<String, Long> durations = new LinkedHashMap<String, Long>();
+			for (int i = 0; i < histogram.length; i++) {
+				durations.put(HISTOGRAM_LABELS[i], histogram[i]);
+			}
+			status.put("durations", durations);
+			if (task instanceof MonitoredTask) {
+				status.put("statistics", ((MonitoredTask) task).getStatistics());
+			}
+			return status;
+		}
+	}
+
+	private class Watchdog implements Runnable {
+		@Override
+		public void run() {
+			final long now = System.currentTimeMillis();
+			List<ScheduledTask> scheduled;
+			synchronized (tasks) {
+				scheduled = new ArrayList<ScheduledTask>(tasks.values());
+			}
+			for (ScheduledTask task : scheduled) {
+				task.checkTimeout(now);
+			}
+		}
+	}
+}
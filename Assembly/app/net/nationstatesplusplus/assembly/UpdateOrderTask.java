@@ -4,6 +4,8 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 
+import net.nationstatesplusplus.assembly.api.ApiPriority;
+import net.nationstatesplusplus.assembly.update.UpdateOrderIndex;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 import net.nationstatesplusplus.assembly.util.Utils;
 
@@ -16,6 +18,10 @@ import com.limewoodMedia.nsapi.exceptions.RateLimitReachedException;
 import com.limewoodMedia.nsapi.exceptions.UnknownRegionException;
 import com.limewoodMedia.nsapi.holders.RegionData;
 
+/**
+ * Refreshes the nation update order of regions which nations moved into since the last daily dump, the regions
+ * with the most new nations first. The daily dump refreshes the update order of every nation.
+ */
 public class UpdateOrderTask implements Runnable{
 	private final NationStates api;
 	private final DatabaseAccess access;
@@ -32,53 +38,55 @@ public class UpdateOrderTask implements Runnable{
 			return;
 		}
 		lastRun = System.currentTimeMillis();
+		final UpdateOrderIndex index = access.getUpdateOrderIndex();
 		try (Connection conn = access.getPool().getConnection()) {
-			final int id;
-			try (PreparedStatement select = conn.prepareStatement("SELECT last_update_order_region FROM assembly.settings WHERE id = 1")) {
-				try (ResultSet result = select.executeQuery()) {
-					result.next();
-					id = result.getInt(1);
-				}
-			}
-
-			try (PreparedStatement select = conn.prepareStatement("SELECT name, id FROM assembly.region WHERE id > ? AND alive = 1 LIMIT 0, 2")) {
-				select.setInt(1, id);
-
-				int lastId = id;
-				final int startId = lastId;
-
-				try (ResultSet result = select.executeQuery()) {
-					while (result.next()) {
-						RegionData data;
-						try {
-							data = api.getRegionInfo(result.getString(1), RegionData.Shards.NATIONS);
-						} catch (UnknownRegionException e) {
-							try (PreparedStatement setDead = conn.prepareStatement("UPDATE assembly.region SET alive = 0 WHERE id = ?")) {
-								setDead.setInt(1, result.getInt(2));
-								setDead.executeUpdate();
-							}
-							continue;
-						}
-						try (PreparedStatement updateBatch = conn.prepareStatement("UPDATE assembly.nation SET update_order = ? WHERE name = ?")) {
-							for (int i = 0; i < data.nations.length; i++) {
-								updateBatch.setInt(1, data.nations.length - i);
-								updateBatch.setString(2, Utils.sanitizeName(data.nations[i]));
-								updateBatch.addBatch();
-							}
-							updateBatch.executeBatch();
+			for (Integer regionId : index.getStalestRegions(2)) {
+				String region = null;
+				try (PreparedStatement select = conn.prepareStatement("SELECT name FROM assembly.region WHERE id = ? AND alive = 1")) {
+					select.setInt(1, regionId);
+					try (ResultSet result = select.executeQuery()) {
+						if (result.next()) {
+							region = result.getString(1);
 						}
-						lastId = result.getInt(2);
-						Logger.debug("Updated update order for region id [" + lastId + "]");
 					}
 				}
-				PreparedStatement update = conn.prepareStatement("UPDATE assembly.settings SET last_update_order_region = ? WHERE id = 1");
-				update.setInt(1, (lastId != startId ? lastId : 0));
-				update.executeUpdate();
+				if (region == null) {
+					index.onRegionRefreshed(regionId);
+					continue;
+				}
+				if (!access.getApiScheduler().acquire(ApiPriority.UPDATE_ORDER, Duration.standardSeconds(5).getMillis())) {
+					Logger.info("Skipping update order refresh, no api requests available");
+					break;
+				}
+				RegionData data;
+				try {
+					data = api.getRegionInfo(region, RegionData.Shards.NATIONS);
+				} catch (UnknownRegionException e) {
+					try (PreparedStatement setDead = conn.prepareStatement("UPDATE assembly.region SET alive = 0 WHERE id = ?")) {
+						setDead.setInt(1, regionId);
+						setDead.executeUpdate();
+					}
+					index.onRegionRefreshed(regionId);
+					continue;
+				}
+				try (PreparedStatement updateBatch = conn.prepareStatement("UPDATE assembly.nation SET update_order = ? WHERE name = ?")) {
+					for (int i = 0; i < data.nations.length; i++) {
+						updateBatch.setInt(1, data.nations.length - i);
+						updateBatch.setString(2, Utils.sanitizeName(data.nations[i]));
+						updateBatch.addBatch();
+					}
+					updateBatch.executeBatch();
+				}
+				index.onRegionRefreshed(regionId);
+				Logger.debug("Updated update order for region id [" + regionId + "]");
 			}
 		} catch (RateLimitReachedException e) {
 			Logger.warn("Update order task rate limited!");
 		} catch (Exception e) {
 			Logger.error("Unable to update region update order", e);
 		}
+		if (index.getStaleRegionCount() > 0) {
+			Logger.info("Update order is stale for {} regions, oldest change {} minutes ago", index.getStaleRegionCount(), Duration.millis(index.getStaleness()).getStandardMinutes());
+		}
 	}
 }
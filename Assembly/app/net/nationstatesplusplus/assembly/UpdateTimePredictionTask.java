@@ -0,0 +1,26 @@
+package net.nationstatesplusplus.assembly;
+
+import java.sql.SQLException;
+
+import net.nationstatesplusplus.assembly.util.DatabaseAccess;
+
+import play.Logger;
+
+/**
+ * Recalculates the region update time predictions whenever new update calculations have been recorded.
+ */
+public class UpdateTimePredictionTask implements Runnable {
+	private final DatabaseAccess access;
+	public UpdateTimePredictionTask(DatabaseAccess access) {
+		this.access = access;
+	}
+
+	@Override
+	public void run() {
+		try {
+			access.getUpdateTimePredictor().refresh();
+		} catch (SQLException e) {
+			Logger.error("Unable to calculate update time predictions", e);
+		}
+	}
+}
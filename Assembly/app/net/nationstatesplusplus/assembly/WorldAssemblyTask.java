@@ -7,6 +7,7 @@ import java.sql.SQLException;
 import java.util.HashSet;
 import java.util.regex.Matcher;
 
+import net.nationstatesplusplus.assembly.api.ApiPriority;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 
 import org.apache.commons.dbutils.DbUtils;
@@ -75,18 +76,22 @@ public class WorldAssemblyTask implements Runnable {
 	}
 
 	private void runSafe() throws Exception {
+		//Waiting for a token holds a shared scheduler thread, so wait briefly and try again later instead
+		if (!database.getApiScheduler().acquire(ApiPriority.WORLD_ASSEMBLY, Duration.standardSeconds(10).getMillis())) {
+			Logger.warn("No api requests available for WA Update for council: " + council + ", retrying in 1 minute");
+			database.getTaskScheduler().scheduleOnce(Duration.standardMinutes(1), this);
+			return;
+		}
 		if (firstRun) {
 			Logger.info("Executing first WA Update for council: " + council);
 			long nextUpdate = firstRun();
 			firstRun = false;
 			
 			Logger.info("First WA run update complete, next update in " + nextUpdate + " seconds");
-			RepeatingTaskThread thread = new RepeatingTaskThread(Duration.standardSeconds(nextUpdate), null, this);
-			thread.start();
+			database.getTaskScheduler().scheduleOnce(Duration.standardSeconds(nextUpdate), this);
 		} else {
 			Logger.info("Executing WA Update for council: " + council);
-			RepeatingTaskThread thread = new RepeatingTaskThread(Duration.standardHours(1), null, this);
-			thread.start();
+			database.getTaskScheduler().scheduleOnce(Duration.standardHours(1), this);
 			updateVotes();
 		}
 	}
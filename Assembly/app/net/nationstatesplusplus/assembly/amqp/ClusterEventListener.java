@@ -0,0 +1,16 @@
+package net.nationstatesplusplus.assembly.amqp;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Receives events broadcast by another server through the rabbitmq exchange, such as changes made by the background tasks
+ * to data that every server keeps in memory.
+ */
+public interface ClusterEventListener {
+	/**
+	 * Called on the rabbitmq consumer thread for every event broadcast by another server
+	 * 
+	 * @param data of the event
+	 */
+	public void onClusterEvent(JsonNode data);
+}
@@ -0,0 +1,29 @@
+package net.nationstatesplusplus.assembly.api;
+
+/**
+ * The classes of NationStates API requests, highest priority first. Each class may use at most its quota of requests
+ * per rate limit window, so that lower priority classes are never starved completely.
+ */
+public enum ApiPriority {
+	HAPPENINGS(44),
+	AUTHENTICATION(20),
+	WORLD_ASSEMBLY(4),
+	FLAGS(12),
+	ENDORSEMENTS(30),
+	UPDATE_ORDER(6),
+	;
+
+	private final int quota;
+	ApiPriority(int quota) {
+		this.quota = quota;
+	}
+
+	/**
+	 * The maximum number of requests of this class per rate limit window
+	 * 
+	 * @return quota
+	 */
+	public int getQuota() {
+		return quota;
+	}
+}
@@ -0,0 +1,174 @@
+package net.nationstatesplusplus.assembly.api;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+
+import play.Logger;
+
+import com.google.common.base.Ticker;
+
+/**
+ * <p>
+ * Schedules NationStates API requests from all tasks and controllers with a token bucket. Before making a request, callers
+ * {@link #acquire(ApiPriority, long)} a token for the class of the request, waiting in line instead of running into the
+ * rate limit of the API library.
+ * </p><p>
+ * A waiting request is only granted a token when no request of a higher priority class is waiting, and its class has not
+ * used up its quota for the current window. The bucket refills slower than the API library limit (49 requests per 30 seconds)
+ * so that the library limit is never reached by scheduled requests.
+ * </p>
+ */
+public class ApiScheduler {
+	private static final long DEFAULT_WINDOW = Duration.standardSeconds(30).getMillis();
+	private static final int REQUESTS_PER_WINDOW = 44;
+	private static final double CAPACITY = 4;
+	private static final ApiPriority[] PRIORITIES = ApiPriority.values();
+	private double tokens = CAPACITY;
+	private long lastRefill;
+	private long windowStart;
+	private int windowRequests = 0;
+	private double lastUtilization = 0;
+	private final int[] windowUsed = new int[PRIORITIES.length];
+	private final int[] waiting = new int[PRIORITIES.length];
+	private final long[] granted = new long[PRIORITIES.length];
+	private final long[] rejected = new long[PRIORITIES.length];
+	private final long[] waitTime = new long[PRIORITIES.length];
+	private final long window;
+	private final Ticker ticker;
+	public ApiScheduler() {
+		this(DEFAULT_WINDOW, Ticker.systemTicker());
+	}
+
+	/**
+	 * Creates a scheduler with a different rate limit window and time source, for tests
+	 * 
+	 * @param window length, in milliseconds
+	 * @param ticker time source
+	 */
+	ApiScheduler(long window, Ticker ticker) {
+		this.window = window;
+		this.ticker = ticker;
+		this.lastRefill = now();
+		this.windowStart = lastRefill;
+	}
+
+	private long now() {
+		return TimeUnit.NANOSECONDS.toMillis(ticker.read());
+	}
+
+	/**
+	 * Waits for a token to make a request of the given class
+	 * 
+	 * @param priority class of the request
+	 * @param timeout maximum time to wait, in milliseconds
+	 * @return true if the request may be made, false if no token was available in time
+	 */
+	public synchronized boolean acquire(ApiPriority priority, long timeout) {
+		final int index = priority.ordinal();
+		final long start = now();
+		final long deadline = start + timeout;
+		waiting[index]++;
+		try {
+			while (true) {
+				final long now = now();
+				refill(now);
+				if (canAcquire(index)) {
+					tokens -= 1;
+					windowUsed[index]++;
+					windowRequests++;
+					granted[index]++;
+					waitTime[index] += now - start;
+					notifyAll();
+					return true;
+				}
+				if (now >= deadline) {
+					rejected[index]++;
+					Logger.debug("Timed out waiting for a NationStates API token for {} requests", priority);
+					return false;
+				}
+				//Wake up for the next token or the next window, whichever is first
+				final long nextToken = (long) Math.ceil((1 - Math.min(1, tokens)) * window / REQUESTS_PER_WINDOW);
+				final long nextWindow = windowStart + window - now;
+				wait(Math.max(1, Math.min(deadline - now, Math.min(Math.max(nextToken, 1), nextWindow))));
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			rejected[index]++;
+			return false;
+		} finally {
+			waiting[index]--;
+		}
+	}
+
+	private boolean canAcquire(int index) {
+		if (tokens < 1 || windowUsed[index] >= PRIORITIES[index].getQuota()) {
+			return false;
+		}
+		for (int i = 0; i < index; i++) {
+			if (waiting[i] > 0 && windowUsed[i] < PRIORITIES[i].getQuota()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void refill(long now) {
+		tokens = Math.min(CAPACITY, tokens + (now - lastRefill) * (double) REQUESTS_PER_WINDOW / window);
+		lastRefill = now;
+		if (now >= windowStart + window) {
+			lastUtilization = windowRequests / (double) REQUESTS_PER_WINDOW;
+			if (windowRequests > 0) {
+				Logger.debug("NationStates API utilization: {}% ({} requests)", Math.round(lastUtilization * 100), windowRequests);
+			}
+			windowRequests = 0;
+			for (int i = 0; i < windowUsed.length; i++) {
+				windowUsed[i] = 0;
+			}
+			windowStart = now;
+		}
+	}
+
+	/**
+	 * The number of requests the class could still make in the current window, ignoring other classes
+	 * 
+	 * @param priority class
+	 * @return remaining requests
+	 */
+	public synchronized int getRemaining(ApiPriority priority) {
+		refill(now());
+		return Math.max(0, Math.min(priority.getQuota() - windowUsed[priority.ordinal()], REQUESTS_PER_WINDOW - windowRequests));
+	}
+
+	/**
+	 * Returns the budget utilization of the last completed window and per class counts of granted and rejected requests,
+	 * average wait times and currently waiting requests.
+	 * 
+	 * @return statistics
+	 */
+	public synchronized Map<String, Object> getStatistics() {
+		refill(now());
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("utilization", lastUtilization);
+		stats.put("window_requests", windowRequests);
+		stats.put("requests_per_window", REQUESTS_PER_WINDOW);
+		stats.put("tokens", tokens);
+		Map<String, Object> classes = new LinkedHashMap<String, Object>();
+		for (ApiPriority priority : PRIORITIES) {
+			final int i = priority.ordinal();
+			Map<String, Object> data = new HashMap<String, Object>();
+			data.put("quota", priority.getQuota());
+			data.put("window_used", windowUsed[i]);
+			data.put("waiting", waiting[i]);
+			data.put("granted", granted[i]);
+			data.put("rejected", rejected[i]);
+			data.put("average_wait", granted[i] > 0 ? waitTime[i] / granted[i] : 0);
+			classes.put(priority.name().toLowerCase(), data);
+		}
+		stats.put("classes", classes);
+		return stats;
+	}
+}
@@ -0,0 +1,265 @@
+package net.nationstatesplusplus.assembly.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.nationstatesplusplus.assembly.util.Utils;
+
+/**
+ * <p>
+ * A read-only, memory-mapped view of a single day's nation dump, stored in the columnar format written by {@link DumpArchiveWriter}.
+ * </p><p>
+ * Region names are dictionary encoded, and the nation rows are sorted by region so that every region's nations are a contiguous
+ * slice of each column. Region population queries are answered from the slice bounds alone, and census columns are primitive
+ * arrays read directly out of the mapped file.
+ * </p>
+ */
+public class DumpArchive {
+	static final int MAGIC = 0x4E535041; //NSPA
+	static final int VERSION = 1;
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File file;
+	private final MappedByteBuffer buffer;
+	private final long timestamp;
+	private final int nationCount;
+	private final String[] regions;
+	private final Map<String, Integer> regionIndex;
+	private final String[] censusColumns;
+	private final int regionStartsOffset;
+	private final int nameOffsetsOffset;
+	private final int nameHeapOffset;
+	private final int waOffset;
+	private final int populationOffset;
+	private final int censusOffset;
+
+	private DumpArchive(File file, MappedByteBuffer buffer) throws IOException {
+		this.file = file;
+		this.buffer = buffer;
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException("Not a dump archive: " + file.getName());
+		}
+		final int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported dump archive version [" + version + "] in " + file.getName());
+		}
+		this.timestamp = buffer.getLong();
+		this.nationCount = buffer.getInt();
+		final int regionCount = buffer.getInt();
+		final int censusCount = buffer.getInt();
+
+		this.censusColumns = new String[censusCount];
+		for (int i = 0; i < censusCount; i++) {
+			censusColumns[i] = readString(buffer);
+		}
+		this.regions = new String[regionCount];
+		this.regionIndex = new HashMap<String, Integer>(regionCount * 2);
+		for (int i = 0; i < regionCount; i++) {
+			regions[i] = readString(buffer);
+			regionIndex.put(regions[i], i);
+		}
+
+		//Column sections, in the order DumpArchiveWriter writes them
+		this.regionStartsOffset = buffer.position();
+		this.nameOffsetsOffset = regionStartsOffset + 4 * (regionCount + 1);
+		final int nameHeapLength = buffer.getInt(nameOffsetsOffset + 4 * nationCount);
+		this.nameHeapOffset = nameOffsetsOffset + 4 * (nationCount + 1);
+		this.waOffset = nameHeapOffset + nameHeapLength;
+		this.populationOffset = waOffset + nationCount;
+		this.censusOffset = populationOffset + 4 * nationCount;
+		if (censusOffset + 4L * nationCount * censusCount > buffer.capacity()) {
+			throw new IOException("Truncated dump archive: " + file.getName());
+		}
+	}
+
+	/**
+	 * Memory maps an existing dump archive file
+	 *
+	 * @param file to open
+	 * @return dump archive
+	 * @throws IOException if the file is missing, truncated or is not a dump archive
+	 */
+	public static DumpArchive open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			try (FileChannel channel = raf.getChannel()) {
+				//The mapping remains valid after the channel is closed
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				return new DumpArchive(file, buffer);
+			}
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		final int length = buffer.getShort() & 0xFFFF;
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * The time (in milliseconds, UTC) of the daily dump this archive was created from
+	 *
+	 * @return dump timestamp
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public int getNationCount() {
+		return nationCount;
+	}
+
+	public int getRegionCount() {
+		return regions.length;
+	}
+
+	public List<String> getCensusColumns() {
+		return Collections.unmodifiableList(Arrays.asList(censusColumns));
+	}
+
+	/**
+	 * Returns the dictionary index of the region, or -1 if the region did not exist in this dump
+	 *
+	 * @param region name
+	 * @return region index or -1
+	 */
+	public int getRegionIndex(String region) {
+		Integer index = regionIndex.get(Utils.sanitizeName(region));
+		return index != null ? index : -1;
+	}
+
+	public String getRegion(int regionIndex) {
+		return regions[regionIndex];
+	}
+
+	private int getRegionStart(int regionIndex) {
+		return buffer.getInt(regionStartsOffset + 4 * regionIndex);
+	}
+
+	/**
+	 * The number of nations in the given region in this dump
+	 *
+	 * @param region name
+	 * @return nations in the region, or 0 if the region did not exist
+	 */
+	public int getNumNations(String region) {
+		final int index = getRegionIndex(region);
+		if (index == -1) {
+			return 0;
+		}
+		return getRegionStart(index + 1) - getRegionStart(index);
+	}
+
+	/**
+	 * The number of World Assembly members in the given region in this dump
+	 *
+	 * @param region name
+	 * @return wa members in the region
+	 */
+	public int getNumWaMembers(String region) {
+		final int index = getRegionIndex(region);
+		int total = 0;
+		if (index != -1) {
+			for (int row = getRegionStart(index); row < getRegionStart(index + 1); row++) {
+				total += buffer.get(waOffset + row);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * The sum of the population (in millions) of all the nations in the given region in this dump
+	 *
+	 * @param region name
+	 * @return total population
+	 */
+	public long getTotalPopulation(String region) {
+		final int index = getRegionIndex(region);
+		long total = 0;
+		if (index != -1) {
+			for (int row = getRegionStart(index); row < getRegionStart(index + 1); row++) {
+				total += buffer.getInt(populationOffset + 4 * row);
+			}
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the names of all the nations in the given region in this dump, sorted alphabetically
+	 *
+	 * @param region name
+	 * @return nations in the region
+	 */
+	public List<String> getNations(String region) {
+		final int index = getRegionIndex(region);
+		if (index == -1) {
+			return Collections.emptyList();
+		}
+		final int start = getRegionStart(index);
+		final int end = getRegionStart(index + 1);
+		List<String> nations = new ArrayList<String>(end - start);
+		for (int row = start; row < end; row++) {
+			nations.add(getNationName(row));
+		}
+		return nations;
+	}
+
+	public String getNationName(int row) {
+		final int start = buffer.getInt(nameOffsetsOffset + 4 * row);
+		final int end = buffer.getInt(nameOffsetsOffset + 4 * (row + 1));
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(nameHeapOffset + start + i);
+		}
+		return new String(bytes, UTF8);
+	}
+
+	public boolean isWaMember(int row) {
+		return buffer.get(waOffset + row) == 1;
+	}
+
+	public int getPopulation(int row) {
+		return buffer.getInt(populationOffset + 4 * row);
+	}
+
+	/**
+	 * Returns the value of the census column for the given nation row
+	 *
+	 * @param column index in {@link #getCensusColumns()}
+	 * @param row of the nation
+	 * @return census value
+	 */
+	public float getCensus(int column, int row) {
+		return buffer.getFloat(censusOffset + 4 * (column * nationCount + row));
+	}
+
+	/**
+	 * Returns the index of the census column with the given name, or -1 if this archive does not contain it
+	 *
+	 * @param name of the census column
+	 * @return column index or -1
+	 */
+	public int getCensusColumn(String name) {
+		for (int i = 0; i < censusColumns.length; i++) {
+			if (censusColumns[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,176 @@
+package net.nationstatesplusplus.assembly.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.nationstatesplusplus.assembly.util.Utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Converts the h2 nations table created from a daily nation dump into the columnar {@link DumpArchive} format.
+ */
+public class DumpArchiveWriter {
+	private static final Logger logger = LoggerFactory.getLogger(DumpArchiveWriter.class);
+	/**
+	 * Numeric nation dump fields stored as float columns in the archive
+	 */
+	public static final String[] CENSUS_FIELDS = new String[] {"tax", "environment", "socialequality", "education", "lawandorder", "administration", "welfare",
+	                                "spirituality", "defence", "publictransport", "healthcare", "commerce", "civilrightscore", "economyscore", "politicalfreedomscore", "publicsector"};
+
+	private final long timestamp;
+	private final File output;
+	public DumpArchiveWriter(File output, long timestamp) {
+		this.output = output;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * Reads every nation from the h2 nation dump database and writes the archive file. The archive is written to a
+	 * temporary file first, and only renamed into place once it is complete.
+	 *
+	 * @param h2Conn connection to the parsed nation dump
+	 * @return number of nations archived
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public int write(Connection h2Conn) throws SQLException, IOException {
+		final List<Row> rows = new ArrayList<Row>(150000);
+		final TreeSet<String> regionNames = new TreeSet<String>();
+		StringBuilder sql = new StringBuilder("SELECT name, region, unstatus, population");
+		for (String field : CENSUS_FIELDS) {
+			sql.append(", ").append(field);
+		}
+		sql.append(" FROM nations");
+		try (PreparedStatement select = h2Conn.prepareStatement(sql.toString())) {
+			try (ResultSet result = select.executeQuery()) {
+				while (result.next()) {
+					Row row = new Row();
+					row.name = result.getString(1);
+					row.region = Utils.sanitizeName(result.getString(2));
+					if (row.region == null) {
+						row.region = "";
+					}
+					final String unstatus = result.getString(3);
+					row.waMember = unstatus != null && !unstatus.toLowerCase().equals("non-member");
+					row.population = result.getInt(4);
+					row.census = new float[CENSUS_FIELDS.length];
+					for (int i = 0; i < CENSUS_FIELDS.length; i++) {
+						row.census[i] = result.getFloat(5 + i);
+					}
+					rows.add(row);
+					regionNames.add(row.region);
+				}
+			}
+		}
+
+		final String[] regions = regionNames.toArray(new String[regionNames.size()]);
+		final Map<String, Integer> regionIndex = new HashMap<String, Integer>(regions.length * 2);
+		for (int i = 0; i < regions.length; i++) {
+			regionIndex.put(regions[i], i);
+		}
+		for (Row row : rows) {
+			row.regionIndex = regionIndex.get(row.region);
+		}
+		//Group each region's nations together, so a region is a contiguous slice of every column
+		final Row[] sorted = rows.toArray(new Row[rows.size()]);
+		Arrays.sort(sorted, new Comparator<Row>() {
+			@Override
+			public int compare(Row r1, Row r2) {
+				if (r1.regionIndex != r2.regionIndex) {
+					return r1.regionIndex < r2.regionIndex ? -1 : 1;
+				}
+				return r1.name.compareTo(r2.name);
+			}
+		});
+
+		File temp = new File(output.getParentFile(), output.getName() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+			out.writeInt(DumpArchive.MAGIC);
+			out.writeInt(DumpArchive.VERSION);
+			out.writeLong(timestamp);
+			out.writeInt(sorted.length);
+			out.writeInt(regions.length);
+			out.writeInt(CENSUS_FIELDS.length);
+			for (String field : CENSUS_FIELDS) {
+				writeString(out, field);
+			}
+			for (String region : regions) {
+				writeString(out, region);
+			}
+
+			//Region slice starts, with a trailing end marker
+			int row = 0;
+			for (int region = 0; region < regions.length; region++) {
+				out.writeInt(row);
+				while (row < sorted.length && sorted[row].regionIndex == region) {
+					row++;
+				}
+			}
+			out.writeInt(sorted.length);
+
+			//Nation name offsets, with the total heap length as the trailing entry, then the name heap
+			byte[][] names = new byte[sorted.length][];
+			int offset = 0;
+			for (int i = 0; i < sorted.length; i++) {
+				names[i] = sorted[i].name.getBytes(DumpArchive.UTF8);
+				out.writeInt(offset);
+				offset += names[i].length;
+			}
+			out.writeInt(offset);
+			for (byte[] name : names) {
+				out.write(name);
+			}
+
+			for (Row r : sorted) {
+				out.writeByte(r.waMember ? 1 : 0);
+			}
+			for (Row r : sorted) {
+				out.writeInt(r.population);
+			}
+			for (int column = 0; column < CENSUS_FIELDS.length; column++) {
+				for (Row r : sorted) {
+					out.writeFloat(r.census[column]);
+				}
+			}
+		}
+		if (output.exists() && !output.delete()) {
+			throw new IOException("Unable to replace existing dump archive " + output.getAbsolutePath());
+		}
+		if (!temp.renameTo(output)) {
+			throw new IOException("Unable to move dump archive into place at " + output.getAbsolutePath());
+		}
+		logger.info("Archived {} nations in {} regions to {}, size: {}", sorted.length, regions.length, output.getName(), output.length());
+		return sorted.length;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(DumpArchive.UTF8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	private static class Row {
+		String name;
+		String region;
+		int regionIndex;
+		boolean waMember;
+		int population;
+		float[] census;
+	}
+}
@@ -0,0 +1,196 @@
+package net.nationstatesplusplus.assembly.archive;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * <p>
+ * The directory of {@link DumpArchive} files, one per daily nation dump, and the query API over them.
+ * </p><p>
+ * Archive files are named after the date of the dump they were created from, e.g. <code>2014-08-01-nations.archive</code>.
+ * Recently used archives are kept memory-mapped in a small cache.
+ * </p>
+ */
+public class DumpArchives {
+	private static final Logger logger = LoggerFactory.getLogger(DumpArchives.class);
+	private static final DateTimeFormatter FILE_DATE = DateTimeFormat.forPattern("yyyy-MM-dd");
+	private static final String SUFFIX = "-nations.archive";
+	private final File directory;
+	private final LoadingCache<File, DumpArchive> archives;
+	public DumpArchives(File directory) {
+		this.directory = directory;
+		directory.mkdirs();
+		this.archives = CacheBuilder.newBuilder().maximumSize(400).expireAfterAccess(1, TimeUnit.HOURS).build(new CacheLoader<File, DumpArchive>() {
+			@Override
+			public DumpArchive load(File file) throws IOException {
+				return DumpArchive.open(file);
+			}
+		});
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * The archive file that the nation dump for the given date is written to
+	 *
+	 * @param date of the dump
+	 * @return archive file
+	 */
+	public File getArchiveFile(LocalDate date) {
+		return new File(directory, date.toString(FILE_DATE) + SUFFIX);
+	}
+
+	/**
+	 * Converts the h2 nation table of a parsed daily dump into a new archive for the given date, replacing any existing archive.
+	 *
+	 * @param h2Conn connection to the parsed nation dump
+	 * @param date of the dump
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public void archive(Connection h2Conn, LocalDate date) throws SQLException, IOException {
+		File file = getArchiveFile(date);
+		archives.invalidate(file);
+		new DumpArchiveWriter(file, date.toDateTimeAtStartOfDay(DateTimeZone.UTC).getMillis()).write(h2Conn);
+	}
+
+	/**
+	 * Returns all archive dates, oldest first
+	 *
+	 * @return sorted map of dump date to archive file
+	 */
+	public TreeMap<LocalDate, File> getArchiveFiles() {
+		TreeMap<LocalDate, File> files = new TreeMap<LocalDate, File>();
+		File[] list = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(SUFFIX);
+			}
+		});
+		if (list != null) {
+			for (File file : list) {
+				try {
+					files.put(FILE_DATE.parseLocalDate(file.getName().substring(0, file.getName().length() - SUFFIX.length())), file);
+				} catch (IllegalArgumentException e) {
+					logger.warn("Ignoring unrecognized dump archive file: {}", file.getName());
+				}
+			}
+		}
+		return files;
+	}
+
+	/**
+	 * Returns the archive for the given date, or null if no dump was archived for that day
+	 *
+	 * @param date of the dump
+	 * @return archive, or null
+	 */
+	public DumpArchive getArchive(LocalDate date) {
+		File file = getArchiveFile(date);
+		if (!file.exists()) {
+			return null;
+		}
+		return getArchive(file);
+	}
+
+	private DumpArchive getArchive(File file) {
+		try {
+			return archives.get(file);
+		} catch (ExecutionException e) {
+			logger.warn("Unable to open dump archive: " + file.getName(), e.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the number of nations in the region for every archived dump between the given dates (inclusive).
+	 *
+	 * @param region name
+	 * @param start date
+	 * @param end date
+	 * @return map of dump date to number of nations, oldest first
+	 */
+	public Map<LocalDate, Integer> getPopulationHistory(String region, LocalDate start, LocalDate end) {
+		Map<LocalDate, Integer> history = new LinkedHashMap<LocalDate, Integer>();
+		for (Map.Entry<LocalDate, File> e : getArchiveFiles().subMap(start, true, end, true).entrySet()) {
+			DumpArchive archive = getArchive(e.getValue());
+			if (archive != null) {
+				history.put(e.getKey(), archive.getNumNations(region));
+			}
+		}
+		return history;
+	}
+
+	/**
+	 * Returns the nations that were in the region in the first dump on or after the start date, but were not in it in the last dump on or before the end date.
+	 *
+	 * @param region name
+	 * @param start date
+	 * @param end date
+	 * @return departed nations, sorted alphabetically
+	 */
+	public List<String> getDepartedNations(String region, LocalDate start, LocalDate end) {
+		return diffNations(region, start, end, true);
+	}
+
+	/**
+	 * Returns the nations that were not in the region in the first dump on or after the start date, but were in it in the last dump on or before the end date.
+	 *
+	 * @param region name
+	 * @param start date
+	 * @param end date
+	 * @return arrived nations, sorted alphabetically
+	 */
+	public List<String> getArrivedNations(String region, LocalDate start, LocalDate end) {
+		return diffNations(region, start, end, false);
+	}
+
+	private List<String> diffNations(String region, LocalDate start, LocalDate end, boolean departed) {
+		TreeMap<LocalDate, File> files = getArchiveFiles();
+		Map.Entry<LocalDate, File> first = files.ceilingEntry(start);
+		Map.Entry<LocalDate, File> last = files.floorEntry(end);
+		if (first == null || last == null || !first.getKey().isBefore(last.getKey())) {
+			return Collections.emptyList();
+		}
+		DumpArchive before = getArchive(first.getValue());
+		DumpArchive after = getArchive(last.getValue());
+		if (before == null || after == null) {
+			return Collections.emptyList();
+		}
+		List<String> from = departed ? before.getNations(region) : after.getNations(region);
+		Set<String> to = new HashSet<String>(departed ? after.getNations(region) : before.getNations(region));
+		List<String> nations = new ArrayList<String>();
+		for (String nation : from) {
+			if (!to.contains(nation)) {
+				nations.add(nation);
+			}
+		}
+		return nations;
+	}
+}
@@ -0,0 +1,281 @@
+package net.nationstatesplusplus.assembly.autocomplete;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import net.nationstatesplusplus.assembly.amqp.ClusterEventListener;
+import net.nationstatesplusplus.assembly.model.websocket.WebsocketManager;
+
+import play.Logger;
+import play.libs.Json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * A sorted, in-memory index of the names of living nations or regions, for autocomplete. Names starting with a prefix are a contiguous
+ * range of the index, so a lookup never scans the database.
+ * </p><p>
+ * The index is loaded from the database at startup and after every daily dump, and kept current in between as nations and regions
+ * are founded and cease to exist. The background server broadcasts these changes under the cluster event of the index, and the other
+ * servers apply them to their own index. Changes made while the index is reloading are applied again to the reloaded index.
+ * </p>
+ */
+public class NameIndex implements ClusterEventListener {
+	public static final String NATION_CLUSTER_EVENT = "nation_names";
+	public static final String REGION_CLUSTER_EVENT = "region_names";
+	public static enum Ranking {
+		/**
+		 * Alphabetical order
+		 */
+		NAME,
+		/**
+		 * Largest population first
+		 */
+		POPULATION,
+		/**
+		 * Most recent login first
+		 */
+		LAST_LOGIN;
+
+		/**
+		 * Returns the ranking with the given name, or {@link #NAME} for an unknown or empty name
+		 * 
+		 * @param name of the ranking, e.g. "population"
+		 * @return ranking
+		 */
+		public static Ranking parse(String name) {
+			for (Ranking ranking : values()) {
+				if (ranking.name().equalsIgnoreCase(name)) {
+					return ranking;
+				}
+			}
+			return NAME;
+		}
+	}
+	private final ComboPooledDataSource pool;
+	private final String clusterEvent;
+	private final String loadSql;
+	private volatile ConcurrentSkipListMap<String, Entry> names = new ConcurrentSkipListMap<String, Entry>();
+	private volatile boolean loaded = false;
+	private volatile WebsocketManager publisher = null;
+	private boolean reloading = false;
+	private final List<Entry> changedDuringReload = new ArrayList<Entry>();
+	/**
+	 * @param pool of database connections
+	 * @param clusterEvent name of the event changes to this index are broadcast with
+	 * @param loadSql selects the name, population and last login of every entry
+	 */
+	public NameIndex(ComboPooledDataSource pool, String clusterEvent, String loadSql) {
+		this.pool = pool;
+		this.clusterEvent = clusterEvent;
+		this.loadSql = loadSql;
+	}
+
+	/**
+	 * Broadcasts every change made to this index to the other servers
+	 * 
+	 * @param publisher to broadcast changes with
+	 */
+	public void setPublisher(WebsocketManager publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * The name of the event changes to this index are broadcast with
+	 * 
+	 * @return event name
+	 */
+	public String getClusterEvent() {
+		return clusterEvent;
+	}
+
+	/**
+	 * Replaces the index with the names in the database
+	 */
+	public void reload() {
+		final long start = System.currentTimeMillis();
+		synchronized (this) {
+			reloading = true;
+		}
+		ConcurrentSkipListMap<String, Entry> loading = new ConcurrentSkipListMap<String, Entry>();
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement(loadSql)) {
+				select.setFetchSize(Integer.MIN_VALUE);
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						loading.put(result.getString(1), new Entry(result.getString(1), result.getLong(2), result.getLong(3)));
+					}
+				}
+			}
+		} catch (SQLException e) {
+			Logger.error("Unable to load name index", e);
+			synchronized (this) {
+				reloading = false;
+				changedDuringReload.clear();
+			}
+			return;
+		}
+		synchronized (this) {
+			names = loading;
+			for (Entry change : changedDuringReload) {
+				apply(change);
+			}
+			changedDuringReload.clear();
+			reloading = false;
+			loaded = true;
+		}
+		Logger.info("Loaded " + loading.size() + " names into the name index in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Whether the index has been loaded from the database yet
+	 * 
+	 * @return loaded
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Adds or replaces a name
+	 * 
+	 * @param name sanitized name
+	 * @param population of the nation or region
+	 * @param lastLogin of the nation, or 0
+	 */
+	public void put(String name, long population, long lastLogin) {
+		change(new Entry(name, population, lastLogin));
+	}
+
+	/**
+	 * Removes a name
+	 * 
+	 * @param name sanitized name
+	 */
+	public void remove(String name) {
+		change(new Entry(name, -1, -1));
+	}
+
+	private synchronized void change(Entry entry) {
+		apply(entry);
+		if (reloading) {
+			changedDuringReload.add(entry);
+		}
+		final WebsocketManager publisher = this.publisher;
+		if (publisher != null) {
+			ObjectNode data = Json.newObject();
+			data.put("name", entry.name);
+			data.put("population", entry.population);
+			data.put("last_login", entry.lastLogin);
+			publisher.broadcast(clusterEvent, data);
+		}
+	}
+
+	/**
+	 * Applies a name added or removed by the background server
+	 */
+	@Override
+	public void onClusterEvent(JsonNode data) {
+		change(new Entry(data.get("name").asText(), data.get("population").asLong(), data.get("last_login").asLong()));
+	}
+
+	/**
+	 * Adds the entry, or removes the name if the population is negative
+	 */
+	private void apply(Entry entry) {
+		if (entry.population < 0) {
+			names.remove(entry.name);
+		} else {
+			names.put(entry.name, entry);
+		}
+	}
+
+	/**
+	 * Returns the names starting with the prefix
+	 * 
+	 * @param prefix sanitized prefix
+	 * @param limit maximum number of names
+	 * @param ranking order of the names, the top names by this ranking are returned
+	 * @return names
+	 */
+	public List<String> search(String prefix, int limit, Ranking ranking) {
+		final ConcurrentNavigableMap<String, Entry> range = names.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+		List<String> matches = new ArrayList<String>(limit);
+		if (ranking == Ranking.NAME) {
+			for (String name : range.keySet()) {
+				if (matches.size() == limit) {
+					break;
+				}
+				matches.add(name);
+			}
+			return matches;
+		}
+		//Keep the top entries in a min-heap, the weakest of them is replaced by any better entry
+		final Comparator<Entry> order = ranking == Ranking.POPULATION ? POPULATION_ORDER : LAST_LOGIN_ORDER;
+		PriorityQueue<Entry> top = new PriorityQueue<Entry>(limit + 1, order);
+		for (Entry entry : range.values()) {
+			top.add(entry);
+			if (top.size() > limit) {
+				top.poll();
+			}
+		}
+		List<Entry> sorted = new ArrayList<Entry>(top);
+		Collections.sort(sorted, Collections.reverseOrder(order));
+		for (Entry entry : sorted) {
+			matches.add(entry.name);
+		}
+		return matches;
+	}
+
+	/**
+	 * The number of names in the index
+	 * 
+	 * @return size
+	 */
+	public int size() {
+		return names.size();
+	}
+
+	private static final Comparator<Entry> POPULATION_ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry e1, Entry e2) {
+			if (e1.population != e2.population) {
+				return e1.population < e2.population ? -1 : 1;
+			}
+			return e2.name.compareTo(e1.name);
+		}
+	};
+
+	private static final Comparator<Entry> LAST_LOGIN_ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry e1, Entry e2) {
+			if (e1.lastLogin != e2.lastLogin) {
+				return e1.lastLogin < e2.lastLogin ? -1 : 1;
+			}
+			return e2.name.compareTo(e1.name);
+		}
+	};
+
+	private static class Entry {
+		final String name;
+		final long population;
+		final long lastLogin;
+		Entry(String name, long population, long lastLogin) {
+			this.name = name;
+			this.population = population;
+			this.lastLogin = lastLogin;
+		}
+	}
+}
@@ -0,0 +1,439 @@
+package net.nationstatesplusplus.assembly.census;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import play.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * <p>
+ * Append-only time series store for nation census scores, replacing the wide <code>assembly.nation_shards</code> rows.
+ * </p><p>
+ * Samples are appended to one segment file per day (UTC). Inside a segment, each sample is XOR encoded against the previous
+ * sample for the same nation, so a census score that did not change costs a single bit, and one that changed only costs its
+ * significant bits. Each segment starts from a blank state for every nation, so segments can be read independently and retention
+ * is enforced by deleting whole segment files instead of deleting rows per nation.
+ * </p><p>
+ * Record layout: <code>int length, int nation, long timestamp, short columns, changed-column bitmap, then for each changed column
+ * a byte of trailing zeros and a varint of the remaining xor bits</code>.
+ * </p><p>
+ * Each segment is indexed by the offsets of every nation's records, so queries only decode the records of the requested nations.
+ * The index of the open segment is maintained as samples are appended, indexes of older segments are built once and cached.
+ * </p>
+ */
+public class CensusHistory {
+	private static final DateTimeFormatter FILE_DATE = DateTimeFormat.forPattern("yyyy-MM-dd");
+	private static final String SUFFIX = ".census";
+	private final File directory;
+	private final Duration retention;
+	private final Map<Integer, int[]> previous = new HashMap<Integer, int[]>();
+	private final Cache<LocalDate, Map<Integer, int[]>> indexes = CacheBuilder.newBuilder().maximumSize(16).build();
+	private LocalDate currentDay = null;
+	private ConcurrentHashMap<Integer, int[]> currentIndex = null;
+	private long currentLength = 0;
+	private DataOutputStream output = null;
+	public CensusHistory(File directory, Duration retention) {
+		this.directory = directory;
+		this.retention = retention;
+		directory.mkdirs();
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Appends a census sample for the nation to today's segment.
+	 * 
+	 * @param nationId of the nation
+	 * @param timestamp of the sample, in milliseconds
+	 * @param census scores, indexed by census id
+	 * @throws IOException
+	 */
+	public synchronized void append(int nationId, long timestamp, float[] census) throws IOException {
+		openSegment(new LocalDate(timestamp, DateTimeZone.UTC));
+
+		int[] prev = previous.get(nationId);
+		if (prev == null || prev.length != census.length) {
+			prev = new int[census.length];
+		}
+		int[] bits = new int[census.length];
+		byte[] changed = new byte[(census.length + 7) / 8];
+		for (int i = 0; i < census.length; i++) {
+			bits[i] = Float.floatToIntBits(census[i]);
+			if (bits[i] != prev[i]) {
+				changed[i / 8] |= 1 << (i % 8);
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream record = new DataOutputStream(bytes);
+		record.writeInt(nationId);
+		record.writeLong(timestamp);
+		record.writeShort(census.length);
+		record.write(changed);
+		for (int i = 0; i < census.length; i++) {
+			final int xor = bits[i] ^ prev[i];
+			if (xor != 0) {
+				final int trailing = Integer.numberOfTrailingZeros(xor);
+				record.writeByte(trailing);
+				writeVarInt(record, xor >>> trailing);
+			}
+		}
+		output.writeInt(bytes.size());
+		bytes.writeTo(output);
+		output.flush();
+		previous.put(nationId, bits);
+		currentIndex.put(nationId, withOffset(currentIndex.get(nationId), (int) currentLength));
+		currentLength += 4 + bytes.size();
+	}
+
+	private static int[] withOffset(int[] offsets, int offset) {
+		if (offsets == null) {
+			return new int[] {offset};
+		}
+		int[] copy = Arrays.copyOf(offsets, offsets.length + 1);
+		copy[offsets.length] = offset;
+		return copy;
+	}
+
+	/**
+	 * Opens (or rolls over to) the segment for the given day. When an existing segment is reopened, such as after a restart,
+	 * it is replayed to restore the previous sample of each nation, and any partially written trailing record is truncated.
+	 */
+	private void openSegment(LocalDate day) throws IOException {
+		if (day.equals(currentDay)) {
+			return;
+		}
+		if (output != null) {
+			output.close();
+			output = null;
+		}
+		previous.clear();
+		final ConcurrentHashMap<Integer, int[]> index = new ConcurrentHashMap<Integer, int[]>();
+		long length = 0;
+		File segment = getSegmentFile(day);
+		if (segment.exists()) {
+			final long valid = replay(segment, new SampleVisitor() {
+				@Override
+				public void visit(int nationId, int offset, long timestamp, int[] bits) {
+					previous.put(nationId, bits.clone());
+					index.put(nationId, withOffset(index.get(nationId), offset));
+				}
+			});
+			length = valid;
+			if (valid < segment.length()) {
+				Logger.warn("Truncating partial census history record in {} at {}", segment.getName(), valid);
+				try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+					raf.setLength(valid);
+				}
+			}
+		}
+		output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment, true), 1 << 14));
+		currentDay = day;
+		currentIndex = index;
+		currentLength = length;
+		indexes.put(day, index);
+		dropExpiredSegments(day);
+	}
+
+	private void dropExpiredSegments(LocalDate today) {
+		final LocalDate oldest = today.minusDays((int) retention.getStandardDays());
+		for (Map.Entry<LocalDate, File> e : getSegments().headMap(oldest, false).entrySet()) {
+			indexes.invalidate(e.getKey());
+			if (e.getValue().delete()) {
+				Logger.info("Dropped expired census history segment {}", e.getValue().getName());
+			} else {
+				Logger.warn("Unable to drop expired census history segment {}", e.getValue().getName());
+			}
+		}
+	}
+
+	private File getSegmentFile(LocalDate day) {
+		return new File(directory, day.toString(FILE_DATE) + SUFFIX);
+	}
+
+	/**
+	 * Returns all segment files in the store, oldest first
+	 * 
+	 * @return map of segment day to segment file
+	 */
+	public TreeMap<LocalDate, File> getSegments() {
+		TreeMap<LocalDate, File> segments = new TreeMap<LocalDate, File>();
+		File[] files = directory.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(SUFFIX);
+			}
+		});
+		if (files != null) {
+			for (File file : files) {
+				try {
+					segments.put(FILE_DATE.parseLocalDate(file.getName().substring(0, file.getName().length() - SUFFIX.length())), file);
+				} catch (IllegalArgumentException e) {
+					Logger.warn("Ignoring unrecognized census history file: {}", file.getName());
+				}
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * Returns every sample for the nation between the given times (inclusive), oldest first.
+	 * 
+	 * @param nationId of the nation
+	 * @param start time, in milliseconds
+	 * @param end time, in milliseconds
+	 * @return census samples
+	 * @throws IOException
+	 */
+	public List<CensusSample> getHistory(final int nationId, final long start, final long end) throws IOException {
+		final List<CensusSample> samples = new ArrayList<CensusSample>();
+		for (Map.Entry<LocalDate, File> e : getSegments(start, end).entrySet()) {
+			final int[] offsets = getIndex(e.getKey(), e.getValue()).get(nationId);
+			if (offsets != null) {
+				read(e.getValue(), offsets, new SampleVisitor() {
+					@Override
+					public void visit(int nation, int offset, long timestamp, int[] bits) {
+						if (timestamp >= start && timestamp <= end) {
+							samples.add(new CensusSample(timestamp, toFloats(bits)));
+						}
+					}
+				});
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Returns the most recent sample since the given time for each of the nations.
+	 * Nations without a sample in that period are not included in the result.
+	 * 
+	 * @param nations to look up
+	 * @param since time, in milliseconds
+	 * @return map of nation id to most recent sample
+	 * @throws IOException
+	 */
+	public Map<Integer, CensusSample> getLatest(Collection<Integer> nations, final long since) throws IOException {
+		final Set<Integer> remaining = new HashSet<Integer>(nations);
+		final Map<Integer, CensusSample> latest = new HashMap<Integer, CensusSample>();
+		//Newest segments first, a nation's latest sample is in the newest segment it has records in
+		for (Map.Entry<LocalDate, File> e : getSegments(since, Long.MAX_VALUE).descendingMap().entrySet()) {
+			if (remaining.isEmpty()) {
+				break;
+			}
+			final Map<Integer, int[]> index = getIndex(e.getKey(), e.getValue());
+			for (Integer nation : new ArrayList<Integer>(remaining)) {
+				final int[] offsets = index.get(nation);
+				if (offsets != null) {
+					read(e.getValue(), offsets, new SampleVisitor() {
+						@Override
+						public void visit(int nationId, int offset, long timestamp, int[] bits) {
+							if (timestamp >= since) {
+								latest.put(nationId, new CensusSample(timestamp, toFloats(bits)));
+							}
+						}
+					});
+					if (latest.containsKey(nation)) {
+						remaining.remove(nation);
+					}
+				}
+			}
+		}
+		return latest;
+	}
+
+	/**
+	 * Computes statistics of a single census score over the most recent sample of each of the nations since the given time,
+	 * e.g. the regional median of a census score is <code>getStatistics(regionNations, 68, since).getPercentile(50)</code>
+	 * 
+	 * @param nations to aggregate
+	 * @param census id of the census score
+	 * @param since time, in milliseconds
+	 * @return statistics of the census score
+	 * @throws IOException
+	 */
+	public DescriptiveStatistics getStatistics(Collection<Integer> nations, int census, long since) throws IOException {
+		DescriptiveStatistics stats = new DescriptiveStatistics();
+		for (CensusSample sample : getLatest(nations, since).values()) {
+			if (census < sample.getCensus().length) {
+				stats.addValue(sample.getCensus()[census]);
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Returns the segments which may hold samples between the given times, with any buffered samples flushed to the open segment
+	 */
+	private TreeMap<LocalDate, File> getSegments(long start, long end) throws IOException {
+		synchronized (this) {
+			if (output != null) {
+				output.flush();
+			}
+		}
+		final LocalDate first = new LocalDate(start, DateTimeZone.UTC);
+		if (end == Long.MAX_VALUE) {
+			return new TreeMap<LocalDate, File>(getSegments().tailMap(first, true));
+		}
+		return new TreeMap<LocalDate, File>(getSegments().subMap(first, true, new LocalDate(end, DateTimeZone.UTC), true));
+	}
+
+	/**
+	 * Returns the offsets of every nation's records in the segment, building and caching the index if needed
+	 */
+	private Map<Integer, int[]> getIndex(LocalDate day, final File segment) throws IOException {
+		synchronized (this) {
+			if (day.equals(currentDay)) {
+				return currentIndex;
+			}
+		}
+		try {
+			return indexes.get(day, new Callable<Map<Integer, int[]>>() {
+				@Override
+				public Map<Integer, int[]> call() throws IOException {
+					final Map<Integer, int[]> index = new HashMap<Integer, int[]>();
+					replay(segment, new SampleVisitor() {
+						@Override
+						public void visit(int nationId, int offset, long timestamp, int[] bits) {
+							index.put(nationId, withOffset(index.get(nationId), offset));
+						}
+					});
+					return index;
+				}
+			});
+		} catch (ExecutionException e) {
+			throw new IOException("Unable to index census history segment " + segment.getName(), e.getCause());
+		}
+	}
+
+	/**
+	 * Decodes the records of a single nation at the given offsets of the segment, in order
+	 */
+	private static void read(File segment, int[] offsets, SampleVisitor visitor) throws IOException {
+		final Map<Integer, int[]> state = new HashMap<Integer, int[]>(2);
+		try (RandomAccessFile in = new RandomAccessFile(segment, "r")) {
+			for (int offset : offsets) {
+				in.seek(offset);
+				byte[] record = new byte[in.readInt()];
+				in.readFully(record);
+				decode(record, offset, state, visitor);
+			}
+		}
+	}
+
+	/**
+	 * Decodes every record in the segment, in order.
+	 * 
+	 * @return the length of the valid records in the segment
+	 */
+	private static long replay(File segment, SampleVisitor visitor) throws IOException {
+		final Map<Integer, int[]> state = new HashMap<Integer, int[]>();
+		long valid = 0;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segment), 1 << 16))) {
+			while (true) {
+				final int length;
+				try {
+					length = in.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				byte[] record = new byte[length];
+				try {
+					in.readFully(record);
+				} catch (EOFException e) {
+					break;
+				}
+				decode(record, (int) valid, state, visitor);
+				valid += 4 + length;
+			}
+		}
+		return valid;
+	}
+
+	private static void decode(byte[] record, int offset, Map<Integer, int[]> state, SampleVisitor visitor) throws IOException {
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+		final int nationId = data.readInt();
+		final long timestamp = data.readLong();
+		final int columns = data.readShort();
+		byte[] changed = new byte[(columns + 7) / 8];
+		data.readFully(changed);
+		int[] bits = state.get(nationId);
+		if (bits == null || bits.length != columns) {
+			bits = new int[columns];
+			state.put(nationId, bits);
+		}
+		for (int i = 0; i < columns; i++) {
+			if ((changed[i / 8] & (1 << (i % 8))) != 0) {
+				final int trailing = data.readUnsignedByte();
+				bits[i] ^= readVarInt(data) << trailing;
+			}
+		}
+		visitor.visit(nationId, offset, timestamp, bits);
+	}
+
+	private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			final int b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed census history varint");
+	}
+
+	private static float[] toFloats(int[] bits) {
+		float[] values = new float[bits.length];
+		for (int i = 0; i < bits.length; i++) {
+			values[i] = Float.intBitsToFloat(bits[i]);
+		}
+		return values;
+	}
+
+	private static interface SampleVisitor {
+		void visit(int nationId, int offset, long timestamp, int[] bits);
+	}
+}
@@ -0,0 +1,30 @@
+package net.nationstatesplusplus.assembly.census;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The census scores of a nation at a single point in time
+ */
+public class CensusSample {
+	@JsonProperty
+	private final long timestamp;
+	@JsonProperty
+	private final float[] census;
+	public CensusSample(long timestamp, float[] census) {
+		this.timestamp = timestamp;
+		this.census = census;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * The census scores, indexed by census id
+	 * 
+	 * @return census scores
+	 */
+	public float[] getCensus() {
+		return census;
+	}
+}
@@ -0,0 +1,697 @@
+package net.nationstatesplusplus.assembly.endorsement;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import net.nationstatesplusplus.assembly.amqp.ClusterEventListener;
+import net.nationstatesplusplus.assembly.model.websocket.WebsocketManager;
+import net.nationstatesplusplus.assembly.util.SortedIntSet;
+
+import play.Logger;
+import play.libs.Json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * Memory resident copy of the endorsements between World Assembly nations, used to answer the endorsement
+ * queries of the WorldAssemblyController without touching the database.
+ * </p><p>
+ * Every nation with <code>wa_member &lt;&gt; 0</code> is a node, keyed by nation id, holding the sorted int ids of the nations
+ * endorsing it and the nations it endorses. Each region holds the sorted ids of its current World Assembly members, so the
+ * missing and unreturned endorsement queries are merges of primitive arrays.
+ * </p><p>
+ * The background server keeps the graph current from happenings and nation refreshes, and broadcasts every change to the
+ * other servers, which apply them to their own graph. Every server also periodically calls {@link #reload()} to rebuild it
+ * from the database, which only corrects drift. Queries return null when the graph can not answer them (not loaded yet,
+ * or the nation is not a World Assembly nation), and callers should fall back to the database.
+ * </p>
+ */
+public class EndorsementGraph implements ClusterEventListener {
+	public static final String CLUSTER_EVENT = "endorsement_graph";
+	private final ComboPooledDataSource pool;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private Map<Integer, Node> nodes = new HashMap<Integer, Node>();
+	private Map<Integer, SortedIntSet> regions = new HashMap<Integer, SortedIntSet>();
+	private volatile boolean loaded = false;
+	private final List<EndorsementListener> listeners = new ArrayList<EndorsementListener>();
+	private volatile WebsocketManager publisher = null;
+	private boolean reloading = false;
+	private final List<JsonNode> changedDuringReload = new ArrayList<JsonNode>();
+	public EndorsementGraph(ComboPooledDataSource pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Broadcasts every change made to this graph to the other servers
+	 * 
+	 * @param publisher to broadcast changes with
+	 */
+	public void setPublisher(WebsocketManager publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * Broadcasts a change, and keeps it to apply again to the reloaded graph if the graph is reloading
+	 */
+	private void publish(String change, ObjectNode data) {
+		data.put("change", change);
+		synchronized (changedDuringReload) {
+			if (reloading) {
+				changedDuringReload.add(data);
+			}
+		}
+		final WebsocketManager publisher = this.publisher;
+		if (publisher != null) {
+			publisher.broadcast(CLUSTER_EVENT, data);
+		}
+	}
+
+	/**
+	 * Applies a change broadcast by the background server
+	 */
+	@Override
+	public void onClusterEvent(JsonNode data) {
+		apply(data);
+	}
+
+	private void apply(JsonNode data) {
+		switch (data.get("change").asText()) {
+			case "add_endorsement":
+				addEndorsement(data.get("endorser").asInt(), data.get("endorsed").asInt());
+				break;
+			case "remove_endorsement":
+				removeEndorsement(data.get("endorser").asInt(), data.get("endorsed").asInt());
+				break;
+			case "set_endorsers":
+				List<Integer> endorsers = new ArrayList<Integer>(data.get("endorsers").size());
+				for (JsonNode endorser : data.get("endorsers")) {
+					endorsers.add(endorser.asInt());
+				}
+				setEndorsers(data.get("endorsed").asInt(), endorsers);
+				break;
+			case "wa_status":
+				setWAStatus(data.get("nation").asInt(), data.get("wa_status").asInt());
+				break;
+			case "relocate":
+				relocate(data.get("nation").asInt(), data.get("region").asInt());
+				break;
+			case "remove_nation":
+				removeNation(data.get("nation").asInt());
+				break;
+			case "update_nation":
+				updateNation(data.get("nation").asInt(), data.get("name").asText(), data.get("title").asText(), data.get("full_name").asText(), data.get("flag").asText(),
+						data.get("region").asInt(), data.get("influence").asInt(), data.get("influence_desc").asText(), data.get("wa_status").asInt());
+				break;
+			default:
+				Logger.warn("Unknown endorsement graph change: " + data);
+		}
+	}
+
+	/**
+	 * Registers a listener to be notified of changes to the graph
+	 * 
+	 * @param listener
+	 */
+	public void addListener(EndorsementListener listener) {
+		lock.writeLock().lock();
+		try {
+			listeners.add(listener);
+			if (loaded) {
+				listener.onReload(snapshot());
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private List<Member> snapshot() {
+		List<Member> members = new ArrayList<Member>(nodes.size());
+		for (Node node : nodes.values()) {
+			members.add(node.snapshot());
+		}
+		return members;
+	}
+
+	private void notifyChanged(Node node) {
+		if (!listeners.isEmpty()) {
+			Member member = node.snapshot();
+			for (EndorsementListener listener : listeners) {
+				listener.onMemberChanged(member);
+			}
+		}
+	}
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Rebuilds the graph from the <code>assembly.nation</code> and <code>assembly.endorsements</code> tables.
+	 * 
+	 * @throws SQLException
+	 */
+	public void reload() throws SQLException {
+		final long start = System.currentTimeMillis();
+		synchronized (changedDuringReload) {
+			reloading = true;
+			changedDuringReload.clear();
+		}
+		Map<Integer, Node> nodes = new HashMap<Integer, Node>(40000);
+		Map<Integer, SortedIntSet> regions = new HashMap<Integer, SortedIntSet>(10000);
+		int edges = 0;
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement("SELECT id, name, title, full_name, flag, region, influence, influence_desc, wa_member FROM assembly.nation WHERE alive = 1 AND wa_member <> 0")) {
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						Node node = readNode(result);
+						nodes.put(node.id, node);
+						if (node.waStatus == 1) {
+							getOrCreate(regions, node.region).add(node.id);
+						}
+					}
+				}
+			}
+			try (PreparedStatement select = conn.prepareStatement("SELECT endorser, endorsed FROM assembly.endorsements")) {
+				select.setFetchSize(Integer.MIN_VALUE);
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						Node endorser = nodes.get(result.getInt(1));
+						Node endorsed = nodes.get(result.getInt(2));
+						if (endorser != null && endorsed != null) {
+							endorser.endorsing.add(endorsed.id);
+							endorsed.endorsers.add(endorser.id);
+							edges++;
+						}
+					}
+				}
+			}
+		} catch (SQLException e) {
+			synchronized (changedDuringReload) {
+				reloading = false;
+				changedDuringReload.clear();
+			}
+			throw e;
+		}
+		lock.writeLock().lock();
+		try {
+			this.nodes = nodes;
+			this.regions = regions;
+			this.loaded = true;
+			if (!listeners.isEmpty()) {
+				List<Member> members = snapshot();
+				for (EndorsementListener listener : listeners) {
+					listener.onReload(members);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		//Every change is idempotent, so changes applied to both graphs are safe to apply again
+		final List<JsonNode> changes;
+		synchronized (changedDuringReload) {
+			changes = new ArrayList<JsonNode>(changedDuringReload);
+			changedDuringReload.clear();
+			reloading = false;
+		}
+		for (JsonNode change : changes) {
+			apply(change);
+		}
+		Logger.info("Loaded endorsement graph with {} nations and {} endorsements in {} ms", nodes.size(), edges, System.currentTimeMillis() - start);
+	}
+
+	private static SortedIntSet getOrCreate(Map<Integer, SortedIntSet> regions, int region) {
+		SortedIntSet members = regions.get(region);
+		if (members == null) {
+			members = new SortedIntSet();
+			regions.put(region, members);
+		}
+		return members;
+	}
+
+	private static Node readNode(ResultSet result) throws SQLException {
+		Node node = new Node(result.getInt("id"));
+		node.name = result.getString("name");
+		node.title = result.getString("title");
+		node.fullName = result.getString("full_name");
+		node.flag = result.getString("flag");
+		node.region = result.getInt("region");
+		node.influence = result.getInt("influence");
+		node.influenceDesc = result.getString("influence_desc");
+		node.waStatus = result.getByte("wa_member");
+		return node;
+	}
+
+	/**
+	 * Loads a nation missing from the graph, if it is a living World Assembly nation.
+	 */
+	private void ensureNode(int nationId) {
+		if (!loaded || nationId == -1) {
+			return;
+		}
+		lock.readLock().lock();
+		try {
+			if (nodes.containsKey(nationId)) {
+				return;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement("SELECT id, name, title, full_name, flag, region, influence, influence_desc, wa_member FROM assembly.nation WHERE alive = 1 AND wa_member <> 0 AND id = ?")) {
+				select.setInt(1, nationId);
+				try (ResultSet result = select.executeQuery()) {
+					if (result.next()) {
+						Node node = readNode(result);
+						lock.writeLock().lock();
+						try {
+							if (!nodes.containsKey(nationId)) {
+								addNode(node);
+							}
+						} finally {
+							lock.writeLock().unlock();
+						}
+					}
+				}
+			}
+		} catch (SQLException e) {
+			Logger.warn("Unable to load nation [" + nationId + "] into the endorsement graph", e);
+		}
+	}
+
+	private void addNode(Node node) {
+		nodes.put(node.id, node);
+		if (node.waStatus == 1) {
+			getOrCreate(regions, node.region).add(node.id);
+		}
+		notifyChanged(node);
+	}
+
+	private void removeFromRegion(Node node) {
+		SortedIntSet members = regions.get(node.region);
+		if (members != null) {
+			members.remove(node.id);
+		}
+	}
+
+	private void unlink(Node node) {
+		for (int i = 0; i < node.endorsing.size(); i++) {
+			Node endorsed = nodes.get(node.endorsing.get(i));
+			if (endorsed != null) {
+				endorsed.endorsers.remove(node.id);
+				notifyChanged(endorsed);
+			}
+		}
+		for (int i = 0; i < node.endorsers.size(); i++) {
+			Node endorser = nodes.get(node.endorsers.get(i));
+			if (endorser != null) {
+				endorser.endorsing.remove(node.id);
+			}
+		}
+		node.endorsing.clear();
+		node.endorsers.clear();
+	}
+
+	/**
+	 * Records an endorsement from a happening
+	 * 
+	 * @param endorser nation id
+	 * @param endorsed nation id
+	 */
+	public void addEndorsement(int endorser, int endorsed) {
+		ObjectNode change = Json.newObject();
+		change.put("endorser", endorser);
+		change.put("endorsed", endorsed);
+		publish("add_endorsement", change);
+		ensureNode(endorser);
+		ensureNode(endorsed);
+		lock.writeLock().lock();
+		try {
+			Node from = nodes.get(endorser);
+			Node to = nodes.get(endorsed);
+			if (from != null && to != null) {
+				from.endorsing.add(endorsed);
+				if (to.endorsers.add(endorser)) {
+					notifyChanged(to);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Records a withdrawn or lost endorsement from a happening
+	 * 
+	 * @param endorser nation id
+	 * @param endorsed nation id
+	 */
+	public void removeEndorsement(int endorser, int endorsed) {
+		ObjectNode change = Json.newObject();
+		change.put("endorser", endorser);
+		change.put("endorsed", endorsed);
+		publish("remove_endorsement", change);
+		lock.writeLock().lock();
+		try {
+			Node from = nodes.get(endorser);
+			Node to = nodes.get(endorsed);
+			if (from != null) {
+				from.endorsing.remove(endorsed);
+			}
+			if (to != null && to.endorsers.remove(endorser)) {
+				notifyChanged(to);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Replaces all the endorsements of the nation, after its endorsements have been refreshed
+	 * 
+	 * @param endorsed nation id
+	 * @param endorsers ids of every nation endorsing it
+	 */
+	public void setEndorsers(int endorsed, Collection<Integer> endorsers) {
+		ObjectNode change = Json.newObject();
+		change.put("endorsed", endorsed);
+		ArrayNode ids = change.putArray("endorsers");
+		for (Integer endorser : endorsers) {
+			ids.add(endorser);
+		}
+		publish("set_endorsers", change);
+		ensureNode(endorsed);
+		lock.writeLock().lock();
+		try {
+			Node to = nodes.get(endorsed);
+			if (to == null) {
+				return;
+			}
+			for (int i = 0; i < to.endorsers.size(); i++) {
+				Node from = nodes.get(to.endorsers.get(i));
+				if (from != null) {
+					from.endorsing.remove(endorsed);
+				}
+			}
+			to.endorsers.clear();
+			for (Integer endorser : endorsers) {
+				Node from = nodes.get(endorser);
+				if (from != null) {
+					from.endorsing.add(endorsed);
+					to.endorsers.add(endorser);
+				}
+			}
+			notifyChanged(to);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Updates the World Assembly status of a nation. A status of 0 removes the nation and its endorsements from the graph.
+	 * 
+	 * @param nationId of the nation
+	 * @param waStatus 0 for non-members, 1 for members and 2 for members who recently moved or changed status
+	 */
+	public void setWAStatus(int nationId, int waStatus) {
+		ObjectNode change = Json.newObject();
+		change.put("nation", nationId);
+		change.put("wa_status", waStatus);
+		publish("wa_status", change);
+		if (waStatus != 0) {
+			ensureNode(nationId);
+		}
+		lock.writeLock().lock();
+		try {
+			Node node = nodes.get(nationId);
+			if (node == null) {
+				return;
+			}
+			if (waStatus == 0) {
+				removeNode(node);
+			} else {
+				removeFromRegion(node);
+				node.waStatus = (byte) waStatus;
+				if (waStatus == 1) {
+					getOrCreate(regions, node.region).add(node.id);
+				}
+				notifyChanged(node);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Moves the nation to a new region. World Assembly members who move keep their endorsements until they are refreshed,
+	 * but are no longer counted as members of either region (wa_member = 2).
+	 * 
+	 * @param nationId of the nation
+	 * @param regionId of the new region
+	 */
+	public void relocate(int nationId, int regionId) {
+		ObjectNode change = Json.newObject();
+		change.put("nation", nationId);
+		change.put("region", regionId);
+		publish("relocate", change);
+		lock.writeLock().lock();
+		try {
+			Node node = nodes.get(nationId);
+			if (node != null) {
+				removeFromRegion(node);
+				node.region = regionId;
+				node.waStatus = 2;
+				notifyChanged(node);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a nation which ceased to exist, along with all of its endorsements
+	 * 
+	 * @param nationId of the nation
+	 */
+	public void removeNation(int nationId) {
+		ObjectNode change = Json.newObject();
+		change.put("nation", nationId);
+		publish("remove_nation", change);
+		lock.writeLock().lock();
+		try {
+			Node node = nodes.get(nationId);
+			if (node != null) {
+				removeNode(node);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void removeNode(Node node) {
+		unlink(node);
+		removeFromRegion(node);
+		nodes.remove(node.id);
+		for (EndorsementListener listener : listeners) {
+			listener.onMemberRemoved(node.id);
+		}
+	}
+
+	/**
+	 * Updates the details of a nation after it has been refreshed from the NationStates API.
+	 */
+	public void updateNation(int nationId, String name, String title, String fullName, String flag, int regionId, int influence, String influenceDesc, int waStatus) {
+		ObjectNode change = Json.newObject();
+		change.put("nation", nationId);
+		change.put("name", name);
+		change.put("title", title);
+		change.put("full_name", fullName);
+		change.put("flag", flag);
+		change.put("region", regionId);
+		change.put("influence", influence);
+		change.put("influence_desc", influenceDesc);
+		change.put("wa_status", waStatus);
+		publish("update_nation", change);
+		lock.writeLock().lock();
+		try {
+			Node node = nodes.get(nationId);
+			if (node == null) {
+				if (waStatus == 0 || !loaded) {
+					return;
+				}
+				node = new Node(nationId);
+				node.region = regionId;
+				node.waStatus = (byte) waStatus;
+				nodes.put(nationId, node);
+				if (waStatus == 1) {
+					getOrCreate(regions, regionId).add(nationId);
+				}
+			} else if (waStatus == 0) {
+				removeNode(node);
+				return;
+			} else if (node.region != regionId || node.waStatus != waStatus) {
+				removeFromRegion(node);
+				node.region = regionId;
+				node.waStatus = (byte) waStatus;
+				if (waStatus == 1) {
+					getOrCreate(regions, regionId).add(nationId);
+				}
+			}
+			node.name = name;
+			node.title = title;
+			node.fullName = fullName;
+			node.flag = flag;
+			node.influence = influence;
+			node.influenceDesc = influenceDesc;
+			notifyChanged(node);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the World Assembly members (wa_member = 1) of the region
+	 * 
+	 * @param regionId of the region
+	 * @return members, or null if the graph is not loaded
+	 */
+	public List<Member> getWAMembers(int regionId) {
+		if (!loaded) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			SortedIntSet members = regions.get(regionId);
+			if (members == null) {
+				return Collections.emptyList();
+			}
+			List<Member> list = new ArrayList<Member>(members.size());
+			for (int i = 0; i < members.size(); i++) {
+				list.add(nodes.get(members.get(i)).snapshot());
+			}
+			return list;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the nations endorsed by the nation
+	 * 
+	 * @param nationId of the endorsing nation
+	 * @return endorsed nations, or null if the graph can not answer for this nation
+	 */
+	public List<Member> getEndorsements(int nationId) {
+		if (!loaded) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			Node node = nodes.get(nationId);
+			if (node == null) {
+				return null;
+			}
+			return toMembers(node.endorsing);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the World Assembly members in the nation's region which the nation has not endorsed
+	 * 
+	 * @param nationId of the nation
+	 * @return nations not endorsed, or null if the graph can not answer for this nation
+	 */
+	public List<Member> getMissingEndorsements(int nationId) {
+		return difference(nationId, true);
+	}
+
+	/**
+	 * Returns the World Assembly members in the nation's region which do not endorse the nation
+	 * 
+	 * @param nationId of the nation
+	 * @return nations not endorsing, or null if the graph can not answer for this nation
+	 */
+	public List<Member> getUnreturnedEndorsements(int nationId) {
+		return difference(nationId, false);
+	}
+
+	private List<Member> difference(int nationId, boolean endorsing) {
+		if (!loaded) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			Node node = nodes.get(nationId);
+			if (node == null) {
+				return null;
+			}
+			SortedIntSet members = regions.get(node.region);
+			if (members == null) {
+				return Collections.emptyList();
+			}
+			SortedIntSet exclude = endorsing ? node.endorsing : node.endorsers;
+			List<Member> list = new ArrayList<Member>();
+			//Both sets are sorted, walk them together
+			int j = 0;
+			for (int i = 0; i < members.size(); i++) {
+				final int member = members.get(i);
+				while (j < exclude.size() && exclude.get(j) < member) {
+					j++;
+				}
+				if (member != nationId && (j >= exclude.size() || exclude.get(j) != member)) {
+					list.add(nodes.get(member).snapshot());
+				}
+			}
+			return list;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private List<Member> toMembers(SortedIntSet ids) {
+		List<Member> list = new ArrayList<Member>(ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			Node node = nodes.get(ids.get(i));
+			if (node != null) {
+				list.add(node.snapshot());
+			}
+		}
+		return list;
+	}
+
+	private static class Node {
+		final int id;
+		String name;
+		String title;
+		String fullName;
+		String flag;
+		int region;
+		int influence;
+		String influenceDesc;
+		byte waStatus;
+		final SortedIntSet endorsers = new SortedIntSet();
+		final SortedIntSet endorsing = new SortedIntSet();
+		Node(int id) {
+			this.id = id;
+		}
+
+		Member snapshot() {
+			return new Member(id, name, title, fullName, flag, region, influence, influenceDesc, waStatus, endorsers.size());
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package net.nationstatesplusplus.assembly.endorsement;
+
+import java.util.List;
+
+/**
+ * Receives changes to the {@link EndorsementGraph}. Listeners are called while the graph's write lock is held,
+ * and must not call back into the graph.
+ */
+public interface EndorsementListener {
+	/**
+	 * Called after the graph has been rebuilt from the database
+	 *
+	 * @param members every nation in the graph
+	 */
+	public void onReload(List<Member> members);
+
+	/**
+	 * Called when a nation is added to the graph, or its endorsements, details, region or World Assembly status changes
+	 *
+	 * @param member the new state of the nation
+	 */
+	public void onMemberChanged(Member member);
+
+	/**
+	 * Called when a nation is removed from the graph
+	 *
+	 * @param nationId of the nation
+	 */
+	public void onMemberRemoved(int nationId);
+}
@@ -0,0 +1,159 @@
+package net.nationstatesplusplus.assembly.endorsement;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * <p>
+ * Global and per-region rankings of World Assembly members by endorsements and by influence, maintained incrementally
+ * from {@link EndorsementGraph} changes so that top-N pages are answered without aggregation queries.
+ * </p><p>
+ * Each ranking is a sorted set ordered by score (descending), then nation id. A change to a nation removes its old entry
+ * and inserts the new one, so updates are O(log n) and a page is a walk from the top of the set.
+ * </p>
+ */
+public class Leaderboard implements EndorsementListener {
+	public static enum Ranking {
+		ENDORSEMENTS, INFLUENCE;
+
+		private int score(Member member) {
+			return this == ENDORSEMENTS ? member.getEndorsements() : member.getInfluence();
+		}
+
+		public static Ranking getRanking(String name) {
+			for (Ranking ranking : values()) {
+				if (ranking.name().equalsIgnoreCase(name)) {
+					return ranking;
+				}
+			}
+			return null;
+		}
+	}
+
+	private final Map<Integer, Member> members = new HashMap<Integer, Member>();
+	private final Map<Ranking, TreeSet<Member>> global = new HashMap<Ranking, TreeSet<Member>>();
+	private final Map<Ranking, Map<Integer, TreeSet<Member>>> regional = new HashMap<Ranking, Map<Integer, TreeSet<Member>>>();
+	public Leaderboard() {
+		for (Ranking ranking : Ranking.values()) {
+			global.put(ranking, new TreeSet<Member>(new RankingComparator(ranking)));
+			regional.put(ranking, new HashMap<Integer, TreeSet<Member>>());
+		}
+	}
+
+	@Override
+	public synchronized void onReload(List<Member> all) {
+		members.clear();
+		for (Ranking ranking : Ranking.values()) {
+			global.get(ranking).clear();
+			regional.get(ranking).clear();
+		}
+		for (Member member : all) {
+			add(member);
+		}
+	}
+
+	@Override
+	public synchronized void onMemberChanged(Member member) {
+		remove(member.getId());
+		add(member);
+	}
+
+	@Override
+	public synchronized void onMemberRemoved(int nationId) {
+		remove(nationId);
+	}
+
+	private void add(Member member) {
+		//Only current members are ranked, nations which recently moved or resigned are waiting for a refresh
+		if (member.getWAStatus() != 1) {
+			return;
+		}
+		members.put(member.getId(), member);
+		for (Ranking ranking : Ranking.values()) {
+			global.get(ranking).add(member);
+			Map<Integer, TreeSet<Member>> regions = regional.get(ranking);
+			TreeSet<Member> region = regions.get(member.getRegion());
+			if (region == null) {
+				region = new TreeSet<Member>(new RankingComparator(ranking));
+				regions.put(member.getRegion(), region);
+			}
+			region.add(member);
+		}
+	}
+
+	private void remove(int nationId) {
+		Member member = members.remove(nationId);
+		if (member == null) {
+			return;
+		}
+		for (Ranking ranking : Ranking.values()) {
+			global.get(ranking).remove(member);
+			Map<Integer, TreeSet<Member>> regions = regional.get(ranking);
+			TreeSet<Member> region = regions.get(member.getRegion());
+			if (region != null) {
+				region.remove(member);
+				if (region.isEmpty()) {
+					regions.remove(member.getRegion());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns a page of a ranking
+	 * 
+	 * @param ranking to use
+	 * @param regionId of the region to rank, or -1 for the global ranking
+	 * @param start offset of the first nation (0 is the top ranked nation)
+	 * @param limit maximum number of nations to return
+	 * @return ranked members
+	 */
+	public synchronized List<Member> getTop(Ranking ranking, int regionId, int start, int limit) {
+		TreeSet<Member> set = regionId == -1 ? global.get(ranking) : regional.get(ranking).get(regionId);
+		List<Member> page = new ArrayList<Member>(Math.max(0, limit));
+		if (set == null || start >= set.size()) {
+			return page;
+		}
+		Iterator<Member> iter = set.iterator();
+		for (int i = 0; i < start; i++) {
+			iter.next();
+		}
+		while (iter.hasNext() && page.size() < limit) {
+			page.add(iter.next());
+		}
+		return page;
+	}
+
+	/**
+	 * The number of ranked nations in the region, or globally
+	 * 
+	 * @param regionId of the region, or -1 for all nations
+	 * @return number of ranked nations
+	 */
+	public synchronized int getSize(int regionId) {
+		TreeSet<Member> set = regionId == -1 ? global.get(Ranking.ENDORSEMENTS) : regional.get(Ranking.ENDORSEMENTS).get(regionId);
+		return set != null ? set.size() : 0;
+	}
+
+	private static class RankingComparator implements Comparator<Member> {
+		private final Ranking ranking;
+		RankingComparator(Ranking ranking) {
+			this.ranking = ranking;
+		}
+
+		@Override
+		public int compare(Member m1, Member m2) {
+			final int s1 = ranking.score(m1);
+			final int s2 = ranking.score(m2);
+			if (s1 != s2) {
+				return s1 > s2 ? -1 : 1;
+			}
+			return m1.getId() < m2.getId() ? -1 : (m1.getId() == m2.getId() ? 0 : 1);
+		}
+	}
+}
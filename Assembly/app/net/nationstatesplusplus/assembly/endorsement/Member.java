@@ -0,0 +1,85 @@
+package net.nationstatesplusplus.assembly.endorsement;
+
+import net.nationstatesplusplus.assembly.model.Nation;
+
+/**
+ * An immutable snapshot of a nation in the {@link EndorsementGraph}
+ */
+public class Member {
+	private final int id;
+	private final String name;
+	private final String title;
+	private final String fullName;
+	private final String flag;
+	private final int region;
+	private final int influence;
+	private final String influenceDesc;
+	private final int waStatus;
+	private final int endorsements;
+	public Member(int id, String name, String title, String fullName, String flag, int region, int influence, String influenceDesc, int waStatus, int endorsements) {
+		this.id = id;
+		this.name = name;
+		this.title = title;
+		this.fullName = fullName;
+		this.flag = flag;
+		this.region = region;
+		this.influence = influence;
+		this.influenceDesc = influenceDesc;
+		this.waStatus = waStatus;
+		this.endorsements = endorsements;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getFullName() {
+		return fullName;
+	}
+
+	public String getFlag() {
+		return flag;
+	}
+
+	public int getRegion() {
+		return region;
+	}
+
+	public int getInfluence() {
+		return influence;
+	}
+
+	public String getInfluenceDesc() {
+		return influenceDesc;
+	}
+
+	/**
+	 * The wa_member status of the nation, 1 for members and 2 for members who recently moved or changed status
+	 *
+	 * @return wa status
+	 */
+	public int getWAStatus() {
+		return waStatus;
+	}
+
+	/**
+	 * The number of nations endorsing this nation
+	 *
+	 * @return endorsements
+	 */
+	public int getEndorsements() {
+		return endorsements;
+	}
+
+	public Nation toNation() {
+		return new Nation(name, title, fullName, flag, id, true, true, -1);
+	}
+}
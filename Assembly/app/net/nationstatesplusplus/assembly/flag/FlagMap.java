@@ -0,0 +1,239 @@
+package net.nationstatesplusplus.assembly.flag;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.nationstatesplusplus.assembly.amqp.ClusterEventListener;
+import net.nationstatesplusplus.assembly.model.websocket.WebsocketManager;
+
+import play.Logger;
+import play.libs.Json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * Holds the flag url of every living nation and region in memory, so the flag endpoints do not query the database for each name.
+ * Flags are loaded at startup and kept current by the api refreshes, the daily dumps and flag happenings. Nations and regions which
+ * are not in the map are dead or unknown, and are looked up in the database by the caller. The background server broadcasts every flag
+ * which changes, and the other servers apply it to their own map. Changes made while the map is reloading are applied again to the
+ * reloaded map.
+ * </p><p>
+ * The version is the sum of the hashes of every flag, so it changes whenever any flag changes and every server holding the same flags has
+ * the same version. Clients which request flags with the current version may cache the response for a long time.
+ * </p>
+ */
+public class FlagMap implements ClusterEventListener {
+	public static final String CLUSTER_EVENT = "flags";
+	private static final HashFunction HASH = Hashing.murmur3_128();
+	private final ComboPooledDataSource pool;
+	private volatile ConcurrentHashMap<String, String> nations = new ConcurrentHashMap<String, String>();
+	private volatile ConcurrentHashMap<String, String> regions = new ConcurrentHashMap<String, String>();
+	private final AtomicLong version = new AtomicLong(0);
+	private volatile boolean loaded = false;
+	private volatile WebsocketManager publisher = null;
+	private boolean reloading = false;
+	private final List<String[]> changedDuringReload = new ArrayList<String[]>();
+	public FlagMap(ComboPooledDataSource pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Broadcasts every change made to this map to the other servers
+	 * 
+	 * @param publisher to broadcast changes with
+	 */
+	public void setPublisher(WebsocketManager publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * Replaces the map with the flags of the living nations and regions in the database
+	 */
+	public void reload() {
+		final long start = System.currentTimeMillis();
+		synchronized (this) {
+			reloading = true;
+		}
+		ConcurrentHashMap<String, String> loadedNations;
+		ConcurrentHashMap<String, String> loadedRegions;
+		try (Connection conn = pool.getConnection()) {
+			loadedNations = load(conn, "SELECT name, flag FROM assembly.nation WHERE alive = 1", 250000);
+			loadedRegions = load(conn, "SELECT name, flag FROM assembly.region WHERE alive = 1", 25000);
+		} catch (SQLException e) {
+			Logger.error("Unable to load flags", e);
+			synchronized (this) {
+				reloading = false;
+				changedDuringReload.clear();
+			}
+			return;
+		}
+		synchronized (this) {
+			nations = loadedNations;
+			regions = loadedRegions;
+			version.set(sum("n", loadedNations) + sum("r", loadedRegions));
+			for (String[] change : changedDuringReload) {
+				apply(change[0], change[1], change[2]);
+			}
+			changedDuringReload.clear();
+			reloading = false;
+			loaded = true;
+		}
+		Logger.info("Loaded " + loadedNations.size() + " nation flags and " + loadedRegions.size() + " region flags in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private static ConcurrentHashMap<String, String> load(Connection conn, String sql, int expected) throws SQLException {
+		ConcurrentHashMap<String, String> flags = new ConcurrentHashMap<String, String>(expected);
+		try (PreparedStatement select = conn.prepareStatement(sql)) {
+			select.setFetchSize(Integer.MIN_VALUE);
+			try (ResultSet result = select.executeQuery()) {
+				while (result.next()) {
+					final String flag = result.getString(2);
+					flags.put(result.getString(1), flag != null ? flag : "");
+				}
+			}
+		}
+		return flags;
+	}
+
+	private static long sum(String type, Map<String, String> flags) {
+		long sum = 0;
+		for (Map.Entry<String, String> e : flags.entrySet()) {
+			sum += hash(type, e.getKey(), e.getValue());
+		}
+		return sum;
+	}
+
+	private static long hash(String type, String name, String flag) {
+		return HASH.hashString(type + ":" + name + "=" + flag, StandardCharsets.UTF_8).asLong();
+	}
+
+	/**
+	 * Whether the flags have been loaded from the database yet
+	 * 
+	 * @return loaded
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * The version of the flags, which changes whenever any flag changes and is the same on every server with the same flags
+	 * 
+	 * @return version
+	 */
+	public long getVersion() {
+		return version.get();
+	}
+
+	/**
+	 * Returns the flag of a living nation
+	 * 
+	 * @param nation sanitized name
+	 * @return flag url, an empty string if the nation has no flag, or null if the nation is not living or unknown
+	 */
+	public String getNationFlag(String nation) {
+		return nations.get(nation);
+	}
+
+	/**
+	 * Returns the flag of a living region
+	 * 
+	 * @param region sanitized name
+	 * @return flag url, an empty string if the region has no flag, or null if the region is not living or unknown
+	 */
+	public String getRegionFlag(String region) {
+		return regions.get(region);
+	}
+
+	/**
+	 * Sets the flag of a living nation
+	 * 
+	 * @param nation sanitized name
+	 * @param flag url
+	 */
+	public void putNation(String nation, String flag) {
+		change("n", nation, flag != null ? flag : "");
+	}
+
+	/**
+	 * Sets the flag of a living region
+	 * 
+	 * @param region sanitized name
+	 * @param flag url, or an empty string if the region has no flag
+	 */
+	public void putRegion(String region, String flag) {
+		change("r", region, flag != null ? flag : "");
+	}
+
+	/**
+	 * Removes a nation which ceased to exist
+	 * 
+	 * @param nation sanitized name
+	 */
+	public void removeNation(String nation) {
+		change("n", nation, null);
+	}
+
+	/**
+	 * Removes a region which ceased to exist
+	 * 
+	 * @param region sanitized name
+	 */
+	public void removeRegion(String region) {
+		change("r", region, null);
+	}
+
+	private synchronized void change(String type, String name, String flag) {
+		if (!apply(type, name, flag)) {
+			return;
+		}
+		if (reloading) {
+			changedDuringReload.add(new String[] {type, name, flag});
+		}
+		final WebsocketManager publisher = this.publisher;
+		if (publisher != null) {
+			ObjectNode data = Json.newObject();
+			data.put("type", type);
+			data.put("name", name);
+			data.put("flag", flag);
+			publisher.broadcast(CLUSTER_EVENT, data);
+		}
+	}
+
+	/**
+	 * Applies a flag change or removal broadcast by the background server
+	 */
+	@Override
+	public void onClusterEvent(JsonNode data) {
+		final JsonNode flag = data.get("flag");
+		change(data.get("type").asText(), data.get("name").asText(), flag != null && !flag.isNull() ? flag.asText() : null);
+	}
+
+	/**
+	 * Sets or, if the flag is null, removes the flag of a nation or region
+	 * 
+	 * @return whether the map changed
+	 */
+	private boolean apply(String type, String name, String flag) {
+		final ConcurrentHashMap<String, String> flags = "n".equals(type) ? nations : regions;
+		final String previous = flag != null ? flags.put(name, flag) : flags.remove(name);
+		if (flag != null ? flag.equals(previous) : previous == null) {
+			return false;
+		}
+		version.addAndGet((flag != null ? hash(type, name, flag) : 0) - (previous != null ? hash(type, name, previous) : 0));
+		return true;
+	}
+}
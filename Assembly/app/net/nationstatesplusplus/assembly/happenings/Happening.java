@@ -0,0 +1,64 @@
+package net.nationstatesplusplus.assembly.happenings;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A formatted happening, as sent to clients
+ */
+public class Happening {
+	@JsonProperty
+	private final int id;
+	@JsonProperty
+	private final String happening;
+	@JsonProperty
+	private final long timestamp;
+
+	public Happening(int id, String happening, long timestamp) {
+		this.id = id;
+		this.happening = happening;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * The id of the happening in assembly.global_happenings
+	 * 
+	 * @return id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public String getHappening() {
+		return happening;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * The cursor for the page of happenings older than this happening
+	 * 
+	 * @return cursor
+	 */
+	public String getCursor() {
+		return timestamp + "-" + id;
+	}
+
+	@Override
+	public int hashCode() {
+		int hash = id;
+		hash = 31 * hash + (happening != null ? happening.hashCode() : 0);
+		hash = 31 * hash + (int) (timestamp ^ (timestamp >>> 32));
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof Happening)) {
+			return false;
+		}
+		Happening other = (Happening) obj;
+		return id == other.id && timestamp == other.timestamp && (happening != null ? happening.equals(other.happening) : other.happening == null);
+	}
+}
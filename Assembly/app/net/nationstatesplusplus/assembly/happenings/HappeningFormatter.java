@@ -0,0 +1,153 @@
+package net.nationstatesplusplus.assembly.happenings;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.nationstatesplusplus.assembly.nation.NationDisplay;
+import net.nationstatesplusplus.assembly.nation.NationDisplayCache;
+import net.nationstatesplusplus.assembly.util.Utils;
+
+/**
+ * <p>
+ * Renders the markup of happenings, <code>@@nation@@</code>, <code>%%region%%</code> and <code>##region##</code> (a regional message board),
+ * into html links. Each happening is scanned once and written into a single {@link StringBuilder}, and every nation mentioned in a batch
+ * of happenings is looked up at once from the {@link NationDisplayCache}.
+ * </p><p>
+ * Tokens follow the same rules as {@link Utils#NATION_PATTERN}, {@link Utils#REGION_PATTERN} and {@link Utils#RMB_PATTERN}: a token runs
+ * from its opening delimiter to the last closing delimiter before the next whitespace.
+ * </p>
+ */
+public class HappeningFormatter {
+	private static final String NATION = "@@";
+	private static final String REGION = "%%";
+	private static final String RMB = "##";
+	private final NationDisplayCache nations;
+	public HappeningFormatter(NationDisplayCache nations) {
+		this.nations = nations;
+	}
+
+	/**
+	 * Formats a single happening
+	 *
+	 * @param conn to the database, used for nations that are not cached
+	 * @param text of the happening
+	 * @param owner the nation whose happenings are shown, which is named by its title instead of its full name, or an empty string
+	 * @return html
+	 * @throws SQLException
+	 */
+	public String format(Connection conn, String text, String owner) throws SQLException {
+		return formatAll(conn, Collections.singletonList(text), owner).get(0);
+	}
+
+	/**
+	 * Formats a batch of happenings, looking up all mentioned nations in one query
+	 *
+	 * @param conn to the database, used for nations that are not cached
+	 * @param happenings text of the happenings
+	 * @param owner the nation whose happenings are shown, which is named by its title instead of its full name, or an empty string
+	 * @return html, in the same order as the happenings
+	 * @throws SQLException
+	 */
+	public List<String> formatAll(Connection conn, List<String> happenings, String owner) throws SQLException {
+		Set<String> mentioned = new HashSet<String>();
+		for (String text : happenings) {
+			mentioned.addAll(getMentionedNations(text));
+		}
+		final Map<String, NationDisplay> displays = mentioned.isEmpty() ? Collections.<String, NationDisplay>emptyMap() : nations.getAll(conn, mentioned, "happenings");
+		List<String> formatted = new ArrayList<String>(happenings.size());
+		for (String text : happenings) {
+			formatted.add(render(text, displays, owner));
+		}
+		return formatted;
+	}
+
+	/**
+	 * Returns the names of the nations mentioned in the happening
+	 *
+	 * @param text of the happening
+	 * @return nation names, as written in the happening
+	 */
+	public static List<String> getMentionedNations(String text) {
+		List<String> nations = new ArrayList<String>(2);
+		int i = 0;
+		while ((i = text.indexOf(NATION, i)) != -1) {
+			final int end = findClose(text, i, NATION);
+			if (end == -1) {
+				i++;
+			} else {
+				nations.add(text.substring(i + 2, end));
+				i = end + 2;
+			}
+		}
+		return nations;
+	}
+
+	private static String render(String text, Map<String, NationDisplay> displays, String owner) {
+		final StringBuilder html = new StringBuilder(text.length() * 3);
+		final int length = text.length();
+		int i = 0;
+		while (i < length) {
+			final char c = text.charAt(i);
+			final String delimiter = c == '@' ? NATION : (c == '%' ? REGION : (c == '#' ? RMB : null));
+			final int end = delimiter != null ? findClose(text, i, delimiter) : -1;
+			if (end == -1) {
+				html.append(c);
+				i++;
+				continue;
+			}
+			final String name = text.substring(i + 2, end);
+			if (delimiter == NATION) {
+				appendNation(html, name, displays.get(Utils.sanitizeName(name)), !owner.equals(name));
+			} else if (delimiter == REGION) {
+				html.append("<a href=\"//www.nationstates.net/region=").append(name).append("\">").append(Utils.formatName(name)).append("</a>");
+			} else {
+				html.append("<a href=\"//www.nationstates.net/region=").append(name).append("#rmb\">Regional Message Board</a>");
+			}
+			i = end + 2;
+		}
+		return html.toString();
+	}
+
+	private static void appendNation(StringBuilder html, String nation, NationDisplay display, boolean fullName) {
+		if (display == null) {
+			html.append(Utils.formatNationLink(nation));
+		} else if (!display.isAlive()) {
+			//Dead, just the full name
+			html.append(display.getFullName());
+		} else {
+			html.append("<a href=\"//www.nationstates.net/nation=").append(nation).append("\"><img src=\"").append(display.getFlag());
+			html.append("\" class=\"miniflag\" alt=\"\" title=\"").append(display.getFullName()).append("\">");
+			html.append(fullName ? display.getFullName() : display.getTitle()).append("</a>");
+		}
+	}
+
+	/**
+	 * Finds the closing delimiter of a token starting at the given index
+	 *
+	 * @return index of the closing delimiter, or -1 if there is no token at the index
+	 */
+	private static int findClose(String text, int start, String delimiter) {
+		if (!text.startsWith(delimiter, start)) {
+			return -1;
+		}
+		int run = start + 2;
+		while (run < text.length() && !isWhitespace(text.charAt(run))) {
+			run++;
+		}
+		final int close = text.lastIndexOf(delimiter, run - 2);
+		return close >= start + 2 ? close : -1;
+	}
+
+	/**
+	 * Whitespace as matched by \s in {@link java.util.regex.Pattern}
+	 */
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+}
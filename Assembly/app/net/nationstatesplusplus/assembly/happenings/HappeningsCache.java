@@ -0,0 +1,86 @@
+package net.nationstatesplusplus.assembly.happenings;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.nationstatesplusplus.assembly.amqp.ClusterEventListener;
+import net.nationstatesplusplus.assembly.model.websocket.WebsocketManager;
+
+import play.libs.Json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * <p>
+ * Caches the first page of formatted happenings for each region and nation, which every viewer requests after every websocket update.
+ * Pages are invalidated by the {@link net.nationstatesplusplus.assembly.HappeningsTask} as new happenings are stored, and the
+ * invalidations are broadcast to the other servers before the websocket update which makes clients request the page. Pages expire
+ * after 30 seconds so changes to nation names and flags, or a page read while happenings were being stored, do not linger.
+ * </p>
+ */
+public class HappeningsCache implements ClusterEventListener {
+	public static final String CLUSTER_EVENT = "happenings_cache";
+	private final Cache<Integer, List<Happening>> regions = CacheBuilder.newBuilder().maximumSize(5000).expireAfterWrite(30, TimeUnit.SECONDS).build();
+	private final Cache<Integer, List<Happening>> nations = CacheBuilder.newBuilder().maximumSize(20000).expireAfterWrite(30, TimeUnit.SECONDS).build();
+	private volatile WebsocketManager publisher = null;
+
+	/**
+	 * Broadcasts every invalidation to the other servers
+	 * 
+	 * @param publisher to broadcast invalidations with
+	 */
+	public void setPublisher(WebsocketManager publisher) {
+		this.publisher = publisher;
+	}
+
+	public List<Happening> getRegionHappenings(int regionId) {
+		return regions.getIfPresent(regionId);
+	}
+
+	public void putRegionHappenings(int regionId, List<Happening> happenings) {
+		regions.put(regionId, happenings);
+	}
+
+	public void invalidateRegion(int regionId) {
+		regions.invalidate(regionId);
+		publish("region", regionId);
+	}
+
+	public List<Happening> getNationHappenings(int nationId) {
+		return nations.getIfPresent(nationId);
+	}
+
+	public void putNationHappenings(int nationId, List<Happening> happenings) {
+		nations.put(nationId, happenings);
+	}
+
+	public void invalidateNation(int nationId) {
+		nations.invalidate(nationId);
+		publish("nation", nationId);
+	}
+
+	private void publish(String owner, int id) {
+		final WebsocketManager publisher = this.publisher;
+		if (publisher != null) {
+			ObjectNode data = Json.newObject();
+			data.put(owner, id);
+			publisher.broadcast(CLUSTER_EVENT, data);
+		}
+	}
+
+	/**
+	 * Invalidates a page invalidated by the background server
+	 */
+	@Override
+	public void onClusterEvent(JsonNode data) {
+		if (data.has("region")) {
+			regions.invalidate(data.get("region").asInt());
+		}
+		if (data.has("nation")) {
+			nations.invalidate(data.get("nation").asInt());
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package net.nationstatesplusplus.assembly.happenings;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.nationstatesplusplus.assembly.util.DatabaseAccess;
+
+import play.Logger;
+
+/**
+ * <p>
+ * Stores the rendered html of happenings in <code>assembly.happening_html</code>, so the happenings endpoints do not render the
+ * markup of every happening on every read. Happenings are rendered once for the happenings page of the nation they belong to (region 0),
+ * and once for each region they are shown in.
+ * </p><p>
+ * Rendered html depends on the flag, names and status of every nation it mentions, so the nations mentioned by each rendered happening
+ * are kept in <code>assembly.happening_mentions</code>. When a nation changes, the html of the happenings mentioning it is deleted, and
+ * is rendered again the next time it is read.
+ * </p>
+ */
+public class RenderedHappenings {
+	/**
+	 * The region of html rendered for the happenings page of the nation
+	 */
+	public static final int NATION_PAGE = 0;
+	private final DatabaseAccess access;
+	private final List<Rendered> pending = new ArrayList<Rendered>();
+	public RenderedHappenings(DatabaseAccess access) {
+		this.access = access;
+	}
+
+	/**
+	 * Queues rendered html to be stored by the next {@link #flush(Connection)}
+	 * 
+	 * @param globalId of the happening
+	 * @param region the html is rendered for, or {@link #NATION_PAGE}
+	 * @param text of the happening
+	 * @param html rendered
+	 */
+	public synchronized void add(int globalId, int region, String text, String html) {
+		pending.add(new Rendered(globalId, region, text, html));
+	}
+
+	/**
+	 * Stores the queued html and the nations it mentions, replacing html stored for the same happening
+	 * 
+	 * @param conn to the database
+	 * @throws SQLException
+	 */
+	public void flush(Connection conn) throws SQLException {
+		final List<Rendered> rendered;
+		synchronized (this) {
+			if (pending.isEmpty()) {
+				return;
+			}
+			rendered = new ArrayList<Rendered>(pending);
+			pending.clear();
+		}
+		store(conn, rendered, true);
+	}
+
+	/**
+	 * Stores html rendered when it was read, keeping any html stored in the meantime
+	 * 
+	 * @param conn to the database
+	 * @param globalIds of the happenings
+	 * @param region the html is rendered for, or {@link #NATION_PAGE}
+	 * @param text of the happenings
+	 * @param html rendered
+	 * @throws SQLException
+	 */
+	public void storeAll(Connection conn, List<Integer> globalIds, int region, List<String> text, List<String> html) throws SQLException {
+		List<Rendered> rendered = new ArrayList<Rendered>(globalIds.size());
+		for (int i = 0; i < globalIds.size(); i++) {
+			rendered.add(new Rendered(globalIds.get(i), region, text.get(i), html.get(i)));
+		}
+		store(conn, rendered, false);
+	}
+
+	private void store(Connection conn, List<Rendered> rendered, boolean replace) throws SQLException {
+		final String insertHtml = replace ? "INSERT INTO assembly.happening_html (global_id, region, html) VALUES (?, ?, ?) ON DUPLICATE KEY UPDATE html = VALUES(html)" :
+			"INSERT IGNORE INTO assembly.happening_html (global_id, region, html) VALUES (?, ?, ?)";
+		try (PreparedStatement html = conn.prepareStatement(insertHtml)) {
+			try (PreparedStatement mentions = conn.prepareStatement("INSERT IGNORE INTO assembly.happening_mentions (nation, global_id) VALUES (?, ?)")) {
+				for (Rendered happening : rendered) {
+					html.setInt(1, happening.globalId);
+					html.setInt(2, happening.region);
+					html.setString(3, happening.html);
+					html.addBatch();
+					for (String nation : HappeningFormatter.getMentionedNations(happening.text)) {
+						final int nationId = access.getNationId(nation);
+						if (nationId > -1) {
+							mentions.setInt(1, nationId);
+							mentions.setInt(2, happening.globalId);
+							mentions.addBatch();
+						}
+					}
+				}
+				html.executeBatch();
+				mentions.executeBatch();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the html of every happening mentioning the nation, after the flag, names or status of the nation changed
+	 * 
+	 * @param conn to the database
+	 * @param nationId of the nation
+	 * @throws SQLException
+	 */
+	public void onNationChanged(Connection conn, int nationId) throws SQLException {
+		try (PreparedStatement delete = conn.prepareStatement("DELETE h FROM assembly.happening_html AS h INNER JOIN assembly.happening_mentions AS m ON m.global_id = h.global_id WHERE m.nation = ?")) {
+			delete.setInt(1, nationId);
+			final int deleted = delete.executeUpdate();
+			if (deleted > 0) {
+				Logger.debug("Deleted {} rendered happenings mentioning nation {}", deleted, nationId);
+			}
+		}
+	}
+
+	private static class Rendered {
+		final int globalId;
+		final int region;
+		final String text;
+		final String html;
+		Rendered(int globalId, int region, String text, String html) {
+			this.globalId = globalId;
+			this.region = region;
+			this.text = text;
+			this.html = html;
+		}
+	}
+}
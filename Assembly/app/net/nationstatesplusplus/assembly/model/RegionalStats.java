@@ -5,6 +5,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
+import net.nationstatesplusplus.assembly.region.RegionalStatsEngine;
+import net.nationstatesplusplus.assembly.region.RegionalStatsEngine.Field;
 import net.nationstatesplusplus.assembly.util.DatabaseAccess;
 import net.nationstatesplusplus.assembly.util.Utils;
 
@@ -103,6 +105,12 @@ public class RegionalStats {
 				DbUtils.closeQuietly(result);
 				DbUtils.closeQuietly(select);
 				
+				final RegionalStatsEngine engine = access.getRegionalStatsEngine();
+				if (engine.isLoaded()) {
+					updateStats(engine.getStats(this.id));
+					return true;
+				}
+				
 				PreparedStatement stats = conn.prepareStatement("SELECT count(id) AS population, sum(population) as total_population, median(civilrightscore) as civilrights, median(economyscore) AS economy, median(politicalfreedomscore) as politicalfreedom, avg(environment) as environment, avg(socialequality) as socialequality, median(education) as education, median(lawandorder) as lawandorder, median(administration) as administration, avg(welfare) as welfare, median(spirituality) as spirituality, median(defence) as defence, median(publictransport) as publictransport, median(healthcare) as healthcare, median(commerce) as commerce, median(publicsector) as publicsector, median(tax) as tax FROM assembly.nation WHERE alive = 1 AND region = ?");
 				stats.setInt(1, this.id);
 				result = stats.executeQuery();
@@ -154,6 +162,29 @@ public class RegionalStats {
 		return false;
 	}
 
+	private void updateStats(RegionalStatsEngine.Snapshot stats) {
+		this.numNations = stats.getNations();
+		this.numWaMembers = stats.getWAMembers();
+		this.totalPopulation = stats.getTotalPopulation();
+		this.civilRights = (int)Math.floor(stats.getMedian(Field.CIVIL_RIGHTS));
+		this.economy = (int)Math.floor(stats.getMedian(Field.ECONOMY));
+		this.politicalFreedom = (int)Math.floor(stats.getMedian(Field.POLITICAL_FREEDOM));
+		this.environment = (int)Math.floor(stats.getMean(Field.ENVIRONMENT));
+		this.socialEquality = (int)Math.floor(stats.getMean(Field.SOCIAL_EQUALITY));
+		this.education = (int)Math.floor(stats.getMedian(Field.EDUCATION));
+		this.lawAndOrder = (int)Math.floor(stats.getMedian(Field.LAW_AND_ORDER));
+		this.administration = (int)Math.floor(stats.getMedian(Field.ADMINISTRATION));
+		this.welfare = (int)Math.floor(stats.getMean(Field.WELFARE));
+		this.spirituality = (int)Math.floor(stats.getMedian(Field.SPIRITUALITY));
+		this.defence = (int)Math.floor(stats.getMedian(Field.DEFENCE));
+		this.publictransport = (int)Math.floor(stats.getMedian(Field.PUBLIC_TRANSPORT));
+		this.healthcare = (int)Math.floor(stats.getMedian(Field.HEALTHCARE));
+		this.commerce = (int)Math.floor(stats.getMedian(Field.COMMERCE));
+		this.publicsector = (int)Math.floor(stats.getMedian(Field.PUBLIC_SECTOR));
+		this.tax = (int)Math.floor(stats.getMedian(Field.TAX));
+		this.hdi = (int)Math.floor(stats.getMedian(Field.HDI));
+	}
+
 	public int getId() {
 		return id;
 	}
@@ -9,7 +9,7 @@ import java.util.List;
 
 public enum PageType {
 	DEFAULT(GAMEPLAY_NEWS_SIDEBAR, ROLEPLAY_NEWS_SIDEBAR, REGIONAL_NEWS_SIDEBAR, PENDING_NEWS_SUBMISSIONS, CHECK_RECRUITMENT_OFFICERS),
-	REGION(INITIAL_REGION_SETTINGS, REGION_TITLE, REGION_MAP, REGION_UPDATES, REGION_NEWSPAPER, REGION_EMBASSIES, REGION_POPULATION),
+	REGION(INITIAL_REGION_SETTINGS, REGION_TITLE, REGION_MAP, REGION_UPDATES, UPDATE_PROGRESS, REGION_NEWSPAPER, REGION_EMBASSIES, REGION_POPULATION),
 	NATION(LAST_NATION_ACTIVITY),
 	WA,
 	RECRUITMENT_ADMINISTRATION(RECRUITMENT_CAMPAIGNS, RECRUITMENT_OFFICERS, RECRUITMENT_EFFECTIVENESS),
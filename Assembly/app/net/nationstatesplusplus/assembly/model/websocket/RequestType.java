@@ -35,6 +35,7 @@ public enum RequestType implements Request {
 	REGION_TITLE("region_titles"),
 	REGION_MAP("region_map"),
 	REGION_UPDATES("region_updates"),
+	UPDATE_PROGRESS("update_progress"),
 	REGION_NEWSPAPER("region_newspaper"),
 	REGION_EMBASSIES("region_embassies"),
 	RMB_RATINGS("rmb_ratings"),
@@ -145,7 +146,7 @@ public enum RequestType implements Request {
 				}
 			case REGION_EMBASSIES:
 				if (page instanceof RegionPage) {
-					return toList(RegionController.getEmbassies(conn, ((RegionPage)page).getRegion(), 25));
+					return toList(RegionController.getEmbassies(context.getAccess(), conn, ((RegionPage)page).getRegion(), 25));
 				}
 			case REGION_MAP:
 				if (page instanceof RegionPage) {
@@ -157,8 +158,10 @@ public enum RequestType implements Request {
 				}
 			case REGION_UPDATES:
 				if (page instanceof RegionPage) {
-					return toList(RegionController.getUpdateTime(conn, ((RegionPage)page).getRegionId(), 1.5));
+					return toList(RegionController.getUpdateTime(context.getAccess(), conn, ((RegionPage)page).getRegionId(), 1.5));
 				}
+			case UPDATE_PROGRESS:
+				return toList(context.getAccess().getUpdateProgressTracker().getProgress(conn));
 			case RMB_RATINGS:
 				if (request != null) {
 					Integer postId = request.getValue("rmb_post_id", null, Integer.class);
@@ -169,7 +172,7 @@ public enum RequestType implements Request {
 				return generateError("invalid post id", request);
 			case REGION_POPULATION:
 				if (page instanceof RegionPage) {
-					return toList(RegionController.getRecordPopulation(conn, ((RegionPage)page).getRegion()));
+					return toList(RegionController.getRecordPopulation(context.getAccess(), conn, ((RegionPage)page).getRegion()));
 				}
 			case GAMEPLAY_NEWS_SIDEBAR:
 				return toList(NewspaperController.getLatestUpdate(conn, NewspaperController.GAMEPLAY_NEWS));
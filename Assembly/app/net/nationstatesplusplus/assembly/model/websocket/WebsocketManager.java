@@ -12,6 +12,7 @@ import org.joda.time.Duration;
 import net.nationstatesplusplus.assembly.amqp.AMQPConnectionFactory;
 import net.nationstatesplusplus.assembly.amqp.AMQPMessage;
 import net.nationstatesplusplus.assembly.amqp.AMQPQueue;
+import net.nationstatesplusplus.assembly.amqp.ClusterEventListener;
 import net.nationstatesplusplus.assembly.amqp.EmptyAMQPQueue;
 import play.Logger;
 import play.libs.Json;
@@ -21,6 +22,7 @@ import play.mvc.WebSocket;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.rabbitmq.client.AMQP.BasicProperties;
 import com.rabbitmq.client.Consumer;
 import com.rabbitmq.client.Envelope;
@@ -32,6 +34,7 @@ public class WebsocketManager implements Consumer {
 	private final ObjectMapper mapper = new ObjectMapper();
 	private final String serverName;
 	private final AtomicReference<AMQPQueue> queue = new AtomicReference<AMQPQueue>(null);
+	private final ConcurrentHashMap<String, ClusterEventListener> clusterListeners = new ConcurrentHashMap<String, ClusterEventListener>();
 	public WebsocketManager(AMQPConnectionFactory factory, String serverName) throws IOException {
 		this.factory = factory;
 		this.queue.set(factory != null ? factory.createQueue() : new EmptyAMQPQueue());
@@ -83,24 +86,7 @@ public class WebsocketManager implements Consumer {
 			}
 		}
 		if (sendMessage) {
-			AMQPQueue queue = this.queue.get();
-			while (queue.isShutdown()) {
-				Logger.info("Detected shutdown rabbitmq thread, attempting restart");
-				AMQPQueue newQueue;
-				try {
-					newQueue = factory.createQueue();
-					if (!this.queue.compareAndSet(queue, newQueue)) {
-						queue = this.queue.get(); 
-						newQueue.shutdown();
-					} else {
-						factory.registerConsumer(this);
-					}
-				} catch (IOException e) {
-					Logger.error("Unable to restart rabbitmq connection! Message will be lost!", e);
-					break;
-				}
-			}
-			queue.send(Json.toJson(new WebsocketMessage(page, type, request, node, nations)));
+			send(Json.toJson(new WebsocketMessage(page, type, request, node, nations)));
 		}
 		Set<NationStatesWebSocket> set = pages.get(page);
 		synchronized(set) {
@@ -116,6 +102,50 @@ public class WebsocketManager implements Consumer {
 		}
 	}
 
+	/**
+	 * Registers the listener of an event broadcast by other servers
+	 * 
+	 * @param event name
+	 * @param listener
+	 */
+	public void addClusterListener(String event, ClusterEventListener listener) {
+		clusterListeners.put(event, listener);
+	}
+
+	/**
+	 * Broadcasts an event to the listeners of every other server
+	 * 
+	 * @param event name
+	 * @param data of the event
+	 */
+	public void broadcast(String event, JsonNode data) {
+		ObjectNode message = Json.newObject();
+		message.put("cluster_event", event);
+		message.set("data", data);
+		send(message);
+	}
+
+	private void send(JsonNode message) {
+		AMQPQueue queue = this.queue.get();
+		while (queue.isShutdown()) {
+			Logger.info("Detected shutdown rabbitmq thread, attempting restart");
+			AMQPQueue newQueue;
+			try {
+				newQueue = factory.createQueue();
+				if (!this.queue.compareAndSet(queue, newQueue)) {
+					queue = this.queue.get(); 
+					newQueue.shutdown();
+				} else {
+					factory.registerConsumer(this);
+				}
+			} catch (IOException e) {
+				Logger.error("Unable to restart rabbitmq connection! Message will be lost!", e);
+				break;
+			}
+		}
+		queue.send(message);
+	}
+
 	private class UnregisterCallback implements Callback0 {
 		private final NationStatesWebSocket socket;
 		UnregisterCallback(NationStatesWebSocket socket) {
@@ -147,6 +177,17 @@ public class WebsocketManager implements Consumer {
 	public void handleDelivery(String consumerTag, Envelope envelope, BasicProperties properties, byte[] body) throws IOException {
 		AMQPMessage message = mapper.readValue(body, new TypeReference<AMQPMessage>() {});
 		if (!serverName.equals(message.getServerName())) {
+			if (message.getMessage().has("cluster_event")) {
+				ClusterEventListener listener = clusterListeners.get(message.getMessage().get("cluster_event").asText());
+				if (listener != null) {
+					try {
+						listener.onClusterEvent(message.getMessage().get("data"));
+					} catch (Exception e) {
+						Logger.error("Error handling cluster event " + message.getMessage().get("cluster_event").asText(), e);
+					}
+				}
+				return;
+			}
 			WebsocketMessage contents = mapper.readValue(message.getMessage().toString(), new TypeReference<WebsocketMessage>() { });
 			onUpdate(contents.getPage(), contents.getType(), contents.getRequest(), contents.getNode(), contents.getNations(), false);
 		}
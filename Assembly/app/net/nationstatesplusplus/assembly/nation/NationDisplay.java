@@ -0,0 +1,71 @@
+package net.nationstatesplusplus.assembly.nation;
+
+import java.util.Objects;
+
+/**
+ * The parts of a nation needed to display it: its name, full name, title and flag, whether it is alive and its World Assembly status
+ */
+public class NationDisplay {
+	private final String name;
+	private final String fullName;
+	private final String title;
+	private final String flag;
+	private final boolean alive;
+	private final int waStatus;
+
+	public NationDisplay(String name, String fullName, String title, String flag, boolean alive, int waStatus) {
+		this.name = name;
+		this.fullName = fullName;
+		this.title = title;
+		this.flag = flag;
+		this.alive = alive;
+		this.waStatus = waStatus;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getFullName() {
+		return fullName;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getFlag() {
+		return flag;
+	}
+
+	public boolean isAlive() {
+		return alive;
+	}
+
+	/**
+	 * The World Assembly status of the nation: 0 for non-members, 1 for members, 2 for members who recently moved
+	 * 
+	 * @return wa status
+	 */
+	public int getWAStatus() {
+		return waStatus;
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(name, fullName, title, flag, alive, waStatus);
+	}
+
+	/**
+	 * Displays are equal when every part of the display is equal, so a nation rendered with either looks the same
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof NationDisplay)) {
+			return false;
+		}
+		NationDisplay other = (NationDisplay) obj;
+		return alive == other.alive && waStatus == other.waStatus && Objects.equals(name, other.name) && Objects.equals(fullName, other.fullName)
+				&& Objects.equals(title, other.title) && Objects.equals(flag, other.flag);
+	}
+}
@@ -0,0 +1,271 @@
+package net.nationstatesplusplus.assembly.nation;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.nationstatesplusplus.assembly.amqp.ClusterEventListener;
+import net.nationstatesplusplus.assembly.model.websocket.WebsocketManager;
+import net.nationstatesplusplus.assembly.util.Utils;
+
+import play.Logger;
+import play.libs.Json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * Caches the {@link NationDisplay} of nations by name, shared by everything that shows a nation's title, full name or flag. Nations missing
+ * from the cache are loaded together in one query, so formatting a page of happenings looks up all mentioned nations at once.
+ * </p><p>
+ * The cache is warmed up with World Assembly members, refreshed as nations are updated from the api and the daily dump, and counts
+ * hits and misses for each caller. The background server broadcasts the nations whose display changed, and the other servers drop them
+ * from their cache.
+ * </p>
+ */
+public class NationDisplayCache implements ClusterEventListener {
+	public static final String CLUSTER_EVENT = "nation_display";
+	/**
+	 * The most names looked up in one query
+	 */
+	private static final int BATCH_SIZE = 100;
+	private static final String COLUMNS = "SELECT name, full_name, title, flag, alive, wa_member FROM assembly.nation";
+	private final ComboPooledDataSource pool;
+	private final int size;
+	private final Cache<String, NationDisplay> cache;
+	private final ConcurrentHashMap<String, AtomicLong[]> callers = new ConcurrentHashMap<String, AtomicLong[]>();
+	private volatile WebsocketManager publisher = null;
+	public NationDisplayCache(ComboPooledDataSource pool, int size) {
+		this.pool = pool;
+		this.size = size;
+		this.cache = CacheBuilder.newBuilder().maximumSize(size).expireAfterWrite(1, TimeUnit.HOURS).build();
+	}
+
+	/**
+	 * Broadcasts every changed display to the other servers
+	 * 
+	 * @param publisher to broadcast changes with
+	 */
+	public void setPublisher(WebsocketManager publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * Loads World Assembly members into the cache, up to half its size
+	 */
+	public void warmUp() {
+		final long start = System.currentTimeMillis();
+		int loaded = 0;
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement(COLUMNS + " WHERE alive = 1 AND wa_member = 1 LIMIT 0, " + (size / 2))) {
+				select.setFetchSize(Integer.MIN_VALUE);
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						NationDisplay display = readDisplay(result);
+						cache.put(display.getName(), display);
+						loaded++;
+					}
+				}
+			}
+		} catch (SQLException e) {
+			Logger.error("Unable to warm up nation display cache", e);
+		}
+		Logger.info("Warmed up nation display cache with " + loaded + " nations in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Returns the display info of a nation, using a pooled connection if the nation is not cached
+	 * 
+	 * @param name of the nation
+	 * @param caller name of the caller, for the hit rate statistics
+	 * @return display info, or null if the nation is unknown
+	 * @throws SQLException
+	 */
+	public NationDisplay get(String name, String caller) throws SQLException {
+		final NationDisplay display = cache.getIfPresent(Utils.sanitizeName(name));
+		if (display != null) {
+			record(caller, 1, 0);
+			return display;
+		}
+		try (Connection conn = pool.getConnection()) {
+			return get(conn, name, caller);
+		}
+	}
+
+	/**
+	 * Returns the display info of a nation
+	 * 
+	 * @param conn to the database, used if the nation is not cached
+	 * @param name of the nation
+	 * @param caller name of the caller, for the hit rate statistics
+	 * @return display info, or null if the nation is unknown
+	 * @throws SQLException
+	 */
+	public NationDisplay get(Connection conn, String name, String caller) throws SQLException {
+		return getAll(conn, Collections.singleton(name), caller).get(Utils.sanitizeName(name));
+	}
+
+	/**
+	 * Returns the display info of the nations, loading all nations that are not cached in one query
+	 * 
+	 * @param conn to the database, used if any nation is not cached
+	 * @param names of the nations
+	 * @param caller name of the caller, for the hit rate statistics
+	 * @return display info by sanitized nation name, unknown nations are missing
+	 * @throws SQLException
+	 */
+	public Map<String, NationDisplay> getAll(Connection conn, Collection<String> names, String caller) throws SQLException {
+		Map<String, NationDisplay> nations = new HashMap<String, NationDisplay>(names.size() * 2);
+		Set<String> missing = new LinkedHashSet<String>();
+		for (String name : names) {
+			final String nation = Utils.sanitizeName(name);
+			NationDisplay display = cache.getIfPresent(nation);
+			if (display != null) {
+				nations.put(nation, display);
+			} else {
+				missing.add(nation);
+			}
+		}
+		record(caller, nations.size(), missing.size());
+		if (!missing.isEmpty()) {
+			List<String> batch = new ArrayList<String>(Math.min(BATCH_SIZE, missing.size()));
+			for (String nation : missing) {
+				batch.add(nation);
+				if (batch.size() == BATCH_SIZE) {
+					load(conn, batch, nations);
+					batch.clear();
+				}
+			}
+			if (!batch.isEmpty()) {
+				load(conn, batch, nations);
+			}
+		}
+		return nations;
+	}
+
+	private void load(Connection conn, List<String> names, Map<String, NationDisplay> nations) throws SQLException {
+		StringBuilder sql = new StringBuilder(COLUMNS).append(" WHERE name IN (");
+		for (int i = 0; i < names.size(); i++) {
+			sql.append(i == 0 ? "?" : ", ?");
+		}
+		sql.append(")");
+		try (PreparedStatement select = conn.prepareStatement(sql.toString())) {
+			for (int i = 0; i < names.size(); i++) {
+				select.setString(i + 1, names.get(i));
+			}
+			try (ResultSet result = select.executeQuery()) {
+				while (result.next()) {
+					NationDisplay display = readDisplay(result);
+					cache.put(display.getName(), display);
+					nations.put(display.getName(), display);
+				}
+			}
+		}
+	}
+
+	private static NationDisplay readDisplay(ResultSet result) throws SQLException {
+		return new NationDisplay(result.getString(1), result.getString(2), result.getString(3), result.getString(4), result.getByte(5) == 1, result.getInt(6));
+	}
+
+	private void record(String caller, int hits, int misses) {
+		AtomicLong[] counters = callers.get(caller);
+		if (counters == null) {
+			counters = new AtomicLong[] { new AtomicLong(), new AtomicLong() };
+			AtomicLong[] existing = callers.putIfAbsent(caller, counters);
+			if (existing != null) {
+				counters = existing;
+			}
+		}
+		counters[0].addAndGet(hits);
+		counters[1].addAndGet(misses);
+	}
+
+	/**
+	 * Stores the current display info of a nation, after it was updated from the api
+	 * 
+	 * @param display of the nation
+	 */
+	public void put(NationDisplay display) {
+		cache.put(Utils.sanitizeName(display.getName()), display);
+	}
+
+	/**
+	 * Replaces the display info of a nation if it is cached, after it was updated from the daily dump. Nations that are not cached are not added.
+	 * 
+	 * @param display of the nation
+	 */
+	public void refresh(NationDisplay display) {
+		cache.asMap().replace(Utils.sanitizeName(display.getName()), display);
+	}
+
+	/**
+	 * Removes a nation from the cache, after its name, flag or status changed
+	 * 
+	 * @param name of the nation
+	 */
+	public void invalidate(String name) {
+		cache.invalidate(Utils.sanitizeName(name));
+		broadcastChange(name);
+	}
+
+	/**
+	 * Makes the other servers drop their cached display of a nation, after its name, flag or status changed
+	 * 
+	 * @param name of the nation
+	 */
+	public void broadcastChange(String name) {
+		final WebsocketManager publisher = this.publisher;
+		if (publisher != null) {
+			ObjectNode data = Json.newObject();
+			data.put("nation", Utils.sanitizeName(name));
+			publisher.broadcast(CLUSTER_EVENT, data);
+		}
+	}
+
+	/**
+	 * Drops a nation whose display was changed by the background server
+	 */
+	@Override
+	public void onClusterEvent(JsonNode data) {
+		cache.invalidate(data.get("nation").asText());
+	}
+
+	/**
+	 * Returns the size of the cache, and the hits, misses and hit rate of each caller
+	 * 
+	 * @return statistics
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("size", cache.size());
+		Map<String, Object> callerStats = new LinkedHashMap<String, Object>();
+		for (Map.Entry<String, AtomicLong[]> entry : callers.entrySet()) {
+			final long hits = entry.getValue()[0].get();
+			final long misses = entry.getValue()[1].get();
+			Map<String, Object> caller = new LinkedHashMap<String, Object>();
+			caller.put("hits", hits);
+			caller.put("misses", misses);
+			caller.put("hit_rate", hits + misses > 0 ? (double) hits / (hits + misses) : 0D);
+			callerStats.put(entry.getKey(), caller);
+		}
+		stats.put("callers", callerStats);
+		return stats;
+	}
+}
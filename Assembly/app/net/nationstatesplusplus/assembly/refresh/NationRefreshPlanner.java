@@ -0,0 +1,320 @@
+package net.nationstatesplusplus.assembly.refresh;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import net.nationstatesplusplus.assembly.endorsement.EndorsementListener;
+import net.nationstatesplusplus.assembly.endorsement.Member;
+
+import org.joda.time.Duration;
+
+import play.Logger;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * Plans which nations the {@link net.nationstatesplusplus.assembly.NationUpdateTask} refreshes next. Every living nation is kept in
+ * memory, ordered by the time its next refresh is due, so picking the next nations never sorts the nation table.
+ * </p><p>
+ * How often a nation is refreshed depends on its class: regional delegates every hour, World Assembly members every 12 hours, sooner
+ * the more endorsements they have, nations with recent happenings every 6 hours and all other nations every 24 hours. World Assembly
+ * membership and endorsement counts are kept current by listening to the {@link net.nationstatesplusplus.assembly.endorsement.EndorsementGraph},
+ * delegates are read when the planner is reloaded from the database.
+ * </p>
+ */
+public class NationRefreshPlanner implements EndorsementListener {
+	public static enum RefreshClass {
+		DELEGATE(Duration.standardHours(1)),
+		WA_MEMBER(Duration.standardHours(12)),
+		ACTIVE(Duration.standardHours(6)),
+		NATION(Duration.standardHours(24));
+
+		private final long interval;
+		RefreshClass(Duration interval) {
+			this.interval = interval.getMillis();
+		}
+	}
+	private static final long MIN_INTERVAL = Duration.standardHours(1).getMillis();
+	private static final long ACTIVITY_WINDOW = Duration.standardHours(24).getMillis();
+	private static final long RELOAD_INTERVAL = Duration.standardHours(6).getMillis();
+	private final ComboPooledDataSource pool;
+	private final Map<Integer, Candidate> candidates = new HashMap<Integer, Candidate>();
+	private final TreeSet<Candidate> queue = new TreeSet<Candidate>(new Comparator<Candidate>() {
+		@Override
+		public int compare(Candidate c1, Candidate c2) {
+			if (c1.due != c2.due) {
+				return c1.due < c2.due ? -1 : 1;
+			}
+			return Integer.compare(c1.id, c2.id);
+		}
+	});
+	private long lastReload = 0;
+	private long refreshed = 0;
+	public NationRefreshPlanner(ComboPooledDataSource pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Reloads all living nations from the database if they were not loaded in the last 6 hours
+	 *
+	 * @throws SQLException
+	 */
+	public void reloadIfNeeded() throws SQLException {
+		synchronized (this) {
+			if (lastReload + RELOAD_INTERVAL > System.currentTimeMillis()) {
+				return;
+			}
+		}
+		reload();
+	}
+
+	/**
+	 * Reloads all living nations from the database, keeping the activity and endorsement counts already known
+	 *
+	 * @throws SQLException
+	 */
+	public void reload() throws SQLException {
+		final long start = System.currentTimeMillis();
+		Map<Integer, Candidate> loaded = new HashMap<Integer, Candidate>(200000);
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement("SELECT n.id, n.wa_member, n.last_endorsement_baseline, r.delegate = n.name FROM assembly.nation AS n LEFT JOIN assembly.region AS r ON n.region = r.id WHERE n.alive = 1")) {
+				select.setFetchSize(Integer.MIN_VALUE);
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						Candidate candidate = new Candidate(result.getInt(1));
+						candidate.waMember = result.getInt(2) != 0;
+						candidate.baseline = result.getLong(3);
+						candidate.delegate = result.getBoolean(4);
+						loaded.put(candidate.id, candidate);
+					}
+				}
+			}
+		}
+		synchronized (this) {
+			for (Candidate candidate : loaded.values()) {
+				Candidate existing = candidates.get(candidate.id);
+				if (existing != null) {
+					candidate.endorsements = existing.endorsements;
+					candidate.lastActivity = existing.lastActivity;
+					//Refreshed while the nations were being read
+					candidate.baseline = Math.max(candidate.baseline, existing.baseline);
+				}
+				candidate.due = candidate.calculateDue();
+			}
+			candidates.clear();
+			candidates.putAll(loaded);
+			queue.clear();
+			queue.addAll(loaded.values());
+			lastReload = System.currentTimeMillis();
+		}
+		Logger.info("Loaded " + loaded.size() + " nations into the refresh planner in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Returns the ids of the nations whose refresh is most overdue, and no nations that are not yet due
+	 *
+	 * @param limit maximum number of nations
+	 * @return nation ids
+	 */
+	public synchronized List<Integer> getDueNations(int limit) {
+		final long now = System.currentTimeMillis();
+		List<Integer> due = new ArrayList<Integer>(limit);
+		Iterator<Candidate> iter = queue.iterator();
+		while (due.size() < limit && iter.hasNext()) {
+			Candidate candidate = iter.next();
+			if (candidate.due > now) {
+				break;
+			}
+			due.add(candidate.id);
+		}
+		return due;
+	}
+
+	/**
+	 * The number of nations whose refresh is due
+	 *
+	 * @return due nations
+	 */
+	public synchronized int getDueCount() {
+		final long now = System.currentTimeMillis();
+		int count = 0;
+		for (Candidate candidate : queue) {
+			if (candidate.due > now) {
+				break;
+			}
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Records that the nation was refreshed from the api
+	 *
+	 * @param nationId of the nation
+	 */
+	public synchronized void onRefreshed(int nationId) {
+		Candidate candidate = candidates.get(nationId);
+		if (candidate != null) {
+			queue.remove(candidate);
+			candidate.baseline = System.currentTimeMillis();
+			candidate.due = candidate.calculateDue();
+			queue.add(candidate);
+		}
+		refreshed++;
+	}
+
+	/**
+	 * Records a happening for the nation, adding the nation if it is new
+	 *
+	 * @param nationId of the nation
+	 */
+	public synchronized void onActivity(int nationId) {
+		if (nationId < 0) {
+			return;
+		}
+		Candidate candidate = candidates.get(nationId);
+		if (candidate == null) {
+			candidate = new Candidate(nationId);
+			candidates.put(nationId, candidate);
+		} else {
+			queue.remove(candidate);
+		}
+		candidate.lastActivity = System.currentTimeMillis();
+		candidate.due = candidate.calculateDue();
+		queue.add(candidate);
+	}
+
+	/**
+	 * Removes a nation that ceased to exist
+	 *
+	 * @param nationId of the nation
+	 */
+	public synchronized void remove(int nationId) {
+		Candidate candidate = candidates.remove(nationId);
+		if (candidate != null) {
+			queue.remove(candidate);
+		}
+	}
+
+	@Override
+	public synchronized void onReload(List<Member> members) {
+		for (Candidate candidate : candidates.values()) {
+			candidate.endorsements = 0;
+		}
+		for (Member member : members) {
+			update(member);
+		}
+	}
+
+	@Override
+	public synchronized void onMemberChanged(Member member) {
+		update(member);
+	}
+
+	@Override
+	public synchronized void onMemberRemoved(int nationId) {
+		Candidate candidate = candidates.get(nationId);
+		if (candidate != null) {
+			queue.remove(candidate);
+			candidate.waMember = false;
+			candidate.endorsements = 0;
+			candidate.due = candidate.calculateDue();
+			queue.add(candidate);
+		}
+	}
+
+	private void update(Member member) {
+		Candidate candidate = candidates.get(member.getId());
+		if (candidate == null) {
+			//Not loaded yet, or the nation is newer than the last reload
+			return;
+		}
+		final boolean waMember = member.getWAStatus() != 0;
+		if (candidate.waMember != waMember || candidate.endorsements != member.getEndorsements()) {
+			queue.remove(candidate);
+			candidate.waMember = waMember;
+			candidate.endorsements = member.getEndorsements();
+			candidate.due = candidate.calculateDue();
+			queue.add(candidate);
+		}
+	}
+
+	/**
+	 * Returns, for each class, the number of nations, the number of nations due for a refresh and the average time since
+	 * their last refresh, along with the total number of refreshes since startup.
+	 *
+	 * @return statistics
+	 */
+	public synchronized Map<String, Object> getStatistics() {
+		final long now = System.currentTimeMillis();
+		final RefreshClass[] classes = RefreshClass.values();
+		long[] count = new long[classes.length];
+		long[] due = new long[classes.length];
+		double[] staleness = new double[classes.length];
+		for (Candidate candidate : candidates.values()) {
+			final int i = candidate.getRefreshClass(now).ordinal();
+			count[i]++;
+			if (candidate.due <= now) {
+				due[i]++;
+			}
+			staleness[i] += now - candidate.baseline;
+		}
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		for (RefreshClass refreshClass : classes) {
+			final int i = refreshClass.ordinal();
+			Map<String, Object> classStats = new LinkedHashMap<String, Object>();
+			classStats.put("nations", count[i]);
+			classStats.put("due", due[i]);
+			classStats.put("average_staleness", count[i] > 0 ? (long) (staleness[i] / count[i]) : 0);
+			stats.put(refreshClass.name().toLowerCase(), classStats);
+		}
+		stats.put("refreshed", refreshed);
+		stats.put("last_reload", lastReload);
+		return stats;
+	}
+
+	private static class Candidate {
+		final int id;
+		boolean waMember = false;
+		boolean delegate = false;
+		int endorsements = 0;
+		long baseline = 0;
+		long lastActivity = 0;
+		long due = 0;
+		Candidate(int id) {
+			this.id = id;
+		}
+
+		RefreshClass getRefreshClass(long now) {
+			if (delegate) {
+				return RefreshClass.DELEGATE;
+			} else if (waMember) {
+				return RefreshClass.WA_MEMBER;
+			} else if (lastActivity + ACTIVITY_WINDOW > now) {
+				return RefreshClass.ACTIVE;
+			}
+			return RefreshClass.NATION;
+		}
+
+		long calculateDue() {
+			final RefreshClass refreshClass = getRefreshClass(System.currentTimeMillis());
+			long interval = refreshClass.interval;
+			if (refreshClass == RefreshClass.WA_MEMBER) {
+				//Every doubling of endorsements shortens the interval, down to an hour
+				interval = Math.max(MIN_INTERVAL, (long) (interval / (1 + Math.log(1 + endorsements) / Math.log(2))));
+			}
+			return baseline + interval;
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package net.nationstatesplusplus.assembly.refresh;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import play.Logger;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * A persistent, deduplicating priority queue of regions and nations to refresh from the NationStates api, stored in the
+ * <code>assembly.refresh_queue</code> table so pending work survives restarts. Producers add entries as events happen,
+ * queuing an entry that is already pending only raises its priority, and workers take the highest priority, oldest entries first.
+ * </p><p>
+ * Every add bumps the entry version, and an entry is only removed on completion if its version is unchanged, so an entry queued
+ * again while it is being refreshed is refreshed again.
+ * </p>
+ */
+public class RefreshQueue {
+	/**
+	 * Priority for entities whose flag changed
+	 */
+	public static final int FLAG_CHANGED = 10;
+	/**
+	 * Priority for regions that were founded since the last daily dump
+	 */
+	public static final int NEW_REGION = 5;
+	/**
+	 * Entries that fail this many times are dropped
+	 */
+	private static final int MAX_ATTEMPTS = 5;
+	private final ComboPooledDataSource pool;
+	public RefreshQueue(ComboPooledDataSource pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Queues an entity to be refreshed, or raises the priority of the entity if it is already queued
+	 * 
+	 * @param conn to the database
+	 * @param type of entity
+	 * @param id of the entity
+	 * @param priority of the refresh, higher priorities are refreshed first
+	 * @throws SQLException
+	 */
+	public void add(Connection conn, RefreshType type, int id, int priority) throws SQLException {
+		if (id < 0) {
+			return;
+		}
+		try (PreparedStatement insert = conn.prepareStatement("INSERT INTO assembly.refresh_queue (type, id, priority, queued) VALUES (?, ?, ?, ?) " +
+				"ON DUPLICATE KEY UPDATE priority = GREATEST(priority, VALUES(priority)), version = version + 1")) {
+			insert.setInt(1, type.getId());
+			insert.setInt(2, id);
+			insert.setInt(3, priority);
+			insert.setLong(4, System.currentTimeMillis());
+			insert.executeUpdate();
+		}
+	}
+
+	/**
+	 * Queues all living regions that have no known population, which are regions founded since the last daily dump
+	 * 
+	 * @param conn to the database
+	 * @return the number of regions queued
+	 * @throws SQLException
+	 */
+	public int addRegionsWithoutPopulation(Connection conn) throws SQLException {
+		try (PreparedStatement insert = conn.prepareStatement("INSERT IGNORE INTO assembly.refresh_queue (type, id, priority, queued) SELECT ?, id, ?, ? FROM assembly.region WHERE alive = 1 AND population = 0")) {
+			insert.setInt(1, RefreshType.REGION.getId());
+			insert.setInt(2, NEW_REGION);
+			insert.setLong(3, System.currentTimeMillis());
+			return insert.executeUpdate();
+		}
+	}
+
+	/**
+	 * Returns the highest priority entries of the given type, oldest first among equal priorities. Entries stay queued until they
+	 * are completed.
+	 * 
+	 * @param conn to the database
+	 * @param type of entity
+	 * @param limit maximum number of entries
+	 * @return entries
+	 * @throws SQLException
+	 */
+	public List<Entry> peek(Connection conn, RefreshType type, int limit) throws SQLException {
+		List<Entry> entries = new ArrayList<Entry>(limit);
+		try (PreparedStatement select = conn.prepareStatement("SELECT id, version FROM assembly.refresh_queue WHERE type = ? ORDER BY priority DESC, queued ASC LIMIT 0, " + limit)) {
+			select.setInt(1, type.getId());
+			try (ResultSet result = select.executeQuery()) {
+				while (result.next()) {
+					entries.add(new Entry(type, result.getInt(1), result.getInt(2)));
+				}
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Removes a refreshed entry from the queue, unless it was queued again since it was returned by {@link #peek(Connection, RefreshType, int)}
+	 * 
+	 * @param conn to the database
+	 * @param entry refreshed
+	 * @throws SQLException
+	 */
+	public void complete(Connection conn, Entry entry) throws SQLException {
+		try (PreparedStatement delete = conn.prepareStatement("DELETE FROM assembly.refresh_queue WHERE type = ? AND id = ? AND version = ?")) {
+			delete.setInt(1, entry.getType().getId());
+			delete.setInt(2, entry.getId());
+			delete.setInt(3, entry.version);
+			delete.executeUpdate();
+		}
+	}
+
+	/**
+	 * Records a failed refresh. The entry moves behind other entries of the same priority, and is dropped after repeated failures.
+	 * 
+	 * @param conn to the database
+	 * @param entry that failed
+	 * @throws SQLException
+	 */
+	public void fail(Connection conn, Entry entry) throws SQLException {
+		try (PreparedStatement update = conn.prepareStatement("UPDATE assembly.refresh_queue SET attempts = attempts + 1, queued = ? WHERE type = ? AND id = ?")) {
+			update.setLong(1, System.currentTimeMillis());
+			update.setInt(2, entry.getType().getId());
+			update.setInt(3, entry.getId());
+			update.executeUpdate();
+		}
+		try (PreparedStatement delete = conn.prepareStatement("DELETE FROM assembly.refresh_queue WHERE type = ? AND id = ? AND attempts >= ?")) {
+			delete.setInt(1, entry.getType().getId());
+			delete.setInt(2, entry.getId());
+			delete.setInt(3, MAX_ATTEMPTS);
+			if (delete.executeUpdate() > 0) {
+				Logger.warn("Dropped " + entry.getType() + " " + entry.getId() + " from the refresh queue after " + MAX_ATTEMPTS + " failed attempts");
+			}
+		}
+	}
+
+	/**
+	 * The number of queued entries of the given type
+	 * 
+	 * @param type of entity
+	 * @return queued entries, or -1 if the queue could not be read
+	 */
+	public int size(RefreshType type) {
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement("SELECT count(*) FROM assembly.refresh_queue WHERE type = ?")) {
+				select.setInt(1, type.getId());
+				try (ResultSet result = select.executeQuery()) {
+					return result.next() ? result.getInt(1) : 0;
+				}
+			}
+		} catch (SQLException e) {
+			Logger.warn("Unable to read refresh queue size", e);
+			return -1;
+		}
+	}
+
+	public static class Entry {
+		private final RefreshType type;
+		private final int id;
+		private final int version;
+		Entry(RefreshType type, int id, int version) {
+			this.type = type;
+			this.id = id;
+			this.version = version;
+		}
+
+		public RefreshType getType() {
+			return type;
+		}
+
+		public int getId() {
+			return id;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package net.nationstatesplusplus.assembly.refresh;
+
+/**
+ * The kinds of entity that can be queued in the {@link RefreshQueue}
+ */
+public enum RefreshType {
+	REGION(1),
+	NATION(2);
+
+	private final int id;
+	RefreshType(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * The id of the type in the refresh_queue table
+	 * 
+	 * @return id
+	 */
+	public int getId() {
+		return id;
+	}
+}
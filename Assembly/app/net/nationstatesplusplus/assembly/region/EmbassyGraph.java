@@ -0,0 +1,251 @@
+package net.nationstatesplusplus.assembly.region;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.nationstatesplusplus.assembly.TaskScheduler;
+import net.nationstatesplusplus.assembly.amqp.ClusterEventListener;
+import net.nationstatesplusplus.assembly.flag.FlagMap;
+import net.nationstatesplusplus.assembly.model.websocket.WebsocketManager;
+import net.nationstatesplusplus.assembly.util.Utils;
+
+import org.joda.time.Duration;
+
+import play.Logger;
+import play.libs.Json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * Holds the embassies of every living region as an adjacency list of region ids, parsed once from the embassies column instead of on every
+ * request, with the name of every embassy region. Embassy payloads are assembled on read with the current flags from the {@link FlagMap},
+ * without querying the database, so flag changes and regions ceasing to exist show up immediately.
+ * </p><p>
+ * The graph is loaded at startup and after every daily dump, which updates the embassies of every region. The background server broadcasts
+ * each reload and every region which ceases to exist; the other servers reload their own graph, off the rabbitmq consumer thread, and
+ * remove the embassies of dead regions. Regions which die while the graph is reloading are removed again from the reloaded graph.
+ * </p>
+ */
+public class EmbassyGraph implements ClusterEventListener {
+	public static final String CLUSTER_EVENT = "embassies";
+	private static final String DEFAULT_FLAG = "//www.nationstates.net/images/flags/Default.png";
+	private final ComboPooledDataSource pool;
+	private final FlagMap flags;
+	private final TaskScheduler scheduler;
+	private volatile Graph graph = new Graph(new ConcurrentHashMap<Integer, int[]>(), new HashMap<Integer, String>(), new ConcurrentHashMap<Integer, String>());
+	private volatile boolean loaded = false;
+	private volatile WebsocketManager publisher = null;
+	private boolean reloading = false;
+	private final Map<Integer, String> diedDuringReload = new HashMap<Integer, String>();
+	/**
+	 * @param pool of database connections
+	 * @param flags of the living regions
+	 * @param scheduler to reload the graph on when the background server broadcasts a reload
+	 */
+	public EmbassyGraph(ComboPooledDataSource pool, FlagMap flags, TaskScheduler scheduler) {
+		this.pool = pool;
+		this.flags = flags;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Broadcasts every reload and dead region of this graph to the other servers
+	 * 
+	 * @param publisher to broadcast changes with
+	 */
+	public void setPublisher(WebsocketManager publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * Replaces the graph with the embassies of the living regions in the database
+	 */
+	public void reload() {
+		final long start = System.currentTimeMillis();
+		synchronized (this) {
+			reloading = true;
+		}
+		final Map<String, Integer> ids = new HashMap<String, Integer>(100000);
+		final Map<Integer, String> deadFlags = new HashMap<Integer, String>();
+		final Map<Integer, String> embassyLists = new HashMap<Integer, String>(30000);
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement("SELECT id, name, flag, alive, embassies FROM assembly.region")) {
+				select.setFetchSize(Integer.MIN_VALUE);
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						final int id = result.getInt(1);
+						ids.put(result.getString(2), id);
+						if (result.getByte(4) == 1) {
+							final String embassies = result.getString(5);
+							if (embassies != null && !embassies.isEmpty()) {
+								embassyLists.put(id, embassies);
+							}
+						} else {
+							deadFlags.put(id, Utils.resolveRegionFlag(result.getString(3), false, DEFAULT_FLAG));
+						}
+					}
+				}
+			}
+		} catch (SQLException e) {
+			Logger.error("Unable to load embassy graph", e);
+			synchronized (this) {
+				reloading = false;
+				diedDuringReload.clear();
+			}
+			return;
+		}
+		//Keep every embassy region under the name the dump lists it by, which the payloads return. Regions missing from the region
+		//table are given negative ids, so they are still listed, with the default flag
+		final ConcurrentHashMap<Integer, int[]> embassies = new ConcurrentHashMap<Integer, int[]>(embassyLists.size());
+		final Map<Integer, String> names = new HashMap<Integer, String>(embassyLists.size());
+		int edges = 0;
+		for (Map.Entry<Integer, String> e : embassyLists.entrySet()) {
+			final String[] split = e.getValue().split(":");
+			int[] adjacent = new int[split.length];
+			for (int i = 0; i < split.length; i++) {
+				final String name = Utils.sanitizeName(split[i]);
+				Integer id = ids.get(name);
+				if (id == null) {
+					id = -(ids.size() + 1);
+					ids.put(name, id);
+				}
+				adjacent[i] = id;
+				if (!names.containsKey(id)) {
+					names.put(id, split[i]);
+				}
+			}
+			embassies.put(e.getKey(), adjacent);
+			edges += adjacent.length;
+		}
+		final ConcurrentHashMap<Integer, String> embassyDeadFlags = new ConcurrentHashMap<Integer, String>();
+		for (Map.Entry<Integer, String> e : deadFlags.entrySet()) {
+			if (names.containsKey(e.getKey())) {
+				embassyDeadFlags.put(e.getKey(), e.getValue());
+			}
+		}
+		synchronized (this) {
+			graph = new Graph(embassies, names, embassyDeadFlags);
+			for (Map.Entry<Integer, String> e : diedDuringReload.entrySet()) {
+				apply(e.getKey(), e.getValue());
+			}
+			diedDuringReload.clear();
+			reloading = false;
+			loaded = true;
+		}
+		Logger.info("Loaded " + edges + " embassies of " + embassies.size() + " regions in " + (System.currentTimeMillis() - start) + " ms");
+		final WebsocketManager publisher = this.publisher;
+		if (publisher != null) {
+			ObjectNode data = Json.newObject();
+			data.put("reload", true);
+			publisher.broadcast(CLUSTER_EVENT, data);
+		}
+	}
+
+	/**
+	 * Whether the graph has been loaded from the database yet
+	 * 
+	 * @return loaded
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Returns the embassies of a region, with their flags, in the order the region lists them
+	 * 
+	 * @param regionId of the region
+	 * @param limit maximum number of embassies, or 0 or less for all of them
+	 * @return embassies, as name and flag maps
+	 */
+	public List<Map<String, String>> getEmbassies(int regionId, int limit) {
+		final Graph current = graph;
+		final int[] adjacent = current.embassies.get(regionId);
+		if (adjacent == null) {
+			return Collections.emptyList();
+		}
+		final int count = limit > 0 ? Math.min(limit, adjacent.length) : adjacent.length;
+		List<Map<String, String>> embassies = new ArrayList<Map<String, String>>(count);
+		for (int i = 0; i < count; i++) {
+			final int id = adjacent[i];
+			final String name = current.names.get(id);
+			final String flag = flags.getRegionFlag(Utils.sanitizeName(name));
+			Map<String, String> regionData = new HashMap<String, String>();
+			regionData.put("name", name);
+			if (flag != null) {
+				regionData.put("flag", Utils.resolveRegionFlag(flag, true, DEFAULT_FLAG));
+			} else {
+				final String deadFlag = current.deadFlags.get(id);
+				regionData.put("flag", deadFlag != null ? deadFlag : DEFAULT_FLAG);
+			}
+			embassies.add(regionData);
+		}
+		return embassies;
+	}
+
+	/**
+	 * Removes the embassies of a region which ceased to exist, and keeps its flag for the embassies of other regions
+	 * 
+	 * @param regionId of the region
+	 * @param deadFlag the flag of the region now it is dead
+	 */
+	public synchronized void onRegionDead(int regionId, String deadFlag) {
+		apply(regionId, deadFlag);
+		if (reloading) {
+			diedDuringReload.put(regionId, deadFlag);
+		}
+		final WebsocketManager publisher = this.publisher;
+		if (publisher != null) {
+			ObjectNode data = Json.newObject();
+			data.put("region", regionId);
+			data.put("flag", deadFlag);
+			publisher.broadcast(CLUSTER_EVENT, data);
+		}
+	}
+
+	/**
+	 * Reloads the graph, or removes the embassies of a dead region, broadcast by the background server
+	 */
+	@Override
+	public void onClusterEvent(JsonNode data) {
+		if (data.has("reload")) {
+			scheduler.scheduleOnce(Duration.ZERO, new Runnable() {
+				@Override
+				public void run() {
+					reload();
+				}
+			});
+		} else {
+			onRegionDead(data.get("region").asInt(), data.get("flag").asText());
+		}
+	}
+
+	private void apply(int regionId, String deadFlag) {
+		final Graph current = graph;
+		current.embassies.remove(regionId);
+		if (current.names.containsKey(regionId)) {
+			current.deadFlags.put(regionId, deadFlag);
+		}
+	}
+
+	private static class Graph {
+		final ConcurrentHashMap<Integer, int[]> embassies;
+		final Map<Integer, String> names;
+		final ConcurrentHashMap<Integer, String> deadFlags;
+		Graph(ConcurrentHashMap<Integer, int[]> embassies, Map<Integer, String> names, ConcurrentHashMap<Integer, String> deadFlags) {
+			this.embassies = embassies;
+			this.names = names;
+			this.deadFlags = deadFlags;
+		}
+	}
+}
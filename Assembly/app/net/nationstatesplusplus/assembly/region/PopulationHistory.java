@@ -0,0 +1,404 @@
+package net.nationstatesplusplus.assembly.region;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.nationstatesplusplus.assembly.amqp.ClusterEventListener;
+import net.nationstatesplusplus.assembly.model.websocket.WebsocketManager;
+
+import org.joda.time.Duration;
+
+import play.Logger;
+import play.libs.Json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * Keeps the population history of every living region in memory, so population trends and records do not scan the region_populations table.
+ * Each region's history is a sorted long array of samples, the timestamp in seconds in the high half and the population in the low half.
+ * </p><p>
+ * Samples are recorded once per daily dump. Daily samples are kept for 90 days; older samples are downsampled to the highest
+ * population of each week, in memory and in the database, so the all-time record population of a region is never discarded. The record
+ * of each region is kept alongside its samples.
+ * </p><p>
+ * The background server broadcasts the populations of each dump and the regions which cease to exist, and the other servers apply them
+ * to their own history. Changes made while the history is reloading are applied again to the reloaded history.
+ * </p>
+ */
+public class PopulationHistory implements ClusterEventListener {
+	public static final String CLUSTER_EVENT = "population_history";
+	private static final long[] EMPTY = new long[0];
+	private static final long WEEK_SECONDS = Duration.standardDays(7).getStandardSeconds();
+	private static final Duration DAILY_RETENTION = Duration.standardDays(90);
+	private final ComboPooledDataSource pool;
+	private volatile ConcurrentHashMap<String, long[]> regions = new ConcurrentHashMap<String, long[]>();
+	private volatile ConcurrentHashMap<String, Long> records = new ConcurrentHashMap<String, Long>();
+	private volatile boolean loaded = false;
+	private volatile long downsampledUntil = -1;
+	private volatile WebsocketManager publisher = null;
+	private boolean reloading = false;
+	private final List<JsonNode> changedDuringReload = new ArrayList<JsonNode>();
+	public PopulationHistory(ComboPooledDataSource pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Broadcasts every change made to this history to the other servers
+	 * 
+	 * @param publisher to broadcast changes with
+	 */
+	public void setPublisher(WebsocketManager publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * Replaces the history with the population samples of the living regions in the database
+	 */
+	public void reload() {
+		final long start = System.currentTimeMillis();
+		synchronized (this) {
+			reloading = true;
+		}
+		final Map<String, Samples> loading = new HashMap<String, Samples>(30000);
+		int count = 0;
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement("SELECT p.region, p.population, p.timestamp FROM assembly.region_populations AS p JOIN assembly.region AS r ON r.name = p.region WHERE r.alive = 1")) {
+				select.setFetchSize(Integer.MIN_VALUE);
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						Samples samples = loading.get(result.getString(1));
+						if (samples == null) {
+							samples = new Samples();
+							loading.put(result.getString(1), samples);
+						}
+						samples.add(pack(result.getLong(3), result.getInt(2)));
+						count++;
+					}
+				}
+			}
+		} catch (SQLException e) {
+			Logger.error("Unable to load region population history", e);
+			synchronized (this) {
+				reloading = false;
+				changedDuringReload.clear();
+			}
+			return;
+		}
+		final long cutoff = getCutoff(start);
+		ConcurrentHashMap<String, long[]> history = new ConcurrentHashMap<String, long[]>(loading.size());
+		ConcurrentHashMap<String, Long> highest = new ConcurrentHashMap<String, Long>(loading.size());
+		for (Map.Entry<String, Samples> e : loading.entrySet()) {
+			long[] samples = Arrays.copyOf(e.getValue().samples, e.getValue().size);
+			Arrays.sort(samples);
+			long record = samples[0];
+			for (int i = 1; i < samples.length; i++) {
+				if (getPopulation(samples[i]) > getPopulation(record)) {
+					record = samples[i];
+				}
+			}
+			history.put(e.getKey(), downsample(samples, cutoff));
+			highest.put(e.getKey(), record);
+		}
+		synchronized (this) {
+			regions = history;
+			records = highest;
+			for (JsonNode change : changedDuringReload) {
+				apply(change);
+			}
+			changedDuringReload.clear();
+			reloading = false;
+			loaded = true;
+		}
+		Logger.info("Loaded " + count + " population samples of " + history.size() + " regions in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Whether the history has been loaded from the database yet
+	 * 
+	 * @return loaded
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Whether the history of the region is held in memory. Dead regions are not, and are looked up in the database by the caller.
+	 * 
+	 * @param region sanitized name
+	 * @return if the region is known
+	 */
+	public boolean contains(String region) {
+		return regions.containsKey(region);
+	}
+
+	/**
+	 * Records the population of every region from a daily dump, in one batched pass, and downsamples the samples which
+	 * have fallen out of the daily retention, in memory and in the database, one week at a time.
+	 * 
+	 * @param conn
+	 * @param populations map of region name to population
+	 * @param timestamp of the dump, in milliseconds
+	 * @throws SQLException
+	 */
+	public void record(Connection conn, Map<String, Integer> populations, long timestamp) throws SQLException {
+		try (PreparedStatement insert = conn.prepareStatement("INSERT INTO assembly.region_populations (region, population, timestamp) VALUES (?, ?, ?)")) {
+			for (List<Map.Entry<String, Integer>> batch : Lists.partition(new ArrayList<Map.Entry<String, Integer>>(populations.entrySet()), 1000)) {
+				for (Map.Entry<String, Integer> e : batch) {
+					insert.setString(1, e.getKey());
+					insert.setInt(2, e.getValue());
+					insert.setLong(3, timestamp);
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+		}
+		ObjectNode data = Json.newObject();
+		data.put("timestamp", timestamp);
+		ObjectNode recorded = data.putObject("populations");
+		for (Map.Entry<String, Integer> e : populations.entrySet()) {
+			recorded.put(e.getKey(), e.getValue());
+		}
+		change(data);
+		final long cutoff = getCutoff(timestamp);
+		//Weeks before the oldest week still holding daily samples were downsampled by earlier dumps. It is looked up once, which
+		//also catches up on weeks left behind by downtime or recorded before weeks were downsampled in the database
+		final long cutoffMillis = cutoff * 1000L;
+		final long weekMillis = WEEK_SECONDS * 1000L;
+		long week = downsampledUntil;
+		if (week == -1) {
+			week = getOldestDailyWeek(conn, cutoffMillis);
+		}
+		for (; week < cutoffMillis; week += weekMillis) {
+			downsampleWeek(conn, week, week + weekMillis);
+		}
+		downsampledUntil = Math.max(week, cutoffMillis);
+	}
+
+	/**
+	 * Finds the start of the oldest week before the cutoff in which a region has more than one sample
+	 * 
+	 * @param conn
+	 * @param cutoff in milliseconds, the start of a week
+	 * @return start of the week in milliseconds, or the cutoff if every older week is downsampled
+	 * @throws SQLException
+	 */
+	private static long getOldestDailyWeek(Connection conn, long cutoff) throws SQLException {
+		final long weekMillis = WEEK_SECONDS * 1000L;
+		try (PreparedStatement select = conn.prepareStatement("SELECT MIN(w.week) FROM (SELECT FLOOR(timestamp / ?) AS week FROM assembly.region_populations WHERE timestamp < ? GROUP BY region, week HAVING COUNT(*) > 1) AS w")) {
+			select.setLong(1, weekMillis);
+			select.setLong(2, cutoff);
+			try (ResultSet result = select.executeQuery()) {
+				if (result.next()) {
+					final long week = result.getLong(1);
+					if (!result.wasNull()) {
+						return week * weekMillis;
+					}
+				}
+			}
+		}
+		return cutoff;
+	}
+
+	/**
+	 * Keeps the highest population of each region in the week, then the earliest of any ties
+	 * 
+	 * @param conn
+	 * @param start of the week, in milliseconds
+	 * @param end of the week, in milliseconds
+	 * @throws SQLException
+	 */
+	private static void downsampleWeek(Connection conn, long start, long end) throws SQLException {
+		try (PreparedStatement delete = conn.prepareStatement("DELETE p FROM assembly.region_populations AS p JOIN (SELECT region, MAX(population) AS peak FROM assembly.region_populations WHERE timestamp >= ? AND timestamp < ? GROUP BY region) AS k ON p.region = k.region WHERE p.timestamp >= ? AND p.timestamp < ? AND p.population < k.peak")) {
+			delete.setLong(1, start);
+			delete.setLong(2, end);
+			delete.setLong(3, start);
+			delete.setLong(4, end);
+			delete.executeUpdate();
+		}
+		try (PreparedStatement delete = conn.prepareStatement("DELETE p FROM assembly.region_populations AS p JOIN (SELECT region, MIN(timestamp) AS first FROM assembly.region_populations WHERE timestamp >= ? AND timestamp < ? GROUP BY region) AS k ON p.region = k.region WHERE p.timestamp >= ? AND p.timestamp < ? AND p.timestamp > k.first")) {
+			delete.setLong(1, start);
+			delete.setLong(2, end);
+			delete.setLong(3, start);
+			delete.setLong(4, end);
+			delete.executeUpdate();
+		}
+	}
+
+	/**
+	 * Removes a region which ceased to exist
+	 * 
+	 * @param region sanitized name
+	 */
+	public void remove(String region) {
+		ObjectNode data = Json.newObject();
+		data.put("removed", region);
+		change(data);
+	}
+
+	private synchronized void change(JsonNode data) {
+		apply(data);
+		if (reloading) {
+			changedDuringReload.add(data);
+		}
+		final WebsocketManager publisher = this.publisher;
+		if (publisher != null) {
+			publisher.broadcast(CLUSTER_EVENT, data);
+		}
+	}
+
+	/**
+	 * Applies the populations of a dump, or a region which ceased to exist, broadcast by the background server
+	 */
+	@Override
+	public void onClusterEvent(JsonNode data) {
+		change(data);
+	}
+
+	/**
+	 * Appends the populations of a dump to the history of each region, or removes a region
+	 * 
+	 * @param data with the timestamp in milliseconds and a populations object of region name to population, or the removed region name
+	 */
+	private void apply(JsonNode data) {
+		if (data.has("removed")) {
+			regions.remove(data.get("removed").asText());
+			records.remove(data.get("removed").asText());
+			return;
+		}
+		final long timestamp = data.get("timestamp").asLong();
+		final long cutoff = getCutoff(timestamp);
+		final Iterator<Map.Entry<String, JsonNode>> populations = data.get("populations").fields();
+		while (populations.hasNext()) {
+			final Map.Entry<String, JsonNode> e = populations.next();
+			final int population = e.getValue().asInt();
+			final long[] samples = regions.get(e.getKey());
+			final long[] appended = samples != null ? Arrays.copyOf(samples, samples.length + 1) : new long[1];
+			appended[appended.length - 1] = pack(timestamp, population);
+			regions.put(e.getKey(), downsample(appended, cutoff));
+			final Long record = records.get(e.getKey());
+			if (record == null || getPopulation(record) < population) {
+				records.put(e.getKey(), appended[appended.length - 1]);
+			}
+		}
+	}
+
+	/**
+	 * Returns the population samples of a region between two times, newest first
+	 * 
+	 * @param region sanitized name
+	 * @param from earliest timestamp, exclusive, in milliseconds
+	 * @param to latest timestamp, inclusive, in milliseconds
+	 * @return samples, as {population, timestamp in milliseconds} pairs
+	 */
+	public List<long[]> getRange(String region, long from, long to) {
+		final long[] samples = get(region);
+		//Samples are sorted by timestamp, so the range is found by binary search of the packed timestamps
+		final int start = -(Arrays.binarySearch(samples, pack(from, Integer.MAX_VALUE)) + 1);
+		final int end = -(Arrays.binarySearch(samples, pack(to, Integer.MAX_VALUE)) + 1);
+		List<long[]> range = new ArrayList<long[]>(Math.max(0, end - start));
+		for (int i = end - 1; i >= start; i--) {
+			range.add(new long[] {getPopulation(samples[i]), getTimestamp(samples[i])});
+		}
+		return range;
+	}
+
+	/**
+	 * Returns the highest population the region has had, and when it first had it
+	 * 
+	 * @param region sanitized name
+	 * @return {population, timestamp in milliseconds}, or null if the region has no samples
+	 */
+	public long[] getRecord(String region) {
+		final Long record = records.get(region);
+		if (record == null) {
+			return null;
+		}
+		return new long[] {getPopulation(record), getTimestamp(record)};
+	}
+
+	private long[] get(String region) {
+		final long[] samples = regions.get(region);
+		return samples != null ? samples : EMPTY;
+	}
+
+	/**
+	 * The start of the week samples older than the daily retention are downsampled from, in seconds
+	 */
+	private static long getCutoff(long now) {
+		final long cutoff = (now - DAILY_RETENTION.getMillis()) / 1000L;
+		return cutoff - cutoff % WEEK_SECONDS;
+	}
+
+	/**
+	 * Keeps the highest population of each week before the cutoff, and the earliest sample of any ties
+	 * 
+	 * @param samples sorted by timestamp
+	 * @param cutoff in seconds, the start of a week
+	 * @return downsampled samples, or the same array if nothing was removed
+	 */
+	private static long[] downsample(long[] samples, long cutoff) {
+		long[] kept = null;
+		int size = 0;
+		int i = 0;
+		while (i < samples.length && (samples[i] >>> 32) < cutoff) {
+			final long week = (samples[i] >>> 32) / WEEK_SECONDS;
+			long peak = samples[i];
+			int j = i + 1;
+			for (; j < samples.length && (samples[j] >>> 32) / WEEK_SECONDS == week; j++) {
+				if ((int) samples[j] > (int) peak) {
+					peak = samples[j];
+				}
+			}
+			if (j - i > 1 && kept == null) {
+				kept = Arrays.copyOf(samples, samples.length);
+				size = i;
+			}
+			if (kept != null) {
+				kept[size++] = peak;
+			}
+			i = j;
+		}
+		if (kept == null) {
+			return samples;
+		}
+		System.arraycopy(samples, i, kept, size, samples.length - i);
+		return Arrays.copyOf(kept, size + samples.length - i);
+	}
+
+	private static long pack(long timestamp, int population) {
+		return ((timestamp / 1000L) << 32) | (population & 0xFFFFFFFFL);
+	}
+
+	private static int getPopulation(long sample) {
+		return (int) sample;
+	}
+
+	private static long getTimestamp(long sample) {
+		return (sample >>> 32) * 1000L;
+	}
+
+	private static class Samples {
+		long[] samples = new long[16];
+		int size = 0;
+
+		void add(long sample) {
+			if (size == samples.length) {
+				samples = Arrays.copyOf(samples, size * 2);
+			}
+			samples[size++] = sample;
+		}
+	}
+}
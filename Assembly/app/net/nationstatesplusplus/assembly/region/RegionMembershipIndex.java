@@ -0,0 +1,272 @@
+package net.nationstatesplusplus.assembly.region;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.nationstatesplusplus.assembly.amqp.ClusterEventListener;
+import net.nationstatesplusplus.assembly.model.websocket.WebsocketManager;
+
+import play.Logger;
+import play.libs.Json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * Keeps the ids of the living nations in every region in memory, as sorted int arrays, so lookups of the residents of a region or the
+ * region of a nation do not scan the nation table. The region of each nation is kept in an int array indexed by nation id, which
+ * holds the region id plus one, or 0 for nations which are not living.
+ * </p><p>
+ * The member arrays are never modified once they are published: a relocation replaces the arrays of both regions with copies, so readers
+ * never lock. The index is loaded at startup and after every daily dump, and kept current in between by relocations, founding and
+ * nations ceasing to exist. The background server broadcasts these changes, and the other servers apply them to their own index.
+ * Changes made while the index is reloading are applied again to the reloaded index.
+ * </p>
+ */
+public class RegionMembershipIndex implements ClusterEventListener {
+	public static final String CLUSTER_EVENT = "region_membership";
+	private static final int[] EMPTY = new int[0];
+	private final ComboPooledDataSource pool;
+	private volatile ConcurrentHashMap<Integer, int[]> members = new ConcurrentHashMap<Integer, int[]>();
+	private volatile int[] regions = EMPTY;
+	private volatile boolean loaded = false;
+	private volatile WebsocketManager publisher = null;
+	private boolean reloading = false;
+	private final List<int[]> changedDuringReload = new ArrayList<int[]>();
+	public RegionMembershipIndex(ComboPooledDataSource pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Broadcasts every change made to this index to the other servers
+	 * 
+	 * @param publisher to broadcast changes with
+	 */
+	public void setPublisher(WebsocketManager publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * Replaces the index with the living nations in the database
+	 */
+	public void reload() {
+		final long start = System.currentTimeMillis();
+		synchronized (this) {
+			reloading = true;
+			changedDuringReload.clear();
+		}
+		ConcurrentHashMap<Integer, int[]> loadedMembers = new ConcurrentHashMap<Integer, int[]>(30000);
+		int[] loadedRegions = new int[1 << 20];
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement("SELECT id, region FROM assembly.nation WHERE alive = 1 AND region > -1 ORDER BY region, id")) {
+				select.setFetchSize(Integer.MIN_VALUE);
+				try (ResultSet result = select.executeQuery()) {
+					int region = -1;
+					int[] ids = new int[16];
+					int count = 0;
+					while (result.next()) {
+						final int nation = result.getInt(1);
+						if (result.getInt(2) != region) {
+							if (count > 0) {
+								loadedMembers.put(region, Arrays.copyOf(ids, count));
+							}
+							region = result.getInt(2);
+							count = 0;
+						}
+						if (count == ids.length) {
+							ids = Arrays.copyOf(ids, count * 2);
+						}
+						ids[count++] = nation;
+						if (nation >= loadedRegions.length) {
+							loadedRegions = Arrays.copyOf(loadedRegions, Math.max(nation + 1, loadedRegions.length * 3 / 2));
+						}
+						loadedRegions[nation] = region + 1;
+					}
+					if (count > 0) {
+						loadedMembers.put(region, Arrays.copyOf(ids, count));
+					}
+				}
+			}
+		} catch (SQLException e) {
+			Logger.error("Unable to load region membership index", e);
+			synchronized (this) {
+				reloading = false;
+				changedDuringReload.clear();
+			}
+			return;
+		}
+		synchronized (this) {
+			members = loadedMembers;
+			regions = loadedRegions;
+			for (int[] change : changedDuringReload) {
+				apply(change[0], change[1]);
+			}
+			changedDuringReload.clear();
+			reloading = false;
+			loaded = true;
+		}
+		Logger.info("Loaded " + loadedMembers.size() + " regions into the region membership index in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Whether the index has been loaded from the database yet
+	 * 
+	 * @return loaded
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Returns the ids of the living nations in the region, in ascending order. The array must not be modified.
+	 * 
+	 * @param regionId of the region
+	 * @return nation ids
+	 */
+	public int[] getMembers(int regionId) {
+		final int[] ids = members.get(regionId);
+		return ids != null ? ids : EMPTY;
+	}
+
+	/**
+	 * The number of living nations in the region
+	 * 
+	 * @param regionId of the region
+	 * @return population
+	 */
+	public int getPopulation(int regionId) {
+		return getMembers(regionId).length;
+	}
+
+	/**
+	 * Returns the region of a living nation
+	 * 
+	 * @param nationId of the nation
+	 * @return region id, or -1 if the nation is not living or unknown
+	 */
+	public int getRegion(int nationId) {
+		final int[] regions = this.regions;
+		return nationId >= 0 && nationId < regions.length ? regions[nationId] - 1 : -1;
+	}
+
+	/**
+	 * Records that a nation was founded in, or moved to, a region
+	 * 
+	 * @param nationId of the nation
+	 * @param regionId of the region
+	 */
+	public synchronized void move(int nationId, int regionId) {
+		if (nationId < 0 || regionId < 0) {
+			return;
+		}
+		apply(nationId, regionId);
+		if (reloading) {
+			changedDuringReload.add(new int[] {nationId, regionId});
+		}
+		publish(nationId, regionId);
+	}
+
+	/**
+	 * Removes a nation that ceased to exist
+	 * 
+	 * @param nationId of the nation
+	 */
+	public synchronized void remove(int nationId) {
+		if (nationId < 0) {
+			return;
+		}
+		apply(nationId, -1);
+		if (reloading) {
+			changedDuringReload.add(new int[] {nationId, -1});
+		}
+		publish(nationId, -1);
+	}
+
+	private void publish(int nationId, int regionId) {
+		final WebsocketManager publisher = this.publisher;
+		if (publisher != null) {
+			ObjectNode data = Json.newObject();
+			data.put("nation", nationId);
+			data.put("region", regionId);
+			publisher.broadcast(CLUSTER_EVENT, data);
+		}
+	}
+
+	/**
+	 * Applies a relocation, founding or death broadcast by the background server
+	 */
+	@Override
+	public void onClusterEvent(JsonNode data) {
+		final int regionId = data.get("region").asInt();
+		if (regionId > -1) {
+			move(data.get("nation").asInt(), regionId);
+		} else {
+			remove(data.get("nation").asInt());
+		}
+	}
+
+	private void apply(int nationId, int regionId) {
+		int[] regions = this.regions;
+		if (nationId >= regions.length) {
+			if (regionId < 0) {
+				return;
+			}
+			regions = Arrays.copyOf(regions, Math.max(nationId + 1, regions.length * 3 / 2));
+			this.regions = regions;
+		}
+		final int previous = regions[nationId] - 1;
+		if (previous == regionId) {
+			return;
+		}
+		regions[nationId] = regionId + 1;
+		if (previous > -1) {
+			final int[] ids = without(members.get(previous), nationId);
+			if (ids.length > 0) {
+				members.put(previous, ids);
+			} else {
+				members.remove(previous);
+			}
+		}
+		if (regionId > -1) {
+			members.put(regionId, with(members.get(regionId), nationId));
+		}
+	}
+
+	private static int[] with(int[] ids, int id) {
+		if (ids == null) {
+			return new int[] {id};
+		}
+		final int index = Arrays.binarySearch(ids, id);
+		if (index >= 0) {
+			return ids;
+		}
+		final int insert = -(index + 1);
+		int[] copy = new int[ids.length + 1];
+		System.arraycopy(ids, 0, copy, 0, insert);
+		copy[insert] = id;
+		System.arraycopy(ids, insert, copy, insert + 1, ids.length - insert);
+		return copy;
+	}
+
+	private static int[] without(int[] ids, int id) {
+		if (ids == null) {
+			return EMPTY;
+		}
+		final int index = Arrays.binarySearch(ids, id);
+		if (index < 0) {
+			return ids;
+		}
+		int[] copy = new int[ids.length - 1];
+		System.arraycopy(ids, 0, copy, 0, index);
+		System.arraycopy(ids, index + 1, copy, index, ids.length - index - 1);
+		return copy;
+	}
+}
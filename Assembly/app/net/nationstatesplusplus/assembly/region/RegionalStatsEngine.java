@@ -0,0 +1,410 @@
+package net.nationstatesplusplus.assembly.region;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import play.Logger;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * Maintains the census statistics of every region in memory, so regional stats never aggregate the nation table. Each region keeps its
+ * nations' census values in columns, with running sums for averages. Medians are selected from the column when they are read.
+ * </p><p>
+ * The statistics are loaded at startup and after every daily dump, which updates the census fields, and kept current in between
+ * by nation refreshes from the api, relocations, founding and nations ceasing to exist.
+ * </p>
+ */
+public class RegionalStatsEngine {
+	public static enum Field {
+		CIVIL_RIGHTS("civilrightscore"),
+		ECONOMY("economyscore"),
+		POLITICAL_FREEDOM("politicalfreedomscore"),
+		ENVIRONMENT("environment"),
+		SOCIAL_EQUALITY("socialequality"),
+		EDUCATION("education"),
+		LAW_AND_ORDER("lawandorder"),
+		ADMINISTRATION("administration"),
+		WELFARE("welfare"),
+		SPIRITUALITY("spirituality"),
+		DEFENCE("defence"),
+		PUBLIC_TRANSPORT("publictransport"),
+		HEALTHCARE("healthcare"),
+		COMMERCE("commerce"),
+		PUBLIC_SECTOR("publicsector"),
+		TAX("tax"),
+		/**
+		 * Human development index, census score 68 from the api
+		 */
+		HDI("hdi");
+
+		private final String column;
+		Field(String column) {
+			this.column = column;
+		}
+
+		public String getName() {
+			return column;
+		}
+	}
+	private static final Field[] FIELDS = Field.values();
+	private final ComboPooledDataSource pool;
+	private Map<Integer, Slot> nations = new HashMap<Integer, Slot>();
+	private Map<Integer, RegionColumns> regions = new HashMap<Integer, RegionColumns>();
+	private volatile boolean loaded = false;
+	private boolean reloading = false;
+	private final Set<Integer> changedDuringReload = new HashSet<Integer>();
+	public RegionalStatsEngine(ComboPooledDataSource pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Replaces the statistics with the living nations in the database
+	 */
+	public void reload() {
+		final long start = System.currentTimeMillis();
+		synchronized (this) {
+			reloading = true;
+			changedDuringReload.clear();
+		}
+		StringBuilder sql = new StringBuilder("SELECT n.id, n.region, n.wa_member, n.population");
+		for (Field field : FIELDS) {
+			sql.append(", ").append(field == Field.HDI ? "s.shard_68" : "n." + field.column);
+		}
+		sql.append(" FROM assembly.nation AS n LEFT JOIN assembly.newest_nation_shards AS s ON s.nation = n.id WHERE n.alive = 1 AND n.region > -1");
+		Map<Integer, Slot> loadedNations = new HashMap<Integer, Slot>(250000);
+		Map<Integer, RegionColumns> loadedRegions = new HashMap<Integer, RegionColumns>(30000);
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement(sql.toString())) {
+				select.setFetchSize(Integer.MIN_VALUE);
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						float[] values = new float[FIELDS.length];
+						for (int i = 0; i < FIELDS.length; i++) {
+							values[i] = result.getFloat(5 + i);
+							if (result.wasNull()) {
+								values[i] = Float.NaN;
+							}
+						}
+						add(loadedNations, loadedRegions, result.getInt(1), result.getInt(2), result.getInt(3) == 1, result.getLong(4), values);
+					}
+				}
+			}
+		} catch (SQLException e) {
+			Logger.error("Unable to load regional stats", e);
+			synchronized (this) {
+				reloading = false;
+				changedDuringReload.clear();
+			}
+			return;
+		}
+		synchronized (this) {
+			//Nations changed while loading are copied from the current statistics
+			for (Integer nationId : changedDuringReload) {
+				remove(loadedNations, loadedRegions, nationId);
+				Slot slot = nations.get(nationId);
+				if (slot != null) {
+					RegionColumns columns = regions.get(slot.region);
+					add(loadedNations, loadedRegions, nationId, slot.region, columns.wa[slot.index], columns.population[slot.index], columns.getValues(slot.index));
+				}
+			}
+			nations = loadedNations;
+			regions = loadedRegions;
+			changedDuringReload.clear();
+			reloading = false;
+			loaded = true;
+		}
+		Logger.info("Loaded regional stats of " + loadedNations.size() + " nations in " + loadedRegions.size() + " regions in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * Whether the statistics have been loaded from the database yet
+	 * 
+	 * @return loaded
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Records a nation refreshed from the api, with its current region, World Assembly membership and human development index
+	 * 
+	 * @param nationId of the nation
+	 * @param regionId of the region
+	 * @param waMember if the nation is a World Assembly member
+	 * @param hdi census score 68
+	 */
+	public synchronized void onRefreshed(int nationId, int regionId, boolean waMember, float hdi) {
+		if (regionId < 0) {
+			return;
+		}
+		float[] values;
+		long population = 0;
+		final Slot slot = nations.get(nationId);
+		if (slot != null) {
+			RegionColumns columns = regions.get(slot.region);
+			values = columns.getValues(slot.index);
+			population = columns.population[slot.index];
+		} else {
+			values = new float[FIELDS.length];
+			Arrays.fill(values, Float.NaN);
+		}
+		values[Field.HDI.ordinal()] = hdi;
+		remove(nations, regions, nationId);
+		add(nations, regions, nationId, regionId, waMember, population, values);
+		changed(nationId);
+	}
+
+	/**
+	 * Records that a nation was founded in, or moved to, a region
+	 * 
+	 * @param nationId of the nation
+	 * @param regionId of the region
+	 */
+	public synchronized void move(int nationId, int regionId) {
+		if (nationId < 0 || regionId < 0) {
+			return;
+		}
+		final Slot slot = nations.get(nationId);
+		if (slot == null) {
+			float[] values = new float[FIELDS.length];
+			Arrays.fill(values, Float.NaN);
+			add(nations, regions, nationId, regionId, false, 0, values);
+		} else if (slot.region != regionId) {
+			RegionColumns columns = regions.get(slot.region);
+			final float[] values = columns.getValues(slot.index);
+			final long population = columns.population[slot.index];
+			remove(nations, regions, nationId);
+			//Moving nations lose their World Assembly membership until they are refreshed
+			add(nations, regions, nationId, regionId, false, population, values);
+		}
+		changed(nationId);
+	}
+
+	/**
+	 * Removes a nation that ceased to exist
+	 * 
+	 * @param nationId of the nation
+	 */
+	public synchronized void remove(int nationId) {
+		remove(nations, regions, nationId);
+		changed(nationId);
+	}
+
+	private void changed(int nationId) {
+		if (reloading) {
+			changedDuringReload.add(nationId);
+		}
+	}
+
+	/**
+	 * Returns the statistics of a region
+	 * 
+	 * @param regionId of the region
+	 * @return statistics, with no nations if the region has no living nations
+	 */
+	public synchronized Snapshot getStats(int regionId) {
+		final RegionColumns columns = regions.get(regionId);
+		if (columns == null) {
+			return new Snapshot(0, 0, 0, new float[FIELDS.length], new float[FIELDS.length]);
+		}
+		float[] medians = new float[FIELDS.length];
+		float[] means = new float[FIELDS.length];
+		for (int i = 0; i < FIELDS.length; i++) {
+			medians[i] = columns.median(i);
+			means[i] = columns.counts[i] > 0 ? (float) (columns.sums[i] / columns.counts[i]) : 0;
+		}
+		return new Snapshot(columns.size, columns.waMembers, columns.totalPopulation, medians, means);
+	}
+
+	private static void add(Map<Integer, Slot> nations, Map<Integer, RegionColumns> regions, int nationId, int regionId, boolean waMember, long population, float[] values) {
+		RegionColumns columns = regions.get(regionId);
+		if (columns == null) {
+			columns = new RegionColumns();
+			regions.put(regionId, columns);
+		}
+		nations.put(nationId, new Slot(regionId, columns.add(nationId, waMember, population, values)));
+	}
+
+	private static void remove(Map<Integer, Slot> nations, Map<Integer, RegionColumns> regions, int nationId) {
+		final Slot slot = nations.remove(nationId);
+		if (slot != null) {
+			RegionColumns columns = regions.get(slot.region);
+			final int moved = columns.remove(slot.index);
+			if (moved != -1) {
+				nations.put(moved, new Slot(slot.region, slot.index));
+			}
+			if (columns.size == 0) {
+				regions.remove(slot.region);
+			}
+		}
+	}
+
+	/**
+	 * The statistics of a region at the time they were read
+	 */
+	public static class Snapshot {
+		private final int nations;
+		private final int waMembers;
+		private final long totalPopulation;
+		private final float[] medians;
+		private final float[] means;
+		Snapshot(int nations, int waMembers, long totalPopulation, float[] medians, float[] means) {
+			this.nations = nations;
+			this.waMembers = waMembers;
+			this.totalPopulation = totalPopulation;
+			this.medians = medians;
+			this.means = means;
+		}
+
+		public int getNations() {
+			return nations;
+		}
+
+		public int getWAMembers() {
+			return waMembers;
+		}
+
+		public long getTotalPopulation() {
+			return totalPopulation;
+		}
+
+		public float getMedian(Field field) {
+			return medians[field.ordinal()];
+		}
+
+		public float getMean(Field field) {
+			return means[field.ordinal()];
+		}
+
+		public Map<String, Object> toJson() {
+			Map<String, Object> json = new LinkedHashMap<String, Object>();
+			json.put("nations", nations);
+			json.put("wa_members", waMembers);
+			json.put("total_population", totalPopulation);
+			Map<String, Object> census = new LinkedHashMap<String, Object>();
+			for (Field field : FIELDS) {
+				Map<String, Object> value = new LinkedHashMap<String, Object>();
+				value.put("median", medians[field.ordinal()]);
+				value.put("mean", means[field.ordinal()]);
+				census.put(field.column, value);
+			}
+			json.put("census", census);
+			return json;
+		}
+	}
+
+	private static class Slot {
+		final int region;
+		final int index;
+		Slot(int region, int index) {
+			this.region = region;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * The census values of the nations of a region, one column per field. Removing a nation moves the last nation into its place.
+	 */
+	private static class RegionColumns {
+		int size = 0;
+		int[] ids = new int[4];
+		boolean[] wa = new boolean[4];
+		long[] population = new long[4];
+		float[][] values = new float[FIELDS.length][4];
+		final double[] sums = new double[FIELDS.length];
+		final int[] counts = new int[FIELDS.length];
+		int waMembers = 0;
+		long totalPopulation = 0;
+
+		int add(int nationId, boolean waMember, long nationPopulation, float[] nationValues) {
+			if (size == ids.length) {
+				final int capacity = size * 2;
+				ids = Arrays.copyOf(ids, capacity);
+				wa = Arrays.copyOf(wa, capacity);
+				population = Arrays.copyOf(population, capacity);
+				for (int i = 0; i < FIELDS.length; i++) {
+					values[i] = Arrays.copyOf(values[i], capacity);
+				}
+			}
+			final int index = size++;
+			ids[index] = nationId;
+			wa[index] = waMember;
+			population[index] = nationPopulation;
+			for (int i = 0; i < FIELDS.length; i++) {
+				values[i][index] = nationValues[i];
+				if (!Float.isNaN(nationValues[i])) {
+					sums[i] += nationValues[i];
+					counts[i]++;
+				}
+			}
+			if (waMember) {
+				waMembers++;
+			}
+			totalPopulation += nationPopulation;
+			return index;
+		}
+
+		/**
+		 * Removes the nation at the index
+		 * 
+		 * @return the id of the nation moved into the index, or -1 if the last nation was removed
+		 */
+		int remove(int index) {
+			for (int i = 0; i < FIELDS.length; i++) {
+				if (!Float.isNaN(values[i][index])) {
+					sums[i] -= values[i][index];
+					counts[i]--;
+				}
+			}
+			if (wa[index]) {
+				waMembers--;
+			}
+			totalPopulation -= population[index];
+			final int last = --size;
+			if (index == last) {
+				return -1;
+			}
+			ids[index] = ids[last];
+			wa[index] = wa[last];
+			population[index] = population[last];
+			for (int i = 0; i < FIELDS.length; i++) {
+				values[i][index] = values[i][last];
+			}
+			return ids[index];
+		}
+
+		float[] getValues(int index) {
+			float[] nationValues = new float[FIELDS.length];
+			for (int i = 0; i < FIELDS.length; i++) {
+				nationValues[i] = values[i][index];
+			}
+			return nationValues;
+		}
+
+		float median(int field) {
+			if (counts[field] == 0) {
+				return 0;
+			}
+			float[] sorted = new float[counts[field]];
+			int count = 0;
+			for (int i = 0; i < size; i++) {
+				if (!Float.isNaN(values[field][i])) {
+					sorted[count++] = values[field][i];
+				}
+			}
+			Arrays.sort(sorted);
+			final int middle = count / 2;
+			return count % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package net.nationstatesplusplus.assembly.update;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * Keeps track of how current the nation update order is. The daily dump refreshes the update order of every nation, afterwards
+ * regions that nations move or are founded into are marked as stale, and the {@link net.nationstatesplusplus.assembly.UpdateOrderTask}
+ * refreshes the stale regions with the most new nations first. Nations leaving a region do not change the relative order of the others.
+ * </p><p>
+ * This class is thread safe.
+ * </p>
+ */
+public class UpdateOrderIndex {
+	private final Map<Integer, StaleRegion> stale = new HashMap<Integer, StaleRegion>();
+	private long lastDump = 0;
+	private long lastRefresh = 0;
+	private int refreshedRegions = 0;
+
+	/**
+	 * Records a nation arriving in a region, which leaves the nation without a known update order
+	 * 
+	 * @param regionId of the region
+	 */
+	public synchronized void onNationArrived(int regionId) {
+		if (regionId == -1) {
+			return;
+		}
+		StaleRegion region = stale.get(regionId);
+		if (region == null) {
+			region = new StaleRegion(regionId, System.currentTimeMillis());
+			stale.put(regionId, region);
+		}
+		region.arrivals++;
+	}
+
+	/**
+	 * Records that the update order of all nations was refreshed from a daily dump. Changes recorded before the dump was
+	 * generated are covered by it.
+	 * 
+	 * @param generated the time the dump was generated
+	 */
+	public synchronized void onDumpProcessed(long generated) {
+		List<Integer> covered = new ArrayList<Integer>();
+		for (StaleRegion region : stale.values()) {
+			if (region.firstChange < generated) {
+				covered.add(region.regionId);
+			}
+		}
+		stale.keySet().removeAll(covered);
+		lastDump = System.currentTimeMillis();
+	}
+
+	/**
+	 * Records that the update order of the region was refreshed from the API
+	 * 
+	 * @param regionId of the region
+	 */
+	public synchronized void onRegionRefreshed(int regionId) {
+		stale.remove(regionId);
+		lastRefresh = System.currentTimeMillis();
+		refreshedRegions++;
+	}
+
+	/**
+	 * Returns the stale regions with the most arrivals, oldest changes first among equals
+	 * 
+	 * @param limit maximum number of regions
+	 * @return region ids
+	 */
+	public synchronized List<Integer> getStalestRegions(int limit) {
+		List<StaleRegion> regions = new ArrayList<StaleRegion>(stale.values());
+		Collections.sort(regions, new Comparator<StaleRegion>() {
+			@Override
+			public int compare(StaleRegion r1, StaleRegion r2) {
+				if (r1.arrivals != r2.arrivals) {
+					return r1.arrivals > r2.arrivals ? -1 : 1;
+				}
+				return Long.compare(r1.firstChange, r2.firstChange);
+			}
+		});
+		List<Integer> ids = new ArrayList<Integer>(Math.min(limit, regions.size()));
+		for (int i = 0; i < limit && i < regions.size(); i++) {
+			ids.add(regions.get(i).regionId);
+		}
+		return ids;
+	}
+
+	/**
+	 * The number of regions whose update order is stale
+	 * 
+	 * @return stale regions
+	 */
+	public synchronized int getStaleRegionCount() {
+		return stale.size();
+	}
+
+	/**
+	 * The time since the oldest unrefreshed arrival, in milliseconds, or 0 if no region is stale
+	 * 
+	 * @return staleness
+	 */
+	public synchronized long getStaleness() {
+		long oldest = Long.MAX_VALUE;
+		for (StaleRegion region : stale.values()) {
+			oldest = Math.min(oldest, region.firstChange);
+		}
+		return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+	}
+
+	/**
+	 * The time the last daily dump refreshed the update order
+	 * 
+	 * @return timestamp, in milliseconds, or 0 if no dump has been processed since startup
+	 */
+	public synchronized long getLastDump() {
+		return lastDump;
+	}
+
+	/**
+	 * The time the last region was refreshed from the API
+	 * 
+	 * @return timestamp, in milliseconds
+	 */
+	public synchronized long getLastRefresh() {
+		return lastRefresh;
+	}
+
+	/**
+	 * The number of regions refreshed from the API since startup
+	 * 
+	 * @return refreshed regions
+	 */
+	public synchronized int getRefreshedRegions() {
+		return refreshedRegions;
+	}
+
+	private static class StaleRegion {
+		final int regionId;
+		final long firstChange;
+		int arrivals = 0;
+		StaleRegion(int regionId, long firstChange) {
+			this.regionId = regionId;
+			this.firstChange = firstChange;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package net.nationstatesplusplus.assembly.update;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The position of the NationStates update
+ */
+public class UpdateProgress {
+	@JsonProperty
+	private final String region;
+	@JsonProperty("region_id")
+	private final int regionId;
+	@JsonProperty("update_order")
+	private final int updateOrder;
+	@JsonProperty("total_regions")
+	private final int totalRegions;
+	@JsonProperty
+	private final long timestamp;
+	@JsonProperty
+	private final boolean updating;
+	@JsonProperty
+	private final double rate;
+	public UpdateProgress(String region, int regionId, int updateOrder, int totalRegions, long timestamp, boolean updating, double rate) {
+		this.region = region;
+		this.regionId = regionId;
+		this.updateOrder = updateOrder;
+		this.totalRegions = totalRegions;
+		this.timestamp = timestamp;
+		this.updating = updating;
+		this.rate = rate;
+	}
+
+	public String getRegion() {
+		return region;
+	}
+
+	public int getRegionId() {
+		return regionId;
+	}
+
+	/**
+	 * The (1-based) update order of the last updated region
+	 * 
+	 * @return update order
+	 */
+	public int getUpdateOrder() {
+		return updateOrder;
+	}
+
+	public int getTotalRegions() {
+		return totalRegions;
+	}
+
+	/**
+	 * The time the last updated region updated
+	 * 
+	 * @return timestamp, in milliseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Whether regions have updated in the last 5 minutes
+	 * 
+	 * @return updating
+	 */
+	public boolean isUpdating() {
+		return updating;
+	}
+
+	/**
+	 * The recent update rate, in regions per second
+	 * 
+	 * @return rate
+	 */
+	public double getRate() {
+		return rate;
+	}
+}
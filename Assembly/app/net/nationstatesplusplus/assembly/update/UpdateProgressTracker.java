@@ -0,0 +1,280 @@
+package net.nationstatesplusplus.assembly.update;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.nationstatesplusplus.assembly.model.websocket.DataRequest;
+import net.nationstatesplusplus.assembly.model.websocket.PageType;
+import net.nationstatesplusplus.assembly.model.websocket.RequestType;
+import net.nationstatesplusplus.assembly.util.DatabaseAccess;
+
+import org.joda.time.Duration;
+
+import play.Logger;
+import play.libs.Json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * <p>
+ * Follows the NationStates update from the new legislation happenings of updating nations. The update window of each
+ * region (first and last legislation seen) is kept in memory and written to <code>assembly.region_updates</code> in batches
+ * by {@link #flush(Connection)}, and the current position of the update (last updated region, its update order and the
+ * rate in regions per second) is pushed to region pages as an <code>update_progress</code> event.
+ * </p><p>
+ * Only the server running the happenings task feeds the tracker, other servers read the latest position from the database.
+ * </p>
+ */
+public class UpdateProgressTracker {
+	private static final long WINDOW = Duration.standardHours(1).getMillis();
+	private static final long UPDATING = Duration.standardMinutes(5).getMillis();
+	private final DatabaseAccess access;
+	private final Cache<Integer, Integer> nationRegions = CacheBuilder.newBuilder().maximumSize(50000).expireAfterWrite(10, TimeUnit.MINUTES).build();
+	private final Map<Integer, RegionUpdate> windows = new HashMap<Integer, RegionUpdate>();
+	private final List<RegionUpdate> retired = new ArrayList<RegionUpdate>();
+	private RegionUpdate position = null;
+	private double rate = 0;
+	private UpdateProgress cachedProgress = null;
+	private long cachedProgressTime = 0;
+	public UpdateProgressTracker(DatabaseAccess access) {
+		this.access = access;
+	}
+
+	/**
+	 * Records a new legislation happening of a nation, which means the nation's region is updating
+	 * 
+	 * @param conn
+	 * @param nationId of the nation
+	 * @param timestamp of the happening, in milliseconds
+	 * @throws SQLException
+	 */
+	public synchronized void onLegislation(Connection conn, int nationId, long timestamp) throws SQLException {
+		final int regionId = getRegionOfNation(conn, nationId);
+		if (regionId == -1) {
+			Logger.info("Can not set region update time for nation [" + nationId + "], unknown region!");
+			return;
+		}
+		RegionUpdate window = windows.get(regionId);
+		if (window != null && Math.abs(timestamp - window.start) > WINDOW) {
+			if (window.dirty) {
+				retired.add(window);
+			}
+			window = null;
+		}
+		if (window == null) {
+			window = loadWindow(conn, regionId, timestamp);
+			windows.put(regionId, window);
+		}
+		if (timestamp < window.start || timestamp > window.end) {
+			window.start = Math.min(window.start, timestamp);
+			window.end = Math.max(window.end, timestamp);
+			window.dirty = true;
+		}
+	}
+
+	/**
+	 * Forgets the cached region of a nation which relocated, so its next legislation is attributed to its new region
+	 * 
+	 * @param nationId of the nation
+	 */
+	public void onNationMoved(int nationId) {
+		nationRegions.invalidate(nationId);
+	}
+
+	private int getRegionOfNation(Connection conn, int nationId) throws SQLException {
+		Integer regionId = nationRegions.getIfPresent(nationId);
+		if (regionId != null) {
+			return regionId;
+		}
+		try (PreparedStatement select = conn.prepareStatement("SELECT region FROM assembly.nation WHERE id = ?")) {
+			select.setInt(1, nationId);
+			try (ResultSet result = select.executeQuery()) {
+				regionId = result.next() ? result.getInt(1) : -1;
+			}
+		}
+		if (regionId != -1) {
+			nationRegions.put(nationId, regionId);
+		}
+		return regionId;
+	}
+
+	/**
+	 * Loads the region and any existing update row for the region near the timestamp, so windows survive restarts
+	 */
+	private static RegionUpdate loadWindow(Connection conn, int regionId, long timestamp) throws SQLException {
+		RegionUpdate window = new RegionUpdate(regionId, timestamp);
+		try (PreparedStatement select = conn.prepareStatement("SELECT name, update_order FROM assembly.region WHERE id = ?")) {
+			select.setInt(1, regionId);
+			try (ResultSet result = select.executeQuery()) {
+				if (result.next()) {
+					window.name = result.getString(1);
+					window.updateOrder = result.getInt(2);
+				}
+			}
+		}
+		try (PreparedStatement select = conn.prepareStatement("SELECT id, start, end FROM assembly.region_updates WHERE region = ? AND start BETWEEN ? AND ?")) {
+			select.setInt(1, regionId);
+			select.setLong(2, timestamp - WINDOW);
+			select.setLong(3, timestamp + WINDOW);
+			try (ResultSet result = select.executeQuery()) {
+				if (result.next()) {
+					window.id = result.getInt(1);
+					window.start = result.getLong(2);
+					window.end = result.getLong(3);
+				} else {
+					window.start = window.end = timestamp;
+					window.dirty = true;
+				}
+			}
+		}
+		return window;
+	}
+
+	/**
+	 * Writes all changed update windows in one batch of inserts and one batch of updates, then pushes the update position
+	 * to region pages if it changed.
+	 * 
+	 * @param conn
+	 * @throws SQLException
+	 */
+	public synchronized void flush(Connection conn) throws SQLException {
+		List<RegionUpdate> dirty = new ArrayList<RegionUpdate>(retired);
+		for (RegionUpdate window : windows.values()) {
+			if (window.dirty) {
+				dirty.add(window);
+			}
+		}
+		if (!dirty.isEmpty()) {
+			List<RegionUpdate> created = new ArrayList<RegionUpdate>();
+			try (PreparedStatement insert = conn.prepareStatement("INSERT INTO assembly.region_updates (region, start, end) VALUES (?, ?, ?)", Statement.RETURN_GENERATED_KEYS);
+					PreparedStatement update = conn.prepareStatement("UPDATE assembly.region_updates SET start = ?, end = ? WHERE id = ?")) {
+				for (RegionUpdate window : dirty) {
+					if (window.id == -1) {
+						insert.setInt(1, window.region);
+						insert.setLong(2, window.start);
+						insert.setLong(3, window.end);
+						insert.addBatch();
+						created.add(window);
+					} else {
+						update.setLong(1, window.start);
+						update.setLong(2, window.end);
+						update.setInt(3, window.id);
+						update.addBatch();
+					}
+				}
+				if (!created.isEmpty()) {
+					insert.executeBatch();
+					try (ResultSet keys = insert.getGeneratedKeys()) {
+						for (int i = 0; i < created.size() && keys.next(); i++) {
+							created.get(i).id = keys.getInt(1);
+						}
+					}
+				}
+				update.executeBatch();
+			}
+			for (RegionUpdate window : dirty) {
+				window.dirty = false;
+			}
+			retired.clear();
+			Logger.debug("Wrote update times for {} regions", dirty.size());
+			updatePosition(dirty);
+		}
+
+		//Forget windows of regions which finished updating long ago
+		final long expired = System.currentTimeMillis() - 2 * WINDOW;
+		Iterator<RegionUpdate> iter = windows.values().iterator();
+		while (iter.hasNext()) {
+			if (iter.next().end < expired) {
+				iter.remove();
+			}
+		}
+	}
+
+	private void updatePosition(List<RegionUpdate> changed) {
+		RegionUpdate latest = null;
+		for (RegionUpdate window : changed) {
+			if (window.updateOrder > -1 && (latest == null || window.end > latest.end)) {
+				latest = window;
+			}
+		}
+		if (latest == null || (position != null && latest.end <= position.end)) {
+			return;
+		}
+		if (position != null && latest.updateOrder > position.updateOrder && latest.end - position.end < UPDATING) {
+			final double current = (latest.updateOrder - position.updateOrder) * 1000D / Math.max(1000, latest.end - position.end);
+			rate = rate > 0 ? rate * 0.7 + current * 0.3 : current;
+		} else if (position == null || latest.updateOrder < position.updateOrder) {
+			//A new update started
+			rate = 0;
+		}
+		position = latest.copy();
+		JsonNode progress = Json.toJson(createProgress(position.region, position.name, position.updateOrder, position.end));
+		access.getWebsocketManager().onUpdate(PageType.REGION, RequestType.UPDATE_PROGRESS, DataRequest.getBlankRequest(RequestType.UPDATE_PROGRESS), progress);
+	}
+
+	private UpdateProgress createProgress(int regionId, String name, int updateOrder, long timestamp) {
+		final boolean updating = timestamp + UPDATING > System.currentTimeMillis();
+		return new UpdateProgress(name, regionId, updateOrder + 1, access.getUpdateTimePredictor().getTotalRegions(), timestamp, updating, updating ? rate : 0);
+	}
+
+	/**
+	 * Returns the current position of the update. Servers not tracking the update themselves read the last updated region from the database.
+	 * 
+	 * @param conn
+	 * @return update progress
+	 * @throws SQLException
+	 */
+	public synchronized JsonNode getProgress(Connection conn) throws SQLException {
+		if (position != null) {
+			return Json.toJson(createProgress(position.region, position.name, position.updateOrder, position.end));
+		}
+		if (cachedProgress == null || cachedProgressTime + Duration.standardSeconds(10).getMillis() < System.currentTimeMillis()) {
+			try (PreparedStatement select = conn.prepareStatement("SELECT region.id, region.name, region.update_order, region_updates.end FROM assembly.region_updates INNER JOIN assembly.region ON region.id = region_updates.region ORDER BY region_updates.end DESC LIMIT 0, 1")) {
+				try (ResultSet result = select.executeQuery()) {
+					if (result.next()) {
+						cachedProgress = createProgress(result.getInt(1), result.getString(2), result.getInt(3), result.getLong(4));
+					} else {
+						cachedProgress = createProgress(-1, null, -1, 0);
+					}
+				}
+			}
+			cachedProgressTime = System.currentTimeMillis();
+		}
+		return Json.toJson(cachedProgress);
+	}
+
+	private static class RegionUpdate {
+		final int region;
+		int id = -1;
+		String name = null;
+		int updateOrder = -1;
+		long start;
+		long end;
+		boolean dirty = false;
+		RegionUpdate(int region, long timestamp) {
+			this.region = region;
+			this.start = timestamp;
+			this.end = timestamp;
+		}
+
+		RegionUpdate copy() {
+			RegionUpdate copy = new RegionUpdate(region, start);
+			copy.id = id;
+			copy.name = name;
+			copy.updateOrder = updateOrder;
+			copy.end = end;
+			return copy;
+		}
+	}
+}
@@ -0,0 +1,324 @@
+package net.nationstatesplusplus.assembly.update;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import org.joda.time.Duration;
+
+import play.Logger;
+import play.libs.Json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * Precomputed major and minor update time predictions for every living region, built from
+ * <code>assembly.region_update_calculations</code> in a single pass instead of several queries per request.
+ * </p><p>
+ * For each region the recent normalized update times are kept sorted, together with prefix sums of x, x&sup2; and ln x.
+ * The outlier filter (dropping times more than <code>std</code> standard deviations above the mean) removes a suffix of the
+ * sorted times, so the filtered mean, deviation, variance and geometric mean are read directly from the prefix sums.
+ * </p><p>
+ * Regions without recent data of their own borrow the data of the nearest regions in update order, as the
+ * RegionController has always done.
+ * </p>
+ */
+public class UpdateTimePredictor {
+	private static final int MAX_SAMPLES = 28;
+	private static final int MAX_NEIGHBOR_SAMPLES = 14;
+	private static final int NEIGHBOR_DISTANCE = 50;
+	private final ComboPooledDataSource pool;
+	private volatile Map<Integer, Prediction> predictions = null;
+	private volatile int totalRegions = 0;
+	private volatile long lastCalculation = -1;
+	private volatile long lastRefresh = 0;
+	public UpdateTimePredictor(ComboPooledDataSource pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Recalculates the predictions if there are new update calculations since the last run, or the last run was more than 6 hours ago.
+	 * 
+	 * @return true if the predictions were recalculated
+	 * @throws SQLException
+	 */
+	public boolean refresh() throws SQLException {
+		final long latest;
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement("SELECT max(start) FROM assembly.region_update_calculations")) {
+				try (ResultSet result = select.executeQuery()) {
+					latest = result.next() ? result.getLong(1) : 0;
+				}
+			}
+		}
+		if (predictions != null && latest == lastCalculation && lastRefresh + Duration.standardHours(6).getMillis() > System.currentTimeMillis()) {
+			return false;
+		}
+		recalculate();
+		lastCalculation = latest;
+		return true;
+	}
+
+	/**
+	 * Recalculates the predictions for every living region
+	 * 
+	 * @throws SQLException
+	 */
+	public void recalculate() throws SQLException {
+		final long start = System.currentTimeMillis();
+		final long recent = start - Duration.standardDays(8).getMillis();
+		final Map<Integer, Integer> updateOrders = new HashMap<Integer, Integer>(30000);
+		final Map<Integer, RegionData> data = new HashMap<Integer, RegionData>(30000);
+		int total = 0;
+		try (Connection conn = pool.getConnection()) {
+			try (PreparedStatement select = conn.prepareStatement("SELECT id, update_order FROM assembly.region WHERE alive = 1")) {
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						updateOrders.put(result.getInt(1), result.getInt(2));
+						if (result.getInt(2) > -1) {
+							total++;
+						}
+					}
+				}
+			}
+			//Every calculation is read, so regions which have not updated for a long time keep their last samples, as the queries did
+			try (PreparedStatement select = conn.prepareStatement("SELECT region, start, normalized_start, normalized_end, major, update_time FROM assembly.region_update_calculations ORDER BY region, start DESC")) {
+				select.setFetchSize(Integer.MIN_VALUE);
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						final int region = result.getInt(1);
+						if (!updateOrders.containsKey(region)) {
+							continue;
+						}
+						RegionData regionData = data.get(region);
+						if (regionData == null) {
+							regionData = new RegionData();
+							data.put(region, regionData);
+						}
+						regionData.add(result.getLong(2), result.getLong(3), result.getLong(4), result.getInt(5) == 1, result.getLong(6), recent);
+					}
+				}
+			}
+		}
+
+		//Regions with recent major/minor data, by update order
+		final TreeMap<Integer, Integer> recentMajor = new TreeMap<Integer, Integer>();
+		final TreeMap<Integer, Integer> recentMinor = new TreeMap<Integer, Integer>();
+		for (Map.Entry<Integer, RegionData> e : data.entrySet()) {
+			final int updateOrder = updateOrders.get(e.getKey());
+			if (e.getValue().recentMajor) {
+				recentMajor.put(updateOrder, e.getKey());
+			}
+			if (e.getValue().recentMinor) {
+				recentMinor.put(updateOrder, e.getKey());
+			}
+		}
+
+		final Map<Integer, Prediction> predictions = new HashMap<Integer, Prediction>(updateOrders.size() * 2);
+		for (Map.Entry<Integer, Integer> e : updateOrders.entrySet()) {
+			final int updateOrder = e.getValue();
+			final RegionData own = data.get(e.getKey());
+			List<Long> major = own != null ? own.major : new ArrayList<Long>(0);
+			List<Long> minor = own != null ? own.minor : new ArrayList<Long>(0);
+			boolean majorIsGuess = false;
+			boolean minorIsGuess = false;
+			if (major.isEmpty() && updateOrder > -1) {
+				majorIsGuess = true;
+				major = borrow(recentMajor, data, updateOrder);
+			}
+			if (minor.isEmpty() && updateOrder > -1) {
+				minorIsGuess = true;
+				minor = borrow(recentMinor, data, updateOrder);
+			}
+			predictions.put(e.getKey(), new Prediction(updateOrder, new Sample(major, majorIsGuess), new Sample(minor, minorIsGuess)));
+		}
+		this.predictions = predictions;
+		this.totalRegions = total;
+		this.lastRefresh = System.currentTimeMillis();
+		Logger.info("Calculated update time predictions for {} regions in {} ms", predictions.size(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Borrows the major update times of the closest regions (in update order) before and after the region.
+	 * The closest region is the highest update order in range that has recent data, matching the original queries.
+	 */
+	private static List<Long> borrow(TreeMap<Integer, Integer> recent, Map<Integer, RegionData> data, int updateOrder) {
+		List<Long> values = new ArrayList<Long>();
+		NavigableMap<Integer, Integer> before = recent.subMap(Math.max(0, updateOrder - NEIGHBOR_DISTANCE), true, updateOrder, true);
+		if (!before.isEmpty()) {
+			values.addAll(data.get(before.lastEntry().getValue()).neighborEnd);
+		}
+		NavigableMap<Integer, Integer> after = recent.subMap(updateOrder, true, updateOrder + NEIGHBOR_DISTANCE, true);
+		if (!after.isEmpty()) {
+			values.addAll(data.get(after.lastEntry().getValue()).neighborStart);
+		}
+		return values;
+	}
+
+	/**
+	 * The number of living regions with a known update order, as of the last calculation
+	 * 
+	 * @return total regions
+	 */
+	public int getTotalRegions() {
+		return totalRegions;
+	}
+
+	/**
+	 * Returns the update time prediction for the region, in the same format as RegionController has always returned, or null
+	 * if there is no prediction for the region (predictions are not calculated yet, or the region is new).
+	 * 
+	 * @param regionId of the region
+	 * @param std number of standard deviations above the mean at which update times are ignored as outliers
+	 * @return update time prediction or null
+	 */
+	public JsonNode getUpdateTime(int regionId, double std) {
+		final Map<Integer, Prediction> predictions = this.predictions;
+		if (predictions == null) {
+			return null;
+		}
+		Prediction prediction = predictions.get(regionId);
+		if (prediction == null) {
+			return null;
+		}
+		Map<String, Object> data = new HashMap<String, Object>();
+		data.put("major", prediction.major.toMap(std > 0 ? std : Double.NaN, prediction.updateOrder, totalRegions));
+		//Minor update outliers have always been filtered, even without a positive std
+		data.put("minor", prediction.minor.toMap(std, prediction.updateOrder, totalRegions));
+		return Json.toJson(data);
+	}
+
+	private static class RegionData {
+		final List<Long> major = new ArrayList<Long>();
+		final List<Long> minor = new ArrayList<Long>();
+		final List<Long> neighborStart = new ArrayList<Long>();
+		final List<Long> neighborEnd = new ArrayList<Long>();
+		int samples = 0;
+		boolean recentMajor = false;
+		boolean recentMinor = false;
+
+		/**
+		 * Adds a calculation, rows must be added newest first
+		 */
+		void add(long start, long normalizedStart, long normalizedEnd, boolean isMajor, long updateTime, long recent) {
+			if (start > recent) {
+				if (isMajor) {
+					recentMajor = true;
+				} else {
+					recentMinor = true;
+				}
+			}
+			if (updateTime < 200000) {
+				if (samples < MAX_SAMPLES) {
+					samples++;
+					if (isMajor) {
+						major.add(normalizedStart);
+					} else {
+						minor.add(normalizedStart);
+					}
+				}
+				if (isMajor && neighborStart.size() < MAX_NEIGHBOR_SAMPLES) {
+					neighborStart.add(normalizedStart);
+					neighborEnd.add(normalizedEnd);
+				}
+			}
+		}
+	}
+
+	private static class Prediction {
+		final int updateOrder;
+		final Sample major;
+		final Sample minor;
+		Prediction(int updateOrder, Sample major, Sample minor) {
+			this.updateOrder = updateOrder;
+			this.major = major;
+			this.minor = minor;
+		}
+	}
+
+	/**
+	 * Sorted update times with prefix sums of x, x^2 and ln(x)
+	 */
+	private static class Sample {
+		final long[] values;
+		final double[] sum;
+		final double[] sumSquares;
+		final double[] sumLogs;
+		final boolean isGuess;
+		Sample(List<Long> times, boolean isGuess) {
+			this.isGuess = isGuess;
+			this.values = new long[times.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = times.get(i);
+			}
+			Arrays.sort(values);
+			this.sum = new double[values.length + 1];
+			this.sumSquares = new double[values.length + 1];
+			this.sumLogs = new double[values.length + 1];
+			for (int i = 0; i < values.length; i++) {
+				sum[i + 1] = sum[i] + values[i];
+				sumSquares[i + 1] = sumSquares[i] + (double) values[i] * values[i];
+				sumLogs[i + 1] = sumLogs[i] + Math.log(values[i]);
+			}
+		}
+
+		double mean(int n) {
+			return n > 0 ? sum[n] / n : Double.NaN;
+		}
+
+		double variance(int n) {
+			if (n == 0) {
+				return Double.NaN;
+			} else if (n == 1) {
+				return 0;
+			}
+			return Math.max(0, (sumSquares[n] - sum[n] * sum[n] / n) / (n - 1));
+		}
+
+		/**
+		 * The number of times left after removing the times more than std deviations above the mean
+		 */
+		int filter(double std) {
+			final int n = values.length;
+			if (n == 0 || Double.isNaN(std)) {
+				return n;
+			}
+			final double threshold = mean(n) + Math.sqrt(variance(n)) * std;
+			int low = 0, high = n;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if (values[mid] > threshold) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			return low;
+		}
+
+		Map<String, Object> toMap(double std, int updateOrder, int totalRegions) {
+			final int n = filter(std);
+			Map<String, Object> update = new HashMap<String, Object>();
+			update.put("mean", Double.valueOf(mean(n)).longValue());
+			update.put("std", Double.valueOf(Math.sqrt(variance(n))).longValue());
+			update.put("max", n > 0 ? values[n - 1] : 0L);
+			update.put("min", n > 0 ? values[0] : 0L);
+			update.put("geomean", Double.valueOf(n > 0 ? Math.exp(sumLogs[n] / n) : Double.NaN).longValue());
+			update.put("variance", Double.valueOf(variance(n)).longValue());
+			update.put("isGuess", isGuess);
+			update.put("update_order", updateOrder + 1);
+			update.put("total_regions", totalRegions);
+			return update;
+		}
+	}
+}
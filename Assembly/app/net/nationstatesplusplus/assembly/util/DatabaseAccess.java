@@ -6,14 +6,40 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
+import net.nationstatesplusplus.assembly.TaskScheduler;
+import net.nationstatesplusplus.assembly.census.CensusHistory;
+import net.nationstatesplusplus.assembly.api.ApiScheduler;
+import net.nationstatesplusplus.assembly.autocomplete.NameIndex;
+import net.nationstatesplusplus.assembly.endorsement.EndorsementGraph;
+import net.nationstatesplusplus.assembly.endorsement.Leaderboard;
+import net.nationstatesplusplus.assembly.flag.FlagMap;
+import net.nationstatesplusplus.assembly.happenings.HappeningFormatter;
+import net.nationstatesplusplus.assembly.happenings.HappeningsCache;
+import net.nationstatesplusplus.assembly.happenings.RenderedHappenings;
+import net.nationstatesplusplus.assembly.refresh.NationRefreshPlanner;
+import net.nationstatesplusplus.assembly.refresh.RefreshQueue;
+import net.nationstatesplusplus.assembly.region.EmbassyGraph;
+import net.nationstatesplusplus.assembly.region.PopulationHistory;
+import net.nationstatesplusplus.assembly.region.RegionMembershipIndex;
+import net.nationstatesplusplus.assembly.region.RegionalStatsEngine;
+import net.nationstatesplusplus.assembly.update.UpdateOrderIndex;
+import net.nationstatesplusplus.assembly.update.UpdateProgressTracker;
+import net.nationstatesplusplus.assembly.update.UpdateTimePredictor;
 import net.nationstatesplusplus.assembly.model.websocket.WebsocketManager;
 import net.nationstatesplusplus.assembly.nation.DefaultSettings;
 import net.nationstatesplusplus.assembly.nation.MongoSettings;
+import net.nationstatesplusplus.assembly.nation.NationDisplay;
+import net.nationstatesplusplus.assembly.nation.NationDisplayCache;
 import net.nationstatesplusplus.assembly.nation.NationSettings;
 
 import org.joda.time.Duration;
@@ -27,6 +53,8 @@ import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.mchange.v2.c3p0.ComboPooledDataSource;
 import com.mongodb.BasicDBObject;
@@ -40,19 +68,84 @@ public class DatabaseAccess {
 	private final LoadingCache<String, Integer> regionIdCache;
 	private final LoadingCache<String, Integer> nationIdCache;
 	private final LoadingCache<Integer, String> reverseIdCache;
-	private final LoadingCache<String, String> nationTitleCache;
 	private final Cache<Integer, Integer> authenticationCache;
 	@Deprecated
 	private final LoadingCache<Integer, String> nationSettings;
 	private final WebsocketManager websocketManager;
 	private final MongoClient mongo;
+	private final CensusHistory censusHistory;
+	private final EndorsementGraph endorsementGraph;
+	private final Leaderboard leaderboard;
+	private final UpdateTimePredictor updateTimePredictor;
+	private final UpdateProgressTracker updateProgressTracker;
+	private final UpdateOrderIndex updateOrderIndex;
+	private final ApiScheduler apiScheduler;
+	private final TaskScheduler taskScheduler;
+	private final RefreshQueue refreshQueue;
+	private final NationRefreshPlanner nationRefreshPlanner;
+	private final HappeningsCache happeningsCache;
+	private final NationDisplayCache nationDisplayCache;
+	private final HappeningFormatter happeningFormatter;
+	private final RenderedHappenings renderedHappenings;
+	private final NameIndex nationNameIndex;
+	private final NameIndex regionNameIndex;
+	private final FlagMap flagMap;
+	private final RegionMembershipIndex regionMembershipIndex;
+	private final RegionalStatsEngine regionalStatsEngine;
+	private final PopulationHistory populationHistory;
+	private final EmbassyGraph embassyGraph;
 	private final int cacheSize;
 
-	public DatabaseAccess(final ComboPooledDataSource pool, MongoClient client, int cacheSize, WebsocketManager wm, boolean backgroundTasks) {
+	public DatabaseAccess(final ComboPooledDataSource pool, MongoClient client, int cacheSize, WebsocketManager wm, CensusHistory censusHistory, boolean backgroundTasks) {
 		this.cacheSize = cacheSize;
+		this.censusHistory = censusHistory;
+		this.endorsementGraph = new EndorsementGraph(pool);
+		this.leaderboard = new Leaderboard();
+		endorsementGraph.addListener(leaderboard);
+		this.nationRefreshPlanner = new NationRefreshPlanner(pool);
+		endorsementGraph.addListener(nationRefreshPlanner);
+		this.updateTimePredictor = new UpdateTimePredictor(pool);
+		this.updateProgressTracker = new UpdateProgressTracker(this);
+		this.updateOrderIndex = new UpdateOrderIndex();
+		this.apiScheduler = new ApiScheduler();
+		this.taskScheduler = new TaskScheduler(8);
+		this.refreshQueue = new RefreshQueue(pool);
+		this.happeningsCache = new HappeningsCache();
+		this.nationDisplayCache = new NationDisplayCache(pool, cacheSize * 50);
+		this.happeningFormatter = new HappeningFormatter(nationDisplayCache);
+		this.renderedHappenings = new RenderedHappenings(this);
+		this.nationNameIndex = new NameIndex(pool, NameIndex.NATION_CLUSTER_EVENT, "SELECT name, population, last_login FROM assembly.nation WHERE alive = 1");
+		this.regionNameIndex = new NameIndex(pool, NameIndex.REGION_CLUSTER_EVENT, "SELECT name, population, 0 FROM assembly.region WHERE alive = 1");
+		this.flagMap = new FlagMap(pool);
+		this.regionMembershipIndex = new RegionMembershipIndex(pool);
+		this.regionalStatsEngine = new RegionalStatsEngine(pool);
+		this.populationHistory = new PopulationHistory(pool);
+		this.embassyGraph = new EmbassyGraph(pool, flagMap, taskScheduler);
 		this.pool = pool;
 		this.mongo = client;
 		this.websocketManager = wm;
+		//Background tasks keep the endorsement graph, region membership index, flag map, name indexes, population history, embassy graph and the happenings and nation display caches current and broadcast their changes, other servers apply them
+		if (backgroundTasks) {
+			endorsementGraph.setPublisher(wm);
+			happeningsCache.setPublisher(wm);
+			nationDisplayCache.setPublisher(wm);
+			regionMembershipIndex.setPublisher(wm);
+			flagMap.setPublisher(wm);
+			nationNameIndex.setPublisher(wm);
+			regionNameIndex.setPublisher(wm);
+			populationHistory.setPublisher(wm);
+			embassyGraph.setPublisher(wm);
+		} else {
+			wm.addClusterListener(EndorsementGraph.CLUSTER_EVENT, endorsementGraph);
+			wm.addClusterListener(HappeningsCache.CLUSTER_EVENT, happeningsCache);
+			wm.addClusterListener(NationDisplayCache.CLUSTER_EVENT, nationDisplayCache);
+			wm.addClusterListener(RegionMembershipIndex.CLUSTER_EVENT, regionMembershipIndex);
+			wm.addClusterListener(FlagMap.CLUSTER_EVENT, flagMap);
+			wm.addClusterListener(nationNameIndex.getClusterEvent(), nationNameIndex);
+			wm.addClusterListener(regionNameIndex.getClusterEvent(), regionNameIndex);
+			wm.addClusterListener(PopulationHistory.CLUSTER_EVENT, populationHistory);
+			wm.addClusterListener(EmbassyGraph.CLUSTER_EVENT, embassyGraph);
+		}
 		Logger.info("Creating Database Cache. Max Size: " + cacheSize);
 		this.regionIdCache = CacheBuilder.newBuilder()
 			.maximumSize(cacheSize)
@@ -120,28 +213,6 @@ public class DatabaseAccess {
 			}
 		});
 		
-		this.nationTitleCache = CacheBuilder.newBuilder()
-				.maximumSize(cacheSize)
-				.expireAfterAccess(10, TimeUnit.MINUTES)
-				.expireAfterWrite(1, TimeUnit.HOURS)
-				.build(new CacheLoader<String, String>() {
-				public String load(String key) throws SQLException {
-					try (Connection conn = pool.getConnection()) {
-						try (PreparedStatement statement = conn.prepareStatement("SELECT title from assembly.nation WHERE name = ?")) {
-							statement.setString(1, key);
-							try (ResultSet result = statement.executeQuery()) {
-								if (result.next()) {
-									return result.getString(1);
-								}
-							}
-						}
-					} catch (SQLException e) {
-						Logger.error("Unable to look up nation title", e);
-					}
-					throw new RuntimeException("No nation with name [" + key + "] found!");
-				}
-			});
-
 		this.nationSettings = CacheBuilder.newBuilder()
 			.maximumSize(0)
 			.expireAfterAccess(10, TimeUnit.MINUTES)
@@ -199,6 +270,54 @@ public class DatabaseAccess {
 		}
 	}
 
+	/**
+	 * Looks up the ids of many nations at once. Cached ids are used where available, and all the
+	 * remaining nations are looked up in a single query. Nations that do not exist are absent from the result.
+	 * 
+	 * @param names of the nations
+	 * @return map of sanitized nation name to nation id
+	 */
+	public Map<String, Integer> getNationIds(Collection<String> names) throws SQLException {
+		Set<String> sanitized = new HashSet<String>(names.size() * 2);
+		for (String name : names) {
+			if (name != null && name.trim().length() > 0) {
+				sanitized.add(Utils.sanitizeName(name));
+			}
+		}
+		Map<String, Integer> ids = new HashMap<String, Integer>(nationIdCache.getAllPresent(sanitized));
+		List<String> missing = new ArrayList<String>();
+		for (String name : sanitized) {
+			Integer id = ids.get(name);
+			if (id == null || id == -1) {
+				ids.remove(name);
+				missing.add(name);
+			}
+		}
+		if (!missing.isEmpty()) {
+			try (Connection conn = pool.getConnection()) {
+				for (List<String> partition : Lists.partition(missing, 1000)) {
+					StringBuilder sql = new StringBuilder("SELECT id, name FROM assembly.nation WHERE name IN (");
+					for (int i = 0; i < partition.size(); i++) {
+						sql.append(i == 0 ? "?" : ", ?");
+					}
+					sql.append(")");
+					try (PreparedStatement select = conn.prepareStatement(sql.toString())) {
+						for (int i = 0; i < partition.size(); i++) {
+							select.setString(i + 1, partition.get(i));
+						}
+						try (ResultSet result = select.executeQuery()) {
+							while (result.next()) {
+								ids.put(result.getString(2), result.getInt(1));
+								nationIdCache.put(result.getString(2), result.getInt(1));
+							}
+						}
+					}
+				}
+			}
+		}
+		return ids;
+	}
+
 	public LoadingCache<String, Integer> getRegionIdCache() {
 		return regionIdCache;
 	}
@@ -220,10 +339,6 @@ public class DatabaseAccess {
 		return reverseIdCache;
 	}
 
-	public LoadingCache<String, String> getNationTitleCache() {
-		return nationTitleCache;
-	}
-
 	public Cache<Integer, Integer> getAuthenticationCache() {
 		return authenticationCache;
 	}
@@ -231,10 +346,14 @@ public class DatabaseAccess {
 	public String getNationTitle(String name) {
 		name = Utils.sanitizeName(name);
 		try {
-			return nationTitleCache.get(name);
-		} catch (ExecutionException e) {
-			return Utils.formatName(name);
+			NationDisplay display = nationDisplayCache.get(name, "title");
+			if (display != null) {
+				return display.getTitle();
+			}
+		} catch (SQLException e) {
+			Logger.error("Unable to look up nation title", e);
 		}
+		return Utils.formatName(name);
 	}
 
 	public LoadingCache<Integer, String> getNationSettingsCache() {
@@ -308,6 +427,90 @@ public class DatabaseAccess {
 		return websocketManager;
 	}
 
+	public CensusHistory getCensusHistory() {
+		return censusHistory;
+	}
+
+	public EndorsementGraph getEndorsementGraph() {
+		return endorsementGraph;
+	}
+
+	public Leaderboard getLeaderboard() {
+		return leaderboard;
+	}
+
+	public UpdateTimePredictor getUpdateTimePredictor() {
+		return updateTimePredictor;
+	}
+
+	public UpdateProgressTracker getUpdateProgressTracker() {
+		return updateProgressTracker;
+	}
+
+	public UpdateOrderIndex getUpdateOrderIndex() {
+		return updateOrderIndex;
+	}
+
+	public ApiScheduler getApiScheduler() {
+		return apiScheduler;
+	}
+
+	public TaskScheduler getTaskScheduler() {
+		return taskScheduler;
+	}
+
+	public RefreshQueue getRefreshQueue() {
+		return refreshQueue;
+	}
+
+	public NationRefreshPlanner getNationRefreshPlanner() {
+		return nationRefreshPlanner;
+	}
+
+	public HappeningsCache getHappeningsCache() {
+		return happeningsCache;
+	}
+
+	public NationDisplayCache getNationDisplayCache() {
+		return nationDisplayCache;
+	}
+
+	public NameIndex getNationNameIndex() {
+		return nationNameIndex;
+	}
+
+	public NameIndex getRegionNameIndex() {
+		return regionNameIndex;
+	}
+
+	public FlagMap getFlagMap() {
+		return flagMap;
+	}
+
+	public RegionMembershipIndex getRegionMembershipIndex() {
+		return regionMembershipIndex;
+	}
+
+	public RegionalStatsEngine getRegionalStatsEngine() {
+		return regionalStatsEngine;
+	}
+
+	public PopulationHistory getPopulationHistory() {
+		return populationHistory;
+	}
+
+	public EmbassyGraph getEmbassyGraph() {
+		return embassyGraph;
+	}
+
+	public HappeningFormatter getHappeningFormatter() {
+		return happeningFormatter;
+	}
+
+	public RenderedHappenings getRenderedHappenings() {
+		return renderedHappenings;
+	}
+
 	public boolean isValidAuthToken(int id, String authToken) {
 		//Sha256 digest is 64 chars in length
 		if (authToken == null || authToken.length() != 64) {
@@ -407,6 +610,23 @@ public class DatabaseAccess {
 			hasEndorsement.setInt(2, nationId);
 			hasEndorsement.execute();
 		}
+		endorsementGraph.removeNation(nationId);
+		nationRefreshPlanner.remove(nationId);
+		regionMembershipIndex.remove(nationId);
+		regionalStatsEngine.remove(nationId);
+		String name;
+		try {
+			name = reverseIdCache.get(nationId);
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			name = null;
+		}
+		if (name != null) {
+			nationDisplayCache.invalidate(name);
+			nationNameIndex.remove(name);
+			flagMap.removeNation(name);
+		}
+		//Dead nations are rendered without a link or flag
+		renderedHappenings.onNationChanged(conn, nationId);
 	}
 
 	public void markRegionDead(String region, Connection conn) throws SQLException {
@@ -427,6 +647,10 @@ public class DatabaseAccess {
 				markDead.setString(1, Utils.sanitizeName(region));
 				markDead.executeUpdate();
 			}
+			regionNameIndex.remove(Utils.sanitizeName(region));
+			embassyGraph.onRegionDead(regionId, Utils.resolveRegionFlag(flagMap.getRegionFlag(Utils.sanitizeName(region)), false, "//www.nationstates.net/images/flags/Default.png"));
+			flagMap.removeRegion(Utils.sanitizeName(region));
+			populationHistory.remove(Utils.sanitizeName(region));
 		}
 	}
 }
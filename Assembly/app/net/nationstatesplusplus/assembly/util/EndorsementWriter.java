@@ -0,0 +1,157 @@
+package net.nationstatesplusplus.assembly.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import play.Logger;
+
+import com.google.common.collect.Lists;
+
+/**
+ * <p>
+ * Collects the endorsements of refreshed nations and writes them to <code>assembly.endorsements</code> as a diff against the
+ * existing endorsements: only edges which were added or removed are written. Endorser ids are resolved with a single multi-get,
+ * and any number of nations can be queued up and written in a single transaction with {@link #flush(Connection)}.
+ * </p><p>
+ * This class is not thread safe, each task should use its own writer.
+ * </p>
+ */
+public class EndorsementWriter {
+	private final DatabaseAccess access;
+	private final Map<Integer, String[]> pending = new LinkedHashMap<Integer, String[]>();
+	public EndorsementWriter(DatabaseAccess access) {
+		this.access = access;
+	}
+
+	/**
+	 * Queues the current endorsements of the nation to be written on the next flush. If the nation is already queued, the newer endorsements replace it.
+	 *
+	 * @param nationId of the endorsed nation
+	 * @param endorsements names of the nations endorsing it
+	 */
+	public void add(int nationId, String[] endorsements) {
+		pending.put(nationId, endorsements);
+	}
+
+	/**
+	 * The number of nations waiting to be flushed
+	 *
+	 * @return pending nations
+	 */
+	public int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Writes the endorsement changes and endorsement trends of all queued nations in a single transaction. If any part of the
+	 * transaction fails, it is rolled back and the queued nations are kept, so the flush may be retried.
+	 *
+	 * @param conn
+	 * @return the number of endorsement edges inserted or deleted
+	 * @throws SQLException
+	 */
+	public int flush(Connection conn) throws SQLException {
+		if (pending.isEmpty()) {
+			return 0;
+		}
+		final List<String> names = new ArrayList<String>();
+		for (String[] endorsements : pending.values()) {
+			for (String endorser : endorsements) {
+				names.add(endorser);
+			}
+		}
+		final Map<String, Integer> ids = access.getNationIds(names);
+
+		final Map<Integer, Set<Integer>> existing = new HashMap<Integer, Set<Integer>>();
+		for (List<Integer> partition : Lists.partition(new ArrayList<Integer>(pending.keySet()), 1000)) {
+			StringBuilder sql = new StringBuilder("SELECT endorser, endorsed FROM assembly.endorsements WHERE endorsed IN (");
+			for (int i = 0; i < partition.size(); i++) {
+				sql.append(i == 0 ? "?" : ", ?");
+			}
+			sql.append(")");
+			try (PreparedStatement select = conn.prepareStatement(sql.toString())) {
+				for (int i = 0; i < partition.size(); i++) {
+					select.setInt(i + 1, partition.get(i));
+				}
+				try (ResultSet result = select.executeQuery()) {
+					while (result.next()) {
+						Set<Integer> endorsers = existing.get(result.getInt(2));
+						if (endorsers == null) {
+							endorsers = new HashSet<Integer>();
+							existing.put(result.getInt(2), endorsers);
+						}
+						endorsers.add(result.getInt(1));
+					}
+				}
+			}
+		}
+
+		final Map<Integer, Set<Integer>> updated = new HashMap<Integer, Set<Integer>>();
+		int changes = 0;
+		final long now = System.currentTimeMillis();
+		conn.setAutoCommit(false);
+		try (PreparedStatement insert = conn.prepareStatement("INSERT INTO assembly.endorsements (endorser, endorsed) VALUES (?, ?)");
+				PreparedStatement delete = conn.prepareStatement("DELETE FROM assembly.endorsements WHERE endorser = ? AND endorsed = ?");
+				PreparedStatement trends = conn.prepareStatement("INSERT INTO assembly.nation_endorsement_trends (nation, endorsements, timestamp) VALUES (?, ?, ?)")) {
+			for (Map.Entry<Integer, String[]> e : pending.entrySet()) {
+				final int nationId = e.getKey();
+				Set<Integer> current = new HashSet<Integer>();
+				for (String endorser : e.getValue()) {
+					if (endorser.trim().length() > 0) {
+						Integer id = ids.get(Utils.sanitizeName(endorser));
+						if (id != null) {
+							current.add(id);
+						}
+					}
+				}
+				updated.put(nationId, current);
+				Set<Integer> previous = existing.containsKey(nationId) ? existing.get(nationId) : new HashSet<Integer>();
+				for (Integer endorser : current) {
+					if (!previous.contains(endorser)) {
+						insert.setInt(1, endorser);
+						insert.setInt(2, nationId);
+						insert.addBatch();
+						changes++;
+					}
+				}
+				for (Integer endorser : previous) {
+					if (!current.contains(endorser)) {
+						delete.setInt(1, endorser);
+						delete.setInt(2, nationId);
+						delete.addBatch();
+						changes++;
+					}
+				}
+				trends.setInt(1, nationId);
+				trends.setInt(2, e.getValue().length);
+				trends.setLong(3, now);
+				trends.addBatch();
+			}
+			delete.executeBatch();
+			insert.executeBatch();
+			trends.executeBatch();
+			conn.commit();
+		} catch (SQLException e) {
+			conn.rollback();
+			Logger.warn("Rolling back endorsement transaction for " + pending.size() + " nations");
+			throw e;
+		} finally {
+			conn.setAutoCommit(true);
+		}
+		for (Map.Entry<Integer, Set<Integer>> e : updated.entrySet()) {
+			access.getEndorsementGraph().setEndorsers(e.getKey(), e.getValue());
+		}
+		Logger.debug("Flushed endorsements for {} nations, {} changed endorsements", pending.size(), changes);
+		pending.clear();
+		return changes;
+	}
+}
@@ -0,0 +1,105 @@
+package net.nationstatesplusplus.assembly.util;
+
+import java.util.Arrays;
+
+/**
+ * A set of ints backed by a sorted primitive array. Lookups are binary searches and adds/removes shift the array,
+ * which is cheap for the small to medium sized sets (endorsements, region members) this is used for.
+ * <br/>
+ * Not thread safe, callers must synchronize.
+ */
+public class SortedIntSet {
+	private static final int[] EMPTY = new int[0];
+	private int[] values;
+	private int size;
+	public SortedIntSet() {
+		this.values = EMPTY;
+		this.size = 0;
+	}
+
+	/**
+	 * Creates a set containing the given values, in any order and possibly with duplicates
+	 *
+	 * @param values
+	 * @param length number of values to use from the array
+	 */
+	public SortedIntSet(int[] values, int length) {
+		int[] sorted = Arrays.copyOf(values, length);
+		Arrays.sort(sorted);
+		int unique = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (unique == 0 || sorted[unique - 1] != sorted[i]) {
+				sorted[unique++] = sorted[i];
+			}
+		}
+		this.values = sorted;
+		this.size = unique;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int get(int index) {
+		return values[index];
+	}
+
+	public boolean contains(int value) {
+		return Arrays.binarySearch(values, 0, size, value) >= 0;
+	}
+
+	/**
+	 * Adds the value to the set
+	 *
+	 * @param value
+	 * @return true if the value was not already in the set
+	 */
+	public boolean add(int value) {
+		int index = Arrays.binarySearch(values, 0, size, value);
+		if (index >= 0) {
+			return false;
+		}
+		index = -(index + 1);
+		if (size == values.length) {
+			values = Arrays.copyOf(values, Math.max(4, size + (size >> 1)));
+		}
+		System.arraycopy(values, index, values, index + 1, size - index);
+		values[index] = value;
+		size++;
+		return true;
+	}
+
+	/**
+	 * Removes the value from the set
+	 *
+	 * @param value
+	 * @return true if the value was in the set
+	 */
+	public boolean remove(int value) {
+		int index = Arrays.binarySearch(values, 0, size, value);
+		if (index < 0) {
+			return false;
+		}
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		size--;
+		return true;
+	}
+
+	public void clear() {
+		values = EMPTY;
+		size = 0;
+	}
+
+	/**
+	 * Returns a copy of the values in the set, in ascending order
+	 *
+	 * @return sorted values
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+}
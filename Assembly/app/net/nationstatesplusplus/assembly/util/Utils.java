@@ -8,15 +8,16 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Savepoint;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.net.ssl.HttpsURLConnection;
 
+import net.nationstatesplusplus.assembly.api.ApiPriority;
+import net.nationstatesplusplus.assembly.nation.NationDisplay;
+
 import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.dbutils.DbUtils;
 import org.apache.commons.io.IOUtils;
@@ -92,65 +93,6 @@ public class Utils {
 		response.setHeader("Access-Control-Allow-Headers", "Origin, X-Requested-With, Content-Type, Accept");
 	}
 
-	public static String formatHappeningText(String text, Connection conn, String owner) throws SQLException {
-		do {
-			Matcher match = NATION_PATTERN.matcher(text);
-			if (match.find()) {
-				String nation = text.substring(match.start() + 2, match.end() - 2);
-				String replacement = formatFullName(nation, conn, !owner.equals(nation));
-				text = match.replaceFirst(replacement);
-			} else {
-				break;
-			}
-		} while (true);
-
-		do {
-			Matcher match = REGION_PATTERN.matcher(text);
-			if (match.find()) {
-				String region = text.substring(match.start() + 2, match.end() - 2);
-				String replacement = "<a href=\"//www.nationstates.net/region=" + region + "\">" + formatName(region) + "</a>";
-				text = match.replaceFirst(replacement);
-			} else {
-				break;
-			}
-		} while (true);
-
-		do {
-			Matcher match = RMB_PATTERN.matcher(text);
-			if (match.find()) {
-				String region = text.substring(match.start() + 2, match.end() - 2);
-				String replacement = "<a href=\"//www.nationstates.net/region=" + region + "#rmb\">Regional Message Board</a>";
-				text = match.replaceFirst(replacement);
-			} else {
-				break;
-			}
-		} while (true);
-		
-		return text;
-	}
-
-	public static String formatFullName(String nation, Connection conn, boolean fullName) throws SQLException {
-		PreparedStatement statement = null;
-		ResultSet result = null;
-		try {
-			statement = conn.prepareStatement("SELECT full_name, flag, alive, title from assembly.nation WHERE name = ?");
-			statement.setString(1, sanitizeName(nation));
-			result = statement.executeQuery();
-			if (result.next()) {
-				//Dead, return just full title
-				if (result.getByte(3) != 1) {
-					return result.getString(1);
-				} else {
-					return "<a href=\"//www.nationstates.net/nation=" + nation + "\"><img src=\"" + result.getString(2) + "\" class=\"miniflag\" alt=\"\" title=\"" + result.getString(1) + "\">" + (fullName ? result.getString(1) : result.getString(4)) + "</a>";
-				}
-			}
-			return formatNationLink(nation);
-		} finally {
-			DbUtils.closeQuietly(result);
-			DbUtils.closeQuietly(statement);
-		}
-	}
-
 	public static String sanitizeName(String name) {
 		return name != null ? (name.contains(" ") ? name.toLowerCase().replaceAll(" ", "_") : name.toLowerCase()) : null;
 	}
@@ -163,35 +105,30 @@ public class Utils {
 		return "<a href=\"//www.nationstates.net/nation=" + nation + "\">" + formatName(nation) + "</a>";
 	}
 
-	public static String getNationFlag(String nation, Connection conn) throws SQLException {
-		return getNationFlag(nation, conn, "//www.nationstates.net/images/flags/Default.png");
+	public static String getNationFlag(String nation, Connection conn, DatabaseAccess access) throws SQLException {
+		return getNationFlag(nation, conn, access, "//www.nationstates.net/images/flags/Default.png");
 	}
 
-	public static String getNationFlag(String nation, Connection conn, String defaultFlag) throws SQLException {
-		PreparedStatement statement = null;
-		ResultSet result = null;
-		try {
-			statement = conn.prepareStatement("SELECT flag, alive from assembly.nation WHERE name = ?");
-			statement.setString(1, sanitizeName(nation));
-			result = statement.executeQuery();
-			if (result.next()) {
-				final String flag = result.getString(1);
-				if (flag != null && !flag.trim().isEmpty()) {
-					if (result.getByte(2) == 1) {
-						//Return png copy, even if older jpg version
-						if (flag.contains("www.nationstates.net/images/flags/Default")) {
-							return "//www.nationstates.net/images/flags/Default.png";
-						}
-						return flag;
-					}
-					return "//www.nationstates.net/images/flags/exnation.png";
+	public static String getNationFlag(String nation, Connection conn, DatabaseAccess access, String defaultFlag) throws SQLException {
+		return getNationFlag(access.getNationDisplayCache().get(conn, nation, "flag"), defaultFlag);
+	}
+
+	public static String getNationFlag(NationDisplay display, String defaultFlag) {
+		return display != null ? resolveNationFlag(display.getFlag(), display.isAlive(), defaultFlag) : defaultFlag;
+	}
+
+	public static String resolveNationFlag(String flag, boolean alive, String defaultFlag) {
+		if (flag != null && !flag.trim().isEmpty()) {
+			if (alive) {
+				//Return png copy, even if older jpg version
+				if (flag.contains("www.nationstates.net/images/flags/Default")) {
+					return "//www.nationstates.net/images/flags/Default.png";
 				}
+				return flag;
 			}
-			return defaultFlag;
-		} finally {
-			DbUtils.closeQuietly(result);
-			DbUtils.closeQuietly(statement);
+			return "//www.nationstates.net/images/flags/exnation.png";
 		}
+		return defaultFlag;
 	}
 
 	public static String getRegionFlag(String region, Connection conn) throws SQLException {
@@ -206,13 +143,7 @@ public class Utils {
 			statement.setString(1, sanitizeName(region));
 			result = statement.executeQuery();
 			if (result.next()) {
-				final String flag = result.getString(1);
-				if (flag != null && !flag.trim().isEmpty()) {
-					if (result.getByte(2) == 1) {
-						return flag;
-					}
-					return "https://nationstatesplusplus.net/nationstates/static/exregion.png";
-				}
+				return resolveRegionFlag(result.getString(1), result.getByte(2) == 1, defaultFlag);
 			}
 			return defaultFlag;
 		} finally {
@@ -221,6 +152,16 @@ public class Utils {
 		}
 	}
 
+	public static String resolveRegionFlag(String flag, boolean alive, String defaultFlag) {
+		if (flag != null && !flag.trim().isEmpty()) {
+			if (alive) {
+				return flag;
+			}
+			return "https://nationstatesplusplus.net/nationstates/static/exregion.png";
+		}
+		return defaultFlag;
+	}
+
 	public static String getPostValue(Http.Request request, String property) {
 		Map<String, String[]> post = request.body().asFormUrlEncoded();
 		if (post != null) {
@@ -252,7 +193,11 @@ public class Utils {
 				recentAuthRequest.put(nation, true);
 				boolean verify = false;
 				try {
-					verify = api.verifyNation(nation, auth);
+					if (access.getApiScheduler().acquire(ApiPriority.AUTHENTICATION, Duration.standardSeconds(2).getMillis())) {
+						verify = api.verifyNation(nation, auth);
+					} else {
+						Logger.warn("Auth API Rate limited!");
+					}
 				} catch (RateLimitReachedException e) {
 					Logger.warn("Auth API Rate limited!");
 				} catch (Exception e) {
@@ -321,7 +266,24 @@ public class Utils {
 		return null;
 	}
 
-	public static void updateNation(final Connection conn, final DatabaseAccess access, final NationStates api, final String nation, final int id) throws SQLException {
+	public static void updateNation(final Connection conn, final DatabaseAccess access, final NationStates api, final String nation, final int id, final NationDisplay previous) throws SQLException {
+		updateNation(conn, access, api, nation, id, previous, null);
+	}
+
+	/**
+	 * Refreshes the nation from the NationStates API. If an endorsement writer is given, the nation's endorsements are queued in it
+	 * and are not written until the writer is flushed, otherwise they are written immediately.
+	 * 
+	 * @param conn
+	 * @param access
+	 * @param api
+	 * @param nation name
+	 * @param id of the nation
+	 * @param previous display of the nation, read with its row by the caller, or null to treat the display as changed
+	 * @param writer to queue endorsements in, or null
+	 * @throws SQLException
+	 */
+	public static void updateNation(final Connection conn, final DatabaseAccess access, final NationStates api, final String nation, final int id, final NationDisplay previous, final EndorsementWriter writer) throws SQLException {
 		NationData.Shards.CENSUS_SCORE.clearIds();
 		for (int i = 0; i <= 70; i++) {
 			NationData.Shards.CENSUS_SCORE.addIds(i);
@@ -343,96 +305,77 @@ public class Utils {
 			updateNation.setLong(6, data.lastLogin);
 			updateNation.setLong(7, System.currentTimeMillis());
 			updateNation.setByte(8, (byte)(data.worldAssemblyStatus != WAStatus.NON_MEMBER ? 1 : 0));
-			updateNation.setInt(9, access.getRegionId(data.region));
+			final int regionId = access.getRegionId(data.region);
+			updateNation.setInt(9, regionId);
 			updateNation.setInt(10, id);
 			updateNation.executeUpdate();
 			DbUtils.closeQuietly(updateNation);
+			access.getNationRefreshPlanner().onRefreshed(id);
+			final int waStatus = data.worldAssemblyStatus != WAStatus.NON_MEMBER ? 1 : 0;
+			final NationDisplay display = new NationDisplay(sanitizeName(nation), data.fullName, data.name, flag, true, waStatus);
+			access.getNationDisplayCache().put(display);
+			access.getFlagMap().putNation(sanitizeName(nation), flag);
+			access.getRegionMembershipIndex().move(id, regionId);
+			access.getRegionalStatsEngine().onRefreshed(id, regionId, waStatus == 1, data.censusScore.get(68).floatValue());
+			if (!display.equals(previous)) {
+				access.getRenderedHappenings().onNationChanged(conn, id);
+				access.getNationDisplayCache().broadcastChange(nation);
+			}
+			access.getEndorsementGraph().updateNation(id, sanitizeName(nation), data.name, data.fullName, flag, regionId, data.censusScore.get(65).intValue(), data.influence, waStatus);
 			
-			updateShards(conn, data, id);
-			updateEndorsements(conn, access, data, id);
+			updateShards(conn, access, data, id);
+			if (writer != null) {
+				writer.add(id, data.endorsements);
+			} else {
+				updateEndorsements(conn, access, data, id);
+			}
 		} catch (UnknownNationException e) {
 			access.markNationDead(id, conn);
 		}
 	}
 
-	private static void updateShards(final Connection conn, final NationData data, final int nationId) throws SQLException {
-		//nation shards
-		StringBuilder statement = new StringBuilder("INSERT INTO assembly.nation_shards (nation, timestamp, ");
+	private static void updateShards(final Connection conn, final DatabaseAccess access, final NationData data, final int nationId) throws SQLException {
+		//census history, old samples are expired by the store itself
+		float[] census = new float[71];
+		for (int i = 0; i <= 70; i++) {
+			census[i] = data.censusScore.get(i);
+		}
+		try {
+			access.getCensusHistory().append(nationId, System.currentTimeMillis(), census);
+		} catch (IOException e) {
+			Logger.warn("Unable to append census history for nation " + nationId, e);
+		}
+
+		//newest nation shards, insert or update in one statement
+		StringBuilder statement = new StringBuilder("INSERT INTO assembly.newest_nation_shards (nation, ");
 		for (int i = 0; i <= 70; i++) {
 			statement.append("shard_").append(i);
 			if ( i != 70 ) statement.append(", ");
 		}
-		statement.append(") VALUES (?, ?, ");
+		statement.append(") VALUES (?, ");
 		for (int i = 0; i <= 70; i++) {
 			statement.append("?");
 			if ( i != 70 ) statement.append(", ");
 		}
-		statement.append(")");
-		
-		try (PreparedStatement insert = conn.prepareStatement(statement.toString())) {
-			insert.setInt(1, nationId);
-			insert.setLong(2, System.currentTimeMillis());
-			for (int i = 0; i <= 70; i++) {
-				insert.setFloat((3 + i), data.censusScore.get(i));
-			}
-			insert.executeUpdate();
-		}
-
-		//Drop data over 60 days old
-		try (PreparedStatement delete = conn.prepareStatement("DELETE FROM assembly.nation_shards WHERE nation = ? AND timestamp < ?")) {
-			delete.setInt(1, nationId);
-			delete.setLong(2, System.currentTimeMillis() - Duration.standardDays(60).getMillis());
-			delete.executeUpdate();
+		statement.append(") ON DUPLICATE KEY UPDATE ");
+		for (int i = 0; i <= 70; i++) {
+			statement.append("shard_").append(i).append(" = VALUES(shard_").append(i).append(")");
+			if ( i != 70 ) statement.append(", ");
 		}
 
-		//Check if it exists, if so update, else insert
-		try (PreparedStatement select = conn.prepareStatement("SELECT nation FROM assembly.newest_nation_shards WHERE nation = ?")) {
-			select.setInt(1, nationId);
-			try (ResultSet result = select.executeQuery()) {
-				if (!result.next()) {
-					statement = new StringBuilder("INSERT INTO assembly.newest_nation_shards (nation, ");
-					for (int i = 0; i <= 70; i++) {
-						statement.append("shard_").append(i);
-						if ( i != 70 ) statement.append(", ");
-					}
-					statement.append(") VALUES (?, ");
-					for (int i = 0; i <= 70; i++) {
-						statement.append("?");
-						if ( i != 70 ) statement.append(", ");
-					}
-					statement.append(")");
-
-					try (PreparedStatement insert = conn.prepareStatement(statement.toString())) {
-						insert.setInt(1, nationId);
-						for (int i = 0; i <= 70; i++) {
-							insert.setFloat((2 + i), data.censusScore.get(i));
-						}
-						insert.executeUpdate();
-					}
-				} else {
-					statement = new StringBuilder("UPDATE assembly.newest_nation_shards SET ");
-					for (int i = 0; i <= 70; i++) {
-						statement.append("shard_").append(i).append(" = ?");
-						if ( i != 70 ) statement.append(", ");
-					}
-					statement.append(" WHERE nation = ?");
-			
-					try (PreparedStatement insert = conn.prepareStatement(statement.toString())) {
-						for (int i = 0; i <= 70; i++) {
-							insert.setFloat(i + 1, data.censusScore.get(i));
-						}
-						insert.setInt(72, nationId);
-						insert.executeUpdate();
-					}
-				}
+		try (PreparedStatement upsert = conn.prepareStatement(statement.toString())) {
+			upsert.setInt(1, nationId);
+			for (int i = 0; i <= 70; i++) {
+				upsert.setFloat((2 + i), census[i]);
 			}
+			upsert.executeUpdate();
 		}
 	}
 
 	/**
-	 * Updates a nation's endorsements in nationstates based on the available NationData. The nation's existing endorsements are cleared, and the endorsements from the
-	 * NationData are set. The total number of endorsements and the current time is also updated in the endorsement trends table. If any part of this process fails, 
-	 * roll back, leaving the database in the same state as it was previously.
+	 * Updates a nation's endorsements in nationstates based on the available NationData. Only the endorsements which changed are
+	 * written, and the total number of endorsements and the current time is also updated in the endorsement trends table. If any part of this process fails, 
+	 * roll back, leaving the database in the same state as it was previously. To update several nations in a single transaction, use an {@link EndorsementWriter}.
 	 * 
 	 * @param conn
 	 * @param access 
@@ -441,44 +384,8 @@ public class Utils {
 	 * @throws SQLException
 	 */
 	public static void updateEndorsements(final Connection conn, final DatabaseAccess access, final NationData data, final int nationId) throws SQLException {
-		conn.setAutoCommit(false);
-		Savepoint save =  conn.setSavepoint();
-		try {
-			try (PreparedStatement endorsements = conn.prepareStatement("INSERT INTO assembly.endorsements (endorser, endorsed) VALUES (?, ?)")) {
-				for (String endorsed : data.endorsements) {
-					if (endorsed.trim().length() > 0) {
-						endorsements.setInt(1, access.getNationId(endorsed));
-						endorsements.setInt(2, nationId);
-						endorsements.addBatch();
-					}
-				}
-
-				try (PreparedStatement hasEndorsement = conn.prepareStatement("DELETE FROM assembly.endorsements WHERE endorsed = ?")) {
-					hasEndorsement.setInt(1, nationId);
-					hasEndorsement.executeUpdate();
-				}
-
-				endorsements.executeBatch();
-				// NOTE: hasEndorsement is executed before endorsements --
-				//       first the nation's endos are reset, then the new ones 
-				//       are added.
-			}
-
-			try (PreparedStatement updateEndorsementTrends = conn.prepareStatement("INSERT INTO assembly.nation_endorsement_trends (nation, endorsements, timestamp) VALUES (?, ?, ?)")) {
-				updateEndorsementTrends.setInt(1, nationId);
-				updateEndorsementTrends.setInt(2, data.endorsements.length);
-				updateEndorsementTrends.setLong(3, System.currentTimeMillis());
-				updateEndorsementTrends.executeUpdate();
-			}
-			
-			conn.commit();
-			conn.releaseSavepoint(save);
-		} catch (SQLException e) {
-			conn.rollback(save);
-			Logger.warn("Rolling back endorsement transaction");
-			throw e;
-		} finally {
-			conn.setAutoCommit(true);
-		}
+		EndorsementWriter writer = new EndorsementWriter(access);
+		writer.add(nationId, data.endorsements);
+		writer.flush(conn);
 	}
 }
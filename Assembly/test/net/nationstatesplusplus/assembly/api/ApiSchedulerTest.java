@@ -0,0 +1,171 @@
+package net.nationstatesplusplus.assembly.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Ticker;
+
+public class ApiSchedulerTest {
+	private static final long WINDOW = 1500;
+	private FakeNationStatesServer server;
+
+	@Before
+	public void startServer() throws IOException {
+		server = new FakeNationStatesServer(WINDOW);
+	}
+
+	@After
+	public void stopServer() {
+		server.stop();
+	}
+
+	@Test
+	public void neverExceedsRateLimit() throws InterruptedException {
+		final ApiScheduler scheduler = new ApiScheduler(WINDOW, Ticker.systemTicker());
+		final long deadline = System.currentTimeMillis() + 3 * WINDOW;
+		final AtomicInteger failed = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (final ApiPriority priority : ApiPriority.values()) {
+			threads.add(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (System.currentTimeMillis() < deadline) {
+						try {
+							if (scheduler.acquire(priority, 200) && server.request(priority) != 200) {
+								failed.incrementAndGet();
+							}
+						} catch (IOException e) {
+							failed.incrementAndGet();
+						}
+					}
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, server.getRejected());
+		assertEquals(0, failed.get());
+		//Every window was saturated, so more than one window of requests was served
+		assertTrue(server.getServed().size() > FakeNationStatesServer.RATE_LIMIT);
+		assertTrue((Double) scheduler.getStatistics().get("utilization") > 0.5);
+	}
+
+	@Test
+	public void higherPriorityServedFirst() throws InterruptedException {
+		//Time only moves when the test advances it, so both requests are waiting when the next token arrives
+		final FakeTicker ticker = new FakeTicker();
+		final ApiScheduler scheduler = new ApiScheduler(WINDOW, ticker);
+		drain(scheduler);
+		Thread low = startRequest(scheduler, ApiPriority.UPDATE_ORDER);
+		awaitWaiting(scheduler, ApiPriority.UPDATE_ORDER);
+		Thread high = startRequest(scheduler, ApiPriority.HAPPENINGS);
+		awaitWaiting(scheduler, ApiPriority.HAPPENINGS);
+		ticker.advance(getTokenInterval(scheduler));
+		high.join();
+		ticker.advance(getTokenInterval(scheduler));
+		low.join();
+		assertEquals(Arrays.asList(ApiPriority.HAPPENINGS.name(), ApiPriority.UPDATE_ORDER.name()), server.getServed());
+	}
+
+	@Test
+	public void quotaLimitsClass() throws IOException {
+		final FakeTicker ticker = new FakeTicker();
+		final ApiScheduler scheduler = new ApiScheduler(WINDOW, ticker);
+		drain(scheduler);
+		int granted = 0;
+		for (int i = 0; i < ApiPriority.UPDATE_ORDER.getQuota() + 1; i++) {
+			ticker.advance(getTokenInterval(scheduler));
+			if (scheduler.acquire(ApiPriority.UPDATE_ORDER, 0)) {
+				assertEquals(200, server.request(ApiPriority.UPDATE_ORDER));
+				granted++;
+			}
+		}
+		assertEquals(ApiPriority.UPDATE_ORDER.getQuota(), granted);
+		assertEquals(0, scheduler.getRemaining(ApiPriority.UPDATE_ORDER));
+		assertEquals(1L, getClassStatistics(scheduler, ApiPriority.UPDATE_ORDER).get("rejected"));
+		//Other classes are not limited by the quota, and the quota is restored in the next window
+		assertTrue(scheduler.acquire(ApiPriority.FLAGS, 0));
+		ticker.advance(WINDOW);
+		assertTrue(scheduler.acquire(ApiPriority.UPDATE_ORDER, 0));
+	}
+
+	@Test
+	public void timesOutWithoutToken() {
+		final ApiScheduler scheduler = new ApiScheduler(WINDOW, new FakeTicker());
+		drain(scheduler);
+		assertFalse(scheduler.acquire(ApiPriority.FLAGS, 0));
+		assertEquals(1L, getClassStatistics(scheduler, ApiPriority.FLAGS).get("rejected"));
+		assertEquals(0, server.getServed().size());
+	}
+
+	private static void drain(ApiScheduler scheduler) {
+		while (scheduler.acquire(ApiPriority.HAPPENINGS, 0)) { }
+	}
+
+	private static long getTokenInterval(ApiScheduler scheduler) {
+		return WINDOW / (Integer) scheduler.getStatistics().get("requests_per_window") + 1;
+	}
+
+	private Thread startRequest(final ApiScheduler scheduler, final ApiPriority priority) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if (scheduler.acquire(priority, 5000)) {
+						server.request(priority);
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		});
+		thread.start();
+		return thread;
+	}
+
+	private static void awaitWaiting(ApiScheduler scheduler, ApiPriority priority) throws InterruptedException {
+		while ((Integer) getClassStatistics(scheduler, priority).get("waiting") == 0) {
+			Thread.sleep(1);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getClassStatistics(ApiScheduler scheduler, ApiPriority priority) {
+		Map<String, Object> classes = (Map<String, Object>) scheduler.getStatistics().get("classes");
+		return (Map<String, Object>) classes.get(priority.name().toLowerCase());
+	}
+
+	/**
+	 * A time source which only moves when the test advances it
+	 */
+	private static class FakeTicker extends Ticker {
+		private final AtomicLong nanos = new AtomicLong();
+
+		@Override
+		public long read() {
+			return nanos.get();
+		}
+
+		public void advance(long millis) {
+			nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package net.nationstatesplusplus.assembly.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand in for the NationStates api. It answers every request with an empty happenings page, and enforces
+ * the api rate limit of 49 requests in any window, answering 429 like the real api once the limit is exceeded.
+ */
+public class FakeNationStatesServer {
+	public static final int RATE_LIMIT = 49;
+	private final HttpServer server;
+	private final long window;
+	private final Deque<Long> recent = new ArrayDeque<Long>();
+	private final List<String> served = Collections.synchronizedList(new ArrayList<String>());
+	private int rejected = 0;
+	public FakeNationStatesServer(long window) throws IOException {
+		this.window = window;
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.createContext("/cgi-bin/api.cgi", new ApiHandler());
+		this.server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+	}
+
+	/**
+	 * Makes a request to the server, tagged with the class of the request
+	 *
+	 * @param priority of the request
+	 * @return the response code
+	 * @throws IOException
+	 */
+	public int request(ApiPriority priority) throws IOException {
+		final URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/cgi-bin/api.cgi?q=happenings;class=" + priority.name());
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		try {
+			return conn.getResponseCode();
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	/**
+	 * The classes of the requests served, in the order they were served
+	 *
+	 * @return classes
+	 */
+	public List<String> getServed() {
+		synchronized (served) {
+			return new ArrayList<String>(served);
+		}
+	}
+
+	public synchronized int getRejected() {
+		return rejected;
+	}
+
+	private synchronized boolean allow() {
+		final long now = System.currentTimeMillis();
+		while (!recent.isEmpty() && recent.peekFirst() <= now - window) {
+			recent.pollFirst();
+		}
+		if (recent.size() >= RATE_LIMIT) {
+			rejected++;
+			return false;
+		}
+		recent.addLast(now);
+		return true;
+	}
+
+	private class ApiHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!allow()) {
+					exchange.getResponseHeaders().add("X-Retry-After", String.valueOf(window / 1000));
+					exchange.sendResponseHeaders(429, -1);
+					return;
+				}
+				final String query = exchange.getRequestURI().getQuery();
+				served.add(query.substring(query.indexOf("class=") + 6));
+				final byte[] body = "<WORLD><HAPPENINGS></HAPPENINGS></WORLD>".getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().add("Content-Type", "text/xml");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package net.nationstatesplusplus.assembly.endorsement;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.nationstatesplusplus.assembly.util.TestDatabase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Answers the endorsement queries of the WorldAssemblyController for random nations of a region with 5,000 World Assembly members,
+ * from the {@link EndorsementGraph} and from the database queries it replaced.
+ * </p><p>
+ * The database is an in-memory H2 database, without the network round trips and contention of MySQL.
+ * Run with <code>activator "test:runMain org.openjdk.jmh.Main EndorsementGraphBenchmark"</code>.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndorsementGraphBenchmark {
+	private TestDatabase database;
+	private WorldAssemblyFixture fixture;
+	private EndorsementGraph graph;
+	private Connection conn;
+
+	@Setup
+	public void createGraph() throws SQLException {
+		database = new TestDatabase();
+		fixture = new WorldAssemblyFixture(database, 5000, 29);
+		graph = new EndorsementGraph(database.getPool());
+		graph.reload();
+		conn = database.getPool().getConnection();
+	}
+
+	@TearDown
+	public void dropDatabase() throws SQLException {
+		conn.close();
+		database.close();
+	}
+
+	@Benchmark
+	public List<Member> graphWAMembers() {
+		return graph.getWAMembers(WorldAssemblyFixture.LARGE_REGION);
+	}
+
+	@Benchmark
+	public Map<String, Integer> databaseWAMembers() throws SQLException {
+		return WorldAssemblyFixture.getWAMembers(conn, WorldAssemblyFixture.LARGE_REGION);
+	}
+
+	@Benchmark
+	public List<Member> graphEndorsements() {
+		return graph.getEndorsements(fixture.getRandomNation());
+	}
+
+	@Benchmark
+	public List<String> databaseEndorsements() throws SQLException {
+		return WorldAssemblyFixture.getEndorsements(conn, fixture.getRandomNation());
+	}
+
+	@Benchmark
+	public List<Member> graphMissingEndorsements() {
+		return graph.getMissingEndorsements(fixture.getRandomNation());
+	}
+
+	@Benchmark
+	public List<String> databaseMissingEndorsements() throws SQLException {
+		return WorldAssemblyFixture.getMissingEndorsements(conn, fixture.getRandomNation());
+	}
+
+	@Benchmark
+	public List<Member> graphUnreturnedEndorsements() {
+		return graph.getUnreturnedEndorsements(fixture.getRandomNation());
+	}
+
+	@Benchmark
+	public List<String> databaseUnreturnedEndorsements() throws SQLException {
+		return WorldAssemblyFixture.getUnreturnedEndorsements(conn, fixture.getRandomNation());
+	}
+}
@@ -0,0 +1,142 @@
+package net.nationstatesplusplus.assembly.endorsement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.nationstatesplusplus.assembly.util.TestDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the answers of the {@link EndorsementGraph} against the database queries it replaced, for a region of 5,000 World Assembly
+ * members, after loading and after changes applied to both the graph and the database.
+ */
+public class EndorsementGraphTest {
+	private static final int SAMPLES = 50;
+	private TestDatabase database;
+	private WorldAssemblyFixture fixture;
+	private EndorsementGraph graph;
+
+	@Before
+	public void createGraph() throws SQLException {
+		database = new TestDatabase();
+		fixture = new WorldAssemblyFixture(database, 5000, 29);
+		graph = new EndorsementGraph(database.getPool());
+		graph.reload();
+	}
+
+	@After
+	public void dropDatabase() throws SQLException {
+		database.close();
+	}
+
+	@Test
+	public void matchesDatabaseAfterReload() throws SQLException {
+		assertMatchesDatabase();
+	}
+
+	@Test
+	public void matchesDatabaseAfterChanges() throws SQLException {
+		try (Connection conn = database.getPool().getConnection()) {
+			for (int i = 0; i < SAMPLES; i++) {
+				final int endorser = fixture.getRandomNation();
+				final int endorsed = fixture.getRandomNation();
+				if (endorser != endorsed && !isEndorsing(conn, endorser, endorsed)) {
+					update(conn, "INSERT INTO assembly.endorsements (endorser, endorsed) VALUES (?, ?)", endorser, endorsed);
+					graph.addEndorsement(endorser, endorsed);
+				}
+			}
+			for (int i = 0; i < SAMPLES; i++) {
+				final int endorser = fixture.getRandomNation();
+				final int endorsed = fixture.getRandomNation();
+				update(conn, "DELETE FROM assembly.endorsements WHERE endorser = ? AND endorsed = ?", endorser, endorsed);
+				graph.removeEndorsement(endorser, endorsed);
+			}
+			for (int i = 0; i < 20; i++) {
+				final int nation = fixture.getRandomNation();
+				update(conn, "UPDATE assembly.nation SET region = ?, wa_member = 2 WHERE id = ?", WorldAssemblyFixture.SMALL_REGION, nation);
+				graph.relocate(nation, WorldAssemblyFixture.SMALL_REGION);
+			}
+			for (int i = 0; i < 20; i++) {
+				final int nation = fixture.getRandomNation();
+				update(conn, "UPDATE assembly.nation SET wa_member = 0 WHERE id = ?", nation);
+				update(conn, "DELETE FROM assembly.endorsements WHERE endorser = ? OR endorsed = ?", nation, nation);
+				graph.setWAStatus(nation, 0);
+			}
+		}
+		assertMatchesDatabase();
+	}
+
+	@Test
+	public void unknownNations() {
+		assertNull(graph.getEndorsements(-1));
+		assertNull(graph.getMissingEndorsements(-1));
+		assertEquals(Collections.emptyList(), graph.getWAMembers(-1));
+	}
+
+	private void assertMatchesDatabase() throws SQLException {
+		try (Connection conn = database.getPool().getConnection()) {
+			for (int region : new int[] { WorldAssemblyFixture.LARGE_REGION, WorldAssemblyFixture.SMALL_REGION }) {
+				Map<String, Integer> members = new HashMap<String, Integer>();
+				for (Member member : graph.getWAMembers(region)) {
+					members.put(member.getTitle(), member.getEndorsements());
+				}
+				assertEquals(WorldAssemblyFixture.getWAMembers(conn, region), members);
+			}
+			for (int i = 0; i < SAMPLES; i++) {
+				final int nation = fixture.getRandomNation();
+				if (graph.getEndorsements(nation) == null) {
+					//Left the World Assembly, the controller falls back to the database
+					continue;
+				}
+				assertEquals(sorted(WorldAssemblyFixture.getEndorsements(conn, nation)), titles(graph.getEndorsements(nation)));
+				assertEquals(sorted(WorldAssemblyFixture.getMissingEndorsements(conn, nation)), titles(graph.getMissingEndorsements(nation)));
+				assertEquals(sorted(WorldAssemblyFixture.getUnreturnedEndorsements(conn, nation)), titles(graph.getUnreturnedEndorsements(nation)));
+			}
+		}
+	}
+
+	private static boolean isEndorsing(Connection conn, int endorser, int endorsed) throws SQLException {
+		try (PreparedStatement select = conn.prepareStatement("SELECT endorser FROM assembly.endorsements WHERE endorser = ? AND endorsed = ?")) {
+			select.setInt(1, endorser);
+			select.setInt(2, endorsed);
+			try (ResultSet result = select.executeQuery()) {
+				return result.next();
+			}
+		}
+	}
+
+	private static void update(Connection conn, String sql, int... parameters) throws SQLException {
+		try (PreparedStatement statement = conn.prepareStatement(sql)) {
+			for (int i = 0; i < parameters.length; i++) {
+				statement.setInt(i + 1, parameters[i]);
+			}
+			statement.executeUpdate();
+		}
+	}
+
+	private static List<String> titles(List<Member> members) {
+		List<String> titles = new ArrayList<String>(members.size());
+		for (Member member : members) {
+			titles.add(member.getTitle());
+		}
+		return sorted(titles);
+	}
+
+	private static List<String> sorted(List<String> titles) {
+		Collections.sort(titles);
+		return titles;
+	}
+}
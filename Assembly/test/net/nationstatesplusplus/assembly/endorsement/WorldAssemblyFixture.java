@@ -0,0 +1,164 @@
+package net.nationstatesplusplus.assembly.endorsement;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import net.nationstatesplusplus.assembly.util.TestDatabase;
+
+/**
+ * <p>
+ * A large World Assembly region and a small one, with random endorsements between the members of each region, and the endorsement
+ * queries the WorldAssemblyController falls back to when the {@link EndorsementGraph} can not answer.
+ * </p><p>
+ * Both regions also have nations which recently moved in (<code>wa_member = 2</code>), non-members and dead members.
+ * </p>
+ */
+public class WorldAssemblyFixture {
+	public static final int LARGE_REGION = 1;
+	public static final int SMALL_REGION = 2;
+	private final List<Integer> nations = new ArrayList<Integer>();
+	private final Random random;
+	private int count = 0;
+	public WorldAssemblyFixture(TestDatabase database, int members, long seed) throws SQLException {
+		this.random = new Random(seed);
+		try (Connection conn = database.getPool().getConnection()) {
+			conn.setAutoCommit(false);
+			addRegion(database, conn, LARGE_REGION, members);
+			addRegion(database, conn, SMALL_REGION, Math.max(10, members / 20));
+			conn.commit();
+			conn.setAutoCommit(true);
+		}
+	}
+
+	private void addRegion(TestDatabase database, Connection conn, int region, int members) throws SQLException {
+		List<Integer> wa = new ArrayList<Integer>(members);
+		for (int i = 0; i < members; i++) {
+			wa.add(addNation(database, conn, region, 1, true));
+		}
+		for (int i = 0; i < members / 100 + 1; i++) {
+			wa.add(addNation(database, conn, region, 2, true));
+			addNation(database, conn, region, 0, true);
+			addNation(database, conn, region, 1, false);
+		}
+		nations.addAll(wa);
+		try (PreparedStatement insert = conn.prepareStatement("INSERT INTO assembly.endorsements (endorser, endorsed) VALUES (?, ?)")) {
+			for (int endorser : wa) {
+				Set<Integer> endorsed = new HashSet<Integer>();
+				final int endorsements = random.nextInt(Math.min(60, wa.size()));
+				for (int i = 0; i < endorsements; i++) {
+					final int nation = wa.get(random.nextInt(wa.size()));
+					if (nation != endorser && endorsed.add(nation)) {
+						insert.setInt(1, endorser);
+						insert.setInt(2, nation);
+						insert.addBatch();
+					}
+				}
+			}
+			insert.executeBatch();
+		}
+	}
+
+	private int addNation(TestDatabase database, Connection conn, int region, int waMember, boolean alive) throws SQLException {
+		final int nation = ++count;
+		return database.addNation(conn, "nation_" + nation, "Nation " + nation, "The Republic of Nation " + nation, "//www.nationstates.net/images/flags/Default.png", region, waMember, alive);
+	}
+
+	/**
+	 * The living World Assembly nations of both regions, including those which recently moved
+	 *
+	 * @return nation ids
+	 */
+	public List<Integer> getNations() {
+		return Collections.unmodifiableList(nations);
+	}
+
+	/**
+	 * Returns a random living World Assembly nation
+	 *
+	 * @return nation id
+	 */
+	public int getRandomNation() {
+		return nations.get(random.nextInt(nations.size()));
+	}
+
+	/**
+	 * The titles of the World Assembly members of the region, with their endorsement counts. The controller groups by title
+	 * alone, which H2 rejects, and titles are unique here.
+	 */
+	public static Map<String, Integer> getWAMembers(Connection conn, int regionId) throws SQLException {
+		Map<String, Integer> members = new HashMap<String, Integer>();
+		try (PreparedStatement statement = conn.prepareStatement("SELECT title, influence, influence_desc, count(e.endorsed) AS endorsements from assembly.nation AS n LEFT OUTER JOIN assembly.endorsements AS e ON n.id = e.endorsed WHERE alive = 1 AND wa_member = 1 AND region = ? GROUP BY title, influence, influence_desc")) {
+			statement.setInt(1, regionId);
+			try (ResultSet result = statement.executeQuery()) {
+				while (result.next()) {
+					members.put(result.getString(1), result.getInt(4));
+				}
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * The titles of the nations the nation endorses
+	 */
+	public static List<String> getEndorsements(Connection conn, int nationId) throws SQLException {
+		List<String> titles = new ArrayList<String>();
+		try (PreparedStatement statement = conn.prepareStatement("SELECT n.title FROM assembly.nation AS n LEFT OUTER JOIN assembly.endorsements AS e ON n.id = e.endorsed WHERE e.endorser = ?")) {
+			statement.setInt(1, nationId);
+			try (ResultSet result = statement.executeQuery()) {
+				while (result.next()) {
+					titles.add(result.getString(1));
+				}
+			}
+		}
+		return titles;
+	}
+
+	/**
+	 * The titles of the World Assembly members of the nation's region it does not endorse
+	 */
+	public static List<String> getMissingEndorsements(Connection conn, int nationId) throws SQLException {
+		return difference(conn, nationId, "SELECT endorsed FROM assembly.endorsements WHERE endorser = ?");
+	}
+
+	/**
+	 * The titles of the World Assembly members of the nation's region which do not endorse it
+	 */
+	public static List<String> getUnreturnedEndorsements(Connection conn, int nationId) throws SQLException {
+		return difference(conn, nationId, "SELECT endorser FROM assembly.endorsements WHERE endorsed = ?");
+	}
+
+	private static List<String> difference(Connection conn, int nationId, String exclude) throws SQLException {
+		Set<Integer> endorsements = new HashSet<Integer>();
+		try (PreparedStatement statement = conn.prepareStatement(exclude)) {
+			statement.setInt(1, nationId);
+			try (ResultSet result = statement.executeQuery()) {
+				while (result.next()) {
+					endorsements.add(result.getInt(1));
+				}
+			}
+		}
+		List<String> titles = new ArrayList<String>();
+		try (PreparedStatement statement = conn.prepareStatement("SELECT id, title FROM assembly.nation WHERE alive = 1 AND wa_member = 1 AND region = (SELECT region FROM assembly.nation WHERE id = ?)")) {
+			statement.setInt(1, nationId);
+			try (ResultSet result = statement.executeQuery()) {
+				while (result.next()) {
+					if (!endorsements.contains(result.getInt(1)) && result.getInt(1) != nationId) {
+						titles.add(result.getString(2));
+					}
+				}
+			}
+		}
+		return titles;
+	}
+}
@@ -0,0 +1,77 @@
+package net.nationstatesplusplus.assembly.happenings;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import net.nationstatesplusplus.assembly.nation.NationDisplayCache;
+import net.nationstatesplusplus.assembly.util.TestDatabase;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <p>
+ * Formats a page of {@link RecordedHappenings} with the legacy formatting, one query per nation and a rescan per token, and with
+ * the {@link HappeningFormatter}, with a cold and a warm nation cache.
+ * </p><p>
+ * The database is an in-memory H2 database, so each query costs far less than a round trip to MySQL and the legacy formatting
+ * is slower in production than measured here. Run with <code>activator "test:runMain org.openjdk.jmh.Main HappeningFormatterBenchmark"</code>.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HappeningFormatterBenchmark {
+	private TestDatabase database;
+	private Connection conn;
+	private HappeningFormatter warm;
+
+	@Setup
+	public void createDatabase() throws SQLException {
+		database = new TestDatabase();
+		RecordedHappenings.addNations(database);
+		conn = database.getPool().getConnection();
+		warm = new HappeningFormatter(new NationDisplayCache(database.getPool(), 1000));
+		warm.formatAll(conn, RecordedHappenings.HAPPENINGS, "");
+	}
+
+	@TearDown
+	public void dropDatabase() throws SQLException {
+		conn.close();
+		database.close();
+	}
+
+	@Benchmark
+	public List<String> legacy() throws SQLException {
+		List<String> formatted = new ArrayList<String>(RecordedHappenings.HAPPENINGS.size());
+		for (String happening : RecordedHappenings.HAPPENINGS) {
+			formatted.add(LegacyHappeningFormatter.formatHappeningText(happening, conn, ""));
+		}
+		return formatted;
+	}
+
+	@Benchmark
+	public List<String> coldCache() throws SQLException {
+		return new HappeningFormatter(new NationDisplayCache(database.getPool(), 1000)).formatAll(conn, RecordedHappenings.HAPPENINGS, "");
+	}
+
+	@Benchmark
+	public List<String> warmCache() throws SQLException {
+		return warm.formatAll(conn, RecordedHappenings.HAPPENINGS, "");
+	}
+}
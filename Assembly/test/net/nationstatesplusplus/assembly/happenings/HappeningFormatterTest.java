@@ -0,0 +1,76 @@
+package net.nationstatesplusplus.assembly.happenings;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import net.nationstatesplusplus.assembly.nation.NationDisplayCache;
+import net.nationstatesplusplus.assembly.util.TestDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HappeningFormatterTest {
+	private TestDatabase database;
+	private HappeningFormatter formatter;
+
+	@Before
+	public void createDatabase() throws SQLException {
+		database = new TestDatabase();
+		RecordedHappenings.addNations(database);
+		formatter = new HappeningFormatter(new NationDisplayCache(database.getPool(), 100));
+	}
+
+	@After
+	public void dropDatabase() throws SQLException {
+		database.close();
+	}
+
+	@Test
+	public void matchesLegacyFormatting() throws SQLException {
+		try (Connection conn = database.getPool().getConnection()) {
+			for (String owner : Arrays.asList("", "testlandia", "dollar_sign")) {
+				List<String> formatted = formatter.formatAll(conn, RecordedHappenings.HAPPENINGS, owner);
+				for (int i = 0; i < formatted.size(); i++) {
+					final String happening = RecordedHappenings.HAPPENINGS.get(i);
+					assertEquals(happening, LegacyHappeningFormatter.formatHappeningText(happening, conn, owner), formatted.get(i));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void insertsTitlesLiterally() throws SQLException {
+		try (Connection conn = database.getPool().getConnection()) {
+			assertEquals("<a href=\"//www.nationstates.net/nation=dollar_sign\"><img src=\"//www.nationstates.net/images/flags/uploads/dollar_sign.png\" class=\"miniflag\" alt=\"\" "
+					+ "title=\"The Republic of $1 Dollar \\ Sign\">$1 Dollar \\ Sign</a> moved $2 \\1", formatter.format(conn, "@@dollar_sign@@ moved $2 \\1", "dollar_sign"));
+		}
+	}
+
+	@Test
+	public void formatsDeadAndUnknownNations() throws SQLException {
+		try (Connection conn = database.getPool().getConnection()) {
+			assertEquals("The Fallen Empire of Old Empire endorsed <a href=\"//www.nationstates.net/nation=unknown_nation\">Unknown Nation</a>.",
+					formatter.format(conn, "@@old_empire@@ endorsed @@unknown_nation@@.", ""));
+		}
+	}
+
+	/**
+	 * A token runs to the last closing delimiter before whitespace, like the greedy patterns. The legacy formatting rescanned
+	 * its own replacements, which still contain the delimiters of such names, so these are compared to the expected html
+	 * instead.
+	 */
+	@Test
+	public void greedyTokens() throws SQLException {
+		assertEquals(Arrays.asList("a@@b", "testlandia"), HappeningFormatter.getMentionedNations("@@a@@b@@ endorsed @@testlandia@@."));
+		try (Connection conn = database.getPool().getConnection()) {
+			assertEquals("<a href=\"//www.nationstates.net/nation=a@@b\">A@@b</a> left <a href=\"//www.nationstates.net/region=x%%y\">X%%y</a>",
+					formatter.format(conn, "@@a@@b@@ left %%x%%y%%", ""));
+			assertEquals("@@ <a href=\"//www.nationstates.net/region=a%%\">A%%</a> ##", formatter.format(conn, "@@ %%a%%%% ##", ""));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package net.nationstatesplusplus.assembly.happenings;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.regex.Matcher;
+
+import net.nationstatesplusplus.assembly.util.Utils;
+
+import org.apache.commons.dbutils.DbUtils;
+
+/**
+ * The happening formatting which {@link HappeningFormatter} replaced, <code>Utils.formatHappeningText</code> and
+ * <code>Utils.formatFullName</code>, kept as the reference for the parity tests and the benchmark. Each token is replaced with
+ * <code>replaceFirst</code>, rescanning the whole text, and each nation is looked up with its own query.
+ * <p>
+ * The only change is that replacements are quoted with {@link Matcher#quoteReplacement(String)}. The original passed them
+ * unquoted, so a <code>$</code> or <code>\</code> in a nation's title or full name was read as a group reference and threw.
+ * </p>
+ */
+public class LegacyHappeningFormatter {
+	public static String formatHappeningText(String text, Connection conn, String owner) throws SQLException {
+		do {
+			Matcher match = Utils.NATION_PATTERN.matcher(text);
+			if (match.find()) {
+				String nation = text.substring(match.start() + 2, match.end() - 2);
+				String replacement = formatFullName(nation, conn, !owner.equals(nation));
+				text = match.replaceFirst(Matcher.quoteReplacement(replacement));
+			} else {
+				break;
+			}
+		} while (true);
+
+		do {
+			Matcher match = Utils.REGION_PATTERN.matcher(text);
+			if (match.find()) {
+				String region = text.substring(match.start() + 2, match.end() - 2);
+				String replacement = "<a href=\"//www.nationstates.net/region=" + region + "\">" + Utils.formatName(region) + "</a>";
+				text = match.replaceFirst(Matcher.quoteReplacement(replacement));
+			} else {
+				break;
+			}
+		} while (true);
+
+		do {
+			Matcher match = Utils.RMB_PATTERN.matcher(text);
+			if (match.find()) {
+				String region = text.substring(match.start() + 2, match.end() - 2);
+				String replacement = "<a href=\"//www.nationstates.net/region=" + region + "#rmb\">Regional Message Board</a>";
+				text = match.replaceFirst(Matcher.quoteReplacement(replacement));
+			} else {
+				break;
+			}
+		} while (true);
+
+		return text;
+	}
+
+	public static String formatFullName(String nation, Connection conn, boolean fullName) throws SQLException {
+		PreparedStatement statement = null;
+		ResultSet result = null;
+		try {
+			statement = conn.prepareStatement("SELECT full_name, flag, alive, title from assembly.nation WHERE name = ?");
+			statement.setString(1, Utils.sanitizeName(nation));
+			result = statement.executeQuery();
+			if (result.next()) {
+				//Dead, return just full title
+				if (result.getByte(3) != 1) {
+					return result.getString(1);
+				} else {
+					return "<a href=\"//www.nationstates.net/nation=" + nation + "\"><img src=\"" + result.getString(2) + "\" class=\"miniflag\" alt=\"\" title=\"" + result.getString(1) + "\">" + (fullName ? result.getString(1) : result.getString(4)) + "</a>";
+				}
+			}
+			return Utils.formatNationLink(nation);
+		} finally {
+			DbUtils.closeQuietly(result);
+			DbUtils.closeQuietly(statement);
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package net.nationstatesplusplus.assembly.happenings;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import net.nationstatesplusplus.assembly.util.TestDatabase;
+
+/**
+ * Happenings recorded from the NationStates api, and the nations they mention, for the formatter tests and benchmark.
+ * One nation has a <code>$</code> and a <code>\</code> in its title and full name, one has ceased to exist and one was never
+ * recorded in the database.
+ */
+public class RecordedHappenings {
+	private static final String FLAG = "//www.nationstates.net/images/flags/uploads/";
+	/**
+	 * name, title, full name, alive
+	 */
+	private static final String[][] NATIONS = {
+		{"testlandia", "Testlandia", "The Hive Mind of Testlandia", "1"},
+		{"maxtopia", "Maxtopia", "The Empire of Maxtopia", "1"},
+		{"glen-rhodes", "Glen-Rhodes", "The Democratic Republic of Glen-Rhodes", "1"},
+		{"the_north_pacific_delegate", "The North Pacific Delegate", "The Serene Republic of The North Pacific Delegate", "1"},
+		{"dollar_sign", "$1 Dollar \\ Sign", "The Republic of $1 Dollar \\ Sign", "1"},
+		{"old_empire", "Old Empire", "The Fallen Empire of Old Empire", "0"},
+	};
+	public static final List<String> HAPPENINGS = Collections.unmodifiableList(Arrays.asList(
+		"@@testlandia@@ relocated from %%the_north_pacific%% to %%the_pacific%%.",
+		"@@maxtopia@@ endorsed @@testlandia@@.",
+		"@@glen-rhodes@@ withdrew its endorsement from @@maxtopia@@.",
+		"@@the_north_pacific_delegate@@ was admitted to the World Assembly.",
+		"@@testlandia@@ lodged a message on the ##the_pacific## .",
+		"@@maxtopia@@ changed its national motto to \"Peace through superior firepower\".",
+		"@@glen-rhodes@@ was reclassified from \"Iron Fist Consumerists\" to \"Corporate Bordello\".",
+		"@@old_empire@@ ceased to exist in %%lazarus%%.",
+		"@@unknown_nation@@ was founded in %%the_rejected_realms%%.",
+		"Following new legislation in @@dollar_sign@@, taxes are now $5 per \\ citizen.",
+		"@@dollar_sign@@ endorsed @@the_north_pacific_delegate@@.",
+		"@@Testlandia@@ voted for the World Assembly Resolution \"Repeal: Freedom of Assembly\".",
+		"@@maxtopia@@ was ejected and banned from %%10000_islands%% by @@testlandia@@.",
+		"@@glen-rhodes@@ altered its national flag.",
+		"@@the_north_pacific_delegate@@ became WA Delegate of %%the_north_pacific%%.",
+		"The World Assembly Resolution \"Rights and Duties of WA States\" was passed 12,345 votes to 678.",
+		"@@old_empire@@ withdrew its endorsement from @@dollar_sign@@.",
+		"@@testlandia@@ endorsed @@maxtopia@@, @@glen-rhodes@@ and @@the_north_pacific_delegate@@.",
+		"@@maxtopia@@ posted a dispatch, \"Nations of %%the_pacific%%, unite!\".",
+		"@@unknown_nation@@ relocated from %%lazarus%% to %%osiris%%."
+	));
+
+	/**
+	 * Inserts the nations mentioned in the happenings
+	 *
+	 * @param database to insert into
+	 * @throws SQLException
+	 */
+	public static void addNations(TestDatabase database) throws SQLException {
+		try (Connection conn = database.getPool().getConnection()) {
+			for (String[] nation : NATIONS) {
+				database.addNation(conn, nation[0], nation[1], nation[2], FLAG + nation[0] + ".png", 1, 0, nation[3].equals("1"));
+			}
+		}
+	}
+}
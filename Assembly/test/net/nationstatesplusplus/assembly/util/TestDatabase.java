@@ -0,0 +1,188 @@
+package net.nationstatesplusplus.assembly.util;
+
+import java.beans.PropertyVetoException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+
+/**
+ * <p>
+ * An in-memory H2 database in MySQL mode holding the <code>assembly.nation</code> and <code>assembly.endorsements</code> tables,
+ * behind a c3p0 pool like the production database.
+ * </p><p>
+ * The pool connects through a driver which ignores the MySQL streaming hint, <code>setFetchSize(Integer.MIN_VALUE)</code>,
+ * which H2 rejects as an invalid fetch size.
+ * </p>
+ */
+public class TestDatabase implements AutoCloseable {
+	private static final String PREFIX = "jdbc:assembly-test:";
+	private static final AtomicInteger DATABASE_COUNT = new AtomicInteger(0);
+	private static final String[] SCHEMA = {
+		"CREATE SCHEMA IF NOT EXISTS assembly",
+		"CREATE TABLE assembly.nation (id INT AUTO_INCREMENT PRIMARY KEY, name VARCHAR(64) NOT NULL, title VARCHAR(128), full_name VARCHAR(256), flag VARCHAR(256), "
+			+ "region INT NOT NULL DEFAULT -1, influence INT NOT NULL DEFAULT 0, influence_desc VARCHAR(64), wa_member TINYINT NOT NULL DEFAULT 0, alive TINYINT NOT NULL DEFAULT 1)",
+		"CREATE INDEX nation_name ON assembly.nation (name)",
+		"CREATE TABLE assembly.endorsements (endorser INT NOT NULL, endorsed INT NOT NULL)",
+		"CREATE INDEX endorsements_endorser ON assembly.endorsements (endorser)",
+		"CREATE INDEX endorsements_endorsed ON assembly.endorsements (endorsed)",
+	};
+	static {
+		try {
+			DriverManager.registerDriver(new StreamingHintDriver());
+		} catch (SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final ComboPooledDataSource pool;
+	public TestDatabase() throws SQLException {
+		pool = new ComboPooledDataSource();
+		try {
+			pool.setDriverClass(StreamingHintDriver.class.getName());
+		} catch (PropertyVetoException e) {
+			throw new SQLException(e);
+		}
+		pool.setJdbcUrl(PREFIX + "mem:assembly" + DATABASE_COUNT.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+		pool.setMinPoolSize(1);
+		pool.setMaxPoolSize(4);
+		try (Connection conn = pool.getConnection()) {
+			try (Statement statement = conn.createStatement()) {
+				for (String sql : SCHEMA) {
+					statement.execute(sql);
+				}
+			}
+		}
+	}
+
+	public ComboPooledDataSource getPool() {
+		return pool;
+	}
+
+	/**
+	 * Inserts a nation
+	 *
+	 * @return id of the nation
+	 * @throws SQLException
+	 */
+	public int addNation(Connection conn, String name, String title, String fullName, String flag, int region, int waMember, boolean alive) throws SQLException {
+		try (PreparedStatement insert = conn.prepareStatement("INSERT INTO assembly.nation (name, title, full_name, flag, region, influence, influence_desc, wa_member, alive) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+			insert.setString(1, name);
+			insert.setString(2, title);
+			insert.setString(3, fullName);
+			insert.setString(4, flag);
+			insert.setInt(5, region);
+			insert.setInt(6, name.length() * 10);
+			insert.setString(7, "Zero");
+			insert.setInt(8, waMember);
+			insert.setByte(9, (byte) (alive ? 1 : 0));
+			insert.executeUpdate();
+			try (ResultSet keys = insert.getGeneratedKeys()) {
+				keys.next();
+				return keys.getInt(1);
+			}
+		}
+	}
+
+	/**
+	 * Drops the database and closes the pool
+	 */
+	@Override
+	public void close() throws SQLException {
+		try (Connection conn = pool.getConnection()) {
+			try (Statement statement = conn.createStatement()) {
+				statement.execute("SHUTDOWN");
+			}
+		} finally {
+			pool.close();
+		}
+	}
+
+	/**
+	 * Connects to H2 for <code>jdbc:assembly-test:</code> urls, and ignores negative fetch sizes on its statements
+	 */
+	public static class StreamingHintDriver implements java.sql.Driver {
+		@Override
+		public Connection connect(String url, Properties info) throws SQLException {
+			if (!acceptsURL(url)) {
+				return null;
+			}
+			final Connection conn = DriverManager.getConnection("jdbc:h2:" + url.substring(PREFIX.length()), info);
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					final Object result = forward(conn, method, args);
+					if (result instanceof PreparedStatement) {
+						return wrap((PreparedStatement) result, PreparedStatement.class);
+					} else if (result instanceof Statement) {
+						return wrap((Statement) result, Statement.class);
+					}
+					return result;
+				}
+			});
+		}
+
+		private static <T extends Statement> T wrap(final T statement, Class<T> type) {
+			return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (method.getName().equals("setFetchSize") && (Integer) args[0] < 0) {
+						return null;
+					}
+					return forward(statement, method, args);
+				}
+			}));
+		}
+
+		private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		@Override
+		public boolean acceptsURL(String url) {
+			return url != null && url.startsWith(PREFIX);
+		}
+
+		@Override
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+			return new DriverPropertyInfo[0];
+		}
+
+		@Override
+		public int getMajorVersion() {
+			return 1;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		@Override
+		public boolean jdbcCompliant() {
+			return false;
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+	}
+}